@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.experiment.agent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.math.stat.descriptive.StatisticalSummary;
+
+/**
+ * A histogram of durations (in nanoseconds) that can be recorded into
+ * concurrently without locking. The buckets are log-linear: each power of two
+ * is divided into 32 linearly spaced buckets, so any value is represented with
+ * a relative error of at most about 3%, and the full range of positive longs
+ * fits into a fixed number of buckets.
+ * <p>
+ * As well as the bucket counts, the exact sum, sum of squares, minimum and
+ * maximum are maintained, so the mean and standard deviation are exact;
+ * percentiles are computed from the buckets. The histogram can be drained into
+ * another with {@link #drainTo(LatencyHistogram)} whilst other threads are
+ * still recording; each value is then counted in either the drained copy or
+ * the remaining histogram, although a value recorded at the same moment might
+ * have its count and its sum split between the two.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class LatencyHistogram implements StatisticalSummary {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong sumSq = new AtomicLong(Double.doubleToLongBits(0));
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT)
+			return (int) value;
+
+		final int exp = 63 - Long.numberOfLeadingZeros(value);
+		final int sub = (int) ((value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1));
+
+		return ((exp - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + sub;
+	}
+
+	static long lowestValue(int index) {
+		if (index < SUB_BUCKET_COUNT)
+			return index;
+
+		final int group = index >>> SUB_BUCKET_BITS;
+		final int sub = index & (SUB_BUCKET_COUNT - 1);
+
+		return (long) (SUB_BUCKET_COUNT + sub) << (group - 1);
+	}
+
+	static long highestValue(int index) {
+		if (index < SUB_BUCKET_COUNT)
+			return index;
+
+		return lowestValue(index) + (1L << ((index >>> SUB_BUCKET_BITS) - 1)) - 1;
+	}
+
+	/**
+	 * Record a duration. Negative durations are recorded as zero.
+	 * 
+	 * @param nanoTime
+	 *            the duration in nanoseconds
+	 */
+	public void record(long nanoTime) {
+		final long value = Math.max(0, nanoTime);
+
+		counts.incrementAndGet(bucketIndex(value));
+		sum.addAndGet(value);
+		addSq((double) value * value);
+		updateMin(value);
+		updateMax(value);
+	}
+
+	private void addSq(double value) {
+		long current;
+		do {
+			current = sumSq.get();
+		} while (!sumSq.compareAndSet(current, Double.doubleToLongBits(Double.longBitsToDouble(current) + value)));
+	}
+
+	private void updateMin(long value) {
+		long current;
+		while (value < (current = min.get()) && !min.compareAndSet(current, value))
+			;
+	}
+
+	private void updateMax(long value) {
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value))
+			;
+	}
+
+	/**
+	 * Add all the values recorded in another histogram to this one.
+	 * 
+	 * @param other
+	 *            the histogram to add
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			final long c = other.counts.get(i);
+			if (c != 0)
+				counts.addAndGet(i, c);
+		}
+		sum.addAndGet(other.sum.get());
+		addSq(Double.longBitsToDouble(other.sumSq.get()));
+		updateMin(other.min.get());
+		updateMax(other.max.get());
+	}
+
+	/**
+	 * Move all the values recorded in this histogram into another one,
+	 * resetting this histogram. Other threads can continue to record into this
+	 * histogram whilst it is being drained.
+	 * 
+	 * @param target
+	 *            the histogram to add the values to
+	 */
+	public void drainTo(LatencyHistogram target) {
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			if (counts.get(i) != 0)
+				target.counts.addAndGet(i, counts.getAndSet(i, 0));
+		}
+		target.sum.addAndGet(sum.getAndSet(0));
+		target.addSq(Double.longBitsToDouble(sumSq.getAndSet(Double.doubleToLongBits(0))));
+		target.updateMin(min.getAndSet(Long.MAX_VALUE));
+		target.updateMax(max.getAndSet(Long.MIN_VALUE));
+	}
+
+	/**
+	 * Create a copy of this histogram.
+	 * 
+	 * @return a copy
+	 */
+	public LatencyHistogram copy() {
+		final LatencyHistogram copy = new LatencyHistogram();
+		copy.add(this);
+		return copy;
+	}
+
+	/**
+	 * Get the value at the given percentile. The returned value is the upper
+	 * end of the bucket containing the percentile (limited by the maximum
+	 * recorded value).
+	 * 
+	 * @param percentile
+	 *            the percentile (between 0 and 100)
+	 * @return the value at the percentile, or NaN if nothing has been
+	 *         recorded.
+	 */
+	public double getPercentile(double percentile) {
+		final long[] snapshot = new long[NUM_BUCKETS];
+		long n = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++)
+			n += (snapshot[i] = counts.get(i));
+
+		if (n == 0)
+			return Double.NaN;
+
+		final long rank = Math.max(1, (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100));
+		long seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank)
+				return Math.min(highestValue(i), max.get());
+		}
+
+		return max.get();
+	}
+
+	@Override
+	public long getN() {
+		long n = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++)
+			n += counts.get(i);
+		return n;
+	}
+
+	@Override
+	public double getSum() {
+		return sum.get();
+	}
+
+	@Override
+	public double getMean() {
+		final long n = getN();
+		return n == 0 ? Double.NaN : (double) sum.get() / n;
+	}
+
+	@Override
+	public double getVariance() {
+		final long n = getN();
+
+		if (n == 0)
+			return Double.NaN;
+		if (n == 1)
+			return 0;
+
+		final double s = sum.get();
+		final double var = (Double.longBitsToDouble(sumSq.get()) - s * s / n) / (n - 1);
+		return Math.max(0, var);
+	}
+
+	@Override
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	@Override
+	public double getMax() {
+		final long m = max.get();
+		return m == Long.MIN_VALUE ? Double.NaN : m;
+	}
+
+	@Override
+	public double getMin() {
+		final long m = min.get();
+		return m == Long.MAX_VALUE ? Double.NaN : m;
+	}
+}
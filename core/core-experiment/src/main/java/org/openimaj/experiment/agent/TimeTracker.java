@@ -29,124 +29,369 @@
  */
 package org.openimaj.experiment.agent;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-import org.apache.commons.math.stat.descriptive.SummaryStatistics;
+import org.apache.commons.math.stat.descriptive.StatisticalSummary;
 import org.openimaj.time.NanoTimer;
 import org.openimaj.time.Timer;
 
 import com.bethecoder.ascii_table.ASCIITable;
 
 /**
- * A class for tracking various execution times and generating
- * statistics.
+ * A class for tracking various execution times and generating statistics.
+ * <p>
+ * Recording a time never takes a lock: each identifier has a set of
+ * {@link LatencyHistogram}s (stripes), and threads record into the stripe
+ * selected by their thread id, so contention between threads timing the same
+ * code is low. The accumulated times can be read with {@link #getTimes()} or
+ * snapshot and reset with {@link #reset()} at any point, even whilst other
+ * threads are still recording.
  * 
  * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
  */
 public class TimeTracker {
-	private static Map<String, SummaryStatistics> times = new HashMap<String, SummaryStatistics>();
-	
+	private static final int NUM_STRIPES = nextPowerOfTwo(2 * Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * The striped histograms for a single identifier
+	 */
+	private static class Recorder {
+		final AtomicReferenceArray<LatencyHistogram> stripes = new AtomicReferenceArray<LatencyHistogram>(NUM_STRIPES);
+
+		LatencyHistogram stripe() {
+			final int idx = (int) (Thread.currentThread().getId() & (NUM_STRIPES - 1));
+
+			LatencyHistogram h = stripes.get(idx);
+			if (h == null) {
+				stripes.compareAndSet(idx, null, new LatencyHistogram());
+				h = stripes.get(idx);
+			}
+			return h;
+		}
+
+		LatencyHistogram snapshot() {
+			final LatencyHistogram total = new LatencyHistogram();
+			for (int i = 0; i < NUM_STRIPES; i++) {
+				final LatencyHistogram h = stripes.get(i);
+				if (h != null)
+					total.add(h);
+			}
+			return total;
+		}
+
+		LatencyHistogram drain() {
+			final LatencyHistogram total = new LatencyHistogram();
+			for (int i = 0; i < NUM_STRIPES; i++) {
+				final LatencyHistogram h = stripes.get(i);
+				if (h != null)
+					h.drainTo(total);
+			}
+			return total;
+		}
+
+		boolean isEmpty() {
+			for (int i = 0; i < NUM_STRIPES; i++) {
+				final LatencyHistogram h = stripes.get(i);
+				if (h != null && h.getN() != 0)
+					return false;
+			}
+			return true;
+		}
+	}
+
+	private static final ConcurrentMap<String, Recorder> times = new ConcurrentHashMap<String, Recorder>();
+
+	private static int nextPowerOfTwo(int n) {
+		return Integer.highestOneBit(Math.max(1, n - 1)) << 1;
+	}
+
+	private static Recorder recorder(String identifier) {
+		Recorder r = times.get(identifier);
+
+		if (r == null) {
+			final Recorder nr = new Recorder();
+			r = times.putIfAbsent(identifier, nr);
+			if (r == null)
+				r = nr;
+		}
+
+		return r;
+	}
+
 	/**
-	 * Accumulate the given duration into the statistics with the given identifier
+	 * Accumulate the given duration into the statistics with the given
+	 * identifier
 	 * 
-	 * @param identifier the identifier
-	 * @param timer the timer to retrieve the dureation from
+	 * @param identifier
+	 *            the identifier
+	 * @param timer
+	 *            the timer to retrieve the dureation from
 	 */
-	public static synchronized void accumulate(String identifier, NanoTimer timer) {
+	public static void accumulate(String identifier, NanoTimer timer) {
 		accumulate(identifier, timer.duration());
 	}
-	
+
 	/**
-	 * Accumulate the given duration into the statistics with the given identifier
+	 * Accumulate the given duration into the statistics with the given
+	 * identifier
 	 * 
-	 * @param identifier the identifier
-	 * @param timer the timer to retrieve the dureation from
+	 * @param identifier
+	 *            the identifier
+	 * @param timer
+	 *            the timer to retrieve the dureation from
 	 */
-	public static synchronized void accumulate(String identifier, Timer timer) {
-		accumulate(identifier, (long)(timer.duration() * 1e6));
+	public static void accumulate(String identifier, Timer timer) {
+		accumulate(identifier, (long) (timer.duration() * 1e6));
 	}
-	
+
 	/**
-	 * Accumulate the given duration into the statistics with the given identifier
+	 * Accumulate the given duration into the statistics with the given
+	 * identifier
 	 * 
-	 * @param identifier the identifier
-	 * @param nanoTime the duration to accumulate in nano seconds
+	 * @param identifier
+	 *            the identifier
+	 * @param nanoTime
+	 *            the duration to accumulate in nano seconds
 	 */
-	public static synchronized void accumulate(String identifier, long nanoTime) {
-		SummaryStatistics t = times.get(identifier);
-		
-		if (t == null) times.put(identifier, t = new SummaryStatistics());
-		
-		t.addValue(nanoTime);
+	public static void accumulate(String identifier, long nanoTime) {
+		recorder(identifier).stripe().record(nanoTime);
 	}
-	
+
 	/**
-	 * Reset all the previously accumulated times, returning them.
+	 * Reset all the previously accumulated times, returning them. Times
+	 * recorded concurrently with the reset will end up in either the returned
+	 * map or the internal state, but will not be lost.
+	 * 
 	 * @return the old times
 	 */
-	public static synchronized Map<String, SummaryStatistics> reset() {
-		Map<String, SummaryStatistics> oldTimes = times;
-		times = new HashMap<String, SummaryStatistics>();
+	public static Map<String, LatencyHistogram> reset() {
+		final Map<String, LatencyHistogram> oldTimes = new HashMap<String, LatencyHistogram>();
+
+		for (final Entry<String, Recorder> e : times.entrySet()) {
+			final LatencyHistogram h = e.getValue().drain();
+
+			if (h.getN() != 0)
+				oldTimes.put(e.getKey(), h);
+		}
+
 		return oldTimes;
 	}
-	
+
 	/**
 	 * Get a copy of all the accumulated data
+	 * 
 	 * @return a copy of all the accumulated data
 	 */
-	public static synchronized Map<String, SummaryStatistics> getTimes() {
-		HashMap<String, SummaryStatistics> ret = new HashMap<String, SummaryStatistics>();
-		
-		for (Entry<String, SummaryStatistics> e : times.entrySet()) {
-			ret.put(e.getKey(), e.getValue().copy());
+	public static Map<String, LatencyHistogram> getTimes() {
+		final Map<String, LatencyHistogram> ret = new HashMap<String, LatencyHistogram>();
+
+		for (final Entry<String, Recorder> e : times.entrySet()) {
+			final LatencyHistogram h = e.getValue().snapshot();
+
+			if (h.getN() != 0)
+				ret.put(e.getKey(), h);
 		}
-		
+
 		return ret;
 	}
 
 	/**
-	 * Add any times from the given map that are not present in the
-	 * internal map to the internal map.
+	 * Add any times from the given map that are not present in the internal
+	 * map to the internal map.
 	 * 
-	 * @param timesToAdd the times to add
+	 * @param timesToAdd
+	 *            the times to add
 	 */
-	public static void addMissing(Map<String, SummaryStatistics> timesToAdd) {
-		for (Entry<String, SummaryStatistics> e : timesToAdd.entrySet()) {
-			if (!times.containsKey(e.getValue()))
-				times.put(e.getKey(), e.getValue());
+	public static void addMissing(Map<String, LatencyHistogram> timesToAdd) {
+		for (final Entry<String, LatencyHistogram> e : timesToAdd.entrySet()) {
+			final Recorder r = recorder(e.getKey());
+
+			if (r.isEmpty())
+				r.stripe().add(e.getValue());
 		}
 	}
-	
+
+	/**
+	 * Write a map of times as CSV. Each row contains the identifier, the
+	 * number of recorded times, the mean, standard deviation and minimum, and
+	 * (for {@link LatencyHistogram}s) the 50th, 99th and 99.9th percentiles,
+	 * followed by the maximum. All times are in nanoseconds.
+	 * 
+	 * @param times
+	 *            the times
+	 * @param writer
+	 *            the writer to write to
+	 * @throws IOException
+	 *             if an error occurs writing
+	 */
+	public static void writeCSV(Map<String, ? extends StatisticalSummary> times, Writer writer) throws IOException {
+		writer.write("identifier,count,mean,sd,min,p50,p99,p999,max\n");
+
+		for (final Entry<String, ? extends StatisticalSummary> e : new TreeMap<String, StatisticalSummary>(times)
+				.entrySet())
+		{
+			final StatisticalSummary ss = e.getValue();
+			final double[] pc = percentiles(ss);
+
+			writer.write("\"" + e.getKey().replace("\"", "\"\"") + "\"");
+			writer.write("," + ss.getN());
+			writer.write("," + number(ss.getMean()));
+			writer.write("," + number(ss.getStandardDeviation()));
+			writer.write("," + number(ss.getMin()));
+			writer.write("," + number(pc[0]));
+			writer.write("," + number(pc[1]));
+			writer.write("," + number(pc[2]));
+			writer.write("," + number(ss.getMax()));
+			writer.write("\n");
+		}
+
+		writer.flush();
+	}
+
+	/**
+	 * Write a map of times as a JSON object. Each identifier maps to an object
+	 * with the same fields as the columns written by
+	 * {@link #writeCSV(Map, Writer)}; unavailable values are written as
+	 * <code>null</code>. All times are in nanoseconds.
+	 * 
+	 * @param times
+	 *            the times
+	 * @param writer
+	 *            the writer to write to
+	 * @throws IOException
+	 *             if an error occurs writing
+	 */
+	public static void writeJSON(Map<String, ? extends StatisticalSummary> times, Writer writer) throws IOException {
+		writer.write("{");
+
+		boolean first = true;
+		for (final Entry<String, ? extends StatisticalSummary> e : new TreeMap<String, StatisticalSummary>(times)
+				.entrySet())
+		{
+			final StatisticalSummary ss = e.getValue();
+			final double[] pc = percentiles(ss);
+
+			if (!first)
+				writer.write(",");
+			first = false;
+
+			writer.write("\n  " + jsonString(e.getKey()) + ": {");
+			writer.write("\"count\": " + ss.getN());
+			writer.write(", \"mean\": " + jsonNumber(ss.getMean()));
+			writer.write(", \"sd\": " + jsonNumber(ss.getStandardDeviation()));
+			writer.write(", \"min\": " + jsonNumber(ss.getMin()));
+			writer.write(", \"p50\": " + jsonNumber(pc[0]));
+			writer.write(", \"p99\": " + jsonNumber(pc[1]));
+			writer.write(", \"p999\": " + jsonNumber(pc[2]));
+			writer.write(", \"max\": " + jsonNumber(ss.getMax()));
+			writer.write("}");
+		}
+
+		writer.write(first ? "}\n" : "\n}\n");
+		writer.flush();
+	}
+
+	private static double[] percentiles(StatisticalSummary ss) {
+		if (ss instanceof LatencyHistogram) {
+			final LatencyHistogram h = (LatencyHistogram) ss;
+			return new double[] { h.getPercentile(50), h.getPercentile(99), h.getPercentile(99.9) };
+		}
+		return new double[] { Double.NaN, Double.NaN, Double.NaN };
+	}
+
+	private static String number(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			return "";
+		if (value == Math.rint(value) && Math.abs(value) < 1e15)
+			return Long.toString((long) value);
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+	private static String jsonNumber(double value) {
+		final String s = number(value);
+		return s.length() == 0 ? "null" : s;
+	}
+
+	private static String jsonString(String value) {
+		final StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					sb.append(String.format("\\u%04x", (int) c));
+				else
+					sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
 	/**
 	 * Pretty-print a map of times
 	 * 
-	 * @param times the times
+	 * @param times
+	 *            the times
 	 * @return a string representation of the times
 	 */
-	public static String format(Map<String, SummaryStatistics> times) {
-		String [] header = {"Timer Identifier", "Recorded Time"};
-		String [][] data = new String[times.size()][];
-		
+	public static String format(Map<String, ? extends StatisticalSummary> times) {
+		final String[] header = { "Timer Identifier", "Recorded Time" };
+		final String[][] data = new String[times.size()][];
+
 		int i = 0;
-		for (Entry<String, SummaryStatistics> e : times.entrySet()) {
-			data[i++] = new String [] { e.getKey(), format(e.getValue()) };
+		for (final Entry<String, ? extends StatisticalSummary> e : times.entrySet()) {
+			data[i++] = new String[] { e.getKey(), format(e.getValue()) };
 		}
-		
+
 		return ASCIITable.getInstance().getTable(header, data);
 	}
-	
+
 	/**
-	 * Pretty print a time
-	 * @param ss the stats defining the time
+	 * Pretty print a time. If the given statistics are a
+	 * {@link LatencyHistogram} with more than one recorded time, the median,
+	 * 99th and 99.9th percentiles and the maximum are included.
+	 * 
+	 * @param ss
+	 *            the stats defining the time
 	 * @return a string representing the time
 	 */
-	public static String format(SummaryStatistics ss) {
+	public static String format(StatisticalSummary ss) {
 		if (ss.getN() == 1) {
 			return formatTime(ss.getMean());
-		} 
-		return formatTime(ss.getMean(), ss.getStandardDeviation());
+		}
+
+		final String time = formatTime(ss.getMean(), ss.getStandardDeviation());
+		if (ss instanceof LatencyHistogram) {
+			final LatencyHistogram h = (LatencyHistogram) ss;
+
+			return time + " [p50 = " + formatTime(h.getPercentile(50)) + ", p99 = " + formatTime(h.getPercentile(99))
+					+ ", p99.9 = " + formatTime(h.getPercentile(99.9)) + ", max = " + formatTime(h.getMax()) + "]";
+		}
+		return time;
 	}
 
 	private static String formatTime(double time) {
@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.experiment.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link TimeTracker} and {@link LatencyHistogram}.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class TimeTrackerTest {
+	/**
+	 * Test that the bucketing scheme covers all values with a bounded
+	 * relative error
+	 */
+	@Test
+	public void testBuckets() {
+		final Random rng = new Random(0);
+
+		for (int i = 0; i < 100000; i++) {
+			final long v = (rng.nextLong() >>> 1) >>> rng.nextInt(63);
+			final int idx = LatencyHistogram.bucketIndex(v);
+
+			assertTrue(LatencyHistogram.lowestValue(idx) <= v);
+			assertTrue(LatencyHistogram.highestValue(idx) >= v);
+			assertTrue(LatencyHistogram.highestValue(idx) - LatencyHistogram.lowestValue(idx) <= v / 32);
+		}
+
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.bucketIndex(Long.MAX_VALUE)));
+	}
+
+	/**
+	 * Test the summary statistics and percentiles
+	 */
+	@Test
+	public void testHistogram() {
+		final LatencyHistogram h = new LatencyHistogram();
+		assertTrue(Double.isNaN(h.getMean()));
+		assertTrue(Double.isNaN(h.getPercentile(50)));
+
+		for (int i = 1; i <= 100000; i++)
+			h.record(i * 1000L);
+
+		assertEquals(100000, h.getN());
+		assertEquals(50000500.0, h.getMean(), 1e-6);
+		assertEquals(28867657.2, h.getStandardDeviation(), 1);
+		assertEquals(1000, h.getMin(), 0);
+		assertEquals(100000000, h.getMax(), 0);
+
+		assertEquals(50000000, h.getPercentile(50), 50000000 * 0.035);
+		assertEquals(99000000, h.getPercentile(99), 99000000 * 0.035);
+		assertEquals(99900000, h.getPercentile(99.9), 99900000 * 0.035);
+		assertEquals(100000000, h.getPercentile(100), 0);
+	}
+
+	/**
+	 * Test merging and draining
+	 */
+	@Test
+	public void testDrain() {
+		final LatencyHistogram a = new LatencyHistogram();
+		final LatencyHistogram b = new LatencyHistogram();
+
+		for (int i = 0; i < 100; i++) {
+			a.record(i);
+			b.record(1000 + i);
+		}
+
+		final LatencyHistogram c = a.copy();
+		c.add(b);
+		assertEquals(200, c.getN());
+		assertEquals(0, c.getMin(), 0);
+		assertEquals(1099, c.getMax(), 0);
+
+		final LatencyHistogram d = new LatencyHistogram();
+		c.drainTo(d);
+		assertEquals(0, c.getN());
+		assertTrue(Double.isNaN(c.getMax()));
+		assertEquals(200, d.getN());
+		assertEquals(a.getSum() + b.getSum(), d.getSum(), 0);
+	}
+
+	/**
+	 * Test that snapshotting and resetting whilst other threads are recording
+	 * does not lose any times
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testConcurrentReset() throws InterruptedException {
+		final String id = "testConcurrentReset";
+		final int nthreads = 4;
+		final int perThread = 200000;
+		final AtomicLong total = new AtomicLong();
+
+		final Thread[] threads = new Thread[nthreads];
+		for (int i = 0; i < nthreads; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < perThread; j++)
+						TimeTracker.accumulate(id, j % 1000);
+				}
+			};
+			threads[i].start();
+		}
+
+		boolean running = true;
+		while (running) {
+			final LatencyHistogram h = TimeTracker.reset().get(id);
+			if (h != null)
+				total.addAndGet(h.getN());
+
+			running = false;
+			for (final Thread t : threads)
+				running |= t.isAlive();
+		}
+		for (final Thread t : threads)
+			t.join();
+
+		final LatencyHistogram h = TimeTracker.reset().get(id);
+		if (h != null)
+			total.addAndGet(h.getN());
+
+		assertEquals((long) nthreads * perThread, total.get());
+		assertTrue(!TimeTracker.getTimes().containsKey(id));
+	}
+
+	/**
+	 * Test that missing times are restored
+	 */
+	@Test
+	public void testAddMissing() {
+		final String id = "testAddMissing";
+		TimeTracker.accumulate(id, 10);
+		final Map<String, LatencyHistogram> old = TimeTracker.reset();
+		TimeTracker.addMissing(old);
+
+		assertEquals(1, TimeTracker.getTimes().get(id).getN());
+
+		TimeTracker.addMissing(old);
+		assertEquals(1, TimeTracker.getTimes().get(id).getN());
+		TimeTracker.reset();
+	}
+
+	/**
+	 * Test the CSV and JSON export
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testExport() throws Exception {
+		final LatencyHistogram h = new LatencyHistogram();
+		h.record(10);
+		h.record(20);
+
+		final Map<String, LatencyHistogram> times = new HashMap<String, LatencyHistogram>();
+		times.put("a \"b\"", h);
+		times.put("empty", new LatencyHistogram());
+
+		final StringWriter csv = new StringWriter();
+		TimeTracker.writeCSV(times, csv);
+		assertEquals("identifier,count,mean,sd,min,p50,p99,p999,max\n" +
+				"\"a \"\"b\"\"\",2,15,7.071,10,10,20,20,20\n" +
+				"\"empty\",0,,,,,,,\n", csv.toString());
+
+		final StringWriter json = new StringWriter();
+		TimeTracker.writeJSON(times, json);
+		assertEquals("{\n" +
+				"  \"a \\\"b\\\"\": {\"count\": 2, \"mean\": 15, \"sd\": 7.071, \"min\": 10, \"p50\": 10, \"p99\": 20, \"p999\": 20, \"max\": 20},\n"
+				+
+				"  \"empty\": {\"count\": 0, \"mean\": null, \"sd\": null, \"min\": null, \"p50\": null, \"p99\": null, \"p999\": null, \"max\": null}\n"
+				+
+				"}\n", json.toString());
+	}
+}
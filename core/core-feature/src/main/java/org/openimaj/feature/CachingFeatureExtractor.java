@@ -29,14 +29,32 @@
  */
 package org.openimaj.feature;
 
-import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import org.openimaj.data.identity.Identifiable;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
 /**
- * A simple wrapper for a feature extractor that caches the extracted feature to
- * a {@link HashMap}. If a feature has already been generated for a given
- * object, it will be re-read from the {@link HashMap}
+ * A simple wrapper for a feature extractor that caches the extracted feature in
+ * memory. If a feature has already been generated for a given object, it will
+ * be re-read from the cache.
+ * <p>
+ * The cache is thread-safe, so the extractor can be used from multiple threads
+ * (for example with {@link org.openimaj.util.parallel.Parallel}). If multiple
+ * threads request the feature for the same object at once, then the feature is
+ * only extracted once, and the other threads wait for the result. The cache
+ * can optionally be bounded by the number of features it holds, or by their
+ * total estimated weight (for example their size in bytes), in which case the
+ * least-recently used features are evicted. Statistics on the cache hits,
+ * misses and evictions are available through {@link #getStats()}.
  * 
  * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
  * 
@@ -52,11 +70,11 @@ public class CachingFeatureExtractor<FEATURE, OBJECT extends Identifiable>
 	private FeatureExtractor<FEATURE, OBJECT> extractor;
 	private boolean force;
 
-	private HashMap<String, FEATURE> cache;
+	private Cache<String, FEATURE> cache;
 
 	/**
-	 * Construct the cache {@link HashMap}. The given extractor will be used to
-	 * generate the features.
+	 * Construct the cache. The given extractor will be used to generate the
+	 * features. The cache is unbounded.
 	 * 
 	 * @param extractor
 	 *            the feature extractor
@@ -66,8 +84,9 @@ public class CachingFeatureExtractor<FEATURE, OBJECT extends Identifiable>
 	}
 
 	/**
-	 * Construct the cache {@link HashMap} The given extractor will be used to
-	 * generate the features. Optionally, all features can be regenerated.
+	 * Construct the cache. The given extractor will be used to generate the
+	 * features. Optionally, all features can be regenerated. The cache is
+	 * unbounded.
 	 * 
 	 * @param extractor
 	 *            the feature extractor
@@ -76,26 +95,107 @@ public class CachingFeatureExtractor<FEATURE, OBJECT extends Identifiable>
 	 *            rather than being loaded.
 	 */
 	public CachingFeatureExtractor(FeatureExtractor<FEATURE, OBJECT> extractor, boolean force) {
-		this.cache = new HashMap<String, FEATURE>();
+		this(extractor, force, CacheBuilder.newBuilder().recordStats().<String, FEATURE> build());
+	}
+
+	/**
+	 * Construct the cache with the given maximum number of features. The given
+	 * extractor will be used to generate the features.
+	 * 
+	 * @param extractor
+	 *            the feature extractor
+	 * @param maximumSize
+	 *            the maximum number of features to hold
+	 */
+	public CachingFeatureExtractor(FeatureExtractor<FEATURE, OBJECT> extractor, long maximumSize) {
+		this(extractor, false, CacheBuilder.newBuilder().recordStats().maximumSize(maximumSize)
+				.<String, FEATURE> build());
+	}
+
+	/**
+	 * Construct the cache with the given maximum total weight of features. The
+	 * weight of each feature is estimated by the given {@link Weigher}; for
+	 * example, the weigher could compute the approximate number of bytes used
+	 * by the feature. The given extractor will be used to generate the
+	 * features.
+	 * 
+	 * @param extractor
+	 *            the feature extractor
+	 * @param maximumWeight
+	 *            the maximum total weight of the features
+	 * @param weigher
+	 *            the weigher used to estimate the weight of each feature
+	 */
+	public CachingFeatureExtractor(FeatureExtractor<FEATURE, OBJECT> extractor, long maximumWeight,
+			Weigher<? super String, ? super FEATURE> weigher)
+	{
+		this(extractor, false, CacheBuilder.newBuilder().recordStats().maximumWeight(maximumWeight)
+				.<String, FEATURE> weigher(weigher).build());
+	}
+
+	private CachingFeatureExtractor(FeatureExtractor<FEATURE, OBJECT> extractor, boolean force,
+			Cache<String, FEATURE> cache)
+	{
+		this.cache = cache;
 		this.extractor = extractor;
 		this.force = force;
 	}
 
 	@Override
-	public FEATURE extractFeature(OBJECT object) {
-		final FEATURE cachedFeature = this.cache.get(object.getID());
-
-		FEATURE feature = null;
-		if (!force && cachedFeature != null) {
-			feature = cachedFeature;
+	public FEATURE extractFeature(final OBJECT object) {
+		if (force) {
+			final FEATURE feature = extractor.extractFeature(object);
 
 			if (feature != null)
-				return feature;
+				this.cache.put(object.getID(), feature);
+
+			return feature;
 		}
 
-		feature = extractor.extractFeature(object);
-		this.cache.put(object.getID(), feature);
-		return feature;
+		try {
+			return this.cache.get(object.getID(), new Callable<FEATURE>() {
+				@Override
+				public FEATURE call() throws Exception {
+					return extractor.extractFeature(object);
+				}
+			});
+		} catch (final InvalidCacheLoadException e) {
+			// the extractor returned null, which we don't cache
+			return null;
+		} catch (final UncheckedExecutionException e) {
+			throw (RuntimeException) e.getCause();
+		} catch (final ExecutionError e) {
+			throw (Error) e.getCause();
+		} catch (final ExecutionException e) {
+			// can't happen as extractFeature doesn't throw checked exceptions
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Get the statistics of the cache, including the number of hits, misses and
+	 * evictions.
+	 * 
+	 * @return the cache statistics
+	 */
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	/**
+	 * Get the approximate number of features currently held in the cache.
+	 * 
+	 * @return the number of cached features
+	 */
+	public long size() {
+		return cache.size();
+	}
+
+	/**
+	 * Remove all the features from the cache.
+	 */
+	public void clear() {
+		cache.invalidateAll();
 	}
 
 	@Override
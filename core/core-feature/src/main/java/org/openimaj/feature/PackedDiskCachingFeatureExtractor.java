@@ -0,0 +1,239 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.feature;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.openimaj.data.identity.Identifiable;
+import org.openimaj.io.IOUtils;
+import org.openimaj.io.PackedSegmentStore;
+import org.openimaj.io.ReadableBinary;
+import org.openimaj.io.WriteableBinary;
+
+import com.esotericsoftware.kryo.KryoException;
+
+/**
+ * A wrapper for a feature extractor that caches the extracted features to disk
+ * in a {@link PackedSegmentStore}. This behaves like the
+ * {@link DiskCachingFeatureExtractor}, but rather than creating one file per
+ * object the features are appended to a small number of large segment files
+ * with an index from the object identifier to the location of the feature.
+ * This avoids the file-system overhead of creating, locating and opening many
+ * small files, and allows features to be read concurrently from many threads.
+ * <p>
+ * Features that are both {@link WriteableBinary} and {@link ReadableBinary}
+ * are stored using their own binary format; all other features are serialised
+ * with {@link IOUtils#write(Object, java.io.DataOutput)}. The cache should be
+ * {@link #close() closed} when it is no longer required so that the index is
+ * flushed to disk.
+ *
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ *
+ * @param <FEATURE>
+ *            Type of feature
+ * @param <OBJECT>
+ *            Type of object
+ */
+public class PackedDiskCachingFeatureExtractor<FEATURE, OBJECT extends Identifiable>
+		implements
+		FeatureExtractor<FEATURE, OBJECT>, Closeable
+{
+	private static Logger logger = Logger.getLogger(PackedDiskCachingFeatureExtractor.class);
+
+	private static final byte BINARY = 0;
+	private static final byte SERIALISED = 1;
+
+	private PackedSegmentStore store;
+	private FeatureExtractor<FEATURE, OBJECT> extractor;
+	private boolean force;
+
+	/**
+	 * Construct the cache in the given directory. The given extractor will be
+	 * used to generate the features.
+	 *
+	 * @param cacheDir
+	 *            the location of the cache
+	 * @param extractor
+	 *            the feature extractor
+	 * @throws IOException
+	 *             if the cache cannot be opened
+	 */
+	public PackedDiskCachingFeatureExtractor(File cacheDir, FeatureExtractor<FEATURE, OBJECT> extractor)
+			throws IOException
+	{
+		this(cacheDir, extractor, false);
+	}
+
+	/**
+	 * Construct the cache in the given directory. The given extractor will be
+	 * used to generate the features. Optionally, all features can be
+	 * regenerated.
+	 *
+	 * @param cacheDir
+	 *            the location of the cache
+	 * @param extractor
+	 *            the feature extractor
+	 * @param force
+	 *            if true, then all features will be regenerated and saved,
+	 *            rather than being loaded.
+	 * @throws IOException
+	 *             if the cache cannot be opened
+	 */
+	public PackedDiskCachingFeatureExtractor(File cacheDir, FeatureExtractor<FEATURE, OBJECT> extractor, boolean force)
+			throws IOException
+	{
+		this(new PackedSegmentStore(cacheDir), extractor, force);
+	}
+
+	/**
+	 * Construct the cache using the given store. The given extractor will be
+	 * used to generate the features. Optionally, all features can be
+	 * regenerated.
+	 *
+	 * @param store
+	 *            the store holding the cached features
+	 * @param extractor
+	 *            the feature extractor
+	 * @param force
+	 *            if true, then all features will be regenerated and saved,
+	 *            rather than being loaded.
+	 */
+	public PackedDiskCachingFeatureExtractor(PackedSegmentStore store, FeatureExtractor<FEATURE, OBJECT> extractor,
+			boolean force)
+	{
+		this.store = store;
+		this.extractor = extractor;
+		this.force = force;
+	}
+
+	@Override
+	public FEATURE extractFeature(OBJECT object) {
+		final String id = object.getID();
+
+		FEATURE feature = null;
+		if (!force) {
+			feature = load(id);
+
+			if (feature != null)
+				return feature;
+		}
+
+		feature = extractor.extractFeature(object);
+
+		try {
+			store.put(id, encode(feature));
+		} catch (final IOException e) {
+			logger.warn("Caching of the feature for the " + id + " object was disabled", e);
+		}
+
+		return feature;
+	}
+
+	private byte[] encode(FEATURE feature) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(baos);
+
+		if (feature instanceof WriteableBinary && feature instanceof ReadableBinary) {
+			out.writeByte(BINARY);
+			out.writeUTF(feature.getClass().getName());
+			((WriteableBinary) feature).writeBinary(out);
+		} else {
+			out.writeByte(SERIALISED);
+			IOUtils.write(feature, out);
+		}
+
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	private FEATURE load(String id) {
+		try {
+			final byte[] data = store.get(id);
+			if (data == null)
+				return null;
+
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			if (in.readByte() == BINARY) {
+				final Class<? extends ReadableBinary> cls = Class.forName(in.readUTF()).asSubclass(ReadableBinary.class);
+				final ReadableBinary feature = IOUtils.newInstance(cls);
+				feature.readBinary(in);
+				return (FEATURE) feature;
+			} else {
+				return (FEATURE) IOUtils.read(in);
+			}
+		} catch (final IOException e) {
+			readFailed(id, e);
+		} catch (final ClassNotFoundException e) {
+			readFailed(id, e);
+		} catch (final ClassCastException e) {
+			readFailed(id, e);
+		} catch (final KryoException e) {
+			readFailed(id, e);
+		}
+
+		return null;
+	}
+
+	private static void readFailed(String id, Exception e) {
+		logger.warn("Error reading the feature for the " + id + " object from cache. Feature will be regenerated.", e);
+	}
+
+	/**
+	 * Get the underlying store. This can be used to {@link
+	 * PackedSegmentStore#compact() compact} the cache after features have been
+	 * regenerated.
+	 *
+	 * @return the store
+	 */
+	public PackedSegmentStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Close the underlying store, flushing the index to disk.
+	 */
+	@Override
+	public void close() throws IOException {
+		store.close();
+	}
+
+	@Override
+	public String toString() {
+		return this.extractor.toString();
+	}
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.feature;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.openimaj.data.identity.IdentifiableObject;
+
+import com.google.common.cache.Weigher;
+
+/**
+ * Tests for the {@link CachingFeatureExtractor}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class CachingFeatureExtractorTest {
+	/**
+	 * Extractor that counts how many times it has been called
+	 */
+	static class CountingExtractor implements FeatureExtractor<double[], IdentifiableObject<Integer>> {
+		AtomicInteger count = new AtomicInteger();
+		long delay = 0;
+
+		@Override
+		public double[] extractFeature(IdentifiableObject<Integer> object) {
+			count.incrementAndGet();
+
+			if (delay > 0) {
+				try {
+					Thread.sleep(delay);
+				} catch (final InterruptedException e) {
+				}
+			}
+
+			return new double[object.data];
+		}
+	}
+
+	private static IdentifiableObject<Integer> object(int i) {
+		return new IdentifiableObject<Integer>("obj" + i, i);
+	}
+
+	/**
+	 * Test that features are only extracted once and that the statistics are
+	 * recorded
+	 */
+	@Test
+	public void testCaching() {
+		final CountingExtractor ex = new CountingExtractor();
+		final CachingFeatureExtractor<double[], IdentifiableObject<Integer>> cfe =
+				new CachingFeatureExtractor<double[], IdentifiableObject<Integer>>(ex);
+
+		final double[] f1 = cfe.extractFeature(object(1));
+		final double[] f2 = cfe.extractFeature(object(2));
+
+		assertSame(f1, cfe.extractFeature(object(1)));
+		assertSame(f2, cfe.extractFeature(object(2)));
+		assertEquals(2, ex.count.get());
+		assertEquals(2, cfe.getStats().hitCount());
+		assertEquals(2, cfe.getStats().missCount());
+	}
+
+	/**
+	 * Test that the number of features is bounded
+	 */
+	@Test
+	public void testMaximumSize() {
+		final CountingExtractor ex = new CountingExtractor();
+		final CachingFeatureExtractor<double[], IdentifiableObject<Integer>> cfe =
+				new CachingFeatureExtractor<double[], IdentifiableObject<Integer>>(ex, 10);
+
+		for (int i = 0; i < 100; i++)
+			cfe.extractFeature(object(i));
+
+		assertTrue(cfe.size() <= 10);
+		assertTrue(cfe.getStats().evictionCount() >= 90);
+	}
+
+	/**
+	 * Test that the weight of features is bounded
+	 */
+	@Test
+	public void testMaximumWeight() {
+		final CountingExtractor ex = new CountingExtractor();
+		final CachingFeatureExtractor<double[], IdentifiableObject<Integer>> cfe =
+				new CachingFeatureExtractor<double[], IdentifiableObject<Integer>>(ex, 1000,
+						new Weigher<String, double[]>() {
+							@Override
+							public int weigh(String key, double[] value) {
+								return value.length;
+							}
+						});
+
+		for (int i = 0; i < 100; i++)
+			cfe.extractFeature(object(100));
+		assertEquals(1, ex.count.get());
+
+		for (int i = 0; i < 100; i++)
+			cfe.extractFeature(object(i));
+
+		assertTrue(cfe.size() < 100);
+		assertTrue(cfe.getStats().evictionCount() > 0);
+	}
+
+	/**
+	 * Test that concurrent requests for the same object only extract once
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testSingleFlight() throws InterruptedException {
+		final CountingExtractor ex = new CountingExtractor();
+		ex.delay = 100;
+
+		final CachingFeatureExtractor<double[], IdentifiableObject<Integer>> cfe =
+				new CachingFeatureExtractor<double[], IdentifiableObject<Integer>>(ex);
+
+		final int nThreads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(nThreads);
+		for (int i = 0; i < nThreads; i++) {
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						cfe.extractFeature(object(5));
+					} catch (final InterruptedException e) {
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+
+		start.countDown();
+		done.await();
+
+		assertEquals(1, ex.count.get());
+	}
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.feature;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openimaj.data.identity.IdentifiableObject;
+import org.openimaj.io.ReadableBinary;
+import org.openimaj.io.WriteableBinary;
+
+/**
+ * Tests for the {@link PackedDiskCachingFeatureExtractor}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class PackedDiskCachingFeatureExtractorTest {
+	/**
+	 * Temporary folder for the caches
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Simple feature with its own binary format
+	 */
+	public static class BinaryFeature implements ReadableBinary, WriteableBinary {
+		int[] values;
+
+		/**
+		 * Default constructor for reading
+		 */
+		public BinaryFeature() {
+		}
+
+		BinaryFeature(int[] values) {
+			this.values = values;
+		}
+
+		@Override
+		public void readBinary(DataInput in) throws IOException {
+			values = new int[in.readInt()];
+			for (int i = 0; i < values.length; i++)
+				values[i] = in.readInt();
+		}
+
+		@Override
+		public void writeBinary(DataOutput out) throws IOException {
+			out.writeInt(values.length);
+			for (final int v : values)
+				out.writeInt(v);
+		}
+
+		@Override
+		public byte[] binaryHeader() {
+			return "BinF".getBytes();
+		}
+	}
+
+	/**
+	 * Extractor producing {@link BinaryFeature}s that counts how many times it
+	 * has been called
+	 */
+	static class BinaryExtractor implements FeatureExtractor<BinaryFeature, IdentifiableObject<Integer>> {
+		AtomicInteger count = new AtomicInteger();
+		int offset = 0;
+
+		@Override
+		public BinaryFeature extractFeature(IdentifiableObject<Integer> object) {
+			count.incrementAndGet();
+
+			final int[] values = new int[object.data];
+			for (int i = 0; i < values.length; i++)
+				values[i] = offset + object.data * i;
+
+			return new BinaryFeature(values);
+		}
+	}
+
+	/**
+	 * Extractor producing plain arrays (which have to be serialised) that
+	 * counts how many times it has been called
+	 */
+	static class ArrayExtractor implements FeatureExtractor<double[], IdentifiableObject<Integer>> {
+		AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public double[] extractFeature(IdentifiableObject<Integer> object) {
+			count.incrementAndGet();
+
+			final double[] values = new double[object.data];
+			for (int i = 0; i < values.length; i++)
+				values[i] = object.data + i / 10.0;
+
+			return values;
+		}
+	}
+
+	private static IdentifiableObject<Integer> object(int i) {
+		return new IdentifiableObject<Integer>("obj" + i, i);
+	}
+
+	private static int[] expected(int i, int offset) {
+		final int[] values = new int[i];
+		for (int j = 0; j < values.length; j++)
+			values[j] = offset + i * j;
+		return values;
+	}
+
+	/**
+	 * Test that features with a binary format are cached and that the cached
+	 * features are used after the cache is reopened
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testBinaryFeatures() throws IOException {
+		final File dir = folder.newFolder("cache");
+
+		BinaryExtractor ex = new BinaryExtractor();
+		PackedDiskCachingFeatureExtractor<BinaryFeature, IdentifiableObject<Integer>> cache =
+				new PackedDiskCachingFeatureExtractor<BinaryFeature, IdentifiableObject<Integer>>(dir, ex);
+
+		for (int i = 0; i < 50; i++)
+			assertArrayEquals(expected(i, 0), cache.extractFeature(object(i)).values);
+		for (int i = 0; i < 50; i++)
+			assertArrayEquals(expected(i, 0), cache.extractFeature(object(i)).values);
+		assertEquals(50, ex.count.get());
+		assertEquals(50, cache.getStore().size());
+		cache.close();
+
+		ex = new BinaryExtractor();
+		cache = new PackedDiskCachingFeatureExtractor<BinaryFeature, IdentifiableObject<Integer>>(dir, ex);
+		for (int i = 0; i < 50; i++)
+			assertArrayEquals(expected(i, 0), cache.extractFeature(object(i)).values);
+		assertEquals(0, ex.count.get());
+		cache.close();
+	}
+
+	/**
+	 * Test that features without a binary format are serialised and can be
+	 * read back after the cache is reopened
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testSerialisedFeatures() throws IOException {
+		final File dir = folder.newFolder("cache");
+
+		ArrayExtractor ex = new ArrayExtractor();
+		PackedDiskCachingFeatureExtractor<double[], IdentifiableObject<Integer>> cache =
+				new PackedDiskCachingFeatureExtractor<double[], IdentifiableObject<Integer>>(dir, ex);
+
+		final double[][] first = new double[20][];
+		for (int i = 0; i < 20; i++)
+			first[i] = cache.extractFeature(object(i));
+		cache.close();
+
+		ex = new ArrayExtractor();
+		cache = new PackedDiskCachingFeatureExtractor<double[], IdentifiableObject<Integer>>(dir, ex);
+		for (int i = 0; i < 20; i++)
+			assertArrayEquals(first[i], cache.extractFeature(object(i)), 0);
+		assertEquals(0, ex.count.get());
+		cache.close();
+	}
+
+	/**
+	 * Test that forcing regeneration replaces the cached features
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testForce() throws IOException {
+		final File dir = folder.newFolder("cache");
+
+		BinaryExtractor ex = new BinaryExtractor();
+		PackedDiskCachingFeatureExtractor<BinaryFeature, IdentifiableObject<Integer>> cache =
+				new PackedDiskCachingFeatureExtractor<BinaryFeature, IdentifiableObject<Integer>>(dir, ex);
+		for (int i = 0; i < 10; i++)
+			cache.extractFeature(object(i));
+		cache.close();
+
+		ex = new BinaryExtractor();
+		ex.offset = 7;
+		cache = new PackedDiskCachingFeatureExtractor<BinaryFeature, IdentifiableObject<Integer>>(dir, ex, true);
+		for (int i = 0; i < 10; i++)
+			assertArrayEquals(expected(i, 7), cache.extractFeature(object(i)).values);
+		assertEquals(10, ex.count.get());
+		cache.close();
+
+		ex = new BinaryExtractor();
+		cache = new PackedDiskCachingFeatureExtractor<BinaryFeature, IdentifiableObject<Integer>>(dir, ex);
+		for (int i = 0; i < 10; i++)
+			assertArrayEquals(expected(i, 7), cache.extractFeature(object(i)).values);
+		assertEquals(0, ex.count.get());
+		assertEquals(10, cache.getStore().size());
+		cache.close();
+	}
+
+	/**
+	 * Test that features can be extracted and read back from many threads at
+	 * once
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentExtraction() throws Exception {
+		final File dir = folder.newFolder("cache");
+
+		final BinaryExtractor ex = new BinaryExtractor();
+		final PackedDiskCachingFeatureExtractor<BinaryFeature, IdentifiableObject<Integer>> cache =
+				new PackedDiskCachingFeatureExtractor<BinaryFeature, IdentifiableObject<Integer>>(dir, ex);
+
+		final AtomicBoolean failed = new AtomicBoolean();
+		final Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int start = t * 10;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < 3; j++) {
+							for (int i = 0; i < 100; i++) {
+								final int k = (start + i) % 100;
+								if (!Arrays.equals(expected(k, 0), cache.extractFeature(object(k)).values))
+									failed.set(true);
+							}
+						}
+					} catch (final Throwable e) {
+						failed.set(true);
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		for (final Thread t : threads)
+			t.join();
+
+		assertFalse(failed.get());
+		assertEquals(100, cache.getStore().size());
+		cache.close();
+
+		final BinaryExtractor ex2 = new BinaryExtractor();
+		final PackedDiskCachingFeatureExtractor<BinaryFeature, IdentifiableObject<Integer>> reopened =
+				new PackedDiskCachingFeatureExtractor<BinaryFeature, IdentifiableObject<Integer>>(dir, ex2);
+		for (int i = 0; i < 100; i++)
+			assertArrayEquals(expected(i, 0), reopened.extractFeature(object(i)).values);
+		assertEquals(0, ex2.count.get());
+		reopened.close();
+	}
+}
@@ -30,6 +30,7 @@
 package org.openimaj.image;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -238,6 +239,197 @@ class ExtendedImageIO {
 		return read(istream);
 	}
 
+	/**
+	 * Decode an image from the given <code>File</code> at a reduced
+	 * resolution. See {@link #read(InputStream, int)} for details.
+	 * 
+	 * @param input
+	 *            a <code>File</code> to read from.
+	 * @param targetSize
+	 *            the target size of the longest side of the image
+	 * @return a <code>BufferedImage</code> containing the decoded contents of
+	 *         the input, or <code>null</code>.
+	 * @exception IOException
+	 *                if an error occurs during reading.
+	 */
+	public static BufferedImage read(File input, int targetSize) throws IOException {
+		if (input == null) {
+			throw new IllegalArgumentException("input == null!");
+		}
+		if (!input.canRead()) {
+			throw new IIOException("Can't read input file!");
+		}
+		InputStream stream = null;
+		try {
+			stream = new FileInputStream(input);
+			return read(stream, targetSize);
+		} finally {
+			try {
+				stream.close();
+			} catch (final IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Decode an image from the given <code>URL</code> at a reduced
+	 * resolution. See {@link #read(InputStream, int)} for details.
+	 * 
+	 * @param input
+	 *            a <code>URL</code> to read from.
+	 * @param targetSize
+	 *            the target size of the longest side of the image
+	 * @return a <code>BufferedImage</code> containing the decoded contents of
+	 *         the input, or <code>null</code>.
+	 * @exception IOException
+	 *                if an error occurs during reading.
+	 */
+	public static BufferedImage read(URL input, int targetSize) throws IOException {
+		if (input == null) {
+			throw new IllegalArgumentException("input == null!");
+		}
+
+		InputStream istream = null;
+		try {
+			istream = input.openStream();
+		} catch (final IOException e) {
+			throw new IIOException("Can't get input stream from URL!", e);
+		}
+
+		return read(istream, targetSize);
+	}
+
+	/**
+	 * Decode an image from the given <code>InputStream</code> at a reduced
+	 * resolution. The image is subsampled by the largest integer factor that
+	 * keeps the longest side of the image at least <code>targetSize</code>
+	 * pixels long, so the result will be between one and two times the target
+	 * size (or the original size if the image is smaller than the target).
+	 * <p>
+	 * Where possible the subsampling is performed by the
+	 * <code>ImageReader</code> as the image is decoded, so the full resolution
+	 * image is never created. If the image cannot be decoded in this way, it
+	 * is decoded at full resolution using {@link #read(InputStream)} and then
+	 * subsampled.
+	 * <p>
+	 * This method <em>does not</em> close the provided <code>InputStream</code>
+	 * after the read operation has completed; it is the responsibility of the
+	 * caller to close the stream, if desired.
+	 * 
+	 * @param input
+	 *            an <code>InputStream</code> to read from.
+	 * @param targetSize
+	 *            the target size of the longest side of the image
+	 * @return a <code>BufferedImage</code> containing the decoded contents of
+	 *         the input, or <code>null</code>.
+	 * @exception IOException
+	 *                if an error occurs during reading.
+	 */
+	public static BufferedImage read(InputStream input, int targetSize) throws IOException {
+		if (input == null) {
+			throw new IllegalArgumentException("input == null!");
+		}
+		if (targetSize <= 0) {
+			throw new IllegalArgumentException("targetSize must be positive");
+		}
+
+		final NonClosableInputStream buffer = new NonClosableInputStream(input);
+		buffer.mark(10 * 1024 * 1024);
+
+		BufferedImage bi;
+		try {
+			bi = readSubsampled(buffer, targetSize);
+		} catch (final Exception ex) {
+			bi = null;
+		}
+
+		if (bi == null) {
+			buffer.reset();
+			bi = read(buffer);
+
+			if (bi != null)
+				bi = subsample(bi, subsamplingFactor(bi.getWidth(), bi.getHeight(), targetSize));
+		}
+
+		return bi;
+	}
+
+	/**
+	 * Compute the subsampling factor for an image of the given size
+	 */
+	static int subsamplingFactor(int width, int height, int targetSize) {
+		return Math.max(1, Math.max(width, height) / targetSize);
+	}
+
+	/**
+	 * Decode the image using an <code>ImageReader</code> with source
+	 * subsampling. JPEG images are decoded with the TwelveMonkeys reader if it
+	 * is available, as it deals with more colour spaces than the standard
+	 * reader.
+	 */
+	private static BufferedImage readSubsampled(BufferedInputStream binput, int targetSize) throws IOException {
+		final ImageInputStream stream = ImageIO.createImageInputStream(binput);
+		if (stream == null)
+			return null;
+
+		try {
+			final Iterator<ImageReader> iter = ImageIO.getImageReaders(stream);
+			if (!iter.hasNext())
+				return null;
+
+			ImageReader reader = iter.next();
+			if ("jpeg".equalsIgnoreCase(reader.getFormatName())) {
+				final ImageReader monkey = getMonkeyReader();
+
+				if (monkey != null) {
+					reader.dispose();
+					reader = monkey;
+				}
+			}
+
+			try {
+				reader.setInput(stream, true, true);
+
+				final int factor = subsamplingFactor(reader.getWidth(0), reader.getHeight(0), targetSize);
+				final ImageReadParam param = reader.getDefaultReadParam();
+				if (factor > 1)
+					param.setSourceSubsampling(factor, factor, 0, 0);
+
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Subsample an image by taking every <code>factor</code>-th pixel in each
+	 * direction, in the same way as
+	 * {@link ImageReadParam#setSourceSubsampling(int, int, int, int)}.
+	 */
+	static BufferedImage subsample(BufferedImage image, int factor) {
+		if (factor <= 1)
+			return image;
+
+		final int width = (image.getWidth() + factor - 1) / factor;
+		final int height = (image.getHeight() + factor - 1) / factor;
+
+		final WritableRaster src = image.getRaster();
+		final WritableRaster dst = src.createCompatibleWritableRaster(width, height);
+
+		Object pixel = null;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				pixel = src.getDataElements(x * factor, y * factor, pixel);
+				dst.setDataElements(x, y, pixel);
+			}
+		}
+
+		return new BufferedImage(image.getColorModel(), dst, image.isAlphaPremultiplied(), null);
+	}
+
 	/**
 	 * Returns a <code>BufferedImage</code> as the result of decoding a supplied
 	 * <code>ImageInputStream</code> with an <code>ImageReader</code> chosen
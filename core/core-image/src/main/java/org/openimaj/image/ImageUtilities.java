@@ -342,6 +342,72 @@ public class ImageUtilities {
 		return ImageUtilities.createFImage(ExtendedImageIO.read(input));
 	}
 
+	/**
+	 * Reads an {@link FImage} from the given file at a reduced resolution.
+	 * The image is subsampled as it is decoded (where the format allows) by
+	 * the largest integer factor that keeps the longest side at least
+	 * <code>targetSize</code> pixels long, so the resultant image will be
+	 * between one and two times the target size (unless the original is
+	 * smaller than the target). This is much faster and uses much less memory
+	 * than reading the full resolution image if it is going to be resized
+	 * afterwards.
+	 * 
+	 * @param input
+	 *            The file to read the {@link FImage} from.
+	 * @param targetSize
+	 *            The target size of the longest side of the image
+	 * @return An {@link FImage}
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static FImage readF(final File input, final int targetSize) throws IOException {
+		return ImageUtilities.createFImage(ExtendedImageIO.read(input, targetSize));
+	}
+
+	/**
+	 * Reads an {@link FImage} from the given input stream at a reduced resolution.
+	 * The image is subsampled as it is decoded (where the format allows) by
+	 * the largest integer factor that keeps the longest side at least
+	 * <code>targetSize</code> pixels long, so the resultant image will be
+	 * between one and two times the target size (unless the original is
+	 * smaller than the target). This is much faster and uses much less memory
+	 * than reading the full resolution image if it is going to be resized
+	 * afterwards.
+	 * 
+	 * @param input
+	 *            The input stream to read the {@link FImage} from.
+	 * @param targetSize
+	 *            The target size of the longest side of the image
+	 * @return An {@link FImage}
+	 * @throws IOException
+	 *             if the stream cannot be read
+	 */
+	public static FImage readF(final InputStream input, final int targetSize) throws IOException {
+		return ImageUtilities.createFImage(ExtendedImageIO.read(input, targetSize));
+	}
+
+	/**
+	 * Reads an {@link FImage} from the given URL at a reduced resolution.
+	 * The image is subsampled as it is decoded (where the format allows) by
+	 * the largest integer factor that keeps the longest side at least
+	 * <code>targetSize</code> pixels long, so the resultant image will be
+	 * between one and two times the target size (unless the original is
+	 * smaller than the target). This is much faster and uses much less memory
+	 * than reading the full resolution image if it is going to be resized
+	 * afterwards.
+	 * 
+	 * @param input
+	 *            The URL to read the {@link FImage} from.
+	 * @param targetSize
+	 *            The target size of the longest side of the image
+	 * @return An {@link FImage}
+	 * @throws IOException
+	 *             if the URL stream cannot be read
+	 */
+	public static FImage readF(final URL input, final int targetSize) throws IOException {
+		return ImageUtilities.createFImage(ExtendedImageIO.read(input, targetSize));
+	}
+
 	/**
 	 * Reads an {@link MBFImage} from the given file.
 	 * 
@@ -381,6 +447,72 @@ public class ImageUtilities {
 		return ImageUtilities.createMBFImage(ExtendedImageIO.read(input), false);
 	}
 
+	/**
+	 * Reads an {@link MBFImage} from the given file at a reduced resolution.
+	 * The image is subsampled as it is decoded (where the format allows) by
+	 * the largest integer factor that keeps the longest side at least
+	 * <code>targetSize</code> pixels long, so the resultant image will be
+	 * between one and two times the target size (unless the original is
+	 * smaller than the target). This is much faster and uses much less memory
+	 * than reading the full resolution image if it is going to be resized
+	 * afterwards.
+	 * 
+	 * @param input
+	 *            The file to read the {@link MBFImage} from.
+	 * @param targetSize
+	 *            The target size of the longest side of the image
+	 * @return An {@link MBFImage}
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static MBFImage readMBF(final File input, final int targetSize) throws IOException {
+		return ImageUtilities.createMBFImage(ExtendedImageIO.read(input, targetSize), false);
+	}
+
+	/**
+	 * Reads an {@link MBFImage} from the given input stream at a reduced resolution.
+	 * The image is subsampled as it is decoded (where the format allows) by
+	 * the largest integer factor that keeps the longest side at least
+	 * <code>targetSize</code> pixels long, so the resultant image will be
+	 * between one and two times the target size (unless the original is
+	 * smaller than the target). This is much faster and uses much less memory
+	 * than reading the full resolution image if it is going to be resized
+	 * afterwards.
+	 * 
+	 * @param input
+	 *            The input stream to read the {@link MBFImage} from.
+	 * @param targetSize
+	 *            The target size of the longest side of the image
+	 * @return An {@link MBFImage}
+	 * @throws IOException
+	 *             if the stream cannot be read
+	 */
+	public static MBFImage readMBF(final InputStream input, final int targetSize) throws IOException {
+		return ImageUtilities.createMBFImage(ExtendedImageIO.read(input, targetSize), false);
+	}
+
+	/**
+	 * Reads an {@link MBFImage} from the given URL at a reduced resolution.
+	 * The image is subsampled as it is decoded (where the format allows) by
+	 * the largest integer factor that keeps the longest side at least
+	 * <code>targetSize</code> pixels long, so the resultant image will be
+	 * between one and two times the target size (unless the original is
+	 * smaller than the target). This is much faster and uses much less memory
+	 * than reading the full resolution image if it is going to be resized
+	 * afterwards.
+	 * 
+	 * @param input
+	 *            The URL to read the {@link MBFImage} from.
+	 * @param targetSize
+	 *            The target size of the longest side of the image
+	 * @return An {@link MBFImage}
+	 * @throws IOException
+	 *             if the URL stream cannot be read
+	 */
+	public static MBFImage readMBF(final URL input, final int targetSize) throws IOException {
+		return ImageUtilities.createMBFImage(ExtendedImageIO.read(input, targetSize), false);
+	}
+
 	/**
 	 * Reads an {@link MBFImage} from the given file. The resultant MBImage will
 	 * contain an alpha channel
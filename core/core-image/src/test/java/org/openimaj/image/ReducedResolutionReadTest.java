@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for reading images at a reduced resolution with
+ * {@link ImageUtilities#readF(java.io.InputStream, int)} and
+ * {@link ImageUtilities#readMBF(java.io.InputStream, int)}.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class ReducedResolutionReadTest {
+	private byte[] png;
+
+	/**
+	 * Create a random test image
+	 * 
+	 * @throws IOException
+	 */
+	@Before
+	public void setup() throws IOException {
+		final Random rng = new Random(0);
+		final BufferedImage bimg = new BufferedImage(401, 300, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < bimg.getHeight(); y++)
+			for (int x = 0; x < bimg.getWidth(); x++)
+				bimg.setRGB(x, y, rng.nextInt());
+
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ImageIO.write(bimg, "png", baos);
+		png = baos.toByteArray();
+	}
+
+	/**
+	 * Test that the reduced resolution image is the subsampled full image
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testReadMBF() throws IOException {
+		final MBFImage full = ImageUtilities.readMBF(new ByteArrayInputStream(png));
+		final MBFImage reduced = ImageUtilities.readMBF(new ByteArrayInputStream(png), 100);
+
+		assertEquals(101, reduced.getWidth());
+		assertEquals(75, reduced.getHeight());
+
+		for (int y = 0; y < reduced.getHeight(); y++)
+			for (int x = 0; x < reduced.getWidth(); x++)
+				assertArrayEquals(full.getPixel(x * 4, y * 4), reduced.getPixel(x, y));
+	}
+
+	/**
+	 * Test that the reduced resolution image is the subsampled full image
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testReadF() throws IOException {
+		final FImage full = ImageUtilities.readF(new ByteArrayInputStream(png));
+		final FImage reduced = ImageUtilities.readF(new ByteArrayInputStream(png), 150);
+
+		assertEquals(201, reduced.getWidth());
+		assertEquals(150, reduced.getHeight());
+
+		for (int y = 0; y < reduced.height; y++)
+			for (int x = 0; x < reduced.width; x++)
+				assertEquals(full.pixels[y * 2][x * 2], reduced.pixels[y][x], 0f);
+	}
+
+	/**
+	 * Test that images smaller than the target are read at full resolution
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testSmallImage() throws IOException {
+		final FImage reduced = ImageUtilities.readF(new ByteArrayInputStream(png), 1000);
+
+		assertEquals(401, reduced.getWidth());
+		assertEquals(300, reduced.getHeight());
+	}
+
+	/**
+	 * Test the fallback subsampling of a decoded image
+	 */
+	@Test
+	public void testSubsample() {
+		final BufferedImage bimg = new BufferedImage(10, 7, BufferedImage.TYPE_BYTE_GRAY);
+		for (int y = 0; y < bimg.getHeight(); y++)
+			for (int x = 0; x < bimg.getWidth(); x++)
+				bimg.getRaster().setSample(x, y, 0, x + 10 * y);
+
+		final BufferedImage sub = ExtendedImageIO.subsample(bimg, 3);
+		assertEquals(4, sub.getWidth());
+		assertEquals(3, sub.getHeight());
+
+		for (int y = 0; y < sub.getHeight(); y++)
+			for (int x = 0; x < sub.getWidth(); x++)
+				assertEquals(3 * x + 30 * y, sub.getRaster().getSample(x, y, 0));
+	}
+}
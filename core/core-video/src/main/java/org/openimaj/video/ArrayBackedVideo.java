@@ -45,6 +45,7 @@ public class ArrayBackedVideo<T extends Image<?, T>> extends Video<T>
 	private T[] frames;
 	private boolean loop;
 	private double fps = 30d;
+	private boolean ended;
 
 	/**
 	 * Default constructor for creating array backed videos with no frames for
@@ -102,6 +103,8 @@ public class ArrayBackedVideo<T extends Image<?, T>> extends Video<T>
 	@Override
 	public synchronized T getNextFrame() {
 		final T frame = frames[this.currentFrame % this.frames.length];
+		if (!loop && this.currentFrame == this.frames.length - 1)
+			this.ended = true;
 		this.incrementFrame();
 		return frame;
 	}
@@ -119,6 +122,7 @@ public class ArrayBackedVideo<T extends Image<?, T>> extends Video<T>
 
 	@Override
 	public synchronized void setCurrentFrameIndex(long newFrame) {
+		this.ended = false;
 		if (!loop && newFrame >= this.frames.length - 1)
 			this.currentFrame = this.frames.length - 1;
 		else
@@ -127,7 +131,7 @@ public class ArrayBackedVideo<T extends Image<?, T>> extends Video<T>
 
 	@Override
 	public synchronized boolean hasNextFrame() {
-		return loop || this.currentFrame < this.frames.length;
+		return loop || !this.ended;
 	}
 
 	/**
@@ -161,6 +165,7 @@ public class ArrayBackedVideo<T extends Image<?, T>> extends Video<T>
 	public void reset()
 	{
 		this.currentFrame = 0;
+		this.ended = false;
 	}
 
 	/**
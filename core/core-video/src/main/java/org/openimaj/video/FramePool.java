@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.video;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.openimaj.image.Image;
+import org.openimaj.image.MultiBandImage;
+
+/**
+ * A bounded pool of recyclable video frames. Many {@link Video}
+ * implementations (for example those backed by a decoder or a capture device)
+ * return the same image object for every frame, overwriting its pixels, so
+ * frames that need to outlive the next call to {@link Video#getNextFrame()}
+ * must be copied. This pool allows those copies to be made into previously
+ * used frames rather than allocating a new image each time.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ * 
+ * @param <I>
+ *            the image type of the frames
+ */
+public class FramePool<I extends Image<?, I>> {
+	private final ArrayBlockingQueue<I> free;
+
+	/**
+	 * Construct a pool that will hold at most the given number of unused
+	 * frames.
+	 * 
+	 * @param capacity
+	 *            the maximum number of unused frames to keep
+	 */
+	public FramePool(int capacity) {
+		this.free = new ArrayBlockingQueue<I>(Math.max(1, capacity));
+	}
+
+	/**
+	 * Copy the given frame into a frame from the pool, or into a new frame if
+	 * the pool has no compatible frames available.
+	 * 
+	 * @param frame
+	 *            the frame to copy
+	 * @return the copy
+	 */
+	public I copy(I frame) {
+		final I buffer = free.poll();
+
+		if (buffer != null && compatible(buffer, frame))
+			return buffer.internalCopy(frame);
+
+		return frame.clone();
+	}
+
+	/**
+	 * Return a frame to the pool so that it can be reused by a later call to
+	 * {@link #copy(Image)}. The frame must not be used by the caller after it
+	 * has been recycled. If the pool is full the frame is discarded.
+	 * 
+	 * @param frame
+	 *            the frame to recycle; <code>null</code> is ignored.
+	 */
+	public void recycle(I frame) {
+		if (frame != null)
+			free.offer(frame);
+	}
+
+	/**
+	 * Discard all the unused frames held by the pool
+	 */
+	public void clear() {
+		free.clear();
+	}
+
+	private static boolean compatible(Image<?, ?> a, Image<?, ?> b) {
+		if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight() || a.getClass() != b.getClass())
+			return false;
+
+		if (a instanceof MultiBandImage) {
+			final MultiBandImage<?, ?, ?> ma = (MultiBandImage<?, ?, ?>) a;
+			final MultiBandImage<?, ?, ?> mb = (MultiBandImage<?, ?, ?>) b;
+
+			return ma.numBands() == mb.numBands() && ma.colourSpace == mb.colourSpace;
+		}
+
+		return true;
+	}
+}
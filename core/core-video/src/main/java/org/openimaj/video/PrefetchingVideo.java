@@ -0,0 +1,325 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.video;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openimaj.image.Image;
+
+/**
+ * A {@link Video} that wraps another {@link Video} and decodes frames ahead
+ * of the consumer on a background thread, so that decoding can overlap with
+ * the processing of the frames. Up to a fixed number of decoded frames are
+ * buffered.
+ * <p>
+ * Because many videos reuse the same image object for every frame, each
+ * decoded frame is copied into a frame from a bounded {@link FramePool}. When
+ * {@link #getNextFrame()} is called, the previously returned frame is
+ * returned to the pool, so (like many decoders) a frame is only valid until
+ * the next frame is requested; clone it if it needs to be kept for longer.
+ * <p>
+ * The underlying video must not be used directly whilst it is wrapped by
+ * this class. Frames are read from it using {@link Video#hasNextFrame()} and
+ * {@link Video#getNextFrame()} in the same way as a {@link VideoIterator},
+ * and {@link #getNextFrame()} returns <code>null</code> once they are
+ * exhausted.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ * 
+ * @param <I>
+ *            the image type of the frames
+ */
+public class PrefetchingVideo<I extends Image<?, I>> extends Video<I> {
+	/**
+	 * The default number of frames to decode ahead
+	 */
+	public static final int DEFAULT_PREFETCH = 8;
+
+	private static final class Decoded<I> {
+		final I frame;
+		final long timestamp;
+		final Throwable error;
+
+		Decoded(I frame, long timestamp, Throwable error) {
+			this.frame = frame;
+			this.timestamp = timestamp;
+			this.error = error;
+		}
+	}
+
+	private class Decoder implements Runnable {
+		volatile boolean stopped;
+
+		@Override
+		public void run() {
+			try {
+				while (!stopped && video.hasNextFrame()) {
+					final I frame = video.getNextFrame();
+					if (frame == null)
+						break;
+
+					if (!put(new Decoded<I>(pool.copy(frame), video.getTimeStamp(), null)))
+						return;
+				}
+				put(new Decoded<I>(null, 0, null));
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (final Throwable t) {
+				try {
+					put(new Decoded<I>(null, 0, t));
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		private boolean put(Decoded<I> d) throws InterruptedException {
+			while (!stopped) {
+				if (queue.offer(d, 50, TimeUnit.MILLISECONDS))
+					return true;
+			}
+			return false;
+		}
+	}
+
+	private final Video<I> video;
+	private final ArrayBlockingQueue<Decoded<I>> queue;
+	private final FramePool<I> pool;
+
+	private Decoder decoder;
+	private Thread decoderThread;
+	private Decoded<I> pending;
+	private I current;
+	private long timestamp;
+
+	/**
+	 * Construct with the given video, decoding up to
+	 * {@link #DEFAULT_PREFETCH} frames ahead.
+	 * 
+	 * @param video
+	 *            the video to wrap
+	 */
+	public PrefetchingVideo(Video<I> video) {
+		this(video, DEFAULT_PREFETCH);
+	}
+
+	/**
+	 * Construct with the given video, decoding up to the given number of
+	 * frames ahead.
+	 * 
+	 * @param video
+	 *            the video to wrap
+	 * @param prefetch
+	 *            the maximum number of frames to decode ahead
+	 */
+	public PrefetchingVideo(Video<I> video, int prefetch) {
+		if (prefetch < 1)
+			throw new IllegalArgumentException("The number of frames to prefetch must be positive");
+
+		this.video = video;
+		this.queue = new ArrayBlockingQueue<Decoded<I>>(prefetch);
+		this.pool = new FramePool<I>(prefetch + 2);
+	}
+
+	private void startDecoder() {
+		if (decoder != null)
+			return;
+
+		decoder = new Decoder();
+		decoderThread = new Thread(decoder, "PrefetchingVideo decoder");
+		decoderThread.setDaemon(true);
+		decoderThread.start();
+	}
+
+	private void stopDecoder() {
+		if (decoder == null)
+			return;
+
+		decoder.stopped = true;
+
+		boolean interrupted = false;
+		while (decoderThread.isAlive()) {
+			drainQueue();
+			try {
+				decoderThread.join(10);
+			} catch (final InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		drainQueue();
+
+		if (pending != null)
+			pool.recycle(pending.frame);
+
+		pending = null;
+		decoder = null;
+		decoderThread = null;
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Stop decoding and discard the current frame, ready for the underlying
+	 * video to be repositioned
+	 */
+	private void discard() {
+		stopDecoder();
+		pool.recycle(current);
+		current = null;
+	}
+
+	private void drainQueue() {
+		Decoded<I> d;
+		while ((d = queue.poll()) != null)
+			pool.recycle(d.frame);
+	}
+
+	private Decoded<I> peek() {
+		startDecoder();
+
+		if (pending == null) {
+			try {
+				pending = queue.take();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+		}
+
+		if (pending.error != null) {
+			if (pending.error instanceof RuntimeException)
+				throw (RuntimeException) pending.error;
+			if (pending.error instanceof Error)
+				throw (Error) pending.error;
+			throw new RuntimeException(pending.error);
+		}
+
+		return pending;
+	}
+
+	@Override
+	public synchronized I getNextFrame() {
+		final Decoded<I> next = peek();
+
+		if (next.frame == null)
+			return null;
+
+		pending = null;
+		pool.recycle(current);
+		current = next.frame;
+		timestamp = next.timestamp;
+		currentFrame++;
+
+		return current;
+	}
+
+	@Override
+	public synchronized I getCurrentFrame() {
+		if (current == null)
+			return getNextFrame();
+
+		return current;
+	}
+
+	@Override
+	public synchronized boolean hasNextFrame() {
+		return peek().frame != null;
+	}
+
+	@Override
+	public int getWidth() {
+		return video.getWidth();
+	}
+
+	@Override
+	public int getHeight() {
+		return video.getHeight();
+	}
+
+	@Override
+	public synchronized long getTimeStamp() {
+		return timestamp;
+	}
+
+	@Override
+	public double getFPS() {
+		return video.getFPS();
+	}
+
+	@Override
+	public long countFrames() {
+		return video.countFrames();
+	}
+
+	@Override
+	public synchronized void reset() {
+		discard();
+		video.reset();
+		currentFrame = 0;
+		timestamp = 0;
+	}
+
+	@Override
+	public synchronized void setCurrentFrameIndex(long newFrame) {
+		discard();
+		video.setCurrentFrameIndex(newFrame);
+		currentFrame = video.getCurrentFrameIndex();
+		timestamp = video.getTimeStamp();
+	}
+
+	@Override
+	public synchronized void seek(double timestamp) {
+		discard();
+		video.seek(timestamp);
+		currentFrame = video.getCurrentFrameIndex();
+		this.timestamp = video.getTimeStamp();
+	}
+
+	/**
+	 * Get the video that is being prefetched from.
+	 * 
+	 * @return the underlying video
+	 */
+	public Video<I> getVideo() {
+		return video;
+	}
+
+	/**
+	 * Stop the background decoding and close the underlying video.
+	 */
+	@Override
+	public synchronized void close() {
+		stopDecoder();
+		pool.clear();
+		video.close();
+	}
+}
@@ -0,0 +1,370 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.video.processor;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.openimaj.image.Image;
+import org.openimaj.util.parallel.GlobalExecutorPool;
+import org.openimaj.video.FramePool;
+import org.openimaj.video.PrefetchingVideo;
+import org.openimaj.video.Video;
+
+/**
+ * A {@link VideoProcessor} that processes frames in parallel by farming them
+ * out to the threads of an {@link ExecutorService}, using another
+ * {@link VideoProcessor} to do the actual work. Frames are read from the video
+ * on the calling thread, and up to a fixed number of frames are processed
+ * concurrently; the processed frames are re-emitted in the same order as they
+ * were read, so when used as a chainable processor the output video is
+ * identical to that of the wrapped processor.
+ * <p>
+ * The {@link VideoProcessor#processFrame(Image)} method of the wrapped
+ * processor must be safe to call from multiple threads concurrently. Each
+ * frame is copied before being handed to a worker (as many videos reuse the
+ * same image for every frame); the frames returned by
+ * {@link #getNextFrame()} are recycled when the next frame is requested. To
+ * also overlap the decoding of the video with the processing, the video can
+ * be wrapped in a {@link PrefetchingVideo}.
+ * <p>
+ * Like other {@link VideoProcessor}s, a chainable instance is not thread-safe
+ * and should only be read from a single thread.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ * 
+ * @param <T>
+ *            Type of {@link Image}
+ */
+public class ParallelVideoProcessor<T extends Image<?, T>> extends VideoProcessor<T> {
+	private static final class Pending<T> {
+		final Future<T> result;
+		final T frame;
+		final long timestamp;
+
+		Pending(Future<T> result, T frame, long timestamp) {
+			this.result = result;
+			this.frame = frame;
+			this.timestamp = timestamp;
+		}
+	}
+
+	private final VideoProcessor<T> processor;
+	private final ExecutorService executor;
+	private final int window;
+
+	private Video<T> video;
+	private ArrayDeque<Pending<T>> inFlight;
+	private FramePool<T> pool;
+	private boolean exhausted;
+	private T currentOutput;
+	private T currentBuffer;
+	private long timestamp;
+	private int frameIndex;
+
+	/**
+	 * Construct a non-chainable processor that uses the given processor to
+	 * process frames on the global {@link GlobalExecutorPool#getForkJoinPool()
+	 * fork-join pool}.
+	 * 
+	 * @param processor
+	 *            the processor to apply to each frame
+	 */
+	public ParallelVideoProcessor(VideoProcessor<T> processor) {
+		this(processor, GlobalExecutorPool.getForkJoinPool(), defaultWindow());
+	}
+
+	/**
+	 * Construct a non-chainable processor that uses the given processor to
+	 * process frames with the given executor.
+	 * 
+	 * @param processor
+	 *            the processor to apply to each frame
+	 * @param executor
+	 *            the executor to process frames with
+	 * @param window
+	 *            the maximum number of frames being processed at any one time
+	 */
+	public ParallelVideoProcessor(VideoProcessor<T> processor, ExecutorService executor, int window) {
+		if (window < 1)
+			throw new IllegalArgumentException("The window must be positive");
+
+		this.processor = processor;
+		this.executor = executor;
+		this.window = window;
+	}
+
+	/**
+	 * Construct a chainable processor that uses the given processor to
+	 * process the frames of the given video on the global
+	 * {@link GlobalExecutorPool#getForkJoinPool() fork-join pool}.
+	 * 
+	 * @param video
+	 *            the video to process
+	 * @param processor
+	 *            the processor to apply to each frame
+	 */
+	public ParallelVideoProcessor(Video<T> video, VideoProcessor<T> processor) {
+		this(video, processor, GlobalExecutorPool.getForkJoinPool(), defaultWindow());
+	}
+
+	/**
+	 * Construct a chainable processor that uses the given processor to
+	 * process the frames of the given video with the given executor.
+	 * 
+	 * @param video
+	 *            the video to process
+	 * @param processor
+	 *            the processor to apply to each frame
+	 * @param executor
+	 *            the executor to process frames with
+	 * @param window
+	 *            the maximum number of frames being processed at any one time
+	 */
+	public ParallelVideoProcessor(Video<T> video, VideoProcessor<T> processor, ExecutorService executor, int window) {
+		super(video);
+
+		if (window < 1)
+			throw new IllegalArgumentException("The window must be positive");
+
+		this.video = video;
+		this.processor = processor;
+		this.executor = executor;
+		this.window = window;
+		this.inFlight = new ArrayDeque<Pending<T>>(window);
+		this.pool = new FramePool<T>(window + 1);
+	}
+
+	private static int defaultWindow() {
+		return 2 * Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Process a single frame on the calling thread using the wrapped
+	 * processor.
+	 */
+	@Override
+	public T processFrame(T frame) {
+		return processor.processFrame(frame);
+	}
+
+	/**
+	 * Calls {@link VideoProcessor#processingComplete()} on the wrapped
+	 * processor.
+	 */
+	@Override
+	public void processingComplete() {
+		processor.processingComplete();
+	}
+
+	/**
+	 * Process the given video, processing up to the window size of frames in
+	 * parallel. This method returns once all the frames have been processed.
+	 * 
+	 * @param video
+	 *            The video to process.
+	 */
+	@Override
+	public void process(Video<T> video) {
+		final ArrayDeque<Pending<T>> queue = new ArrayDeque<Pending<T>>(window);
+		final FramePool<T> framePool = new FramePool<T>(window + 1);
+
+		try {
+			boolean more = true;
+			while (true) {
+				while (more && queue.size() < window)
+					more = submitNext(video, queue, framePool);
+
+				final Pending<T> next = queue.poll();
+				if (next == null)
+					break;
+
+				await(next);
+				framePool.recycle(next.frame);
+			}
+		} finally {
+			cancel(queue);
+		}
+
+		processingComplete();
+	}
+
+	private boolean submitNext(Video<T> source, ArrayDeque<Pending<T>> queue, FramePool<T> framePool) {
+		if (!source.hasNextFrame())
+			return false;
+
+		final T frame = source.getNextFrame();
+		if (frame == null)
+			return false;
+
+		final T copy = framePool.copy(frame);
+		final Future<T> result = executor.submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				return processor.processFrame(copy);
+			}
+		});
+		queue.add(new Pending<T>(result, copy, source.getTimeStamp()));
+
+		return true;
+	}
+
+	private static <T> T await(Pending<T> pending) {
+		try {
+			return pending.result.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	private static <T> void cancel(ArrayDeque<Pending<T>> queue) {
+		Pending<T> p;
+		while ((p = queue.poll()) != null)
+			p.result.cancel(false);
+	}
+
+	private void checkChainable() {
+		if (this.video == null)
+			throw new UnsupportedOperationException("Chain method called on non-chainable processor");
+	}
+
+	@Override
+	public T getNextFrame() {
+		checkChainable();
+
+		pool.recycle(currentBuffer);
+		currentBuffer = null;
+
+		while (!exhausted && inFlight.size() < window)
+			exhausted = !submitNext(video, inFlight, pool);
+
+		final Pending<T> next = inFlight.poll();
+		if (next == null)
+			return null;
+
+		currentOutput = await(next);
+		currentBuffer = next.frame;
+		timestamp = next.timestamp;
+		frameIndex++;
+
+		return currentOutput;
+	}
+
+	@Override
+	public T getCurrentFrame() {
+		checkChainable();
+
+		if (currentOutput == null)
+			return getNextFrame();
+
+		return currentOutput;
+	}
+
+	@Override
+	public boolean hasNextFrame() {
+		checkChainable();
+
+		return !inFlight.isEmpty() || (!exhausted && video.hasNextFrame());
+	}
+
+	@Override
+	public int getCurrentFrameIndex() {
+		return frameIndex;
+	}
+
+	@Override
+	public long getTimeStamp() {
+		checkChainable();
+
+		return timestamp;
+	}
+
+	/**
+	 * Discard the frames that are being processed and the current frame,
+	 * ready for the underlying video to be repositioned
+	 */
+	private void discard() {
+		checkChainable();
+
+		cancel(inFlight);
+		pool.recycle(currentBuffer);
+		exhausted = false;
+		currentOutput = null;
+		currentBuffer = null;
+	}
+
+	/**
+	 * Reset the underlying video, discarding any frames that are being
+	 * processed.
+	 */
+	@Override
+	public void reset() {
+		discard();
+		video.reset();
+		frameIndex = 0;
+		timestamp = 0;
+	}
+
+	/**
+	 * Set the position of the underlying video, discarding any frames that
+	 * are being processed.
+	 */
+	@Override
+	public void setCurrentFrameIndex(long newFrame) {
+		discard();
+		video.setCurrentFrameIndex(newFrame);
+		frameIndex = video.getCurrentFrameIndex();
+		timestamp = video.getTimeStamp();
+	}
+
+	/**
+	 * Seek the underlying video, discarding any frames that are being
+	 * processed.
+	 */
+	@Override
+	public void seek(double timestamp) {
+		discard();
+		video.seek(timestamp);
+		frameIndex = video.getCurrentFrameIndex();
+		this.timestamp = video.getTimeStamp();
+	}
+}
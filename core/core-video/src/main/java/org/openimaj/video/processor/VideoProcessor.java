@@ -132,6 +132,21 @@ extends Video<T>
 		processingComplete();
 	}
 
+	/**
+	 * Process the given video using this processor, processing multiple frames
+	 * in parallel. The {@link #processFrame(Image)} method must be safe to
+	 * call from multiple threads concurrently.
+	 *
+	 * @see ParallelVideoProcessor
+	 *
+	 * @param video
+	 *            The video to process.
+	 */
+	public void processParallel(Video<T> video)
+	{
+		new ParallelVideoProcessor<T>(this).process(video);
+	}
+
 	/**
 	 * This is a sugar function that will call {@link #process(Video)} with the
 	 * current video (for chainable processors).
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.video;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.openimaj.image.FImage;
+
+/**
+ * Tests for the {@link FramePool}
+ *
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class FramePoolTest {
+	private static FImage frame(int width, int height, float value) {
+		final FImage f = new FImage(width, height);
+		f.pixels[0][0] = value;
+		return f;
+	}
+
+	/**
+	 * Test that recycled frames are reused for copies of compatible frames
+	 */
+	@Test
+	public void testReuse() {
+		final FramePool<FImage> pool = new FramePool<FImage>(2);
+		final FImage source = frame(8, 8, 1);
+
+		final FImage copy = pool.copy(source);
+		assertNotSame(source, copy);
+		assertEquals(1, copy.pixels[0][0], 0);
+
+		pool.recycle(copy);
+		source.pixels[0][0] = 2;
+
+		final FImage reused = pool.copy(source);
+		assertSame(copy, reused);
+		assertEquals(2, reused.pixels[0][0], 0);
+	}
+
+	/**
+	 * Test that frames of a different size are not reused
+	 */
+	@Test
+	public void testIncompatible() {
+		final FramePool<FImage> pool = new FramePool<FImage>(2);
+		final FImage small = pool.copy(frame(4, 4, 1));
+		pool.recycle(small);
+
+		final FImage large = pool.copy(frame(8, 8, 2));
+		assertNotSame(small, large);
+		assertEquals(8, large.getWidth());
+		assertEquals(2, large.pixels[0][0], 0);
+	}
+
+	/**
+	 * Test that the pool holds at most its capacity, ignores null and can be
+	 * cleared
+	 */
+	@Test
+	public void testCapacityAndClear() {
+		final FramePool<FImage> pool = new FramePool<FImage>(1);
+		final FImage a = frame(4, 4, 0);
+		final FImage b = frame(4, 4, 0);
+
+		pool.recycle(null);
+		pool.recycle(a);
+		pool.recycle(b);
+
+		assertSame(a, pool.copy(frame(4, 4, 1)));
+		assertNotSame(b, pool.copy(frame(4, 4, 1)));
+
+		pool.recycle(a);
+		pool.clear();
+		assertNotSame(a, pool.copy(frame(4, 4, 1)));
+	}
+}
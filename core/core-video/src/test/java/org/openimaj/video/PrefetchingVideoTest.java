@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.video;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.openimaj.image.FImage;
+
+/**
+ * Tests for the {@link PrefetchingVideo}
+ *
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class PrefetchingVideoTest {
+	private static final int N_FRAMES = 50;
+
+	/**
+	 * Create frames that are numbered by their first pixel
+	 */
+	static FImage[] createFrames(int n) {
+		final FImage[] frames = new FImage[n];
+		for (int i = 0; i < n; i++) {
+			frames[i] = new FImage(4, 4);
+			frames[i].pixels[0][0] = i;
+		}
+		return frames;
+	}
+
+	/**
+	 * Create a non-looping video of the given frames; like a decoder, it
+	 * returns the same image for every frame, and like
+	 * {@link ArrayBackedVideo} it never returns null.
+	 */
+	static Video<FImage> createVideo(final FImage[] frames, final int failAt) {
+		return new ArrayBackedVideo<FImage>(frames, 25, false) {
+			private final FImage buffer = new FImage(4, 4);
+
+			@Override
+			public synchronized FImage getNextFrame() {
+				if (getCurrentFrameIndex() == failAt)
+					throw new IllegalStateException("failed at " + failAt);
+
+				return buffer.internalCopy(super.getNextFrame());
+			}
+		};
+	}
+
+	/**
+	 * Get the timestamp reported after reading each frame of the video
+	 */
+	static long[] readTimestamps(Video<FImage> video, int n) {
+		final long[] timestamps = new long[n];
+		for (int i = 0; i < n; i++) {
+			video.getNextFrame();
+			timestamps[i] = video.getTimeStamp();
+		}
+		return timestamps;
+	}
+
+	private static void checkFrames(Video<FImage> video, int from, int to) {
+		final long[] timestamps = readTimestamps(createVideo(createFrames(N_FRAMES), -1), N_FRAMES);
+
+		for (int i = from; i < to; i++) {
+			final FImage frame = video.getNextFrame();
+			assertEquals(i, frame.pixels[0][0], 0);
+			assertEquals(timestamps[i], video.getTimeStamp());
+		}
+	}
+
+	/**
+	 * Test that the frames and timestamps are the same as those of the
+	 * underlying video, and that the video ends even though the underlying
+	 * video never returns null
+	 */
+	@Test
+	public void testFrames() {
+		final PrefetchingVideo<FImage> video = new PrefetchingVideo<FImage>(createVideo(createFrames(N_FRAMES), -1), 4);
+
+		checkFrames(video, 0, N_FRAMES);
+		assertFalse(video.hasNextFrame());
+		assertNull(video.getNextFrame());
+		assertEquals(N_FRAMES, video.getCurrentFrameIndex());
+
+		video.close();
+	}
+
+	/**
+	 * Test that resetting whilst frames have been decoded ahead discards them
+	 * along with the current frame
+	 */
+	@Test
+	public void testReset() {
+		final PrefetchingVideo<FImage> video = new PrefetchingVideo<FImage>(createVideo(createFrames(N_FRAMES), -1), 4);
+
+		checkFrames(video, 0, 10);
+		video.reset();
+
+		assertEquals(0, video.getCurrentFrameIndex());
+		assertEquals(0, video.getCurrentFrame().pixels[0][0], 0);
+		checkFrames(video, 1, N_FRAMES);
+		assertNull(video.getNextFrame());
+
+		video.close();
+	}
+
+	/**
+	 * Test that seeking whilst frames have been decoded ahead discards them
+	 * along with the current frame
+	 */
+	@Test
+	public void testSeek() {
+		final PrefetchingVideo<FImage> video = new PrefetchingVideo<FImage>(createVideo(createFrames(N_FRAMES), -1), 4);
+
+		checkFrames(video, 0, 10);
+		video.setCurrentFrameIndex(30);
+
+		assertEquals(30, video.getCurrentFrameIndex());
+		assertEquals(30, video.getCurrentFrame().pixels[0][0], 0);
+		checkFrames(video, 31, N_FRAMES);
+		assertNull(video.getNextFrame());
+
+		video.setCurrentFrameIndex(5);
+		checkFrames(video, 5, N_FRAMES);
+
+		video.close();
+	}
+
+	/**
+	 * Test that an exception thrown whilst decoding is thrown to the consumer
+	 * once the frames before it have been read
+	 */
+	@Test
+	public void testDecoderException() {
+		final PrefetchingVideo<FImage> video = new PrefetchingVideo<FImage>(createVideo(createFrames(N_FRAMES), 20), 4);
+
+		checkFrames(video, 0, 20);
+		try {
+			video.getNextFrame();
+			fail("expected the decoder's exception");
+		} catch (final IllegalStateException e) {
+			assertEquals("failed at 20", e.getMessage());
+		}
+
+		video.close();
+	}
+}
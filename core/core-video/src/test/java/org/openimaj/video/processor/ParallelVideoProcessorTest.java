@@ -0,0 +1,256 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.video.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openimaj.image.FImage;
+import org.openimaj.video.ArrayBackedVideo;
+import org.openimaj.video.PrefetchingVideo;
+import org.openimaj.video.Video;
+
+/**
+ * Tests for the {@link ParallelVideoProcessor}
+ *
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class ParallelVideoProcessorTest {
+	private static final int N_FRAMES = 50;
+	private static final int OFFSET = 1000;
+
+	/**
+	 * Adds {@link #OFFSET} to the first pixel of each frame, taking a
+	 * different amount of time for each frame so that they finish out of
+	 * order
+	 */
+	private static class OffsetProcessor extends VideoProcessor<FImage> {
+		final ConcurrentMap<Integer, AtomicInteger> processed = new ConcurrentHashMap<Integer, AtomicInteger>();
+		final AtomicInteger completed = new AtomicInteger();
+		final int failAt;
+
+		OffsetProcessor(int failAt) {
+			this.failAt = failAt;
+		}
+
+		@Override
+		public FImage processFrame(FImage frame) {
+			final int index = (int) frame.pixels[0][0];
+			if (index == failAt)
+				throw new IllegalStateException("failed at " + failAt);
+
+			try {
+				Thread.sleep((N_FRAMES - index) % 4);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			processed.putIfAbsent(index, new AtomicInteger());
+			processed.get(index).incrementAndGet();
+			frame.pixels[0][0] += OFFSET;
+			return frame;
+		}
+
+		@Override
+		public void processingComplete() {
+			assertProcessedOnce(this);
+			completed.incrementAndGet();
+		}
+	}
+
+	private static void assertProcessedOnce(OffsetProcessor processor) {
+		assertEquals(N_FRAMES, processor.processed.size());
+		for (int i = 0; i < N_FRAMES; i++)
+			assertEquals(1, processor.processed.get(i).get());
+	}
+
+	private ExecutorService executor;
+	private FImage[] frames;
+
+	/**
+	 * Create the executor and frames, which are numbered by their first pixel
+	 */
+	@Before
+	public void setup() {
+		executor = Executors.newFixedThreadPool(4);
+
+		frames = new FImage[N_FRAMES];
+		for (int i = 0; i < N_FRAMES; i++) {
+			frames[i] = new FImage(4, 4);
+			frames[i].pixels[0][0] = i;
+		}
+	}
+
+	/**
+	 * Stop the executor
+	 */
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Create a non-looping video of the frames; like a decoder, it returns
+	 * the same image for every frame, and like {@link ArrayBackedVideo} it
+	 * never returns null.
+	 */
+	private Video<FImage> createVideo() {
+		return new ArrayBackedVideo<FImage>(frames, 25, false) {
+			private final FImage buffer = new FImage(4, 4);
+
+			@Override
+			public synchronized FImage getNextFrame() {
+				return buffer.internalCopy(super.getNextFrame());
+			}
+		};
+	}
+
+	private void checkFrames(Video<FImage> video, int from, int to) {
+		final Video<FImage> reference = createVideo();
+		final long[] timestamps = new long[N_FRAMES];
+		for (int i = 0; i < N_FRAMES; i++) {
+			reference.getNextFrame();
+			timestamps[i] = reference.getTimeStamp();
+		}
+
+		for (int i = from; i < to; i++) {
+			final FImage frame = video.getNextFrame();
+			assertEquals(OFFSET + i, frame.pixels[0][0], 0);
+			assertEquals(timestamps[i], video.getTimeStamp());
+		}
+	}
+
+	private void checkUnchanged() {
+		for (int i = 0; i < N_FRAMES; i++)
+			assertEquals(i, frames[i].pixels[0][0], 0);
+	}
+
+	/**
+	 * Test that {@link VideoProcessor#process(Video)} processes every frame
+	 * exactly once before completing, even though the video never returns
+	 * null
+	 */
+	@Test
+	public void testProcess() {
+		final OffsetProcessor processor = new OffsetProcessor(-1);
+		new ParallelVideoProcessor<FImage>(processor, executor, 4).process(createVideo());
+
+		assertEquals(1, processor.completed.get());
+		assertProcessedOnce(processor);
+		checkUnchanged();
+	}
+
+	/**
+	 * Test that chained frames are returned in order with the timestamps of
+	 * the underlying video, and are each processed exactly once, including
+	 * when the video is prefetched
+	 */
+	@Test
+	public void testChainedFrames() {
+		OffsetProcessor processor = new OffsetProcessor(-1);
+		ParallelVideoProcessor<FImage> pvp = new ParallelVideoProcessor<FImage>(createVideo(), processor, executor, 4);
+
+		checkFrames(pvp, 0, N_FRAMES);
+		assertFalse(pvp.hasNextFrame());
+		assertNull(pvp.getNextFrame());
+		assertEquals(N_FRAMES, pvp.getCurrentFrameIndex());
+		assertProcessedOnce(processor);
+
+		final PrefetchingVideo<FImage> prefetching = new PrefetchingVideo<FImage>(createVideo(), 4);
+		processor = new OffsetProcessor(-1);
+		pvp = new ParallelVideoProcessor<FImage>(prefetching, processor, executor, 4);
+
+		checkFrames(pvp, 0, N_FRAMES);
+		assertNull(pvp.getNextFrame());
+		prefetching.close();
+		assertProcessedOnce(processor);
+
+		checkUnchanged();
+	}
+
+	/**
+	 * Test that resetting and seeking discard the frames that are being
+	 * processed
+	 */
+	@Test
+	public void testResetAndSeek() {
+		final ParallelVideoProcessor<FImage> pvp = new ParallelVideoProcessor<FImage>(createVideo(),
+				new OffsetProcessor(-1), executor, 4);
+
+		checkFrames(pvp, 0, 10);
+		pvp.reset();
+
+		assertEquals(0, pvp.getCurrentFrameIndex());
+		checkFrames(pvp, 0, 20);
+
+		pvp.setCurrentFrameIndex(30);
+		assertEquals(30, pvp.getCurrentFrameIndex());
+		checkFrames(pvp, 30, N_FRAMES);
+		assertNull(pvp.getNextFrame());
+
+		pvp.setCurrentFrameIndex(5);
+		checkFrames(pvp, 5, N_FRAMES);
+	}
+
+	/**
+	 * Test that an exception thrown by the wrapped processor reaches the
+	 * caller
+	 */
+	@Test
+	public void testWorkerException() {
+		try {
+			new ParallelVideoProcessor<FImage>(new OffsetProcessor(20), executor, 4).process(createVideo());
+			fail("expected the processor's exception");
+		} catch (final IllegalStateException e) {
+			assertEquals("failed at 20", e.getMessage());
+		}
+
+		final ParallelVideoProcessor<FImage> pvp = new ParallelVideoProcessor<FImage>(createVideo(),
+				new OffsetProcessor(20), executor, 4);
+		checkFrames(pvp, 0, 20);
+		try {
+			pvp.getNextFrame();
+			fail("expected the processor's exception");
+		} catch (final IllegalStateException e) {
+			assertEquals("failed at 20", e.getMessage());
+		}
+	}
+}
@@ -29,13 +29,16 @@
  */
 package org.openimaj.data.dataset;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSelector;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemManager;
 import org.apache.commons.vfs2.FileType;
@@ -131,9 +134,45 @@ public class VFSGroupDataset<INSTANCE>
 	 *             if an error occurs accessing the VFS
 	 */
 	public VFSGroupDataset(final String path, final ObjectReader<INSTANCE, FileObject> reader) throws FileSystemException
+	{
+		this(path, reader, null, null);
+	}
+
+	/**
+	 * Construct a grouped dataset from any virtual file system source (local
+	 * directory, remote zip file, etc), using the given {@link FileSelector}
+	 * to determine which files are included in each group, and optionally
+	 * caching the listing of each group in a manifest file. Only the child
+	 * directories under the given path will be used to create groups; the
+	 * contents of any sub-directories will be merged automatically. Only
+	 * directories with selected items as children will be included in the
+	 * resultant dataset.
+	 * 
+	 * @see VFSListDataset#VFSListDataset(String, ObjectReader, FileSelector,
+	 *      File)
+	 * @see "http://commons.apache.org/proper/commons-vfs/filesystems.html"
+	 * @param path
+	 *            the file system path or uri. See the Apache Commons VFS2
+	 *            documentation for all the details.
+	 * @param reader
+	 *            the {@link ObjectReader} that reads the data from the VFS
+	 * @param selector
+	 *            the selector that determines which files are included; if
+	 *            null, files that can be read by the reader are included.
+	 * @param manifestDirectory
+	 *            the directory in which to store a manifest for each group;
+	 *            can be null if manifests are not required
+	 * @throws FileSystemException
+	 *             if an error occurs accessing the VFS
+	 */
+	public VFSGroupDataset(final String path, final ObjectReader<INSTANCE, FileObject> reader,
+			final FileSelector selector, final File manifestDirectory) throws FileSystemException
 	{
 		super(reader);
 
+		if (manifestDirectory != null)
+			manifestDirectory.mkdirs();
+
 		final FileSystemManager fsManager = VFS.getManager();
 		base = fsManager.resolveFile(path);
 
@@ -151,7 +190,15 @@ public class VFSGroupDataset<INSTANCE>
 				continue;
 
 			directoryInfo.put(folder.getName().getBaseName(), folder);
-			final VFSListDataset<INSTANCE> list = new VFSListDataset<INSTANCE>(folder.getName().getURI(), reader);
+			final VFSListDataset<INSTANCE> list;
+			if (selector == null && manifestDirectory == null) {
+				list = new VFSListDataset<INSTANCE>(folder.getName().getURI(), reader);
+			} else {
+				final String name = base.getName().getRelativeName(folder.getName()).replace('/', '_');
+				final File manifest = manifestDirectory == null ? null : new File(manifestDirectory, name + ".manifest");
+
+				list = new VFSListDataset<INSTANCE>(folder.getName().getURI(), reader, selector, manifest);
+			}
 
 			if (list.size() > 0)
 				files.put(folder.getName().getBaseName(), list);
@@ -180,6 +227,25 @@ public class VFSGroupDataset<INSTANCE>
 		return directoryInfo.get(key);
 	}
 
+	/**
+	 * Enable or disable prefetching of instances during iteration over each of
+	 * the groups.
+	 * 
+	 * @see VFSListDataset#setPrefetch(int, ExecutorService)
+	 * 
+	 * @param count
+	 *            the number of instances to read ahead; zero or less disables
+	 *            prefetching
+	 * @param executor
+	 *            the executor to read the instances with; if null the
+	 *            {@link org.openimaj.util.parallel.GlobalExecutorPool} is
+	 *            used.
+	 */
+	public void setPrefetch(int count, ExecutorService executor) {
+		for (final VFSListDataset<INSTANCE> list : files.values())
+			list.setPrefetch(count, executor);
+	}
+
 	@Override
 	public String toString() {
 		return String.format("%s(%d groups with a total of %d instances)", this.getClass().getName(), this.size(),
@@ -30,9 +30,27 @@
 package org.openimaj.data.dataset;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOCase;
 import org.apache.commons.vfs2.FileContent;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSelectInfo;
@@ -46,6 +64,7 @@ import org.openimaj.io.IOUtils;
 import org.openimaj.io.InputStreamObjectReader;
 import org.openimaj.io.ObjectReader;
 import org.openimaj.util.array.ArrayIterator;
+import org.openimaj.util.parallel.GlobalExecutorPool;
 
 /**
  * A {@link ListDataset} backed by a directory of items (either locally or
@@ -72,6 +91,21 @@ import org.openimaj.util.array.ArrayIterator;
  * ListDataset&lt;FImage&gt; dataset = new VFSListDataset&lt;FImage&gt;(
  * 		&quot;zip:http://localhost/&tilde;jsh2/thumbnails.zip&quot;, ImageUtilities.FIMAGE_READER);
  * </pre>
+ * <p>
+ * By default every file under the given path is tested with
+ * {@link ObjectReader#canRead(Object, String)} when the dataset is
+ * constructed, which for readers that sniff the content means opening every
+ * file. For very large collections a {@link FileSelector} (for example a
+ * {@link GlobFileSelector}) can be provided instead so that files are selected
+ * on their name alone, and a manifest file can be given so that the listing is
+ * only performed once:
+ * 
+ * <pre>
+ * VFSListDataset&lt;FImage&gt; dataset = new VFSListDataset&lt;FImage&gt;(&quot;/path/to/directory/of/images&quot;,
+ * 		ImageUtilities.FIMAGE_READER, new GlobFileSelector(&quot;*.jpg&quot;, &quot;*.png&quot;),
+ * 		new File(&quot;images.manifest&quot;));
+ * dataset.setPrefetch(16, null);
+ * </pre>
  * 
  * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
  * 
@@ -138,9 +172,60 @@ public class VFSListDataset<INSTANCE> extends ReadableListDataset<INSTANCE, File
 
 	}
 
+	/**
+	 * A {@link FileSelector} that selects files based only on their name,
+	 * without reading their content. Names are matched case-insensitively
+	 * against a set of wildcard patterns (for example <code>*.jpg</code>),
+	 * where <code>?</code> matches a single character and <code>*</code>
+	 * matches any number of characters.
+	 * 
+	 * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+	 */
+	public static class GlobFileSelector implements FileSelector {
+		private String[] patterns;
+
+		/**
+		 * Construct with the given wildcard patterns. A file is selected if
+		 * its base name matches any of the patterns.
+		 * 
+		 * @param patterns
+		 *            the patterns
+		 */
+		public GlobFileSelector(String... patterns) {
+			this.patterns = patterns;
+		}
+
+		@Override
+		public boolean includeFile(FileSelectInfo fileInfo) throws Exception {
+			final String name = fileInfo.getFile().getName().getBaseName();
+
+			for (final String p : patterns) {
+				if (FilenameUtils.wildcardMatch(name, p, IOCase.INSENSITIVE))
+					return fileInfo.getFile().getType() == FileType.FILE;
+			}
+
+			return false;
+		}
+
+		@Override
+		public boolean traverseDescendents(FileSelectInfo fileInfo) throws Exception {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return "GlobFileSelector" + Arrays.toString(patterns);
+		}
+	}
+
+	private static final String MANIFEST_HEADER = "# VFSListDataset manifest v2";
+
 	private FileObject[] files;
 	private FileObject base;
 
+	private int prefetch;
+	private ExecutorService prefetchExecutor;
+
 	/**
 	 * Construct a list dataset from any virtual file system source (local
 	 * directory, remote zip file, etc).
@@ -173,12 +258,124 @@ public class VFSListDataset<INSTANCE> extends ReadableListDataset<INSTANCE, File
 	 *             if an error occurs accessing the VFS
 	 */
 	public VFSListDataset(final String path, final ObjectReader<INSTANCE, FileObject> reader) throws FileSystemException {
+		this(path, reader, readableFileSelector(reader), null);
+	}
+
+	/**
+	 * Construct a list dataset from any virtual file system source (local
+	 * directory, remote zip file, etc), using the given {@link FileSelector}
+	 * to determine which files form the dataset. Unlike the other
+	 * constructors, the files are not tested with the reader, so a selector
+	 * that doesn't need to read the file content (such as a
+	 * {@link GlobFileSelector}) allows the dataset to be created without
+	 * opening any of the files.
+	 * 
+	 * @see "http://commons.apache.org/proper/commons-vfs/filesystems.html"
+	 * @param path
+	 *            the file system path or uri. See the Apache Commons VFS2
+	 *            documentation for all the details.
+	 * @param reader
+	 *            the {@link ObjectReader} that reads the data from the VFS
+	 * @param selector
+	 *            the selector that determines which files are included
+	 * @throws FileSystemException
+	 *             if an error occurs accessing the VFS
+	 */
+	public VFSListDataset(final String path, final ObjectReader<INSTANCE, FileObject> reader, final FileSelector selector)
+			throws FileSystemException
+	{
+		this(path, reader, selector, null);
+	}
+
+	/**
+	 * Construct a list dataset from any virtual file system source (local
+	 * directory, remote zip file, etc), using the given {@link FileSelector}
+	 * to determine which files form the dataset, and caching the resultant
+	 * listing in a manifest file.
+	 * <p>
+	 * The manifest records the selector, the modification time of every
+	 * directory that was traversed, and the relative path, size and
+	 * modification time of every selected file. If the manifest exists, was
+	 * created for the same path and selector, none of the traversed
+	 * directories have been modified, and every listed file still exists with
+	 * the recorded size and modification time, then the listing is read from
+	 * the manifest rather than by traversing the file system; this only
+	 * requires the attributes of each file and directory to be read, and none
+	 * of the files are opened. Otherwise the file system is traversed and the
+	 * manifest is rewritten.
+	 * <p>
+	 * A {@link GlobFileSelector} is identified by its patterns, the default
+	 * selector by the class of the reader, and any other selector by its
+	 * class alone; the manifest should be deleted if a selector of the same
+	 * class is configured differently. On file systems that don't record the
+	 * modification times of directories, files added to the dataset can't be
+	 * detected, so the manifest should also be deleted if files are added.
+	 * 
+	 * @see "http://commons.apache.org/proper/commons-vfs/filesystems.html"
+	 * @param path
+	 *            the file system path or uri. See the Apache Commons VFS2
+	 *            documentation for all the details.
+	 * @param reader
+	 *            the {@link ObjectReader} that reads the data from the VFS
+	 * @param selector
+	 *            the selector that determines which files are included; if
+	 *            null, files that can be read by the reader are included.
+	 * @param manifest
+	 *            the manifest file; can be null if a manifest is not required
+	 * @throws FileSystemException
+	 *             if an error occurs accessing the VFS or writing the
+	 *             manifest
+	 */
+	public VFSListDataset(final String path, final ObjectReader<INSTANCE, FileObject> reader,
+			final FileSelector selector, final File manifest) throws FileSystemException
+	{
 		super(reader);
 
 		final FileSystemManager fsManager = VFS.getManager();
 		base = fsManager.resolveFile(path);
 
-		files = base.findFiles(new FileSelector() {
+		final FileSelector actualSelector = selector == null ? readableFileSelector(reader) : selector;
+
+		if (manifest == null) {
+			files = base.findFiles(actualSelector);
+			return;
+		}
+
+		final String key = selector == null ? "reader " + reader.getClass().getName() : selectorKey(selector);
+		if (manifest.exists())
+			files = readManifest(manifest, key);
+
+		if (files == null) {
+			final List<FileObject> folders = new ArrayList<FileObject>();
+			files = base.findFiles(new FileSelector() {
+				@Override
+				public boolean includeFile(FileSelectInfo fileInfo) throws Exception {
+					return actualSelector.includeFile(fileInfo);
+				}
+
+				@Override
+				public boolean traverseDescendents(FileSelectInfo fileInfo) throws Exception {
+					if (actualSelector.traverseDescendents(fileInfo)) {
+						folders.add(fileInfo.getFile());
+						return true;
+					}
+					return false;
+				}
+			});
+
+			writeManifest(manifest, key, folders);
+		}
+	}
+
+	private static String selectorKey(FileSelector selector) {
+		if (selector instanceof GlobFileSelector)
+			return selector.toString();
+
+		return selector.getClass().getName();
+	}
+
+	private static <INSTANCE> FileSelector readableFileSelector(final ObjectReader<INSTANCE, FileObject> reader) {
+		return new FileSelector() {
 
 			@Override
 			public boolean traverseDescendents(FileSelectInfo fileInfo) throws Exception {
@@ -193,7 +390,150 @@ public class VFSListDataset<INSTANCE> extends ReadableListDataset<INSTANCE, File
 
 				return false;
 			}
-		});
+		};
+	}
+
+	private static long folderModificationTime(FileObject folder) {
+		try {
+			return folder.getContent().getLastModifiedTime();
+		} catch (final FileSystemException e) {
+			// not all file systems support modification times on folders
+			return -1;
+		}
+	}
+
+	/**
+	 * Read the listing from the manifest, returning null if the manifest
+	 * cannot be read or is out of date.
+	 */
+	private FileObject[] readManifest(File manifest, String key) throws FileSystemException {
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+
+			if (!MANIFEST_HEADER.equals(br.readLine()))
+				return null;
+			if (!base.getName().getURI().equals(br.readLine()))
+				return null;
+			if (!key.equals(br.readLine()))
+				return null;
+
+			final List<FileObject> list = new ArrayList<FileObject>();
+			String line;
+			while ((line = br.readLine()) != null) {
+				final int mtimeIdx = line.lastIndexOf('\t');
+				final long mtime = Long.parseLong(line.substring(mtimeIdx + 1));
+
+				if (line.startsWith("d\t")) {
+					// a new file in a directory changes its modification time
+					final FileObject folder = base.resolveFile(line.substring(2, mtimeIdx));
+					if (!folder.exists() || folderModificationTime(folder) != mtime)
+						return null;
+				} else {
+					final int sizeIdx = line.lastIndexOf('\t', mtimeIdx - 1);
+					final long size = Long.parseLong(line.substring(sizeIdx + 1, mtimeIdx));
+
+					final FileObject file = base.resolveFile(line.substring(2, sizeIdx));
+					if (!isUnchanged(file, size, mtime))
+						return null;
+
+					list.add(file);
+				}
+			}
+
+			return list.toArray(new FileObject[list.size()]);
+		} catch (final FileSystemException e) {
+			throw e;
+		} catch (final Exception e) {
+			// the manifest is corrupt, so the listing will be rebuilt
+			return null;
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (final IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test whether the given file still exists with the given size and
+	 * modification time
+	 */
+	private static boolean isUnchanged(FileObject file, long size, long mtime) throws FileSystemException {
+		if (!file.exists())
+			return false;
+
+		final FileContent content = file.getContent();
+		try {
+			return content.getSize() == size && content.getLastModifiedTime() == mtime;
+		} finally {
+			content.close();
+		}
+	}
+
+	private void writeManifest(File manifest, String key, List<FileObject> folders) throws FileSystemException {
+		PrintWriter pw = null;
+		try {
+			pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(manifest), "UTF-8"));
+
+			pw.println(MANIFEST_HEADER);
+			pw.println(base.getName().getURI());
+			pw.println(key);
+
+			for (final FileObject f : folders) {
+				pw.print("d\t");
+				pw.print(base.getName().getRelativeName(f.getName()));
+				pw.print('\t');
+				pw.println(folderModificationTime(f));
+			}
+
+			for (final FileObject f : files) {
+				final FileContent content = f.getContent();
+				pw.print("f\t");
+				pw.print(base.getName().getRelativeName(f.getName()));
+				pw.print('\t');
+				pw.print(content.getSize());
+				pw.print('\t');
+				pw.println(content.getLastModifiedTime());
+				content.close();
+			}
+		} catch (final FileSystemException e) {
+			throw e;
+		} catch (final IOException e) {
+			throw new FileSystemException(e);
+		} finally {
+			if (pw != null)
+				pw.close();
+		}
+	}
+
+	/**
+	 * Enable or disable prefetching of instances during iteration. When
+	 * enabled, iterators created by {@link #iterator()} will read up to
+	 * <code>count</code> instances ahead of the current position using the
+	 * given executor, so that reading and decoding overlaps with the
+	 * processing of the returned instances. The reader must be safe to use
+	 * from multiple threads. Each instance is read exactly once: if it is
+	 * needed before the executor has started reading it (for example because
+	 * every thread of the executor is busy), it is read in the calling thread
+	 * instead, so iterating from within a task running on the same executor
+	 * cannot deadlock; if the read is already in progress, the calling thread
+	 * waits for it to finish.
+	 * 
+	 * @param count
+	 *            the number of instances to read ahead; zero or less disables
+	 *            prefetching
+	 * @param executor
+	 *            the executor to read the instances with; if null the global
+	 *            fork-join pool ({@link GlobalExecutorPool#getForkJoinPool()})
+	 *            is used.
+	 */
+	public void setPrefetch(int count, ExecutorService executor) {
+		this.prefetch = count;
+		this.prefetchExecutor = executor;
 	}
 
 	/**
@@ -240,6 +580,10 @@ public class VFSListDataset<INSTANCE> extends ReadableListDataset<INSTANCE, File
 
 	@Override
 	public Iterator<INSTANCE> iterator() {
+		if (prefetch > 0 && files != null)
+			return new PrefetchingIterator(prefetch,
+					prefetchExecutor == null ? GlobalExecutorPool.getForkJoinPool() : prefetchExecutor);
+
 		return new Iterator<INSTANCE>() {
 			ArrayIterator<FileObject> filesIterator = new ArrayIterator<FileObject>(files);
 
@@ -264,6 +608,72 @@ public class VFSListDataset<INSTANCE> extends ReadableListDataset<INSTANCE, File
 		};
 	}
 
+	/**
+	 * An iterator that reads a number of instances ahead of the current
+	 * position in the background.
+	 */
+	private class PrefetchingIterator implements Iterator<INSTANCE> {
+		private final ArrayDeque<FutureTask<INSTANCE>> queue = new ArrayDeque<FutureTask<INSTANCE>>();
+		private final int count;
+		private final ExecutorService executor;
+		private int nextIndex;
+
+		PrefetchingIterator(int count, ExecutorService executor) {
+			this.count = count;
+			this.executor = executor;
+			fill();
+		}
+
+		private void fill() {
+			while (queue.size() < count && nextIndex < files.length) {
+				final FileObject file = files[nextIndex++];
+
+				final FutureTask<INSTANCE> task = new FutureTask<INSTANCE>(new Callable<INSTANCE>() {
+					@Override
+					public INSTANCE call() throws Exception {
+						return read(file);
+					}
+				});
+
+				queue.add(task);
+				executor.execute(task);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		@Override
+		public INSTANCE next() {
+			final FutureTask<INSTANCE> task = queue.poll();
+			if (task == null)
+				throw new NoSuchElementException();
+
+			fill();
+
+			// read in this thread if the read hasn't started yet, rather than
+			// waiting for a thread of the executor to become free; does
+			// nothing if the executor has already started the task
+			task.run();
+
+			try {
+				return task.get();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (final ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
 	@Override
 	public String getID(int index) {
 		try {
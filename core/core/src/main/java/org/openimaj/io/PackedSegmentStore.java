@@ -0,0 +1,659 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A simple persistent key-value store that packs values into a small number of
+ * large append-only segment files rather than creating one file per value.
+ * <p>
+ * Each record in a segment file consists of the UTF-8 encoded key and the
+ * value bytes, both prefixed by their length, so the segments are
+ * self-describing. An index file records the segment, offset and length of
+ * every record that is written; on opening the store the index is loaded into
+ * an in-memory hash table so that lookups never touch the file system. Records
+ * that were appended to a segment but not recorded in the index (for example
+ * because the JVM was killed before the index was flushed) are recovered by
+ * scanning the tails of the segments, and a truncated final record is
+ * discarded.
+ * <p>
+ * Writes are serialised, but any number of threads can read concurrently with
+ * each other and with a writer. Sealed segments (those that are no longer
+ * being appended to) are optionally memory-mapped; the active segment is read
+ * with positional reads on its {@link FileChannel}. Re-putting an existing key
+ * appends a new record and leaves the old one as garbage, which can be
+ * reclaimed with {@link #compact()}.
+ *
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class PackedSegmentStore implements Closeable {
+	/**
+	 * The default maximum size of a segment file in bytes (256MB)
+	 */
+	public static final long DEFAULT_MAX_SEGMENT_SIZE = 256L * 1024L * 1024L;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String INDEX_FILE = "index.dat";
+	private static final String INDEX_TMP_FILE = "index.tmp";
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".dat";
+
+	/**
+	 * The location of a single value within the segments
+	 */
+	private static final class Entry {
+		final int segment;
+		final long offset;
+		final int length;
+
+		Entry(int segment, long offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * An open segment file
+	 */
+	private static final class Segment {
+		final int id;
+		final File file;
+		final RandomAccessFile raf;
+		final FileChannel channel;
+
+		/** the mapped content; only set once the segment is sealed */
+		volatile MappedByteBuffer buffer;
+
+		/** the size of the segment; only modified by the writer */
+		volatile long size;
+
+		Segment(int id, File file) throws IOException {
+			this.id = id;
+			this.file = file;
+			this.raf = new RandomAccessFile(file, "rw");
+			this.channel = raf.getChannel();
+			this.size = channel.size();
+		}
+
+		void map() throws IOException {
+			if (buffer == null && size > 0 && size <= Integer.MAX_VALUE)
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+
+		byte[] read(long offset, int length) throws IOException {
+			final byte[] data = new byte[length];
+			final MappedByteBuffer mb = buffer;
+
+			if (mb != null) {
+				final ByteBuffer dup = mb.duplicate();
+				dup.position((int) offset);
+				dup.get(data);
+			} else {
+				readFully(ByteBuffer.wrap(data), offset);
+			}
+
+			return data;
+		}
+
+		void readFully(ByteBuffer bb, long position) throws IOException {
+			while (bb.hasRemaining()) {
+				final int n = channel.read(bb, position);
+				if (n < 0)
+					throw new EOFException("Unexpected end of segment " + file);
+				position += n;
+			}
+		}
+
+		void writeFully(ByteBuffer bb, long position) throws IOException {
+			while (bb.hasRemaining())
+				position += channel.write(bb, position);
+		}
+
+		void close() throws IOException {
+			buffer = null;
+			raf.close();
+		}
+	}
+
+	private final File directory;
+	private final long maxSegmentSize;
+	private final boolean mapSegments;
+
+	private final ConcurrentHashMap<String, Entry> index = new ConcurrentHashMap<String, Entry>();
+	private final ConcurrentHashMap<Integer, Segment> segments = new ConcurrentHashMap<Integer, Segment>();
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Object writeMutex = new Object();
+
+	private Segment active;
+	private DataOutputStream indexOut;
+	private boolean closed;
+
+	/**
+	 * Open (or create) a store in the given directory using the default
+	 * maximum segment size and memory-mapped reads.
+	 *
+	 * @param directory
+	 *            the directory holding the store
+	 * @throws IOException
+	 *             if the store cannot be opened
+	 */
+	public PackedSegmentStore(File directory) throws IOException {
+		this(directory, DEFAULT_MAX_SEGMENT_SIZE, true);
+	}
+
+	/**
+	 * Open (or create) a store in the given directory.
+	 *
+	 * @param directory
+	 *            the directory holding the store
+	 * @param maxSegmentSize
+	 *            the size in bytes at which a new segment is started. Sealed
+	 *            segments can only be memory-mapped if they are smaller than
+	 *            2GB.
+	 * @param mapSegments
+	 *            if true, sealed segments are memory-mapped for reading
+	 * @throws IOException
+	 *             if the store cannot be opened
+	 */
+	public PackedSegmentStore(File directory, long maxSegmentSize, boolean mapSegments) throws IOException {
+		if (maxSegmentSize <= 0)
+			throw new IllegalArgumentException("maxSegmentSize must be positive");
+
+		this.directory = directory;
+		this.maxSegmentSize = maxSegmentSize;
+		this.mapSegments = mapSegments;
+
+		directory.mkdirs();
+		if (!directory.isDirectory())
+			throw new IOException("Unable to create store directory " + directory);
+
+		open();
+	}
+
+	private void open() throws IOException {
+		final File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+
+		int maxId = -1;
+		for (final File f : files) {
+			final String name = f.getName();
+			final int id;
+			try {
+				id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+			} catch (final NumberFormatException e) {
+				continue;
+			}
+
+			segments.put(id, new Segment(id, f));
+			maxId = Math.max(maxId, id);
+		}
+
+		final Map<Integer, Long> indexedEnd = readIndex();
+		recover(indexedEnd);
+
+		if (maxId >= 0 && segments.get(maxId).size < maxSegmentSize)
+			active = segments.get(maxId);
+		else
+			active = newSegment(maxId + 1);
+
+		if (mapSegments) {
+			for (final Segment s : segments.values()) {
+				if (s != active)
+					s.map();
+			}
+		}
+
+		indexOut = openIndexOutput(new File(directory, INDEX_FILE), true);
+	}
+
+	/**
+	 * Load the index file, returning the end position of the last indexed
+	 * record in each segment. If the index ends with a partially written (or
+	 * otherwise unreadable) entry, the index file is truncated to the end of
+	 * the last complete entry so that new entries can be appended safely.
+	 */
+	private Map<Integer, Long> readIndex() throws IOException {
+		final Map<Integer, Long> ends = new HashMap<Integer, Long>();
+		final File indexFile = new File(directory, INDEX_FILE);
+
+		if (!indexFile.exists())
+			return ends;
+
+		final long fileLength = indexFile.length();
+		long valid = 0;
+
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+		try {
+			while (true) {
+				final String key;
+				final Entry e;
+				try {
+					final int keyLength = in.readInt();
+
+					// each entry has a 20 byte fixed part as well as the key
+					if (keyLength < 0 || keyLength > fileLength - valid - 20)
+						break;
+
+					final byte[] kb = new byte[keyLength];
+					in.readFully(kb);
+					key = new String(kb, UTF8);
+					e = new Entry(in.readInt(), in.readLong(), in.readInt());
+
+					valid += 20 + keyLength;
+				} catch (final EOFException eof) {
+					// end of the index, or a partially written final entry
+					break;
+				}
+
+				final Segment s = segments.get(e.segment);
+				if (s == null || e.offset < 0 || e.length < 0 || e.offset + e.length > s.size)
+					continue;
+
+				index.put(key, e);
+
+				final Long end = ends.get(e.segment);
+				if (end == null || end < e.offset + e.length)
+					ends.put(e.segment, e.offset + e.length);
+			}
+		} finally {
+			in.close();
+		}
+
+		if (valid < fileLength) {
+			final RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+			try {
+				raf.setLength(valid);
+			} finally {
+				raf.close();
+			}
+		}
+
+		return ends;
+	}
+
+	/**
+	 * Scan the un-indexed tail of each segment for records, adding any that
+	 * are complete to the index and truncating any partial record.
+	 */
+	private void recover(Map<Integer, Long> indexedEnd) throws IOException {
+		final List<Integer> ids = new ArrayList<Integer>(segments.keySet());
+		Collections.sort(ids);
+
+		final List<String> recoveredKeys = new ArrayList<String>();
+		final List<Entry> recoveredEntries = new ArrayList<Entry>();
+
+		for (final int id : ids) {
+			final Segment s = segments.get(id);
+			final Long end = indexedEnd.get(id);
+			long pos = end == null ? 0 : end;
+
+			final ByteBuffer lenBuf = ByteBuffer.allocate(4);
+			while (pos < s.size) {
+				try {
+					lenBuf.clear();
+					s.readFully(lenBuf, pos);
+					lenBuf.flip();
+					final int keyLength = lenBuf.getInt();
+					if (keyLength < 0 || pos + 8 + keyLength > s.size)
+						break;
+
+					final byte[] kb = s.read(pos + 4, keyLength);
+
+					lenBuf.clear();
+					s.readFully(lenBuf, pos + 4 + keyLength);
+					lenBuf.flip();
+					final int valueLength = lenBuf.getInt();
+					final long valueOffset = pos + 8 + keyLength;
+					if (valueLength < 0 || valueOffset + valueLength > s.size)
+						break;
+
+					final Entry e = new Entry(id, valueOffset, valueLength);
+					final String key = new String(kb, UTF8);
+					index.put(key, e);
+					recoveredKeys.add(key);
+					recoveredEntries.add(e);
+
+					pos = valueOffset + valueLength;
+				} catch (final EOFException e) {
+					break;
+				}
+			}
+
+			if (pos < s.size) {
+				s.channel.truncate(pos);
+				s.size = pos;
+			}
+		}
+
+		if (recoveredKeys.size() > 0) {
+			final DataOutputStream out = openIndexOutput(new File(directory, INDEX_FILE), true);
+			try {
+				for (int i = 0; i < recoveredKeys.size(); i++)
+					writeIndexEntry(out, recoveredKeys.get(i), recoveredEntries.get(i));
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	private static DataOutputStream openIndexOutput(File file, boolean append) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append)));
+	}
+
+	private static void writeIndexEntry(DataOutputStream out, String key, Entry e) throws IOException {
+		final byte[] kb = key.getBytes(UTF8);
+		out.writeInt(kb.length);
+		out.write(kb);
+		out.writeInt(e.segment);
+		out.writeLong(e.offset);
+		out.writeInt(e.length);
+	}
+
+	private Segment newSegment(int id) throws IOException {
+		final File f = new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+		final Segment s = new Segment(id, f);
+		segments.put(id, s);
+		return s;
+	}
+
+	/**
+	 * Append a record to the active segment, rolling over to a new segment if
+	 * required. Must be called with the write mutex held.
+	 */
+	private Entry append(String key, byte[] value) throws IOException {
+		final byte[] kb = key.getBytes(UTF8);
+		final int recordLength = 8 + kb.length + value.length;
+
+		if (active.size > 0 && active.size + recordLength > maxSegmentSize) {
+			if (mapSegments)
+				active.map();
+			active = newSegment(active.id + 1);
+		}
+
+		final ByteBuffer bb = ByteBuffer.allocate(recordLength);
+		bb.putInt(kb.length);
+		bb.put(kb);
+		bb.putInt(value.length);
+		bb.put(value);
+		bb.flip();
+
+		final long position = active.size;
+		active.writeFully(bb, position);
+		active.size = position + recordLength;
+
+		return new Entry(active.id, position + 8 + kb.length, value.length);
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed)
+			throw new IOException("The store has been closed");
+	}
+
+	/**
+	 * Store a value against the given key, replacing any previous value.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 *             if an error occurs writing the value
+	 */
+	public void put(String key, byte[] value) throws IOException {
+		lock.readLock().lock();
+		try {
+			synchronized (writeMutex) {
+				checkOpen();
+
+				final Entry e = append(key, value);
+				writeIndexEntry(indexOut, key, e);
+				index.put(key, e);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the value stored against the given key. This method can be safely
+	 * called concurrently from many threads.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if there is no value for the key
+	 * @throws IOException
+	 *             if an error occurs reading the value
+	 */
+	public byte[] get(String key) throws IOException {
+		lock.readLock().lock();
+		try {
+			checkOpen();
+
+			final Entry e = index.get(key);
+			if (e == null)
+				return null;
+
+			return segments.get(e.segment).read(e.offset, e.length);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Test whether the store has a value for the given key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true if a value is stored against the key; false otherwise
+	 */
+	public boolean contains(String key) {
+		return index.containsKey(key);
+	}
+
+	/**
+	 * @return the number of keys in the store
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return the total size of the value data that is currently live
+	 */
+	public long liveBytes() {
+		long total = 0;
+		for (final Entry e : index.values())
+			total += e.length;
+		return total;
+	}
+
+	/**
+	 * @return the total size of all the segment files, including record
+	 *         headers and superseded records
+	 */
+	public long totalBytes() {
+		long total = 0;
+		for (final Segment s : segments.values())
+			total += s.size;
+		return total;
+	}
+
+	/**
+	 * Flush the index and force all written data to the storage device.
+	 *
+	 * @throws IOException
+	 *             if an error occurs
+	 */
+	public void flush() throws IOException {
+		synchronized (writeMutex) {
+			checkOpen();
+
+			indexOut.flush();
+			active.channel.force(false);
+		}
+	}
+
+	/**
+	 * Rewrite the store so that it only contains the current value of each
+	 * key, reclaiming the space used by superseded records. Readers and
+	 * writers are blocked whilst the compaction takes place.
+	 *
+	 * @throws IOException
+	 *             if an error occurs
+	 */
+	public void compact() throws IOException {
+		lock.writeLock().lock();
+		try {
+			synchronized (writeMutex) {
+				checkOpen();
+
+				indexOut.close();
+
+				final List<Segment> old = new ArrayList<Segment>(segments.values());
+				final Map<String, Entry> compacted = new HashMap<String, Entry>();
+
+				int nextId = 0;
+				for (final Segment s : old)
+					nextId = Math.max(nextId, s.id + 1);
+				active = newSegment(nextId);
+
+				final File tmpIndex = new File(directory, INDEX_TMP_FILE);
+				final DataOutputStream out = openIndexOutput(tmpIndex, false);
+				try {
+					for (final Map.Entry<String, Entry> me : index.entrySet()) {
+						final Entry e = me.getValue();
+						final byte[] value = segments.get(e.segment).read(e.offset, e.length);
+						final Entry ne = append(me.getKey(), value);
+
+						writeIndexEntry(out, me.getKey(), ne);
+						compacted.put(me.getKey(), ne);
+					}
+				} finally {
+					out.close();
+				}
+
+				for (final Segment s : segments.values())
+					if (s.id >= nextId)
+						s.channel.force(false);
+
+				final File indexFile = new File(directory, INDEX_FILE);
+				if (indexFile.exists() && !indexFile.delete())
+					throw new IOException("Unable to replace index " + indexFile);
+				if (!tmpIndex.renameTo(indexFile))
+					throw new IOException("Unable to replace index " + indexFile);
+
+				index.putAll(compacted);
+
+				for (final Segment s : old) {
+					segments.remove(s.id);
+					s.close();
+					if (!s.file.delete())
+						s.file.deleteOnExit();
+				}
+
+				indexOut = openIndexOutput(indexFile, true);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Flush and close the store. Further calls to {@link #get(String)} and
+	 * {@link #put(String, byte[])} will fail.
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			synchronized (writeMutex) {
+				if (closed)
+					return;
+				closed = true;
+
+				IOException ex = null;
+				try {
+					indexOut.close();
+				} catch (final IOException e) {
+					ex = e;
+				}
+
+				for (final Segment s : segments.values()) {
+					try {
+						s.close();
+					} catch (final IOException e) {
+						if (ex == null)
+							ex = e;
+					}
+				}
+
+				if (ex != null)
+					throw ex;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the directory holding the store
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+}
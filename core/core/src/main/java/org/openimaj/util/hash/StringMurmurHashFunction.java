@@ -55,6 +55,15 @@ public class StringMurmurHashFunction implements HashFunction<String> {
 		this.seed = seed;
 	}
 
+	/**
+	 * Get the seed of this hash function
+	 * 
+	 * @return the seed
+	 */
+	public int getSeed() {
+		return seed;
+	}
+
 	@Override
 	public int computeHashCode(String data) {
 		return murmurhash(data.getBytes(), seed);
@@ -30,13 +30,15 @@
 package org.openimaj.util.parallel;
 
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * A globally available (static) fixed-size {@link ThreadPoolExecutor}. The number of
  * threads is equal to the number of available hardware threads as reported by
- * {@link Runtime#availableProcessors()}. 
+ * {@link Runtime#availableProcessors()}. A work-stealing {@link ForkJoinPool}
+ * with the same parallelism is also available.
  * 
  * To avoid the need to shutdown the threadpool, the threads are all daemons.
  * 
@@ -59,7 +61,9 @@ public class GlobalExecutorPool {
 	}
 	
 	private static ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory());
-	
+
+	private static ForkJoinPool forkJoinPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
 	/**
 	 * Get the pool.
 	 * @return the pool.
@@ -67,4 +71,15 @@ public class GlobalExecutorPool {
 	public static ThreadPoolExecutor getPool() {
 		return pool;
 	}
+
+	/**
+	 * Get the globally available work-stealing {@link ForkJoinPool}. The
+	 * parallelism is equal to the number of available hardware threads, and
+	 * like the fixed-size pool the worker threads are daemons.
+	 *
+	 * @return the fork-join pool.
+	 */
+	public static ForkJoinPool getForkJoinPool() {
+		return forkJoinPool;
+	}
 }
@@ -29,13 +29,25 @@
  */
 package org.openimaj.util.parallel;
 
+import java.util.ArrayDeque;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.openimaj.util.function.IntOperation;
 import org.openimaj.util.function.Operation;
 import org.openimaj.util.parallel.partition.FixedSizeChunkPartitioner;
 import org.openimaj.util.parallel.partition.GrowingChunkPartitioner;
@@ -50,22 +62,75 @@ import org.openimaj.util.stream.Stream;
  * is partitioned using inspiration from <a href=
  * "http://reedcopsey.com/2010/01/26/parallelism-in-net-part-5-partitioning-of-work/"
  * >Reed Copsey's blog</a>.
+ * <p>
+ * Every loop can be run on either a fixed-size {@link ThreadPoolExecutor} or a
+ * work-stealing {@link ForkJoinPool}. On a {@link ForkJoinPool}, integer loops
+ * are split adaptively into smaller ranges as threads become idle, loops can
+ * be safely nested inside each other (a waiting worker helps with the
+ * outstanding work rather than blocking). On either kind of pool, an exception
+ * thrown by the operation cancels the remainder of the loop and is rethrown to
+ * the caller.
+ * The methods that don't take an explicit pool use the global
+ * {@link ForkJoinPool} by default; this can be changed with
+ * {@link #setForkJoinDefault(boolean)} or by setting the
+ * {@value #FORK_JOIN_PROPERTY} system property to <code>false</code>, in which
+ * case they use the global {@link ThreadPoolExecutor}.
+ *
+ * @see GlobalExecutorPool
  *
  * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
  */
 public class Parallel {
+	/**
+	 * The name of the system property that controls whether the global
+	 * {@link ForkJoinPool} is used by default.
+	 */
+	public static final String FORK_JOIN_PROPERTY = "openimaj.parallel.forkjoin";
+
+	/**
+	 * Maximum number of surplus queued tasks before a worker stops splitting
+	 * ranges and just processes them.
+	 */
+	private static final int SURPLUS_THRESHOLD = 3;
+
+	/**
+	 * Number of leaf ranges per thread that an integer loop is split into if
+	 * all the threads are idle.
+	 */
+	private static final int LEAVES_PER_THREAD = 8;
+
+	private static volatile boolean forkJoinDefault = Boolean.parseBoolean(System.getProperty(FORK_JOIN_PROPERTY,
+			"true"));
+
+	/**
+	 * Shared state of a loop running on a {@link ForkJoinPool}, used to stop
+	 * the remaining work once one part of the loop has failed.
+	 */
+	private static class Cancellation {
+		volatile boolean cancelled;
+	}
+
 	private static class Task<T> implements Runnable {
 		private Iterator<T> iterator;
 		private Operation<T> op;
+		private Cancellation cancellation;
 
 		public Task(Iterator<T> iterator, Operation<T> op) {
+			this(iterator, op, null);
+		}
+
+		public Task(Iterator<T> iterator, Operation<T> op, Cancellation cancellation) {
 			this.iterator = iterator;
 			this.op = op;
+			this.cancellation = cancellation;
 		}
 
 		@Override
 		public void run() {
 			while (iterator.hasNext()) {
+				if (cancellation != null && cancellation.cancelled)
+					return;
+
 				op.perform(iterator.next());
 			}
 		}
@@ -114,6 +179,380 @@ public class Parallel {
 		}
 	}
 
+	/**
+	 * State of an integer loop running on a {@link ForkJoinPool}. The loop is
+	 * described in terms of iteration numbers, which are mapped back to
+	 * {@link IntRange}s for the operation.
+	 */
+	private static class RangeLoop extends Cancellation {
+		final int start;
+		final int stop;
+		final int incr;
+		final int grain;
+		final Operation<IntRange> op;
+
+		RangeLoop(int start, int stop, int incr, int grain, Operation<IntRange> op) {
+			this.start = start;
+			this.stop = stop;
+			this.incr = incr;
+			this.grain = grain;
+			this.op = op;
+		}
+
+		void perform(int from, int to) {
+			if (cancelled)
+				return;
+
+			final int lo = (int) (start + (long) from * incr);
+			final int hi = (int) Math.min(stop, start + (long) to * incr);
+
+			try {
+				op.perform(new IntRange(lo, hi, incr));
+			} catch (final RuntimeException e) {
+				cancelled = true;
+				throw e;
+			} catch (final Error e) {
+				cancelled = true;
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * A task that processes a range of iterations of a {@link RangeLoop}. The
+	 * range is split lazily: the upper half is forked off for as long as the
+	 * range is bigger than the loop grain and there isn't already a surplus of
+	 * queued work, so that the splitting adapts to the number of idle threads.
+	 */
+	private static class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final RangeLoop loop;
+		private final int from;
+		private final int to;
+		private RangeTask next;
+
+		RangeTask(RangeLoop loop, int from, int to) {
+			this.loop = loop;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			final int lo = from;
+			int hi = to;
+			RangeTask forked = null;
+
+			while (hi - lo > loop.grain && !loop.cancelled && getSurplusQueuedTaskCount() <= SURPLUS_THRESHOLD) {
+				final int mid = (lo + hi) >>> 1;
+				final RangeTask right = new RangeTask(loop, mid, hi);
+				right.next = forked;
+				forked = right;
+				right.fork();
+				hi = mid;
+			}
+
+			Throwable failure = null;
+			try {
+				loop.perform(lo, hi);
+			} catch (final Throwable t) {
+				failure = t;
+			}
+
+			// always wait for the forked ranges, so that no part of the loop is
+			// still running once the exception reaches the caller
+			for (; forked != null; forked = forked.next) {
+				if (forked.tryUnfork())
+					forked.quietlyInvoke();
+				else
+					forked.quietlyJoin();
+
+				if (failure == null && forked.isCompletedAbnormally())
+					failure = forked.getException();
+			}
+
+			if (failure != null)
+				rethrow(failure);
+		}
+	}
+
+	/**
+	 * Set whether the methods that don't take an explicit pool use the global
+	 * {@link ForkJoinPool} (the default) or the global
+	 * {@link ThreadPoolExecutor}.
+	 *
+	 * @see GlobalExecutorPool
+	 *
+	 * @param forkJoin
+	 *            true to use the {@link ForkJoinPool}; false to use the
+	 *            {@link ThreadPoolExecutor}.
+	 */
+	public static void setForkJoinDefault(boolean forkJoin) {
+		forkJoinDefault = forkJoin;
+	}
+
+	/**
+	 * Determine whether the methods that don't take an explicit pool use the
+	 * global {@link ForkJoinPool}.
+	 *
+	 * @return true if the {@link ForkJoinPool} is used by default; false if the
+	 *         {@link ThreadPoolExecutor} is used.
+	 */
+	public static boolean isForkJoinDefault() {
+		return forkJoinDefault;
+	}
+
+	private static boolean isWorkerOf(ForkJoinPool pool) {
+		final Thread thread = Thread.currentThread();
+
+		return thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool;
+	}
+
+	/**
+	 * Wait for a task to complete, rethrowing any exception it threw. Workers
+	 * of the pool join the task (and so help with the outstanding work whilst
+	 * waiting); other threads block interruptibly.
+	 */
+	private static void await(ForkJoinTask<?> task, boolean worker) {
+		if (worker) {
+			task.join();
+			return;
+		}
+
+		try {
+			task.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+
+			final CancellationException ce = new CancellationException("Interrupted whilst waiting for a parallel loop");
+			ce.initCause(e);
+			throw ce;
+		} catch (final ExecutionException e) {
+			rethrow(e.getCause());
+		}
+	}
+
+	private static void rethrow(Throwable t) {
+		if (t instanceof Error)
+			throw (Error) t;
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		throw new RuntimeException(t);
+	}
+
+	/**
+	 * Run the given task on the pool and wait for it to complete. If the
+	 * calling thread is interrupted whilst waiting, the loop is cancelled.
+	 */
+	private static void invoke(ForkJoinPool pool, ForkJoinTask<?> task, Cancellation cancellation) {
+		final boolean worker = isWorkerOf(pool);
+
+		if (worker) {
+			task.invoke();
+			return;
+		}
+
+		pool.execute(task);
+		try {
+			await(task, false);
+		} catch (final CancellationException e) {
+			cancellation.cancelled = true;
+			task.quietlyJoin();
+			throw e;
+		}
+	}
+
+	/**
+	 * Run each of the given units of work on the pool, keeping at most as many
+	 * units outstanding as the parallelism of the pool so that the work can be
+	 * generated lazily (e.g. from a stream). Any exception cancels the
+	 * outstanding work, and is rethrown once the work that had already started
+	 * has finished.
+	 */
+	private static void invokeAll(ForkJoinPool pool, Iterator<? extends Runnable> work, Cancellation cancellation) {
+		final boolean worker = isWorkerOf(pool);
+		final int window = pool.getParallelism();
+		final ArrayDeque<ForkJoinTask<?>> running = new ArrayDeque<ForkJoinTask<?>>(window);
+
+		try {
+			while (!cancellation.cancelled && work.hasNext()) {
+				if (running.size() >= window)
+					await(running.removeFirst(), worker);
+
+				final ForkJoinTask<?> task = ForkJoinTask.adapt(work.next());
+				if (worker)
+					task.fork();
+				else
+					pool.execute(task);
+				running.addLast(task);
+			}
+
+			while (!running.isEmpty())
+				await(running.removeFirst(), worker);
+		} catch (final RuntimeException e) {
+			cancel(running, cancellation);
+			throw e;
+		} catch (final Error e) {
+			cancel(running, cancellation);
+			throw e;
+		}
+	}
+
+	/**
+	 * Run each of the given units of work on a {@link ThreadPoolExecutor},
+	 * keeping at most as many units outstanding as the maximum size of the
+	 * pool. Any exception thrown by the work cancels the outstanding work and
+	 * is rethrown. If the calling thread is interrupted whilst waiting, its
+	 * interrupt status is restored, the outstanding work is cancelled and a
+	 * {@link CancellationException} is thrown.
+	 */
+	private static void invokeAll(ThreadPoolExecutor pool, Iterator<? extends Runnable> work,
+			Cancellation cancellation)
+	{
+		final ExecutorCompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(pool);
+		final int window = pool.getMaximumPoolSize();
+		final Set<Future<Boolean>> running = new HashSet<Future<Boolean>>();
+
+		try {
+			while (!cancellation.cancelled && work.hasNext()) {
+				if (running.size() >= window)
+					awaitNext(completion, running);
+
+				running.add(completion.submit(work.next(), true));
+			}
+
+			while (!running.isEmpty())
+				awaitNext(completion, running);
+		} catch (final RuntimeException e) {
+			cancelFutures(running, cancellation);
+			throw e;
+		} catch (final Error e) {
+			cancelFutures(running, cancellation);
+			throw e;
+		}
+	}
+
+	/**
+	 * Wait for the next unit of work submitted to the completion service to
+	 * finish, rethrowing any exception it threw.
+	 */
+	private static void awaitNext(ExecutorCompletionService<Boolean> completion, Set<Future<Boolean>> running) {
+		final Future<Boolean> future;
+		try {
+			future = completion.take();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+
+			final CancellationException ce = new CancellationException("Interrupted whilst waiting for a parallel loop");
+			ce.initCause(e);
+			throw ce;
+		}
+
+		running.remove(future);
+		try {
+			future.get();
+		} catch (final InterruptedException e) {
+			// the future is already done, so this cannot happen
+			Thread.currentThread().interrupt();
+		} catch (final ExecutionException e) {
+			rethrow(e.getCause());
+		}
+	}
+
+	private static void cancelFutures(Iterable<Future<Boolean>> running, Cancellation cancellation) {
+		cancellation.cancelled = true;
+		for (final Future<Boolean> future : running)
+			future.cancel(false);
+	}
+
+	private static void cancel(Iterable<ForkJoinTask<?>> running, Cancellation cancellation) {
+		cancellation.cancelled = true;
+		for (final ForkJoinTask<?> task : running)
+			task.cancel(false);
+		for (final ForkJoinTask<?> task : running)
+			task.quietlyJoin();
+	}
+
+	private static int iterations(int start, int stop, int incr) {
+		if (stop <= start)
+			return 0;
+
+		return (int) (((long) stop - start + incr - 1) / incr);
+	}
+
+	/**
+	 * Split the range into one chunk per thread of the pool and wait for all
+	 * of the chunks to finish. The first exception thrown by the operation
+	 * stops the chunks that have not yet started, and is rethrown once every
+	 * chunk has finished. If the calling thread is interrupted whilst waiting
+	 * it carries on waiting, and its interrupt status is restored afterwards.
+	 */
+	private static void forChunks(final int start, final int stop, final int incr, final Operation<IntRange> op,
+			final ThreadPoolExecutor pool)
+	{
+		final int ops = iterations(start, stop, incr);
+		if (ops == 0)
+			return;
+
+		final int loops = Math.min(ops, pool.getMaximumPoolSize());
+		final int chunksize = ops / loops;
+		int remainder = ops % loops;
+
+		final CountDownLatch latch = new CountDownLatch(loops);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		int lo = start;
+		for (int i = 0; i < loops; i++) {
+			int n = chunksize;
+			if (remainder > 0) {
+				n++;
+				remainder--;
+			}
+
+			final int hi = (int) Math.min(stop, lo + (long) n * incr);
+			final IntRange range = new IntRange(lo, hi, incr);
+			lo = hi;
+
+			try {
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if (failure.get() == null)
+								op.perform(range);
+						} catch (final Throwable t) {
+							failure.compareAndSet(null, t);
+						} finally {
+							latch.countDown();
+						}
+					}
+				});
+			} catch (final RejectedExecutionException e) {
+				failure.compareAndSet(null, e);
+				for (; i < loops; i++)
+					latch.countDown();
+			}
+		}
+
+		boolean interrupted = false;
+		while (true) {
+			try {
+				latch.await();
+				break;
+			} catch (final InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		final Throwable t = failure.get();
+		if (t != null)
+			rethrow(t);
+	}
+
 	/**
 	 * Parallel integer for loop.
 	 *
@@ -126,55 +565,118 @@ public class Parallel {
 	 * @param op
 	 *            operation to perform
 	 * @param pool
-	 *            the thread pool.
+	 *            the thread pool. If <code>null</code>, the default pool is
+	 *            used (see {@link #setForkJoinDefault(boolean)}).
 	 */
 	public static void forIndex(final int start, final int stop, final int incr, final Operation<Integer> op,
 			final ThreadPoolExecutor pool)
 	{
-		int loops = pool.getMaximumPoolSize();
-		final int ops = (stop - start) / incr;
-
-		final double div = ops / (double) loops;
-		int chunksize = (int) div;
-		int remainder = (int) ((div - chunksize) * loops);
-
-		if (div < 1) {
-			chunksize = 1;
-			remainder = 0;
-			loops = ops;
+		if (pool == null) {
+			forIndex(start, stop, incr, op);
+			return;
 		}
 
-		final CountDownLatch latch = new CountDownLatch(loops);
+		forChunks(start, stop, incr, new Operation<IntRange>() {
+			@Override
+			public void perform(IntRange range) {
+				for (int i = range.start; i < range.stop; i += range.incr)
+					op.perform(i);
+			}
+		}, pool);
+	}
 
-		for (int i = start; i < stop;) {
-			final int lo = i;
-			i += chunksize * incr;
-			if (remainder > 0) {
-				i += incr;
-				remainder--;
+	/**
+	 * Parallel integer for loop on a {@link ForkJoinPool}. The range is split
+	 * adaptively as threads become idle, and the loop can safely be nested
+	 * within other parallel loops on the same pool. An exception thrown by the
+	 * operation cancels the remaining iterations and is rethrown.
+	 *
+	 * @param start
+	 *            starting value
+	 * @param stop
+	 *            stopping value
+	 * @param incr
+	 *            increment amount
+	 * @param op
+	 *            operation to perform
+	 * @param pool
+	 *            the fork-join pool.
+	 */
+	public static void forIndex(final int start, final int stop, final int incr, final Operation<Integer> op,
+			final ForkJoinPool pool)
+	{
+		forRange(start, stop, incr, new Operation<IntRange>() {
+			@Override
+			public void perform(IntRange range) {
+				for (int i = range.start; i < range.stop; i += range.incr)
+					op.perform(i);
 			}
+		}, pool);
+	}
 
-			final int hi = Math.min(i, stop);
+	/**
+	 * Parallel integer for loop over primitive values on a {@link ForkJoinPool}
+	 * . The range is split adaptively as threads become idle, and the loop can
+	 * safely be nested within other parallel loops on the same pool. An
+	 * exception thrown by the operation cancels the remaining iterations and
+	 * is rethrown.
+	 *
+	 * @param start
+	 *            starting value
+	 * @param stop
+	 *            stopping value
+	 * @param incr
+	 *            increment amount
+	 * @param op
+	 *            operation to perform
+	 * @param pool
+	 *            the fork-join pool.
+	 */
+	public static void forIndex(final int start, final int stop, final int incr, final IntOperation op,
+			final ForkJoinPool pool)
+	{
+		forRange(start, stop, incr, new Operation<IntRange>() {
+			@Override
+			public void perform(IntRange range) {
+				for (int i = range.start; i < range.stop; i += range.incr)
+					op.perform(i);
+			}
+		}, pool);
+	}
 
-			pool.submit(new Runnable() {
+	/**
+	 * Parallel integer for loop over primitive values. Uses the default global
+	 * pool.
+	 *
+	 * @see #setForkJoinDefault(boolean)
+	 *
+	 * @param start
+	 *            starting value
+	 * @param stop
+	 *            stopping value
+	 * @param incr
+	 *            increment amount
+	 * @param op
+	 *            operation to perform
+	 */
+	public static void forIndex(final int start, final int stop, final int incr, final IntOperation op) {
+		if (forkJoinDefault) {
+			forIndex(start, stop, incr, op, GlobalExecutorPool.getForkJoinPool());
+		} else {
+			forRange(start, stop, incr, new Operation<IntRange>() {
 				@Override
-				public void run() {
-					for (int i = lo; i < hi; i += incr)
+				public void perform(IntRange range) {
+					for (int i = range.start; i < range.stop; i += range.incr)
 						op.perform(i);
-					latch.countDown();
 				}
-			});
-		}
-		try {
-			latch.await();
-		} catch (final InterruptedException e) {
+			}, GlobalExecutorPool.getPool());
 		}
 	}
 
 	/**
-	 * Parallel integer for loop. Uses the default global thread pool.
+	 * Parallel integer for loop. Uses the default global pool.
 	 *
-	 * @see GlobalExecutorPool#getPool()
+	 * @see #setForkJoinDefault(boolean)
 	 *
 	 * @param start
 	 *            starting value
@@ -186,7 +688,10 @@ public class Parallel {
 	 *            operation to perform
 	 */
 	public static void forIndex(final int start, final int stop, final int incr, final Operation<Integer> op) {
-		forIndex(start, stop, incr, op, GlobalExecutorPool.getPool());
+		if (forkJoinDefault)
+			forIndex(start, stop, incr, op, GlobalExecutorPool.getForkJoinPool());
+		else
+			forIndex(start, stop, incr, op, GlobalExecutorPool.getPool());
 	}
 
 	/**
@@ -194,7 +699,9 @@ public class Parallel {
 	 * {@link #forIndex(int, int, int, Operation)}, but potentially slightly
 	 * faster as it avoids auto-boxing/unboxing and results in fewer method
 	 * calls. The downside is that users have to write an extra loop to iterate
-	 * over the {@link IntRange} object. Uses the default global thread pool.
+	 * over the {@link IntRange} object. Uses the default global pool.
+	 *
+	 * @see #setForkJoinDefault(boolean)
 	 *
 	 * @param start
 	 *            starting value
@@ -206,7 +713,10 @@ public class Parallel {
 	 *            operation to perform
 	 */
 	public static void forRange(final int start, final int stop, final int incr, final Operation<IntRange> op) {
-		forRange(start, stop, incr, op, GlobalExecutorPool.getPool());
+		if (forkJoinDefault)
+			forRange(start, stop, incr, op, GlobalExecutorPool.getForkJoinPool());
+		else
+			forRange(start, stop, incr, op, GlobalExecutorPool.getPool());
 	}
 
 	/**
@@ -225,61 +735,52 @@ public class Parallel {
 	 * @param op
 	 *            operation to perform
 	 * @param pool
-	 *            the thread pool.
+	 *            the thread pool. If <code>null</code>, the default pool is
+	 *            used (see {@link #setForkJoinDefault(boolean)}).
 	 */
 	public static void forRange(final int start, final int stop, final int incr, final Operation<IntRange> op,
 			final ThreadPoolExecutor pool)
 	{
-		int loops = pool.getMaximumPoolSize();
-		final int ops = (stop - start) / incr;
-
-		final double div = ops / (double) loops;
-		int chunksize = (int) div;
-		int remainder = (int) ((div - chunksize) * loops);
-
-		if (div < 1) {
-			chunksize = 1;
-			remainder = 0;
-			loops = ops;
+		if (pool == null) {
+			forRange(start, stop, incr, op);
+			return;
 		}
 
-		final CountDownLatch latch = new CountDownLatch(loops);
-		final Thread thread = Thread.currentThread();
-		final Throwable[] exception = new Throwable[1];
+		forChunks(start, stop, incr, op, pool);
+	}
 
-		for (int i = start; i < stop;) {
-			final int lo = i;
-			i += chunksize * incr;
-			if (remainder > 0) {
-				i += incr;
-				remainder--;
-			}
+	/**
+	 * Parallel integer for loop on a {@link ForkJoinPool}. Fundamentally this
+	 * is the same as
+	 * {@link #forIndex(int, int, int, Operation, ForkJoinPool)}, but avoids
+	 * boxing and results in fewer method calls. The range is split adaptively
+	 * as threads become idle, so the operation may be called with many
+	 * {@link IntRange}s of varying sizes. The loop can safely be nested within
+	 * other parallel loops on the same pool. An exception thrown by the
+	 * operation cancels the remaining ranges and is rethrown.
+	 *
+	 * @param start
+	 *            starting value
+	 * @param stop
+	 *            stopping value
+	 * @param incr
+	 *            increment amount
+	 * @param op
+	 *            operation to perform
+	 * @param pool
+	 *            the fork-join pool.
+	 */
+	public static void forRange(final int start, final int stop, final int incr, final Operation<IntRange> op,
+			final ForkJoinPool pool)
+	{
+		final int ops = iterations(start, stop, incr);
+		if (ops == 0)
+			return;
 
-			final int hi = Math.min(i, stop);
+		final int grain = Math.max(1, ops / (pool.getParallelism() * LEAVES_PER_THREAD));
+		final RangeLoop loop = new RangeLoop(start, stop, incr, grain, op);
 
-			pool.submit(new Runnable() {
-				@Override
-				public void run() {
-					try {
-						op.perform(new IntRange(lo, hi, incr));
-					} catch (final Throwable t) {
-						exception[0] = t;
-						thread.interrupt();
-					} finally {
-						latch.countDown();
-					}
-				}
-			});
-		}
-		try {
-			latch.await();
-		} catch (final InterruptedException e) {
-			if (exception[0] instanceof Error)
-				throw (Error) exception[0];
-			if (exception[0] instanceof RuntimeException)
-				throw (RuntimeException) exception[0];
-			throw new RuntimeException(exception[0]);
-		}
+		invoke(pool, new RangeTask(loop, 0, ops), loop);
 	}
 
 	/**
@@ -297,9 +798,15 @@ public class Parallel {
 	 * @param op
 	 *            the operation to apply
 	 * @param pool
-	 *            the thread pool.
+	 *            the thread pool. If <code>null</code>, the default pool is
+	 *            used (see {@link #setForkJoinDefault(boolean)}).
 	 */
 	public static <T> void forEach(final Iterable<T> objects, final Operation<T> op, final ThreadPoolExecutor pool) {
+		if (pool == null) {
+			forEach(objects, op);
+			return;
+		}
+
 		Partitioner<T> partitioner;
 		if (objects instanceof List) {
 			partitioner = new RangePartitioner<T>((List<T>) objects, pool.getMaximumPoolSize());
@@ -309,13 +816,38 @@ public class Parallel {
 		forEach(partitioner, op, pool);
 	}
 
+	/**
+	 * Parallel ForEach loop over {@link Iterable} data on a
+	 * {@link ForkJoinPool}. The data is automatically partitioned; if the data
+	 * is a {@link List}, then a {@link RangePartitioner} is used, otherwise a
+	 * {@link GrowingChunkPartitioner} is used.
+	 *
+	 * @param <T>
+	 *            type of the data items
+	 * @param objects
+	 *            the data
+	 * @param op
+	 *            the operation to apply
+	 * @param pool
+	 *            the fork-join pool.
+	 */
+	public static <T> void forEach(final Iterable<T> objects, final Operation<T> op, final ForkJoinPool pool) {
+		Partitioner<T> partitioner;
+		if (objects instanceof List) {
+			partitioner = new RangePartitioner<T>((List<T>) objects, pool.getParallelism());
+		} else {
+			partitioner = new GrowingChunkPartitioner<T>(objects);
+		}
+		forEach(partitioner, op, pool);
+	}
+
 	/**
 	 * Parallel ForEach loop over {@link Iterable} data. Uses the default global
-	 * thread pool. The data is automatically partitioned; if the data is a
+	 * pool. The data is automatically partitioned; if the data is a
 	 * {@link List}, then a {@link RangePartitioner} is used, otherwise a
 	 * {@link GrowingChunkPartitioner} is used.
 	 *
-	 * @see GlobalExecutorPool#getPool()
+	 * @see #setForkJoinDefault(boolean)
 	 *
 	 * @param <T>
 	 *            type of the data items
@@ -325,14 +857,17 @@ public class Parallel {
 	 *            the operation to apply
 	 */
 	public static <T> void forEach(final Iterable<T> objects, final Operation<T> op) {
-		forEach(objects, op, GlobalExecutorPool.getPool());
+		if (forkJoinDefault)
+			forEach(objects, op, GlobalExecutorPool.getForkJoinPool());
+		else
+			forEach(objects, op, GlobalExecutorPool.getPool());
 	}
 
 	/**
 	 * Parallel ForEach loop over partitioned data. Uses the default global
-	 * thread pool.
+	 * pool.
 	 *
-	 * @see GlobalExecutorPool#getPool()
+	 * @see #setForkJoinDefault(boolean)
 	 *
 	 * @param <T>
 	 *            type of the data items
@@ -342,7 +877,49 @@ public class Parallel {
 	 *            the operation to apply
 	 */
 	public static <T> void forEach(final Partitioner<T> partitioner, final Operation<T> op) {
-		forEach(partitioner, op, GlobalExecutorPool.getPool());
+		if (forkJoinDefault)
+			forEach(partitioner, op, GlobalExecutorPool.getForkJoinPool());
+		else
+			forEach(partitioner, op, GlobalExecutorPool.getPool());
+	}
+
+	/**
+	 * Parallel ForEach loop over partitioned data on a {@link ForkJoinPool}.
+	 * At most as many partitions as the parallelism of the pool are
+	 * outstanding at any time, so the partitions are only generated as they
+	 * are needed. The loop can safely be nested within other parallel loops
+	 * on the same pool. An exception thrown by the operation stops the
+	 * processing of the remaining data and is rethrown.
+	 *
+	 * @param <T>
+	 *            type of the data items
+	 * @param partitioner
+	 *            the partitioner applied to the data
+	 * @param op
+	 *            the operation to apply
+	 * @param pool
+	 *            the fork-join pool.
+	 */
+	public static <T> void forEach(final Partitioner<T> partitioner, final Operation<T> op, final ForkJoinPool pool) {
+		final Cancellation cancellation = new Cancellation();
+		final Iterator<Iterator<T>> partitions = partitioner.getPartitions();
+
+		invokeAll(pool, new Iterator<Runnable>() {
+			@Override
+			public boolean hasNext() {
+				return partitions.hasNext();
+			}
+
+			@Override
+			public Runnable next() {
+				return new Task<T>(partitions.next(), op, cancellation);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		}, cancellation);
 	}
 
 	/**
@@ -360,44 +937,37 @@ public class Parallel {
 	 * @param op
 	 *            the operation to apply
 	 * @param pool
-	 *            the thread pool.
+	 *            the thread pool. If <code>null</code>, the default pool is
+	 *            used (see {@link #setForkJoinDefault(boolean)}).
 	 */
 	public static <T>
 	void
 	forEach(final Partitioner<T> partitioner, final Operation<T> op, final ThreadPoolExecutor pool)
 	{
-		final ExecutorCompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(pool);
-		final Iterator<Iterator<T>> partitions = partitioner.getPartitions();
-		long submitted = 0;
+		if (pool == null) {
+			forEach(partitioner, op);
+			return;
+		}
 
-		for (int i = 0; i < pool.getMaximumPoolSize(); i++) {
-			if (!partitions.hasNext())
-				break;
+		final Cancellation cancellation = new Cancellation();
+		final Iterator<Iterator<T>> partitions = partitioner.getPartitions();
 
-			completion.submit(new Task<T>(partitions.next(), op), true);
-			submitted++;
-		}
+		invokeAll(pool, new Iterator<Runnable>() {
+			@Override
+			public boolean hasNext() {
+				return partitions.hasNext();
+			}
 
-		while (partitions.hasNext()) {
-			try {
-				completion.take().get();
-			} catch (final InterruptedException e) {
-				e.printStackTrace();
-			} catch (final ExecutionException e) {
-				e.printStackTrace();
+			@Override
+			public Runnable next() {
+				return new Task<T>(partitions.next(), op, cancellation);
 			}
-			completion.submit(new Task<T>(partitions.next(), op), true);
-		}
 
-		for (int i = 0; i < submitted; i++) {
-			try {
-				completion.take().get();
-			} catch (final InterruptedException e) {
-				e.printStackTrace();
-			} catch (final ExecutionException e) {
-				e.printStackTrace();
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
 			}
-		}
+		}, cancellation);
 	}
 
 	/**
@@ -425,7 +995,56 @@ public class Parallel {
 	void
 	forEachUnpartitioned(final Iterator<T> data, final Operation<T> op)
 	{
-		forEachUnpartitioned(data, op, GlobalExecutorPool.getPool());
+		if (forkJoinDefault)
+			forEachUnpartitioned(data, op, GlobalExecutorPool.getForkJoinPool());
+		else
+			forEachUnpartitioned(data, op, GlobalExecutorPool.getPool());
+	}
+
+	/**
+	 * Parallel ForEach loop over unpartitioned data on a {@link ForkJoinPool}.
+	 * At most as many items as the parallelism of the pool are outstanding at
+	 * any time, so the data is only consumed as it is needed. The loop can
+	 * safely be nested within other parallel loops on the same pool. An
+	 * exception thrown by the operation stops the processing of the remaining
+	 * data and is rethrown.
+	 *
+	 * @param <T>
+	 *            type of the data items
+	 * @param data
+	 *            the iterator of data items
+	 * @param op
+	 *            the operation to apply
+	 * @param pool
+	 *            the fork-join pool.
+	 */
+	public static <T>
+	void
+	forEachUnpartitioned(final Iterator<T> data, final Operation<T> op, final ForkJoinPool pool)
+	{
+		invokeAll(pool, new Iterator<Runnable>() {
+			@Override
+			public boolean hasNext() {
+				return data.hasNext();
+			}
+
+			@Override
+			public Runnable next() {
+				final T next = data.next();
+
+				return new Runnable() {
+					@Override
+					public void run() {
+						op.perform(next);
+					}
+				};
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		}, new Cancellation());
 	}
 
 	/**
@@ -449,57 +1068,41 @@ public class Parallel {
 	 * @param op
 	 *            the operation to apply
 	 * @param pool
-	 *            the thread pool.
+	 *            the thread pool. If <code>null</code>, the default pool is
+	 *            used (see {@link #setForkJoinDefault(boolean)}).
 	 */
 	public static <T>
 	void
 	forEachUnpartitioned(final Iterator<T> data, final Operation<T> op, final ThreadPoolExecutor pool)
 	{
-		final ExecutorCompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(pool);
-		long submitted = 0;
-
-		for (int i = 0; i < pool.getMaximumPoolSize(); i++) {
-			if (!data.hasNext())
-				break;
-
-			final T next = data.next();
-
-			completion.submit(new Runnable() {
-				@Override
-				public void run() {
-					op.perform(next);
-				}
-			}, true);
-			submitted++;
+		if (pool == null) {
+			forEachUnpartitioned(data, op);
+			return;
 		}
 
-		while (data.hasNext()) {
-			final T next = data.next();
+		invokeAll(pool, new Iterator<Runnable>() {
+			@Override
+			public boolean hasNext() {
+				return data.hasNext();
+			}
 
-			try {
-				completion.take().get();
-			} catch (final InterruptedException e) {
-				e.printStackTrace();
-			} catch (final ExecutionException e) {
-				e.printStackTrace();
+			@Override
+			public Runnable next() {
+				final T next = data.next();
+
+				return new Runnable() {
+					@Override
+					public void run() {
+						op.perform(next);
+					}
+				};
 			}
-			completion.submit(new Runnable() {
-				@Override
-				public void run() {
-					op.perform(next);
-				}
-			}, true);
-		}
 
-		for (int i = 0; i < submitted; i++) {
-			try {
-				completion.take().get();
-			} catch (final InterruptedException e) {
-				e.printStackTrace();
-			} catch (final ExecutionException e) {
-				e.printStackTrace();
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
 			}
-		}
+		}, new Cancellation());
 	}
 
 	/**
@@ -517,52 +1120,85 @@ public class Parallel {
 	 * @param op
 	 *            the operation to apply
 	 * @param pool
-	 *            the thread pool.
+	 *            the thread pool. If <code>null</code>, the default pool is
+	 *            used (see {@link #setForkJoinDefault(boolean)}).
 	 */
 	public static <T>
 	void
 	forEachPartitioned(final Partitioner<T> partitioner, final Operation<Iterator<T>> op,
 			final ThreadPoolExecutor pool)
 	{
-		final ExecutorCompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(pool);
+		if (pool == null) {
+			forEachPartitioned(partitioner, op);
+			return;
+		}
+
 		final Iterator<Iterator<T>> partitions = partitioner.getPartitions();
-		long submitted = 0;
 
-		for (int i = 0; i < pool.getMaximumPoolSize(); i++) {
-			if (!partitions.hasNext())
-				break;
+		invokeAll(pool, new Iterator<Runnable>() {
+			@Override
+			public boolean hasNext() {
+				return partitions.hasNext();
+			}
 
-			completion.submit(new BatchTask<T>(partitions.next(), op), true);
-			submitted++;
-		}
+			@Override
+			public Runnable next() {
+				return new BatchTask<T>(partitions.next(), op);
+			}
 
-		while (partitions.hasNext()) {
-			try {
-				completion.take().get();
-			} catch (final InterruptedException e) {
-				e.printStackTrace();
-			} catch (final ExecutionException e) {
-				e.printStackTrace();
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
 			}
-			completion.submit(new BatchTask<T>(partitions.next(), op), true);
-		}
+		}, new Cancellation());
+	}
 
-		for (int i = 0; i < submitted; i++) {
-			try {
-				completion.take().get();
-			} catch (final InterruptedException e) {
-				e.printStackTrace();
-			} catch (final ExecutionException e) {
-				e.printStackTrace();
+	/**
+	 * Parallel ForEach loop over partitioned data with batches of data on a
+	 * {@link ForkJoinPool}. At most as many partitions as the parallelism of
+	 * the pool are outstanding at any time. The loop can safely be nested
+	 * within other parallel loops on the same pool. An exception thrown by the
+	 * operation stops the processing of the remaining partitions and is
+	 * rethrown.
+	 *
+	 * @param <T>
+	 *            type of the data items
+	 * @param partitioner
+	 *            the partitioner applied to the data
+	 * @param op
+	 *            the operation to apply
+	 * @param pool
+	 *            the fork-join pool.
+	 */
+	public static <T>
+	void
+	forEachPartitioned(final Partitioner<T> partitioner, final Operation<Iterator<T>> op, final ForkJoinPool pool)
+	{
+		final Iterator<Iterator<T>> partitions = partitioner.getPartitions();
+
+		invokeAll(pool, new Iterator<Runnable>() {
+			@Override
+			public boolean hasNext() {
+				return partitions.hasNext();
 			}
-		}
+
+			@Override
+			public Runnable next() {
+				return new BatchTask<T>(partitions.next(), op);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		}, new Cancellation());
 	}
 
 	/**
 	 * Parallel ForEach loop over batched partitioned data. Uses the default
-	 * global thread pool.
+	 * global pool.
 	 *
-	 * @see GlobalExecutorPool#getPool()
+	 * @see #setForkJoinDefault(boolean)
 	 *
 	 * @param <T>
 	 *            type of the data items
@@ -572,6 +1208,9 @@ public class Parallel {
 	 *            the operation to apply
 	 */
 	public static <T> void forEachPartitioned(final Partitioner<T> partitioner, final Operation<Iterator<T>> op) {
-		forEachPartitioned(partitioner, op, GlobalExecutorPool.getPool());
+		if (forkJoinDefault)
+			forEachPartitioned(partitioner, op, GlobalExecutorPool.getForkJoinPool());
+		else
+			forEachPartitioned(partitioner, op, GlobalExecutorPool.getPool());
 	}
 }
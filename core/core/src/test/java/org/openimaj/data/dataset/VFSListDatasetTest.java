@@ -0,0 +1,432 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.data.dataset;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSelectInfo;
+import org.apache.commons.vfs2.FileSelector;
+import org.apache.commons.vfs2.FileSystemException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openimaj.data.dataset.VFSListDataset.GlobFileSelector;
+import org.openimaj.io.ObjectReader;
+
+/**
+ * Tests for the {@link VFSListDataset}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class VFSListDatasetTest {
+	/**
+	 * Temporary folder for the datasets
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File dir;
+
+	/**
+	 * Reader that returns the content of a file as a string
+	 */
+	static class StringReader implements ObjectReader<String, FileObject> {
+		@Override
+		public String read(FileObject source) throws IOException {
+			final InputStream is = source.getContent().getInputStream();
+			try {
+				final StringBuilder sb = new StringBuilder();
+				int c;
+				while ((c = is.read()) != -1)
+					sb.append((char) c);
+				return sb.toString();
+			} finally {
+				is.close();
+			}
+		}
+
+		@Override
+		public boolean canRead(FileObject source, String name) {
+			return true;
+		}
+	}
+
+	/**
+	 * Selector that wraps another and counts how many times it is asked about
+	 * a file
+	 */
+	static class CountingSelector implements FileSelector {
+		FileSelector selector;
+		AtomicInteger count = new AtomicInteger();
+
+		CountingSelector(FileSelector selector) {
+			this.selector = selector;
+		}
+
+		@Override
+		public boolean includeFile(FileSelectInfo fileInfo) throws Exception {
+			count.incrementAndGet();
+			return selector.includeFile(fileInfo);
+		}
+
+		@Override
+		public boolean traverseDescendents(FileSelectInfo fileInfo) throws Exception {
+			return selector.traverseDescendents(fileInfo);
+		}
+	}
+
+	private static void write(File file, String content) throws IOException {
+		file.getParentFile().mkdirs();
+
+		final FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(content.getBytes("UTF-8"));
+		} finally {
+			fos.close();
+		}
+	}
+
+	/**
+	 * Create a directory of files to test with
+	 * 
+	 * @throws IOException
+	 */
+	@Before
+	public void setup() throws IOException {
+		dir = folder.newFolder("data");
+
+		for (int i = 0; i < 20; i++)
+			write(new File(dir, String.format("img%02d.jpg", i)), "jpg" + i);
+
+		write(new File(dir, "upper.JPG"), "upper");
+		write(new File(dir, "image.png"), "png");
+		write(new File(dir, "notes.txt"), "txt");
+		write(new File(dir, "sub/nested.jpg"), "nested");
+		write(new File(dir, "sub/nested.jpeg"), "jpeg");
+	}
+
+	private List<String> ids(VFSListDataset<String> dataset) {
+		final List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < dataset.size(); i++)
+			ids.add(dataset.getID(i));
+		return ids;
+	}
+
+	/**
+	 * Test that the {@link GlobFileSelector} selects files on their name,
+	 * ignoring case, in sub-directories, and without selecting directories
+	 * 
+	 * @throws FileSystemException
+	 */
+	@Test
+	public void testGlobFileSelector() throws FileSystemException {
+		VFSListDataset<String> dataset = new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(),
+				new GlobFileSelector("*.jpg"));
+
+		final List<String> ids = ids(dataset);
+		assertEquals(22, ids.size());
+		assertTrue(ids.contains("img00.jpg"));
+		assertTrue(ids.contains("upper.JPG"));
+		assertTrue(ids.contains("sub/nested.jpg"));
+		assertFalse(ids.contains("image.png"));
+		assertFalse(ids.contains("sub/nested.jpeg"));
+
+		dataset = new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(),
+				new GlobFileSelector("*.png", "*.jp?g", "s*"));
+		assertEquals(2, dataset.size());
+		assertTrue(ids(dataset).contains("image.png"));
+		assertTrue(ids(dataset).contains("sub/nested.jpeg"));
+
+		dataset = new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(),
+				new GlobFileSelector("nothing"));
+		assertEquals(0, dataset.size());
+	}
+
+	/**
+	 * Test that the manifest is used instead of listing the files when nothing
+	 * has changed
+	 * 
+	 * @throws FileSystemException
+	 */
+	@Test
+	public void testManifestReuse() throws FileSystemException {
+		final File manifest = new File(folder.getRoot(), "data.manifest");
+
+		CountingSelector selector = new CountingSelector(new GlobFileSelector("*.jpg"));
+		final VFSListDataset<String> first = new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(),
+				selector, manifest);
+		assertTrue(selector.count.get() > 0);
+		assertTrue(manifest.exists());
+
+		selector = new CountingSelector(new GlobFileSelector("*.jpg"));
+		final VFSListDataset<String> second = new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(),
+				selector, manifest);
+		assertEquals(0, selector.count.get());
+		assertEquals(ids(first), ids(second));
+
+		for (int i = 0; i < first.size(); i++)
+			assertEquals(first.getInstance(i), second.getInstance(i));
+	}
+
+	/**
+	 * Test that the manifest is rebuilt if the size or modification time of a
+	 * listed file changes, or if a listed file is removed
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testManifestInvalidation() throws IOException {
+		final File manifest = new File(folder.getRoot(), "data.manifest");
+		new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(), new GlobFileSelector("*.jpg"), manifest);
+
+		// change the size of a file in a sub-directory
+		final File nested = new File(dir, "sub/nested.jpg");
+		final long mtime = nested.lastModified();
+		write(nested, "a longer nested file");
+		assertTrue(nested.setLastModified(mtime));
+
+		CountingSelector selector = new CountingSelector(new GlobFileSelector("*.jpg"));
+		VFSListDataset<String> dataset = new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(),
+				selector, manifest);
+		assertTrue(selector.count.get() > 0);
+		assertEquals(22, dataset.size());
+
+		// change only the modification time
+		assertTrue(nested.setLastModified(mtime - 10000));
+
+		selector = new CountingSelector(new GlobFileSelector("*.jpg"));
+		dataset = new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(), selector, manifest);
+		assertTrue(selector.count.get() > 0);
+
+		// nothing changed
+		selector = new CountingSelector(new GlobFileSelector("*.jpg"));
+		dataset = new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(), selector, manifest);
+		assertEquals(0, selector.count.get());
+
+		// remove a file
+		assertTrue(nested.delete());
+
+		selector = new CountingSelector(new GlobFileSelector("*.jpg"));
+		dataset = new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(), selector, manifest);
+		assertTrue(selector.count.get() > 0);
+		assertEquals(21, dataset.size());
+		assertFalse(ids(dataset).contains("sub/nested.jpg"));
+	}
+
+	/**
+	 * Test that the manifest is rebuilt if a file is added to a
+	 * sub-directory, and that the new file is then listed
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testManifestSubdirectoryAddition() throws IOException {
+		final File manifest = new File(folder.getRoot(), "data.manifest");
+
+		// make sure that adding a file changes the modification time
+		final File sub = new File(dir, "sub");
+		assertTrue(sub.setLastModified(sub.lastModified() - 10000));
+		assertTrue(dir.setLastModified(dir.lastModified() - 10000));
+		final long dirMtime = dir.lastModified();
+
+		new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(), new GlobFileSelector("*.jpg"), manifest);
+
+		write(new File(sub, "added.jpg"), "added");
+		assertEquals(dirMtime, dir.lastModified());
+
+		final CountingSelector selector = new CountingSelector(new GlobFileSelector("*.jpg"));
+		final VFSListDataset<String> dataset = new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(),
+				selector, manifest);
+		assertTrue(selector.count.get() > 0);
+		assertEquals(23, dataset.size());
+		assertTrue(ids(dataset).contains("sub/added.jpg"));
+	}
+
+	/**
+	 * Test that a manifest built with a different selector is not reused
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testManifestSelectorChange() throws IOException {
+		final File manifest = new File(folder.getRoot(), "data.manifest");
+		new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(), new GlobFileSelector("*.jpg"), manifest);
+
+		VFSListDataset<String> dataset = new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(),
+				new GlobFileSelector("*.png"), manifest);
+		assertEquals(1, dataset.size());
+		assertTrue(ids(dataset).contains("image.png"));
+
+		dataset = new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(), null, manifest);
+		assertEquals(25, dataset.size());
+	}
+
+	private static List<String> collect(Iterator<String> iterator) {
+		final List<String> items = new ArrayList<String>();
+		while (iterator.hasNext())
+			items.add(iterator.next());
+		return items;
+	}
+
+	/**
+	 * Test that prefetching iterators return the items in order, using both
+	 * the default and an explicit executor
+	 * 
+	 * @throws FileSystemException
+	 */
+	@Test
+	public void testPrefetchOrder() throws FileSystemException {
+		final VFSListDataset<String> dataset = new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(),
+				new GlobFileSelector("*.jpg"));
+
+		final List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < dataset.size(); i++)
+			expected.add(dataset.getInstance(i));
+
+		assertEquals(expected, collect(dataset.iterator()));
+
+		for (final int count : new int[] { 1, 4, 100 }) {
+			dataset.setPrefetch(count, null);
+			assertEquals(expected, collect(dataset.iterator()));
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			dataset.setPrefetch(5, executor);
+			assertEquals(expected, collect(dataset.iterator()));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Test that iterating with prefetching from a task running on the
+	 * executor used for prefetching doesn't deadlock, even if there are no
+	 * other threads available to read the items
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testPrefetchOnExecutorThread() throws Exception {
+		final VFSListDataset<String> dataset = new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(),
+				new GlobFileSelector("*.jpg"));
+
+		final List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < dataset.size(); i++)
+			expected.add(dataset.getInstance(i));
+
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			dataset.setPrefetch(4, executor);
+
+			final Future<List<String>> result = executor.submit(new Callable<List<String>>() {
+				@Override
+				public List<String> call() throws Exception {
+					return collect(dataset.iterator());
+				}
+			});
+
+			assertEquals(expected, result.get(30, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reader that is slow to read, and counts how many times each file is
+	 * read
+	 */
+	static class SlowCountingReader extends StringReader {
+		ConcurrentMap<String, AtomicInteger> counts = new ConcurrentHashMap<String, AtomicInteger>();
+
+		@Override
+		public String read(FileObject source) throws IOException {
+			counts.putIfAbsent(source.getName().getBaseName(), new AtomicInteger());
+			counts.get(source.getName().getBaseName()).incrementAndGet();
+
+			try {
+				Thread.sleep(20);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			return super.read(source);
+		}
+	}
+
+	/**
+	 * Test that each item is read exactly once when prefetching, even when
+	 * the iterator catches up with reads that are in progress, using both the
+	 * default and an explicit executor
+	 * 
+	 * @throws FileSystemException
+	 */
+	@Test
+	public void testPrefetchReadsOnce() throws FileSystemException {
+		final List<String> expected = collect(new VFSListDataset<String>(dir.getAbsolutePath(), new StringReader(),
+				new GlobFileSelector("*.jpg")).iterator());
+
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			for (final ExecutorService ex : new ExecutorService[] { null, executor }) {
+				final SlowCountingReader reader = new SlowCountingReader();
+				final VFSListDataset<String> dataset = new VFSListDataset<String>(dir.getAbsolutePath(), reader,
+						new GlobFileSelector("*.jpg"));
+				dataset.setPrefetch(4, ex);
+
+				assertEquals(expected, collect(dataset.iterator()));
+
+				assertEquals(expected.size(), reader.counts.size());
+				for (final AtomicInteger count : reader.counts.values())
+					assertEquals(1, count.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
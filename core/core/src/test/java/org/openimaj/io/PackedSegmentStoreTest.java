@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the {@link PackedSegmentStore}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class PackedSegmentStoreTest {
+	/**
+	 * Temporary folder for the stores
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static byte[] value(String prefix, int i) {
+		return (prefix + i).getBytes();
+	}
+
+	private static void fill(PackedSegmentStore store, int n) throws IOException {
+		for (int i = 0; i < n; i++)
+			store.put("key" + i, value("value", i));
+	}
+
+	private static void check(PackedSegmentStore store, int n) throws IOException {
+		assertEquals(n, store.size());
+		checkValues(store, n);
+	}
+
+	private static void checkValues(PackedSegmentStore store, int n) throws IOException {
+		for (int i = 0; i < n; i++)
+			assertArrayEquals(value("value", i), store.get("key" + i));
+	}
+
+	/**
+	 * Test that values can be read back before and after reopening the store,
+	 * and that values are spread over multiple segments
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testPutGet() throws IOException {
+		final File dir = folder.newFolder("store");
+
+		PackedSegmentStore store = new PackedSegmentStore(dir, 1000, true);
+		fill(store, 500);
+		check(store, 500);
+		assertNull(store.get("missing"));
+		assertFalse(store.contains("missing"));
+		store.close();
+
+		assertTrue(dir.list().length > 2);
+
+		store = new PackedSegmentStore(dir, 1000, true);
+		check(store, 500);
+		store.close();
+	}
+
+	/**
+	 * Test that records that are missing from the index are recovered and
+	 * that a partially written record is discarded
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testRecovery() throws IOException {
+		final File dir = folder.newFolder("store");
+
+		PackedSegmentStore store = new PackedSegmentStore(dir, 1000, false);
+		fill(store, 100);
+		store.close();
+
+		assertTrue(new File(dir, "index.dat").delete());
+
+		File last = null;
+		for (final File f : dir.listFiles())
+			if (last == null || f.getName().compareTo(last.getName()) > 0)
+				last = f;
+
+		final long length = last.length();
+		final RandomAccessFile raf = new RandomAccessFile(last, "rw");
+		raf.seek(length);
+		raf.writeInt(10);
+		raf.write(new byte[] { 'k', 'e' });
+		raf.close();
+
+		store = new PackedSegmentStore(dir, 1000, false);
+		check(store, 100);
+		store.close();
+
+		assertEquals(length, last.length());
+	}
+
+	/**
+	 * Test that an index that ends part way through an entry is truncated
+	 * before new entries are appended to it, so that the store can be
+	 * reopened repeatedly
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testTruncatedIndex() throws IOException {
+		final File dir = folder.newFolder("store");
+
+		PackedSegmentStore store = new PackedSegmentStore(dir, 1000, false);
+		fill(store, 100);
+		store.close();
+
+		// cut the final entry (for "key99": 4 + 5 + 4 + 8 + 4 bytes) part
+		// way through its length field
+		final File indexFile = new File(dir, "index.dat");
+		final RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+		raf.setLength(indexFile.length() - 23);
+		raf.close();
+
+		store = new PackedSegmentStore(dir, 1000, false);
+		check(store, 100);
+		store.put("extra1", value("extra", 1));
+		store.close();
+
+		store = new PackedSegmentStore(dir, 1000, false);
+		checkValues(store, 100);
+		assertArrayEquals(value("extra", 1), store.get("extra1"));
+		store.put("extra2", value("extra", 2));
+		store.close();
+
+		store = new PackedSegmentStore(dir, 1000, false);
+		assertEquals(102, store.size());
+		checkValues(store, 100);
+		assertArrayEquals(value("extra", 1), store.get("extra1"));
+		assertArrayEquals(value("extra", 2), store.get("extra2"));
+		store.close();
+	}
+
+	/**
+	 * Test that garbage at the end of the index (such as a negative key
+	 * length) is discarded rather than causing the store to fail to open
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testCorruptIndexTail() throws IOException {
+		final File dir = folder.newFolder("store");
+
+		PackedSegmentStore store = new PackedSegmentStore(dir, 1000, false);
+		fill(store, 50);
+		store.close();
+
+		final File indexFile = new File(dir, "index.dat");
+		final long length = indexFile.length();
+		final RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+		raf.seek(length);
+		raf.writeInt(-5);
+		raf.writeInt(Integer.MAX_VALUE);
+		raf.close();
+
+		store = new PackedSegmentStore(dir, 1000, false);
+		check(store, 50);
+		store.close();
+
+		assertEquals(length, indexFile.length());
+
+		store = new PackedSegmentStore(dir, 1000, false);
+		check(store, 50);
+		store.close();
+	}
+
+	/**
+	 * Test that compaction reclaims the space used by superseded values
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCompact() throws IOException {
+		final File dir = folder.newFolder("store");
+
+		PackedSegmentStore store = new PackedSegmentStore(dir, 1000, true);
+		for (int i = 0; i < 100; i++)
+			store.put("key" + i, value("old", i));
+		fill(store, 100);
+
+		final long before = store.totalBytes();
+		store.compact();
+		assertTrue(store.totalBytes() < before);
+		check(store, 100);
+
+		store.put("key100", value("value", 100));
+		store.close();
+
+		store = new PackedSegmentStore(dir, 1000, true);
+		check(store, 101);
+		store.close();
+	}
+
+	/**
+	 * Test that values can be read concurrently whilst another thread is
+	 * writing
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentReaders() throws Exception {
+		final File dir = folder.newFolder("store");
+		final PackedSegmentStore store = new PackedSegmentStore(dir, 4096, true);
+		fill(store, 1000);
+
+		final AtomicBoolean failed = new AtomicBoolean();
+		final Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < 10; j++)
+							checkValues(store, 1000);
+					} catch (final Throwable e) {
+						failed.set(true);
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		for (int i = 0; i < 1000; i++)
+			store.put("other" + i, value("other", i));
+
+		for (final Thread t : threads)
+			t.join();
+
+		assertFalse(failed.get());
+		assertEquals(2000, store.size());
+		store.close();
+	}
+}
@@ -30,15 +30,28 @@
 package org.openimaj.util.parallel;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.junit.Test;
+import org.openimaj.util.function.IntOperation;
 import org.openimaj.util.function.Operation;
+import org.openimaj.util.parallel.Parallel.IntRange;
 import org.openimaj.util.parallel.partition.GrowingChunkPartitioner;
 import org.openimaj.util.parallel.partition.RangePartitioner;
 
@@ -96,4 +109,327 @@ public class ParallelTest {
 
 		assertEquals(intsList.size(), out.size());
 	}
+
+	/**
+	 * Test that the fork-join integer loops visit every index exactly once
+	 */
+	@Test
+	public void testForIndexForkJoin() {
+		final ForkJoinPool pool = new ForkJoinPool(4);
+
+		for (final int incr : new int[] { 1, 3, 7 }) {
+			final AtomicIntegerArray counts = new AtomicIntegerArray(10001);
+
+			Parallel.forIndex(0, counts.length(), incr, new IntOperation() {
+				@Override
+				public void perform(int value) {
+					counts.incrementAndGet(value);
+				}
+			}, pool);
+
+			for (int i = 0; i < counts.length(); i++)
+				assertEquals(i % incr == 0 ? 1 : 0, counts.get(i));
+		}
+
+		final AtomicIntegerArray counts = new AtomicIntegerArray(100);
+		Parallel.forRange(5, 95, 2, new Operation<IntRange>() {
+			@Override
+			public void perform(IntRange range) {
+				for (int i = range.start; i < range.stop; i += range.incr)
+					counts.incrementAndGet(i);
+			}
+		}, pool);
+
+		for (int i = 0; i < counts.length(); i++)
+			assertEquals(i >= 5 && i < 95 && (i - 5) % 2 == 0 ? 1 : 0, counts.get(i));
+	}
+
+	/**
+	 * Test that loops nested on the same fork-join pool complete
+	 */
+	@Test(timeout = 60000)
+	public void testNestedForkJoin() {
+		final ForkJoinPool pool = new ForkJoinPool(2);
+		final AtomicInteger count = new AtomicInteger();
+
+		Parallel.forIndex(0, 16, 1, new IntOperation() {
+			@Override
+			public void perform(int value) {
+				final List<Integer> data = new ArrayList<Integer>();
+				for (int i = 0; i < 100; i++)
+					data.add(i);
+
+				Parallel.forEach(data, new Operation<Integer>() {
+					@Override
+					public void perform(Integer object) {
+						Parallel.forIndex(0, 10, 1, new IntOperation() {
+							@Override
+							public void perform(int value) {
+								count.incrementAndGet();
+							}
+						}, pool);
+					}
+				}, pool);
+			}
+		}, pool);
+
+		assertEquals(16 * 100 * 10, count.get());
+	}
+
+	/**
+	 * Test that exceptions thrown within the fork-join loops reach the caller
+	 */
+	@Test
+	public void testForkJoinExceptions() {
+		final ForkJoinPool pool = new ForkJoinPool(4);
+
+		try {
+			Parallel.forIndex(0, 100000, 1, new IntOperation() {
+				@Override
+				public void perform(int value) {
+					if (value == 54321)
+						throw new IllegalStateException();
+				}
+			}, pool);
+			fail();
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+
+		final List<Integer> data = new ArrayList<Integer>();
+		for (int i = 0; i < 1000; i++)
+			data.add(i);
+
+		try {
+			Parallel.forEach(data, new Operation<Integer>() {
+				@Override
+				public void perform(Integer object) {
+					if (object == 500)
+						throw new IllegalArgumentException();
+				}
+			}, pool);
+			fail();
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+
+		try {
+			Parallel.forEachUnpartitioned(data.iterator(), new Operation<Integer>() {
+				@Override
+				public void perform(Integer object) {
+					if (object == 500)
+						throw new IllegalArgumentException();
+				}
+			}, pool);
+			fail();
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Test that exceptions thrown within the thread-pool index loop reach the
+	 * caller
+	 */
+	@Test
+	public void testForIndexExceptions() {
+		final ThreadPoolExecutor pool = GlobalExecutorPool.getPool();
+
+		try {
+			Parallel.forIndex(0, 1000, 1, new Operation<Integer>() {
+				@Override
+				public void perform(Integer object) {
+					if (object == 999)
+						throw new IllegalStateException();
+				}
+			}, pool);
+			fail();
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Test that a failure in the thread-pool loops is only rethrown once every
+	 * chunk has finished, and that the calling thread is not interrupted
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testThreadPoolExceptionWaitsForChunks() throws InterruptedException {
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(4, 4, 1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>());
+		final AtomicInteger running = new AtomicInteger();
+
+		try {
+			Parallel.forRange(0, 4, 1, new Operation<IntRange>() {
+				@Override
+				public void perform(IntRange range) {
+					if (range.start == 0) {
+						// fail once the other chunks are all running
+						final long end = System.currentTimeMillis() + 1000;
+						while (running.get() < 3 && System.currentTimeMillis() < end)
+							Thread.yield();
+						throw new IllegalStateException();
+					}
+
+					running.incrementAndGet();
+					try {
+						Thread.sleep(100);
+					} catch (final InterruptedException e) {
+						fail();
+					}
+					running.decrementAndGet();
+				}
+			}, pool);
+			fail();
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+
+		assertEquals(0, running.get());
+		assertFalse(Thread.interrupted());
+		pool.shutdown();
+	}
+
+	/**
+	 * Test that an interrupted caller still waits for the thread-pool loops to
+	 * complete, and that its interrupt status is preserved
+	 */
+	@Test
+	public void testThreadPoolInterruptedCaller() {
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(4, 4, 1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>());
+		final AtomicInteger count = new AtomicInteger();
+
+		Thread.currentThread().interrupt();
+		Parallel.forIndex(0, 100, 1, new Operation<Integer>() {
+			@Override
+			public void perform(Integer object) {
+				count.incrementAndGet();
+			}
+		}, pool);
+
+		assertTrue(Thread.interrupted());
+		assertEquals(100, count.get());
+		pool.shutdown();
+	}
+
+	/**
+	 * Test that exceptions thrown within the for-each loops on an explicit
+	 * thread pool reach the caller, and stop the remaining work
+	 */
+	@Test
+	public void testThreadPoolForEachExceptions() {
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(4, 4, 1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>());
+
+		final List<Integer> data = new ArrayList<Integer>();
+		for (int i = 0; i < 100000; i++)
+			data.add(i);
+
+		final AtomicInteger count = new AtomicInteger();
+		try {
+			Parallel.forEach(data, new Operation<Integer>() {
+				@Override
+				public void perform(Integer object) {
+					count.incrementAndGet();
+					if (object == 10)
+						throw new IllegalArgumentException();
+				}
+			}, pool);
+			fail();
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+		assertTrue(count.get() < data.size());
+
+		try {
+			Parallel.forEachUnpartitioned(data.iterator(), new Operation<Integer>() {
+				@Override
+				public void perform(Integer object) {
+					if (object == 500)
+						throw new IllegalStateException();
+				}
+			}, pool);
+			fail();
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+
+		try {
+			Parallel.forEachPartitioned(new RangePartitioner<Integer>(data), new Operation<Iterator<Integer>>() {
+				@Override
+				public void perform(Iterator<Integer> object) {
+					throw new AssertionError();
+				}
+			}, pool);
+			fail();
+		} catch (final AssertionError e) {
+			// expected
+		}
+
+		assertFalse(Thread.interrupted());
+		pool.shutdown();
+	}
+
+	/**
+	 * Test that an interrupted caller of a for-each loop on an explicit thread
+	 * pool gets a {@link CancellationException}, and that its interrupt status
+	 * is restored
+	 */
+	@Test
+	public void testThreadPoolForEachInterruptedCaller() {
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(4, 4, 1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>());
+
+		final List<Integer> data = new ArrayList<Integer>();
+		for (int i = 0; i < 1000; i++)
+			data.add(i);
+
+		Thread.currentThread().interrupt();
+		try {
+			Parallel.forEachUnpartitioned(data.iterator(), new Operation<Integer>() {
+				@Override
+				public void perform(Integer object) {
+					// do nothing
+				}
+			}, pool);
+			fail();
+		} catch (final CancellationException e) {
+			// expected
+		}
+
+		assertTrue(Thread.interrupted());
+		pool.shutdown();
+	}
+
+	/**
+	 * Test that every index of a range that isn't a multiple of the increment
+	 * is visited exactly once by the thread-pool loops, and that a
+	 * <code>null</code> pool uses the default
+	 */
+	@Test
+	public void testThreadPoolRanges() {
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(4, 4, 1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>());
+
+		for (final ThreadPoolExecutor p : new ThreadPoolExecutor[] { pool, null }) {
+			for (final int stop : new int[] { 0, 1, 3, 10, 11, 12, 1001 }) {
+				final AtomicIntegerArray visits = new AtomicIntegerArray(stop);
+
+				Parallel.forIndex(0, stop, 3, new Operation<Integer>() {
+					@Override
+					public void perform(Integer object) {
+						visits.incrementAndGet(object);
+					}
+				}, p);
+
+				for (int i = 0; i < stop; i++)
+					assertEquals(i % 3 == 0 ? 1 : 0, visits.get(i));
+			}
+		}
+
+		pool.shutdown();
+	}
 }
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openimaj.feature.ArrayFeatureVector;
+import org.openimaj.feature.ByteFV;
+import org.openimaj.feature.ByteFVComparison;
+import org.openimaj.feature.FeatureVector;
+import org.openimaj.image.feature.local.aggregate.FisherVector;
+import org.openimaj.image.feature.local.aggregate.ParallelVectorAggregator;
+import org.openimaj.image.feature.local.aggregate.VLAD;
+import org.openimaj.image.feature.local.aggregate.VectorAggregator;
+import org.openimaj.math.statistics.distribution.DiagonalMultivariateGaussian;
+import org.openimaj.math.statistics.distribution.MixtureOfGaussians;
+import org.openimaj.math.statistics.distribution.MultivariateGaussian;
+import org.openimaj.ml.clustering.assignment.hard.ExactByteAssigner;
+import org.openimaj.time.Timer;
+
+import Jama.Matrix;
+
+/**
+ * Benchmark measuring the throughput (in images per second) of
+ * {@link FisherVector} and {@link VLAD} aggregation of SIFT-like byte
+ * descriptors, both one image at a time and in batches with a
+ * {@link ParallelVectorAggregator}.
+ *
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class AggregationBenchmark {
+	private static final int WARMUP = 2;
+	private static final int RUNS = 5;
+	private static final int D = 128;
+
+	private static <F extends FeatureVector> void benchmark(String name, List<List<ByteFV>> images,
+			VectorAggregator<ArrayFeatureVector<byte[]>, F> aggregator)
+	{
+		for (int i = 0; i < WARMUP; i++) {
+			for (final List<ByteFV> image : images)
+				aggregator.aggregateVectors(image);
+		}
+
+		final Timer t = Timer.timer();
+		for (int i = 0; i < RUNS; i++) {
+			for (final List<ByteFV> image : images)
+				aggregator.aggregateVectors(image);
+		}
+		report(name, images.size() * RUNS, t.duration());
+
+		final ParallelVectorAggregator<ArrayFeatureVector<byte[]>, F> pva =
+				new ParallelVectorAggregator<ArrayFeatureVector<byte[]>, F>(aggregator);
+		for (int i = 0; i < WARMUP; i++)
+			pva.aggregateAllVectors(images);
+
+		final Timer pt = Timer.timer();
+		for (int i = 0; i < RUNS; i++)
+			pva.aggregateAllVectors(images);
+		report(name + " (batch)", images.size() * RUNS, pt.duration());
+	}
+
+	private static void report(String name, int nImages, long millis) {
+		System.out.format("%s: %.1f images/sec\n", name, nImages * 1000.0 / millis);
+	}
+
+	/**
+	 * Run the benchmark
+	 *
+	 * @param args
+	 *            optionally the number of images, features per image and
+	 *            number of gaussians/centroids
+	 */
+	public static void main(String[] args) {
+		final int nImages = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		final int nFeatures = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		final int K = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+		final Random rng = new Random(0);
+
+		final List<List<ByteFV>> images = new ArrayList<List<ByteFV>>();
+		for (int i = 0; i < nImages; i++) {
+			final List<ByteFV> features = new ArrayList<ByteFV>();
+			for (int j = 0; j < nFeatures; j++) {
+				final byte[] v = new byte[D];
+				for (int d = 0; d < D; d++)
+					v[d] = (byte) (rng.nextInt(256) - 128);
+				features.add(new ByteFV(v));
+			}
+			images.add(features);
+		}
+
+		final MultivariateGaussian[] gaussians = new MultivariateGaussian[K];
+		final double[] weights = new double[K];
+		final byte[][] centroids = new byte[K][D];
+		for (int k = 0; k < K; k++) {
+			final double[] mean = new double[D];
+			final double[] var = new double[D];
+			for (int d = 0; d < D; d++) {
+				centroids[k][d] = (byte) (rng.nextInt(256) - 128);
+				mean[d] = centroids[k][d];
+				var[d] = 1000 + rng.nextDouble() * 5000;
+			}
+			gaussians[k] = new DiagonalMultivariateGaussian(new Matrix(new double[][] { mean }), var);
+			weights[k] = 1.0 / K;
+		}
+		final MixtureOfGaussians gmm = new MixtureOfGaussians(gaussians, weights);
+
+		System.out.println(nImages + " images; " + nFeatures + " features per image; K=" + K);
+
+		benchmark("FisherVector", images, new FisherVector<byte[]>(gmm, true));
+
+		final FisherVector<byte[]> nearest = new FisherVector<byte[]>(gmm, true);
+		nearest.setNumNearest(5);
+		benchmark("FisherVector (5 nearest)", images, nearest);
+
+		benchmark("VLAD", images, new VLAD<byte[]>(new ExactByteAssigner(centroids, ByteFVComparison.EUCLIDEAN), centroids, true));
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.benchmark;
+
+import java.util.Random;
+
+import org.openimaj.image.FImage;
+import org.openimaj.image.processing.convolution.FGaussianConvolve;
+import org.openimaj.image.processing.convolution.FImageConvolveSeparable;
+import org.openimaj.image.processing.convolution.TiledFImageConvolveSeparable;
+import org.openimaj.math.matrix.MeanVector;
+import org.openimaj.time.Timer;
+
+/**
+ * Benchmark comparing {@link FImageConvolveSeparable} against the
+ * single-threaded and multi-threaded versions of
+ * {@link TiledFImageConvolveSeparable} for Gaussian blurring of a large image.
+ *
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class SeparableConvolutionBenchmark {
+	private static final int WARMUP = 5;
+	private static final int RUNS = 20;
+
+	private interface Method {
+		void convolve(FImage image, float[] kernel);
+	}
+
+	private static void benchmark(String name, FImage image, float[] kernel, Method method) {
+		for (int i = 0; i < WARMUP; i++) {
+			method.convolve(image.clone(), kernel);
+		}
+
+		final MeanVector mv = new MeanVector();
+		for (int i = 0; i < RUNS; i++) {
+			final FImage copy = image.clone();
+
+			final Timer t = Timer.timer();
+			method.convolve(copy, kernel);
+			mv.update(new double[] { t.duration() });
+		}
+
+		System.out.println(name + ": " + mv.vec()[0] + "ms");
+	}
+
+	/**
+	 * Run the benchmark
+	 *
+	 * @param args
+	 *            optionally the width, height and sigma
+	 */
+	public static void main(String[] args) {
+		final int width = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+		final int height = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+		final float sigma = args.length > 2 ? Float.parseFloat(args[2]) : 1.6f;
+
+		final Random rng = new Random(0);
+		final FImage image = new FImage(width, height);
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				image.pixels[y][x] = rng.nextFloat();
+
+		final float[] kernel = FGaussianConvolve.makeKernel(sigma);
+		System.out.println("Image: " + width + "x" + height + "; kernel length " + kernel.length);
+
+		benchmark("FImageConvolveSeparable", image, kernel, new Method() {
+			@Override
+			public void convolve(FImage image, float[] kernel) {
+				FImageConvolveSeparable.convolveHorizontal(image, kernel);
+				FImageConvolveSeparable.convolveVertical(image, kernel);
+			}
+		});
+
+		benchmark("TiledFImageConvolveSeparable (single thread)", image, kernel, new Method() {
+			@Override
+			public void convolve(FImage image, float[] kernel) {
+				TiledFImageConvolveSeparable.convolveHorizontal(image, kernel, null);
+				TiledFImageConvolveSeparable.convolveVertical(image, kernel, null);
+			}
+		});
+
+		benchmark("TiledFImageConvolveSeparable (global pool)", image, kernel, new Method() {
+			@Override
+			public void convolve(FImage image, float[] kernel) {
+				image.processInplace(new TiledFImageConvolveSeparable(kernel));
+			}
+		});
+	}
+}
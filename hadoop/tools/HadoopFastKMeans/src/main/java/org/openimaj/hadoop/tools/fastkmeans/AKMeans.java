@@ -38,6 +38,7 @@ import java.io.InputStream;
 import java.net.URI;
 import java.util.Random;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BytesWritable;
@@ -79,12 +80,21 @@ public class AKMeans {
 	 */
 	public static final String CENTROIDS_EXACT = "uk.ac.soton.ecs.jsh2.clusterquantiser.CentroidsExact";
 
+	/**
+	 * Config option for in-mapper combining. If true, each mapper accumulates
+	 * the per-centroid sums and counts itself and only emits the partial sums
+	 * when it is cleaned up, rather than emitting every feature.
+	 */
+	public static final String CENTROIDS_IN_MAPPER_COMBINE = "uk.ac.soton.ecs.jsh2.clusterquantiser.InMapperCombine";
+
 	private static final String CENTROIDS_FALLBACK_CHANCE = "uk.ac.soton.ecs.jsh2.clusterquantiser.FallbackChance";
 
 	/**
 	 * the map for approximate kmeans. Uses the {@link ByteKMeans} under the
 	 * hood. For each feature assign the feature to a centroid and emit with
-	 * centroid as key.
+	 * centroid as key. If {@link AKMeans#CENTROIDS_IN_MAPPER_COMBINE} is set,
+	 * the features are instead summed per centroid within the mapper, and
+	 * the partial sums are emitted at the end of the task.
 	 *
 	 * @author Sina Samangooei (ss@ecs.soton.ac.uk)
 	 *
@@ -95,12 +105,21 @@ public class AKMeans {
 		private static HardAssigner<byte[], float[], IntFloatPair> assigner = null;
 		private static double randomFallbackChance;
 		private static boolean exact;
+		private static int dimensions;
+
+		private long[][] sums;
+		private long[] counts;
 
 		@Override
 		protected void setup(Mapper<Text, BytesWritable, IntWritable, BytesWritable>.Context context) throws IOException,
 		InterruptedException
 		{
 			loadCluster(context);
+
+			if (context.getConfiguration().getBoolean(CENTROIDS_IN_MAPPER_COMBINE, false)) {
+				sums = new long[k][dimensions];
+				counts = new long[k];
+			}
 		}
 
 		protected static synchronized void loadCluster(
@@ -124,6 +143,7 @@ public class AKMeans {
 				final FileSystem fs = HadoopFastKMeansOptions.getFileSystem(uri);
 				final InputStream is = fs.open(centroidsPath);
 				final ByteCentroidsResult centroids = IOUtils.read(is, ByteCentroidsResult.class);
+				dimensions = centroids.numDimensions();
 
 				if (exact)
 					assigner = new ExactByteAssigner(centroids);
@@ -142,15 +162,70 @@ public class AKMeans {
 
 			final int cluster = assigner.assign(points);
 
-			context.write(new IntWritable(cluster), new BytesWritable(points));
+			if (sums != null) {
+				accumulateFromFeature(sums[cluster], points);
+				counts[cluster]++;
+			} else {
+				context.write(new IntWritable(cluster), new BytesWritable(points));
+			}
 
 			if (new Random().nextDouble() < randomFallbackChance) {
 				context.write(new IntWritable(k + 1), new BytesWritable(points));
 			}
 		}
+
+		@Override
+		protected void cleanup(Mapper<Text, BytesWritable, IntWritable, BytesWritable>.Context context)
+				throws IOException, InterruptedException
+		{
+			if (sums == null)
+				return;
+
+			for (int i = 0; i < sums.length; i++) {
+				if (counts[i] > 0)
+					context.write(new IntWritable(i), new BytesWritable(encodeSum(counts[i], sums[i])));
+			}
+		}
 	}
 
-	private static int accumulateFromFeature(int[] sum, byte[] assigned) throws IOException {
+	/**
+	 * Read the dimensionality of the centroids stored at the
+	 * {@link #CENTROIDS_PATH} without loading them all.
+	 */
+	private static int readDimensions(Configuration conf) throws IOException {
+		final Path path = new Path(conf.getStrings(CENTROIDS_PATH)[0]);
+		final FileSystem fs = HadoopFastKMeansOptions.getFileSystem(path.toUri());
+		final DataInputStream dis = new DataInputStream(fs.open(path));
+
+		try {
+			dis.readFully(new byte[new ByteCentroidsResult().binaryHeader().length]);
+			dis.readInt(); // number of centroids
+			return dis.readInt();
+		} finally {
+			dis.close();
+		}
+	}
+
+	private static byte[] encodeSum(long totalAssigned, long[] sum) throws IOException {
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream(8 * (sum.length + 1));
+		final DataOutputStream dos = new DataOutputStream(bos);
+		dos.writeLong(totalAssigned);
+		for (final long i : sum) {
+			dos.writeLong(i);
+		}
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Accumulate either a single feature or an existing sum of features
+	 */
+	private static long accumulate(long[] sum, byte[] assigned) throws IOException {
+		if (assigned.length == sum.length)
+			return accumulateFromFeature(sum, assigned);
+		return accumulateFromSum(sum, assigned);
+	}
+
+	private static long accumulateFromFeature(long[] sum, byte[] assigned) throws IOException {
 		if (assigned.length != sum.length)
 			throw new IOException("Inconsistency in sum and feature length");
 		for (int i = 0; i < sum.length; i++) {
@@ -159,14 +234,14 @@ public class AKMeans {
 		return 1;
 	}
 
-	private static int accumulateFromSum(int[] sum, byte[] assigned) throws IOException {
-		final int flen = (assigned.length / 4) - 1;
+	private static long accumulateFromSum(long[] sum, byte[] assigned) throws IOException {
+		final int flen = (assigned.length / 8) - 1;
 		final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(assigned));
 		if (flen != sum.length)
 			throw new IOException("Inconsistency in sum and feature length");
-		final int totalAssigned = dis.readInt();
+		final long totalAssigned = dis.readLong();
 		for (int i = 0; i < sum.length; i++) {
-			sum[i] += dis.readInt();
+			sum[i] += dis.readLong();
 		}
 		return totalAssigned;
 	}
@@ -180,18 +255,20 @@ public class AKMeans {
 	 */
 	public static class Combine extends Reducer<IntWritable, BytesWritable, IntWritable, BytesWritable> {
 		private int k;
+		private int dimensions;
 
 		@Override
 		public void setup(Context context) throws IOException, InterruptedException {
 			k = Integer.parseInt(context.getConfiguration().getStrings(CENTROIDS_K)[0]);
+			dimensions = readDimensions(context.getConfiguration());
 		}
 
 		@Override
 		public void reduce(IntWritable key, Iterable<BytesWritable> values, Context context) throws IOException,
 		InterruptedException
 		{
-			final int[] sum = new int[128];
-			int totalAssigned = 0;
+			final long[] sum = new long[dimensions];
+			long totalAssigned = 0;
 			for (final BytesWritable val : values) {
 				// Copy the important part of the array
 				final byte[] assigned = new byte[val.getLength()];
@@ -201,25 +278,12 @@ public class AKMeans {
 					context.write(key, new BytesWritable(assigned));
 					continue;
 				}
-				int added = 0;
-				// Accumulate either with feature or with an existing sum of
-				// features
-				if (assigned.length == 128)
-					added += accumulateFromFeature(sum, assigned);
-				else
-					added += accumulateFromSum(sum, assigned);
-				totalAssigned += added;
+				totalAssigned += accumulate(sum, assigned);
 			}
 			if (key.get() > k)
 				return;
 			// Write accumulation and current count
-			final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-			final DataOutputStream dos = new DataOutputStream(bos);
-			dos.writeInt(totalAssigned);
-			for (final int i : sum) {
-				dos.writeInt(i);
-			}
-			context.write(key, new BytesWritable(bos.toByteArray()));
+			context.write(key, new BytesWritable(encodeSum(totalAssigned, sum)));
 		}
 	}
 
@@ -233,20 +297,22 @@ public class AKMeans {
 	 */
 	public static class Reduce extends Reducer<IntWritable, BytesWritable, IntWritable, BytesWritable> {
 		private int k;
+		private int dimensions;
 
 		@Override
 		public void setup(Context context) throws IOException, InterruptedException {
 			k = Integer.parseInt(context.getConfiguration().getStrings(CENTROIDS_K)[0]);
+			dimensions = readDimensions(context.getConfiguration());
 		}
 
 		@Override
 		public void reduce(IntWritable key, Iterable<BytesWritable> values, Context context) throws IOException,
 		InterruptedException
 		{
-			final int[] sum = new int[128];
-			final byte[] out = new byte[128];
+			final long[] sum = new long[dimensions];
+			final byte[] out = new byte[dimensions];
 
-			int totalAssigned = 0;
+			long totalAssigned = 0;
 			for (final BytesWritable val : values) {
 				final byte[] assigned = new byte[val.getLength()];
 
@@ -257,13 +323,7 @@ public class AKMeans {
 					continue;
 				}
 
-				int added = 0;
-				if (assigned.length == 128)
-					added += accumulateFromFeature(sum, assigned);
-				else
-					added += accumulateFromSum(sum, assigned);
-
-				totalAssigned += added;
+				totalAssigned += accumulate(sum, assigned);
 			}
 
 			if (key.get() > k)
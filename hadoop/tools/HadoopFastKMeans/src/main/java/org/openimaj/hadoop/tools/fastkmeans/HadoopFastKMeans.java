@@ -140,6 +140,7 @@ public class HadoopFastKMeans extends Configured implements Tool {
 			job.getConfiguration().setStrings(AKMeans.CENTROIDS_PATH, currentCompletePath);
 			job.getConfiguration().setStrings(AKMeans.CENTROIDS_K, options.k + "");
 			job.getConfiguration().setStrings(AKMeans.CENTROIDS_EXACT, options.exact + "");
+			job.getConfiguration().setBoolean(AKMeans.CENTROIDS_IN_MAPPER_COMBINE, options.inMapperCombine);
 			((JobConf) job.getConfiguration()).setNumTasksToExecutePerJvm(-1);
 			job.waitForCompletion(true);
 
@@ -77,6 +77,13 @@ public class HadoopFastKMeansOptions {
 	@Option(name = "--exact-mode", aliases = "-e", required = false, usage = "Compare the features in exact mode")
 	public boolean exact = false;
 
+	@Option(
+			name = "--in-mapper-combine",
+			aliases = "-imc",
+			required = false,
+			usage = "Sum the features assigned to each centroid within each mapper, rather than emitting every feature. Uses K * dims longs of memory per mapper thread.")
+	public boolean inMapperCombine = false;
+
 	@Option(
 			name = "--force-delete",
 			aliases = "-rm",
@@ -82,6 +82,20 @@ public class HadoopFastKMeansTest {
 		ToolRunner.run(hfkm, new String[]{});
 	}
 	
+	@Test
+	public void testRandomInitInMapperCombine() throws Exception{
+		HadoopFastKMeans hfkm = new HadoopFastKMeans();
+		HadoopFastKMeansOptions hfkmo = new HadoopFastKMeansOptions(null);
+		hfkmo.inputs = new ArrayList<String>();
+		hfkmo.inputs.add(featureSeqFile.getAbsolutePath());
+		hfkmo.output = tmpOut.getAbsolutePath();
+		hfkmo.forceRM = true;
+		hfkmo.nsamples = 1000;
+		hfkmo.inMapperCombine = true;
+		hfkm.setOptions(hfkmo);
+		ToolRunner.run(hfkm, new String[]{});
+	}
+	
 	public static void main(String args[]) throws Exception{
 		HadoopFastKMeansTest test = new HadoopFastKMeansTest();
 		test.setUp();
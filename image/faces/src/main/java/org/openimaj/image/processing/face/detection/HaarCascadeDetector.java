@@ -310,6 +310,38 @@ public class HaarCascadeDetector implements FaceDetector<DetectedFace, FImage> {
 		return results;
 	}
 
+	/**
+	 * Detect faces in a batch of images. The detection across all the images
+	 * and scales is performed concurrently using the global thread pool and a
+	 * single shared cascade (see {@link Detector#detect(List)}).
+	 * 
+	 * @param images
+	 *            the images
+	 * @return the faces detected in each image
+	 */
+	public List<List<DetectedFace>> detectFaces(List<FImage> images) {
+		if (histogramEqualize) {
+			for (final FImage image : images)
+				image.processInplace(new EqualisationProcessor());
+		}
+
+		final List<List<Rectangle>> rects = detector.detect(images);
+
+		final List<List<DetectedFace>> results = new ArrayList<List<DetectedFace>>(images.size());
+		for (int i = 0; i < images.size(); i++) {
+			final FImage image = images.get(i);
+			final List<ObjectIntPair<Rectangle>> filteredRects = groupingFilter.apply(rects.get(i));
+
+			final List<DetectedFace> imageResults = new ArrayList<DetectedFace>();
+			for (final ObjectIntPair<Rectangle> r : filteredRects) {
+				imageResults.add(new DetectedFace(r.first, image.extractROI(r.first), r.second));
+			}
+			results.add(imageResults);
+		}
+
+		return results;
+	}
+
 	/**
 	 * @see Detector#getScaleFactor()
 	 * @return The detector scale factor
@@ -38,7 +38,7 @@ import org.openimaj.image.MBFImage;
 import org.openimaj.image.indexing.IncrementalIndexer;
 import org.openimaj.image.searching.ImageSearchResult;
 import org.openimaj.image.searching.IncrementalMetaIndex;
-import org.openimaj.knn.pq.IncrementalFloatADCNearestNeighbours;
+import org.openimaj.knn.IncrementalNearestNeighbours;
 import org.openimaj.util.pair.IntFloatPair;
 
 public class VLADIndexer<DATA extends ImageProvider<MBFImage>, METADATA extends Identifiable>
@@ -48,7 +48,7 @@ public class VLADIndexer<DATA extends ImageProvider<MBFImage>, METADATA extends
 	private static final int DEFAULT_MAX_RESULTS = 5000;
 
 	private VLADIndexerData indexerData;
-	private IncrementalFloatADCNearestNeighbours nn;
+	private IncrementalNearestNeighbours<float[], float[], IntFloatPair> nn;
 	private IncrementalMetaIndex<DATA, METADATA> metaStore;
 
 	public VLADIndexer(VLADIndexerData indexerData, IncrementalMetaIndex<DATA, METADATA> metaStore) {
@@ -57,6 +57,14 @@ public class VLADIndexer<DATA extends ImageProvider<MBFImage>, METADATA extends
 		this.metaStore = metaStore;
 	}
 
+	public VLADIndexer(VLADIndexerData indexerData, IncrementalNearestNeighbours<float[], float[], IntFloatPair> nn,
+			IncrementalMetaIndex<DATA, METADATA> metaStore)
+	{
+		this.indexerData = indexerData;
+		this.nn = nn;
+		this.metaStore = metaStore;
+	}
+
 	@Override
 	public void indexImage(DATA image) {
 		final int id = indexerData.index(image.getImage(), nn);
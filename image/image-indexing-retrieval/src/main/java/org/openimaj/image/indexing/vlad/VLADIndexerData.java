@@ -45,11 +45,16 @@ import org.openimaj.feature.local.LocalFeatureExtractor;
 import org.openimaj.image.MBFImage;
 import org.openimaj.image.feature.local.aggregate.VLAD;
 import org.openimaj.io.IOUtils;
+import org.openimaj.knn.IncrementalNearestNeighbours;
+import org.openimaj.knn.pq.FloatIVFADCUtilities;
 import org.openimaj.knn.pq.FloatProductQuantiser;
 import org.openimaj.knn.pq.IncrementalFloatADCNearestNeighbours;
+import org.openimaj.knn.pq.IncrementalFloatIVFADCNearestNeighbours;
+import org.openimaj.ml.clustering.kmeans.KMeansConfiguration;
 import org.openimaj.ml.pca.FeatureVectorPCA;
 import org.openimaj.util.array.ArrayUtils;
 import org.openimaj.util.function.Function;
+import org.openimaj.util.pair.IntFloatPair;
 
 /**
  * Class representing the data required to build a VLAD + PCA +
@@ -176,6 +181,35 @@ public class VLADIndexerData {
 		return new IncrementalFloatADCNearestNeighbours(pq, pca.getMean().length);
 	}
 
+	/**
+	 * Create an {@link IncrementalFloatIVFADCNearestNeighbours} pre-prepared
+	 * to index data. Unlike the index created by
+	 * {@link #createIncrementalIndex()}, only a subset of the indexed data is
+	 * visited for each query, so search time is sub-linear in the number of
+	 * indexed images.
+	 * <p>
+	 * The coarse quantiser and residual product quantiser are learned from
+	 * the given sample of PCA-VLAD vectors (as produced by
+	 * {@link #extractPcaVlad(MBFImage)}). The residual product quantiser has
+	 * the same number of sub-quantisers as the product quantiser of this
+	 * object.
+	 * 
+	 * @param sample
+	 *            a sample of PCA-VLAD vectors to learn the quantisers from
+	 * @param numLists
+	 *            the number of inverted lists (coarse centroids)
+	 * @param nprobe
+	 *            the number of inverted lists to visit for each query
+	 * @return a new {@link IncrementalFloatIVFADCNearestNeighbours}
+	 */
+	public IncrementalFloatIVFADCNearestNeighbours createIncrementalIndex(float[][] sample, int numLists, int nprobe) {
+		final IncrementalFloatIVFADCNearestNeighbours nn = FloatIVFADCUtilities.train(sample, numLists,
+				pq.numAssigners(), KMeansConfiguration.DEFAULT_NUMBER_ITERATIONS);
+		nn.setNprobe(nprobe);
+
+		return nn;
+	}
+
 	/**
 	 * Index the given features into the given nearest neighbours object by
 	 * converting them to the PCA-VLAD representation and then
@@ -188,7 +222,7 @@ public class VLADIndexerData {
 	 * @return the index at which the features were added in the nearest
 	 *         neighbours object
 	 */
-	public int index(List<? extends LocalFeature<?, ?>> features, IncrementalFloatADCNearestNeighbours nn) {
+	public int index(List<? extends LocalFeature<?, ?>> features, IncrementalNearestNeighbours<float[], float[], IntFloatPair> nn) {
 		return nn.add(extractPcaVlad(features));
 	}
 
@@ -203,7 +237,7 @@ public class VLADIndexerData {
 	 * @return the index at which the features were added in the nearest
 	 *         neighbours object
 	 */
-	public int index(MBFImage image, IncrementalFloatADCNearestNeighbours nn) {
+	public int index(MBFImage image, IncrementalNearestNeighbours<float[], float[], IntFloatPair> nn) {
 		return nn.add(extractPcaVlad(image));
 	}
 
@@ -31,13 +31,18 @@ package org.openimaj.feature.local.matcher;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.openimaj.citation.annotation.Reference;
 import org.openimaj.citation.annotation.ReferenceType;
 import org.openimaj.citation.annotation.References;
 import org.openimaj.image.feature.local.keypoints.Keypoint;
+import org.openimaj.knn.ByteNearestNeighbours;
+import org.openimaj.knn.ByteNearestNeighboursExact;
+import org.openimaj.knn.NearestNeighboursFactory;
 import org.openimaj.knn.approximate.ByteNearestNeighboursKDTree;
 import org.openimaj.util.pair.Pair;
+import org.openimaj.util.parallel.Parallel;
 
 /**
  * Basic keypoint matcher. Matches keypoints by finding closest Two keypoints to
@@ -46,6 +51,15 @@ import org.openimaj.util.pair.Pair;
  * <p>
  * This is the method for determining matches suggested by Lowe in the original
  * SIFT papers.
+ * <p>
+ * The model keypoints are indexed once when they are set, using a
+ * {@link NearestNeighboursFactory}. By default an approximate index (a single
+ * KD-Tree) is used; an exact search can be performed by providing a
+ * {@link ByteNearestNeighboursExact.Factory}, and a more accurate approximate
+ * search by using a {@link ByteNearestNeighboursKDTree.Factory} with more trees
+ * and checks. The searches for the query keypoints can optionally be spread
+ * across a thread pool (see {@link #setThreadPool(ThreadPoolExecutor)} and
+ * {@link #setParallel(boolean)}).
  * 
  * @author Jonathon Hare
  * @param <T>
@@ -72,7 +86,10 @@ import org.openimaj.util.pair.Pair;
 		)
 })
 public class FastBasicKeypointMatcher<T extends Keypoint> extends BasicMatcher<T> {
-	protected ByteNearestNeighboursKDTree modelKeypointsKNN;
+	protected ByteNearestNeighbours modelKeypointsKNN;
+	protected NearestNeighboursFactory<? extends ByteNearestNeighbours, byte[]> factory;
+	protected ThreadPoolExecutor pool;
+	protected boolean parallel;
 
 	/**
 	 * Construct with a threshold of 8, corresponding to the 0.8 in Lowe's IJCV
@@ -80,7 +97,7 @@ public class FastBasicKeypointMatcher<T extends Keypoint> extends BasicMatcher<T
 	 */
 	public FastBasicKeypointMatcher()
 	{
-		super(8);
+		this(8);
 	}
 
 	/**
@@ -89,8 +106,50 @@ public class FastBasicKeypointMatcher<T extends Keypoint> extends BasicMatcher<T
 	 *            threshold for determining matching keypoints
 	 */
 	public FastBasicKeypointMatcher(int threshold)
+	{
+		this(threshold, new ByteNearestNeighboursKDTree.Factory(1, 100));
+	}
+
+	/**
+	 * Construct with the given threshold, using the given factory to create
+	 * the index of the model keypoints.
+	 * 
+	 * @param threshold
+	 *            threshold for determining matching keypoints
+	 * @param factory
+	 *            the factory for creating the nearest-neighbour index
+	 */
+	public FastBasicKeypointMatcher(int threshold, NearestNeighboursFactory<? extends ByteNearestNeighbours, byte[]> factory)
 	{
 		super(threshold);
+		this.factory = factory;
+	}
+
+	/**
+	 * Set the thread pool used to search for the nearest neighbours of the
+	 * query keypoints. If the pool is <code>null</code> (the default) the
+	 * search is performed in the calling thread.
+	 * 
+	 * @param pool
+	 *            the thread pool; may be null
+	 */
+	public void setThreadPool(ThreadPoolExecutor pool) {
+		this.pool = pool;
+		this.parallel = pool != null;
+	}
+
+	/**
+	 * Set whether the searches for the nearest neighbours are split across
+	 * multiple threads. If no thread pool has been set with
+	 * {@link #setThreadPool(ThreadPoolExecutor)}, the default pool of
+	 * {@link Parallel} is used.
+	 * 
+	 * @param parallel
+	 *            true to search in parallel; false to search in the calling
+	 *            thread
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
 	}
 
 	/**
@@ -103,13 +162,11 @@ public class FastBasicKeypointMatcher<T extends Keypoint> extends BasicMatcher<T
 	{
 		matches = new ArrayList<Pair<T>>();
 
-		final byte[][] data = new byte[keys1.size()][];
-		for (int i = 0; i < keys1.size(); i++)
-			data[i] = keys1.get(i).ivec;
+		final byte[][] data = KeypointSearch.vectors(keys1);
 
 		final int[][] argmins = new int[keys1.size()][2];
 		final float[][] mins = new float[keys1.size()][2];
-		modelKeypointsKNN.searchKNN(data, 2, argmins, mins);
+		KeypointSearch.searchKNN(modelKeypointsKNN, data, 2, argmins, mins, parallel, pool);
 
 		for (int i = 0; i < keys1.size(); i++) {
 			final float distsq1 = mins[i][0];
@@ -127,10 +184,6 @@ public class FastBasicKeypointMatcher<T extends Keypoint> extends BasicMatcher<T
 	public void setModelFeatures(List<T> modelkeys) {
 		modelKeypoints = modelkeys;
 
-		final byte[][] data = new byte[modelkeys.size()][];
-		for (int i = 0; i < modelkeys.size(); i++)
-			data[i] = modelkeys.get(i).ivec;
-
-		modelKeypointsKNN = new ByteNearestNeighboursKDTree(data, 1, 100);
+		modelKeypointsKNN = factory.create(KeypointSearch.vectors(modelkeys));
 	}
 }
@@ -31,15 +31,24 @@ package org.openimaj.feature.local.matcher;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.openimaj.image.feature.local.keypoints.Keypoint;
+import org.openimaj.knn.ByteNearestNeighbours;
+import org.openimaj.knn.ByteNearestNeighboursExact;
+import org.openimaj.knn.NearestNeighboursFactory;
 import org.openimaj.knn.approximate.ByteNearestNeighboursKDTree;
 import org.openimaj.util.pair.Pair;
+import org.openimaj.util.parallel.Parallel;
 
 /**
  * 
  * Uses a ByteKDTree to estimate approximate nearest neighbours more
- * efficiently.
+ * efficiently. Other indexes (for example a
+ * {@link ByteNearestNeighboursExact.Factory} for exact matching) can be used by
+ * providing a {@link NearestNeighboursFactory}. The searches for the query
+ * keypoints can optionally be spread across a thread pool (see
+ * {@link #setThreadPool(ThreadPoolExecutor)} and {@link #setParallel(boolean)}).
  * 
  * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
  * @author Sina Samangooei (ss@ecs.soton.ac.uk)
@@ -47,7 +56,10 @@ import org.openimaj.util.pair.Pair;
  * @param <T>
  */
 public class FastEuclideanKeypointMatcher<T extends Keypoint> implements LocalFeatureMatcher<T> {
-	private ByteNearestNeighboursKDTree modelKeypointsKNN;
+	private ByteNearestNeighbours modelKeypointsKNN;
+	private NearestNeighboursFactory<? extends ByteNearestNeighbours, byte[]> factory;
+	private ThreadPoolExecutor pool;
+	private boolean parallel;
 	private int threshold;
 	protected List<Pair<T>> matches;
 	private List<T> modelKeypoints;
@@ -57,31 +69,67 @@ public class FastEuclideanKeypointMatcher<T extends Keypoint> implements LocalFe
 	 *            threshold for determining matching keypoints
 	 */
 	public FastEuclideanKeypointMatcher(int threshold) {
+		this(threshold, new ByteNearestNeighboursKDTree.Factory(8, 768));
+	}
+
+	/**
+	 * Construct with the given threshold, using the given factory to create
+	 * the index of the model keypoints.
+	 * 
+	 * @param threshold
+	 *            threshold for determining matching keypoints
+	 * @param factory
+	 *            the factory for creating the nearest-neighbour index
+	 */
+	public FastEuclideanKeypointMatcher(int threshold,
+			NearestNeighboursFactory<? extends ByteNearestNeighbours, byte[]> factory)
+	{
 		this.threshold = threshold;
+		this.factory = factory;
+	}
+
+	/**
+	 * Set the thread pool used to search for the nearest neighbours of the
+	 * query keypoints. If the pool is <code>null</code> (the default) the
+	 * search is performed in the calling thread.
+	 * 
+	 * @param pool
+	 *            the thread pool; may be null
+	 */
+	public void setThreadPool(ThreadPoolExecutor pool) {
+		this.pool = pool;
+		this.parallel = pool != null;
+	}
+
+	/**
+	 * Set whether the searches for the nearest neighbours are split across
+	 * multiple threads. If no thread pool has been set with
+	 * {@link #setThreadPool(ThreadPoolExecutor)}, the default pool of
+	 * {@link Parallel} is used.
+	 * 
+	 * @param parallel
+	 *            true to search in parallel; false to search in the calling
+	 *            thread
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
 	}
 
 	@Override
 	public void setModelFeatures(List<T> modelkeys) {
 		modelKeypoints = modelkeys;
-
-		final byte[][] data = new byte[modelkeys.size()][];
-		for (int i = 0; i < modelkeys.size(); i++)
-			data[i] = modelkeys.get(i).ivec;
-
-		modelKeypointsKNN = new ByteNearestNeighboursKDTree(data, 8, 768);
+		modelKeypointsKNN = factory.create(KeypointSearch.vectors(modelkeys));
 	}
 
 	@Override
 	public boolean findMatches(List<T> keys1) {
 		matches = new ArrayList<Pair<T>>();
 
-		final byte[][] data = new byte[keys1.size()][];
-		for (int i = 0; i < keys1.size(); i++)
-			data[i] = keys1.get(i).ivec;
+		final byte[][] data = KeypointSearch.vectors(keys1);
 
 		final int[] argmins = new int[keys1.size()];
 		final float[] mins = new float[keys1.size()];
-		modelKeypointsKNN.searchNN(data, argmins, mins);
+		KeypointSearch.searchNN(modelKeypointsKNN, data, argmins, mins, parallel, pool);
 
 		for (int i = 0; i < keys1.size(); i++) {
 			final float distsq = mins[i];
@@ -64,13 +64,11 @@ public class FastLimitedBasicKeypointMatcher<T extends Keypoint> extends FastBas
 	{
 		matches = new ArrayList<Pair<T>>();
 		
-		byte [][] data = new byte[keys1.size()][];
-		for (int i=0; i<keys1.size(); i++)
-			data[i] = keys1.get(i).ivec;
+		byte [][] data = KeypointSearch.vectors(keys1);
 		
 		int [][] argmins = new int[keys1.size()][2];
 		float [][] mins = new float[keys1.size()][2];
-		modelKeypointsKNN.searchKNN(data, 2, argmins, mins);
+		KeypointSearch.searchKNN(modelKeypointsKNN, data, 2, argmins, mins, parallel, pool);
 		
 		for (int i=0; i<keys1.size(); i++) {
 			float distsq1 = mins[i][0];
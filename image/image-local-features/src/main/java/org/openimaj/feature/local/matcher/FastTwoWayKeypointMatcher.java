@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.feature.local.matcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.openimaj.image.feature.local.keypoints.Keypoint;
+import org.openimaj.knn.ByteNearestNeighbours;
+import org.openimaj.knn.ByteNearestNeighboursExact;
+import org.openimaj.knn.NearestNeighboursFactory;
+import org.openimaj.knn.approximate.ByteNearestNeighboursKDTree;
+import org.openimaj.util.pair.Pair;
+import org.openimaj.util.parallel.Parallel;
+
+/**
+ * Keypoint matcher that only accepts matches between keypoints that are each
+ * other's nearest neighbours (as {@link BasicTwoWayMatcher}). Optionally, the
+ * nearest neighbour of each query keypoint must also pass the ratio test used
+ * by the {@link FastBasicKeypointMatcher}.
+ * <p>
+ * Rather than comparing every pair of keypoints, the model keypoints are
+ * indexed once when they are set, and the query keypoints are indexed once per
+ * call to {@link #findMatches(List)}, using a {@link NearestNeighboursFactory}.
+ * The reverse search is only performed for the model keypoints that were the
+ * nearest neighbour of at least one query. By default an ensemble of KD-Trees
+ * is used for the index; exact matching can be performed by providing a
+ * {@link ByteNearestNeighboursExact.Factory}. The searches can optionally be
+ * spread across a thread pool (see {@link #setThreadPool(ThreadPoolExecutor)}
+ * and {@link #setParallel(boolean)}).
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ * 
+ * @param <T>
+ *            The type of keypoint
+ */
+public class FastTwoWayKeypointMatcher<T extends Keypoint> implements LocalFeatureMatcher<T> {
+	protected List<T> modelKeypoints;
+	protected List<Pair<T>> matches;
+	protected ByteNearestNeighbours modelKeypointsKNN;
+	protected NearestNeighboursFactory<? extends ByteNearestNeighbours, byte[]> factory;
+	protected ThreadPoolExecutor pool;
+	protected boolean parallel;
+	protected int thresh;
+
+	/**
+	 * Construct the matcher without a ratio test.
+	 */
+	public FastTwoWayKeypointMatcher() {
+		this(0);
+	}
+
+	/**
+	 * Construct the matcher with the given threshold for the ratio test. The
+	 * threshold is interpreted as in {@link FastBasicKeypointMatcher}; a
+	 * threshold of 0 or less disables the ratio test.
+	 * 
+	 * @param threshold
+	 *            threshold for the ratio test
+	 */
+	public FastTwoWayKeypointMatcher(int threshold) {
+		this(threshold, new ByteNearestNeighboursKDTree.Factory(8, 768));
+	}
+
+	/**
+	 * Construct the matcher with the given threshold for the ratio test, using
+	 * the given factory to create the nearest-neighbour indexes. The threshold
+	 * is interpreted as in {@link FastBasicKeypointMatcher}; a threshold of 0
+	 * or less disables the ratio test.
+	 * 
+	 * @param threshold
+	 *            threshold for the ratio test
+	 * @param factory
+	 *            the factory for creating the nearest-neighbour indexes
+	 */
+	public FastTwoWayKeypointMatcher(int threshold,
+			NearestNeighboursFactory<? extends ByteNearestNeighbours, byte[]> factory)
+	{
+		this.thresh = threshold;
+		this.factory = factory;
+		this.matches = new ArrayList<Pair<T>>();
+	}
+
+	/**
+	 * Set the thread pool used to search for the nearest neighbours. If the
+	 * pool is <code>null</code> (the default) the search is performed in the
+	 * calling thread.
+	 * 
+	 * @param pool
+	 *            the thread pool; may be null
+	 */
+	public void setThreadPool(ThreadPoolExecutor pool) {
+		this.pool = pool;
+		this.parallel = pool != null;
+	}
+
+	/**
+	 * Set whether the searches for the nearest neighbours are split across
+	 * multiple threads. If no thread pool has been set with
+	 * {@link #setThreadPool(ThreadPoolExecutor)}, the default pool of
+	 * {@link Parallel} is used.
+	 * 
+	 * @param parallel
+	 *            true to search in parallel; false to search in the calling
+	 *            thread
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Set the threshold for the ratio test. A threshold of 0 or less disables
+	 * the ratio test.
+	 * 
+	 * @param thresh
+	 *            the threshold
+	 */
+	public void setThreshold(int thresh) {
+		this.thresh = thresh;
+	}
+
+	@Override
+	public void setModelFeatures(List<T> modelkeys) {
+		modelKeypoints = modelkeys;
+		modelKeypointsKNN = factory.create(KeypointSearch.vectors(modelkeys));
+	}
+
+	@Override
+	public boolean findMatches(List<T> queryfeatures) {
+		matches = new ArrayList<Pair<T>>();
+
+		if (queryfeatures.size() == 0 || modelKeypoints.size() == 0)
+			return false;
+
+		// forward search from each query to the model
+		final byte[][] data = KeypointSearch.vectors(queryfeatures);
+		final int K = thresh > 0 ? 2 : 1;
+		final int[][] argmins = new int[data.length][K];
+		final float[][] mins = new float[data.length][K];
+		KeypointSearch.searchKNN(modelKeypointsKNN, data, K, argmins, mins, parallel, pool);
+
+		// the model keypoints that were matched; each only needs to be
+		// searched for once
+		final int[] reverseIndex = new int[modelKeypoints.size()];
+		final int[] candidates = new int[data.length];
+		int ncandidates = 0;
+		for (int i = 0; i < data.length; i++) {
+			if (thresh > 0 && !(10 * 10 * mins[i][0] < thresh * thresh * mins[i][1]))
+				continue;
+
+			final int target = argmins[i][0];
+			if (reverseIndex[target] == 0) {
+				candidates[ncandidates++] = target;
+				reverseIndex[target] = ncandidates;
+			}
+		}
+
+		if (ncandidates == 0)
+			return false;
+
+		// reverse search from the matched model keypoints to the queries
+		final byte[][] candidateData = new byte[ncandidates][];
+		for (int i = 0; i < ncandidates; i++)
+			candidateData[i] = modelKeypoints.get(candidates[i]).ivec;
+
+		final int[] reverseArgmins = new int[ncandidates];
+		final float[] reverseMins = new float[ncandidates];
+		KeypointSearch.searchNN(factory.create(data), candidateData, reverseArgmins, reverseMins, parallel, pool);
+
+		for (int i = 0; i < data.length; i++) {
+			final int target = argmins[i][0];
+			final int r = reverseIndex[target];
+
+			if (r != 0 && reverseArgmins[r - 1] == i) {
+				if (thresh > 0 && !(10 * 10 * mins[i][0] < thresh * thresh * mins[i][1]))
+					continue;
+
+				matches.add(new Pair<T>(queryfeatures.get(i), modelKeypoints.get(target)));
+			}
+		}
+
+		return matches.size() > 0;
+	}
+
+	@Override
+	public List<Pair<T>> getMatches() {
+		return matches;
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.feature.local.matcher;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.openimaj.image.feature.local.keypoints.Keypoint;
+import org.openimaj.knn.ByteNearestNeighbours;
+import org.openimaj.util.function.Operation;
+import org.openimaj.util.parallel.Parallel;
+import org.openimaj.util.parallel.Parallel.IntRange;
+
+/**
+ * Helpers for the keypoint matchers that search a {@link ByteNearestNeighbours}
+ * index with the descriptors of a list of keypoints, optionally splitting the
+ * queries across a thread pool.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+final class KeypointSearch {
+	private KeypointSearch() {
+	}
+
+	/**
+	 * Get the descriptors of the given keypoints
+	 * 
+	 * @param keys
+	 *            the keypoints
+	 * @return the descriptors
+	 */
+	static byte[][] vectors(List<? extends Keypoint> keys) {
+		final byte[][] data = new byte[keys.size()][];
+		for (int i = 0; i < keys.size(); i++)
+			data[i] = keys.get(i).ivec;
+		return data;
+	}
+
+	/**
+	 * Find the K nearest neighbours of each query, optionally dividing the
+	 * queries between the threads of a pool.
+	 * 
+	 * @param nn
+	 *            the index
+	 * @param qus
+	 *            the queries
+	 * @param K
+	 *            the number of neighbours
+	 * @param argmins
+	 *            the indices of the neighbours of each query
+	 * @param mins
+	 *            the distances to the neighbours of each query
+	 * @param parallel
+	 *            true if the queries should be divided between threads
+	 * @param pool
+	 *            the thread pool; if null the default pool of {@link Parallel}
+	 *            is used
+	 */
+	static void searchKNN(final ByteNearestNeighbours nn, final byte[][] qus, final int K, final int[][] argmins,
+			final float[][] mins, boolean parallel, ThreadPoolExecutor pool)
+	{
+		if (!parallel || qus.length < 2) {
+			nn.searchKNN(qus, K, argmins, mins);
+			return;
+		}
+
+		Parallel.forRange(0, qus.length, 1, new Operation<IntRange>() {
+			@Override
+			public void perform(IntRange range) {
+				// the rows of the sub-arrays are shared with the outputs
+				nn.searchKNN(Arrays.copyOfRange(qus, range.start, range.stop), K,
+						Arrays.copyOfRange(argmins, range.start, range.stop),
+						Arrays.copyOfRange(mins, range.start, range.stop));
+			}
+		}, pool);
+	}
+
+	/**
+	 * Find the nearest neighbour of each query, optionally dividing the
+	 * queries between the threads of a pool.
+	 * 
+	 * @param nn
+	 *            the index
+	 * @param qus
+	 *            the queries
+	 * @param argmins
+	 *            the index of the neighbour of each query
+	 * @param mins
+	 *            the distance to the neighbour of each query
+	 * @param parallel
+	 *            true if the queries should be divided between threads
+	 * @param pool
+	 *            the thread pool; if null the default pool of {@link Parallel}
+	 *            is used
+	 */
+	static void searchNN(final ByteNearestNeighbours nn, final byte[][] qus, final int[] argmins, final float[] mins,
+			boolean parallel, ThreadPoolExecutor pool)
+	{
+		if (!parallel || qus.length < 2) {
+			nn.searchNN(qus, argmins, mins);
+			return;
+		}
+
+		Parallel.forRange(0, qus.length, 1, new Operation<IntRange>() {
+			@Override
+			public void perform(IntRange range) {
+				final int n = range.stop - range.start;
+				final int[] a = new int[n];
+				final float[] m = new float[n];
+
+				nn.searchNN(Arrays.copyOfRange(qus, range.start, range.stop), a, m);
+
+				System.arraycopy(a, 0, argmins, range.start, n);
+				System.arraycopy(m, 0, mins, range.start, n);
+			}
+		}, pool);
+	}
+}
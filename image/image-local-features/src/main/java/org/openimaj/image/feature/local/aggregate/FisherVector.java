@@ -54,6 +54,16 @@ import org.openimaj.ml.gmm.GaussianMixtureModelEM.CovarianceType;
  * thus you probably want to learn a {@link CovarianceType#Diagonal} or
  * {@link CovarianceType#Spherical} type gaussian with the
  * {@link GaussianMixtureModelEM} class.
+ * <p>
+ * The parameters of the mixture are copied into flat arrays when the encoder
+ * is constructed, so subsequent changes to the {@link MixtureOfGaussians} will
+ * not be reflected. Descriptors backed by primitive arrays are read directly
+ * rather than being converted to <code>double[]</code>s, and all temporary
+ * storage is held in per-thread buffers, so a single instance can be shared
+ * between threads (see {@link ParallelVectorAggregator}). Optionally, the
+ * posteriors can be restricted to the {@link #setNumNearest(int) nearest}
+ * components of each descriptor, which reduces the cost of accumulating the
+ * residuals for large mixtures.
  *
  * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
  *
@@ -97,9 +107,41 @@ import org.openimaj.ml.gmm.GaussianMixtureModelEM.CovarianceType;
 								)
 		})
 public class FisherVector<T> implements VectorAggregator<ArrayFeatureVector<T>, FloatFV> {
-	private MixtureOfGaussians gmm;
+	private static final double LOG_2PI = Math.log(2 * Math.PI);
+
+	/**
+	 * Per-thread temporary storage
+	 */
+	private static class Workspace {
+		final double[] x;
+		final double[] diffs;
+		final double[] logProbs;
+		final int[] nearest;
+
+		Workspace(int K, int D) {
+			x = new double[D];
+			diffs = new double[K * D];
+			logProbs = new double[K];
+			nearest = new int[K];
+		}
+	}
+
 	private boolean hellinger;
 	private boolean l2normalise;
+	private int numNearest;
+
+	private final int K;
+	private final int D;
+	private final double[][] means;
+	private final double[][] invStdDevs;
+	private final double[] logNorms;
+	private final double[] sqrtWeights;
+	private final ThreadLocal<Workspace> workspace = new ThreadLocal<Workspace>() {
+		@Override
+		protected Workspace initialValue() {
+			return new Workspace(K, D);
+		}
+	};
 
 	/**
 	 * Construct with the given mixture of Gaussians and optional improvement
@@ -117,9 +159,30 @@ public class FisherVector<T> implements VectorAggregator<ArrayFeatureVector<T>,
 	 *            occurs after the Hellinger step if it is used.
 	 */
 	public FisherVector(MixtureOfGaussians gmm, boolean hellinger, boolean l2normalise) {
-		this.gmm = gmm;
 		this.hellinger = hellinger;
 		this.l2normalise = l2normalise;
+
+		this.K = gmm.gaussians.length;
+		this.D = gmm.gaussians[0].numDims();
+		this.means = new double[K][];
+		this.invStdDevs = new double[K][D];
+		this.logNorms = new double[K];
+		this.sqrtWeights = new double[K];
+
+		for (int k = 0; k < K; k++) {
+			final MultivariateGaussian gauss = gmm.gaussians[k];
+			means[k] = gauss.getMean().getArray()[0].clone();
+
+			double logDet = 0;
+			for (int j = 0; j < D; j++) {
+				final double var = gauss.getCovariance(j, j);
+				invStdDevs[k][j] = 1.0 / Math.sqrt(var);
+				logDet += Math.log(var);
+			}
+
+			logNorms[k] = Math.log(gmm.weights[k]) - 0.5 * (D * LOG_2PI + logDet);
+			sqrtWeights[k] = Math.sqrt(gmm.weights[k]);
+		}
 	}
 
 	/**
@@ -153,24 +216,45 @@ public class FisherVector<T> implements VectorAggregator<ArrayFeatureVector<T>,
 		this(gmm, improved, improved);
 	}
 
+	/**
+	 * Set the number of nearest (most probable) gaussians that contribute to
+	 * the encoding of each descriptor. The posteriors are renormalised over
+	 * the selected gaussians. A value less than 1 (the default), or greater
+	 * than or equal to the number of gaussians, means that all gaussians are
+	 * used.
+	 *
+	 * @param numNearest
+	 *            the number of gaussians to use per descriptor
+	 */
+	public void setNumNearest(int numNearest) {
+		this.numNearest = numNearest;
+	}
+
+	/**
+	 * Get the number of nearest (most probable) gaussians that contribute to
+	 * the encoding of each descriptor.
+	 *
+	 * @see #setNumNearest(int)
+	 * @return the number of gaussians to use per descriptor; values less than
+	 *         1 mean all gaussians
+	 */
+	public int getNumNearest() {
+		return numNearest;
+	}
+
 	@Override
 	public FloatFV aggregate(List<? extends LocalFeature<?, ? extends ArrayFeatureVector<T>>> features) {
 		if (features == null || features.size() <= 0)
 			return null;
 
-		final int K = this.gmm.gaussians.length;
-		final int D = features.get(0).getFeatureVector().length();
-
 		final float[] vector = new float[2 * K * D];
+		final Workspace ws = workspace.get();
 
-		// cache all the features in an array
-		final double[][] X = new double[features.size()][];
-		for (int i = 0; i < X.length; i++) {
-			final LocalFeature<?, ? extends ArrayFeatureVector<T>> f = features.get(i);
-			X[i] = f.getFeatureVector().asDoubleVector();
+		for (int i = 0; i < features.size(); i++) {
+			accumulate(features.get(i).getFeatureVector(), vector, ws);
 		}
 
-		return computeFisherVector(features.size(), K, D, vector, X);
+		return prepareOutput(features.size(), vector);
 	}
 
 	@Override
@@ -178,54 +262,142 @@ public class FisherVector<T> implements VectorAggregator<ArrayFeatureVector<T>,
 		if (features == null || features.size() <= 0)
 			return null;
 
-		final int K = this.gmm.gaussians.length;
-		final int D = features.get(0).length();
-
 		final float[] vector = new float[2 * K * D];
+		final Workspace ws = workspace.get();
+
+		for (int i = 0; i < features.size(); i++) {
+			accumulate(features.get(i), vector, ws);
+		}
+
+		return prepareOutput(features.size(), vector);
+	}
+
+	/**
+	 * Copy the values of the feature into the given buffer without allocating
+	 * (unless the array type is not one of the primitive types).
+	 */
+	private static double[] read(ArrayFeatureVector<?> fv, double[] buffer) {
+		final Object values = fv.values;
 
-		// cache all the features in an array
-		final double[][] X = new double[features.size()][];
-		for (int i = 0; i < X.length; i++) {
-			final ArrayFeatureVector<T> f = features.get(i);
-			X[i] = f.asDoubleVector();
+		if (values instanceof byte[]) {
+			final byte[] v = (byte[]) values;
+			for (int j = 0; j < buffer.length; j++)
+				buffer[j] = v[j];
+		} else if (values instanceof float[]) {
+			final float[] v = (float[]) values;
+			for (int j = 0; j < buffer.length; j++)
+				buffer[j] = v[j];
+		} else if (values instanceof double[]) {
+			return (double[]) values;
+		} else if (values instanceof short[]) {
+			final short[] v = (short[]) values;
+			for (int j = 0; j < buffer.length; j++)
+				buffer[j] = v[j];
+		} else if (values instanceof int[]) {
+			final int[] v = (int[]) values;
+			for (int j = 0; j < buffer.length; j++)
+				buffer[j] = v[j];
+		} else if (values instanceof long[]) {
+			final long[] v = (long[]) values;
+			for (int j = 0; j < buffer.length; j++)
+				buffer[j] = v[j];
+		} else {
+			return fv.asDoubleVector();
 		}
 
-		return computeFisherVector(features.size(), K, D, vector, X);
+		return buffer;
 	}
 
-	private FloatFV computeFisherVector(int nFeatures, final int K,
-			final int D, final float[] vector, final double[][] X)
-	{
-		// compute posterior probabilities of all features at once (more
-		// efficient than
-		// doing it for each one at a time)
-		final double[][] posteriors = gmm.scoreSamples(X).secondObject();
+	/**
+	 * Compute the posteriors of a single feature and accumulate its first and
+	 * second order residuals into the vector
+	 */
+	private void accumulate(ArrayFeatureVector<?> fv, float[] vector, Workspace ws) {
+		final double[] xp = read(fv, ws.x);
+		final double[] diffs = ws.diffs;
+		final double[] logProbs = ws.logProbs;
+
+		// compute the normalised residuals and log-probabilities
+		double max = Double.NEGATIVE_INFINITY;
+		for (int k = 0, o = 0; k < K; k++) {
+			final double[] mean = means[k];
+			final double[] isd = invStdDevs[k];
+
+			double dist = 0;
+			for (int j = 0; j < D; j++, o++) {
+				final double diff = (xp[j] - mean[j]) * isd[j];
+				diffs[o] = diff;
+				dist += diff * diff;
+			}
+
+			logProbs[k] = logNorms[k] - 0.5 * dist;
+			if (logProbs[k] > max)
+				max = logProbs[k];
+		}
+
+		// select the components that will contribute
+		final int[] nearest = ws.nearest;
+		final int n;
+		if (numNearest > 0 && numNearest < K) {
+			n = selectNearest(logProbs, nearest, numNearest);
+		} else {
+			n = K;
+			for (int k = 0; k < K; k++)
+				nearest[k] = k;
+		}
+
+		// posteriors using log-sum-exp over the selected components
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			final int k = nearest[i];
+			logProbs[k] = Math.exp(logProbs[k] - max);
+			sum += logProbs[k];
+		}
+
+		for (int i = 0; i < n; i++) {
+			final int k = nearest[i];
+			final double apk = logProbs[k] / sum;
 
-		for (int p = 0; p < X.length; p++) {
-			final double[] xp = X[p];
+			if (apk < 1e-6)
+				continue; // speed-up: ignore really small terms...
 
-			for (int k = 0; k < K; k++) {
-				final double apk = posteriors[p][k];
+			final int base = k * 2 * D;
+			final int o = k * D;
+			for (int j = 0; j < D; j++) {
+				final double diff = diffs[o + j];
 
-				if (apk < 1e-6)
-					continue; // speed-up: ignore really small terms...
+				vector[base + j] += apk * diff;
+				vector[base + j + D] += apk * ((diff * diff) - 1);
+			}
+		}
+	}
 
-				final MultivariateGaussian gauss = gmm.gaussians[k];
-				final double[] mean = gauss.getMean().getArray()[0];
+	/**
+	 * Find the indices of the n largest values in the array, storing them in
+	 * the first n elements of the indices array
+	 */
+	private static int selectNearest(double[] values, int[] indices, int n) {
+		int count = 0;
+		for (int k = 0; k < values.length; k++) {
+			final double v = values[k];
 
-				for (int j = 0; j < D; j++) {
-					final double var = gauss.getCovariance(j, j);
-					final double diff = (xp[j] - mean[j]) / Math.sqrt(var);
+			if (count == n && v <= values[indices[n - 1]])
+				continue;
 
-					vector[k * 2 * D + j] += apk * diff;
-					vector[k * 2 * D + j + D] += apk * ((diff * diff) - 1);
-				}
+			int pos = count < n ? count++ : n - 1;
+			while (pos > 0 && values[indices[pos - 1]] < v) {
+				indices[pos] = indices[pos - 1];
+				pos--;
 			}
+			indices[pos] = k;
 		}
+		return count;
+	}
 
+	private FloatFV prepareOutput(int nFeatures, final float[] vector) {
 		for (int k = 0; k < K; k++) {
-			final double wt1 = 1.0 / (nFeatures * Math.sqrt(gmm.weights[k]));
-			final double wt2 = 1.0 / (nFeatures * Math.sqrt(2 * gmm.weights[k]));
+			final double wt1 = 1.0 / (nFeatures * sqrtWeights[k]);
+			final double wt2 = 1.0 / (nFeatures * Math.sqrt(2) * sqrtWeights[k]);
 
 			for (int j = 0; j < D; j++) {
 				vector[k * 2 * D + j] *= wt1;
@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.feature.local.aggregate;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.openimaj.feature.FeatureVector;
+import org.openimaj.feature.local.LocalFeature;
+import org.openimaj.util.function.Operation;
+import org.openimaj.util.parallel.Parallel;
+import org.openimaj.util.parallel.Parallel.IntRange;
+
+/**
+ * A {@link VectorAggregator} that wraps another, thread-safe,
+ * {@link VectorAggregator} and provides methods for aggregating the features of
+ * many images at once using a thread pool. Single lists of features are
+ * aggregated directly by the wrapped aggregator in the calling thread.
+ * <p>
+ * The {@link FisherVector} and {@link VLAD} aggregators are thread-safe
+ * (assuming, in the case of {@link VLAD}, a thread-safe assigner).
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ * 
+ * @param <FEATURE>
+ *            The type of {@link FeatureVector} of the {@link LocalFeature}s
+ *            that can be processed.
+ * @param <AGGREGATE>
+ *            Type of the aggregate {@link FeatureVector} produced
+ */
+public class ParallelVectorAggregator<FEATURE extends FeatureVector, AGGREGATE extends FeatureVector>
+		implements
+		VectorAggregator<FEATURE, AGGREGATE>
+{
+	private VectorAggregator<FEATURE, AGGREGATE> aggregator;
+	private ThreadPoolExecutor pool;
+
+	/**
+	 * Construct with the given aggregator, using the default pool of
+	 * {@link Parallel} for batch aggregation.
+	 * 
+	 * @param aggregator
+	 *            the aggregator; must be thread-safe
+	 */
+	public ParallelVectorAggregator(VectorAggregator<FEATURE, AGGREGATE> aggregator) {
+		this(aggregator, null);
+	}
+
+	/**
+	 * Construct with the given aggregator and thread pool.
+	 * 
+	 * @param aggregator
+	 *            the aggregator; must be thread-safe
+	 * @param pool
+	 *            the thread pool used for batch aggregation. If
+	 *            <code>null</code>, the default pool of {@link Parallel} is
+	 *            used.
+	 */
+	public ParallelVectorAggregator(VectorAggregator<FEATURE, AGGREGATE> aggregator, ThreadPoolExecutor pool) {
+		this.aggregator = aggregator;
+		this.pool = pool;
+	}
+
+	@Override
+	public AGGREGATE aggregate(List<? extends LocalFeature<?, ? extends FEATURE>> features) {
+		return aggregator.aggregate(features);
+	}
+
+	@Override
+	public AGGREGATE aggregateVectors(List<? extends FEATURE> features) {
+		return aggregator.aggregateVectors(features);
+	}
+
+	/**
+	 * Aggregate the features of many images in parallel.
+	 * 
+	 * @param images
+	 *            the lists of features of each image
+	 * @return the aggregated vectors, in the same order as the input
+	 */
+	public List<AGGREGATE> aggregateAll(final List<? extends List<? extends LocalFeature<?, ? extends FEATURE>>> images)
+	{
+		final FeatureVector[] results = new FeatureVector[images.size()];
+
+		Parallel.forRange(0, images.size(), 1, new Operation<IntRange>() {
+			@Override
+			public void perform(IntRange range) {
+				for (int i = range.start; i < range.stop; i += range.incr)
+					results[i] = aggregator.aggregate(images.get(i));
+			}
+		}, pool);
+
+		return asList(results);
+	}
+
+	/**
+	 * Aggregate the feature vectors of many images in parallel.
+	 * 
+	 * @param images
+	 *            the lists of feature vectors of each image
+	 * @return the aggregated vectors, in the same order as the input
+	 */
+	public List<AGGREGATE> aggregateAllVectors(final List<? extends List<? extends FEATURE>> images) {
+		final FeatureVector[] results = new FeatureVector[images.size()];
+
+		Parallel.forRange(0, images.size(), 1, new Operation<IntRange>() {
+			@Override
+			public void perform(IntRange range) {
+				for (int i = range.start; i < range.stop; i += range.incr)
+					results[i] = aggregator.aggregateVectors(images.get(i));
+			}
+		}, pool);
+
+		return asList(results);
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<AGGREGATE> asList(FeatureVector[] results) {
+		return (List<AGGREGATE>) (List<?>) Arrays.asList(results);
+	}
+}
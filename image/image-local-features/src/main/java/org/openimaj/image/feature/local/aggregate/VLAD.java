@@ -127,9 +127,7 @@ public class VLAD<T> implements VectorAggregator<ArrayFeatureVector<T>, Multidim
 			final T x = f.getFeatureVector().values;
 			final int i = assigner.assign(x);
 
-			for (int j = 0; j < D; j++) {
-				vector[i][j] += (float) (Array.getDouble(x, j) - Array.getDouble(centroids[i], j));
-			}
+			accumulate(vector[i], x, centroids[i]);
 		}
 
 		return prepareOutput(vector);
@@ -149,14 +147,46 @@ public class VLAD<T> implements VectorAggregator<ArrayFeatureVector<T>, Multidim
 			final T x = f.values;
 			final int i = assigner.assign(x);
 
-			for (int j = 0; j < D; j++) {
-				vector[i][j] += (float) (Array.getDouble(x, j) - Array.getDouble(centroids[i], j));
-			}
+			accumulate(vector[i], x, centroids[i]);
 		}
 
 		return prepareOutput(vector);
 	}
 
+	/**
+	 * Add the residual between x and the centroid to the accumulator. The
+	 * common primitive array types are handled directly; others fall back to
+	 * reflection.
+	 */
+	private static void accumulate(float[] acc, Object x, Object centroid) {
+		final int D = acc.length;
+
+		if (x instanceof byte[]) {
+			final byte[] xv = (byte[]) x;
+			final byte[] cv = (byte[]) centroid;
+			for (int j = 0; j < D; j++)
+				acc[j] += xv[j] - cv[j];
+		} else if (x instanceof float[]) {
+			final float[] xv = (float[]) x;
+			final float[] cv = (float[]) centroid;
+			for (int j = 0; j < D; j++)
+				acc[j] += xv[j] - cv[j];
+		} else if (x instanceof double[]) {
+			final double[] xv = (double[]) x;
+			final double[] cv = (double[]) centroid;
+			for (int j = 0; j < D; j++)
+				acc[j] += (float) (xv[j] - cv[j]);
+		} else if (x instanceof int[]) {
+			final int[] xv = (int[]) x;
+			final int[] cv = (int[]) centroid;
+			for (int j = 0; j < D; j++)
+				acc[j] += xv[j] - cv[j];
+		} else {
+			for (int j = 0; j < D; j++)
+				acc[j] += (float) (Array.getDouble(x, j) - Array.getDouble(centroid, j));
+		}
+	}
+
 	private MultidimensionalFloatFV prepareOutput(final float[][] vector) {
 		final MultidimensionalFloatFV out = new MultidimensionalFloatFV(vector);
 
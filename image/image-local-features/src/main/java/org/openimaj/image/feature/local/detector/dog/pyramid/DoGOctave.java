@@ -75,8 +75,37 @@ public class DoGOctave<
 		
 		//compute DoG by subtracting adjacent levels 
 		for (int i = 0; i < images.length; i++) {
-			images[i] = octave.images[i].clone();
-			images[i].subtractInplace(octave.images[i + 1]);
+			if (octave.images[i] instanceof FImage) {
+				images[i] = (I) difference((FImage) octave.images[i], (FImage) octave.images[i + 1]);
+			} else {
+				images[i] = octave.images[i].clone();
+				images[i].subtractInplace(octave.images[i + 1]);
+			}
 		}
 	}
+	
+	/**
+	 * Compute the difference of two images in a single pass, without
+	 * first cloning the minuend.
+	 * 
+	 * @param a the first image
+	 * @param b the image to subtract from the first
+	 * @return a new image containing a - b
+	 */
+	static FImage difference(FImage a, FImage b) {
+		if (a.width != b.width || a.height != b.height)
+			throw new AssertionError("images must be the same size");
+		
+		final FImage out = new FImage(a.width, a.height);
+		for (int y = 0; y < a.height; y++) {
+			final float[] ar = a.pixels[y];
+			final float[] br = b.pixels[y];
+			final float[] or = out.pixels[y];
+			
+			for (int x = 0; x < a.width; x++)
+				or[x] = ar[x] - br[x];
+		}
+		
+		return out;
+	}
 }
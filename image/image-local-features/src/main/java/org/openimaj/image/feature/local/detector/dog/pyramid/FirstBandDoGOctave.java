@@ -70,8 +70,7 @@ public class FirstBandDoGOctave
 		
 		//compute DoG by subtracting adjacent levels 
 		for (int i = 0; i < images.length; i++) {
-			images[i] = octave.images[i].bands.get(0).clone();
-			images[i].subtractInplace(octave.images[i + 1].bands.get(0));
+			images[i] = DoGOctave.difference(octave.images[i].bands.get(0), octave.images[i + 1].bands.get(0));
 		}
 	}
 }
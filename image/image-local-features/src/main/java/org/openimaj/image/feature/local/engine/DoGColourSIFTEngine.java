@@ -141,11 +141,56 @@ public class DoGColourSIFTEngine implements Engine<Keypoint, MBFImage> {
 	}
 
 	protected LocalFeatureList<Keypoint> findFeaturesInternal(MBFImage image) {
-		final OctaveInterestPointFinder<GaussianOctave<MBFImage>, MBFImage> finder =
-				new FirstBandDoGOctaveExtremaFinder(new BasicOctaveExtremaFinder(options.magnitudeThreshold,
-						options.eigenvalueRatio));
+		if (options.getThreadPool() != null)
+			return findFeaturesParallel(image);
 
-		final Collector<GaussianOctave<MBFImage>, Keypoint, MBFImage> collector = new OctaveKeypointCollector<MBFImage>(
+		final OctaveInterestPointFinder<GaussianOctave<MBFImage>, MBFImage> finder = createFinder();
+		final Collector<GaussianOctave<MBFImage>, Keypoint, MBFImage> collector = createCollector();
+
+		finder.setOctaveInterestPointListener(collector);
+
+		options.setOctaveProcessor(finder);
+
+		final GaussianPyramid<MBFImage> pyr = new GaussianPyramid<MBFImage>(options);
+		pyr.process(image);
+
+		return collector.getFeatures();
+	}
+
+	/**
+	 * Find the features, processing each octave on the thread pool given in
+	 * the options whilst the next is being constructed.
+	 */
+	private LocalFeatureList<Keypoint> findFeaturesParallel(MBFImage image) {
+		final ParallelOctaveProcessor<MBFImage> processor = new ParallelOctaveProcessor<MBFImage>(
+				options.getThreadPool())
+		{
+			@Override
+			protected OctaveInterestPointFinder<GaussianOctave<MBFImage>, MBFImage> createFinder() {
+				return DoGColourSIFTEngine.this.createFinder();
+			}
+
+			@Override
+			protected Collector<GaussianOctave<MBFImage>, Keypoint, MBFImage> createCollector() {
+				return DoGColourSIFTEngine.this.createCollector();
+			}
+		};
+
+		options.setOctaveProcessor(processor);
+
+		final GaussianPyramid<MBFImage> pyr = new GaussianPyramid<MBFImage>(options);
+		pyr.process(image);
+
+		return processor.getFeatures();
+	}
+
+	private OctaveInterestPointFinder<GaussianOctave<MBFImage>, MBFImage> createFinder() {
+		return new FirstBandDoGOctaveExtremaFinder(new BasicOctaveExtremaFinder(options.magnitudeThreshold,
+				options.eigenvalueRatio));
+	}
+
+	private Collector<GaussianOctave<MBFImage>, Keypoint, MBFImage> createCollector() {
+		return new OctaveKeypointCollector<MBFImage>(
 				new ColourGradientFeatureExtractor(
 						new DominantOrientationExtractor(
 								options.peakThreshold,
@@ -165,15 +210,6 @@ public class DoGColourSIFTEngine implements Engine<Keypoint, MBFImage> {
 						options.magnificationFactor * options.numSpatialBins
 				)
 				);
-
-		finder.setOctaveInterestPointListener(collector);
-
-		options.setOctaveProcessor(finder);
-
-		final GaussianPyramid<MBFImage> pyr = new GaussianPyramid<MBFImage>(options);
-		pyr.process(image);
-
-		return collector.getFeatures();
 	}
 
 	/**
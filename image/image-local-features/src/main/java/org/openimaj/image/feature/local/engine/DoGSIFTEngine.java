@@ -103,11 +103,54 @@ public class DoGSIFTEngine implements Engine<Keypoint, FImage> {
 
 	@Override
 	public LocalFeatureList<Keypoint> findFeatures(FImage image) {
-		final OctaveInterestPointFinder<GaussianOctave<FImage>, FImage> finder =
-				new DoGOctaveExtremaFinder(new BasicOctaveExtremaFinder(options.magnitudeThreshold,
-						options.eigenvalueRatio));
+		if (options.getThreadPool() != null)
+			return findFeaturesParallel(image);
 
-		final Collector<GaussianOctave<FImage>, Keypoint, FImage> collector = new OctaveKeypointCollector<FImage>(
+		final OctaveInterestPointFinder<GaussianOctave<FImage>, FImage> finder = createFinder();
+		final Collector<GaussianOctave<FImage>, Keypoint, FImage> collector = createCollector();
+
+		finder.setOctaveInterestPointListener(collector);
+
+		options.setOctaveProcessor(finder);
+
+		final GaussianPyramid<FImage> pyr = new GaussianPyramid<FImage>(options);
+		pyr.process(image);
+
+		return collector.getFeatures();
+	}
+
+	/**
+	 * Find the features, processing each octave on the thread pool given in
+	 * the options whilst the next is being constructed.
+	 */
+	private LocalFeatureList<Keypoint> findFeaturesParallel(FImage image) {
+		final ParallelOctaveProcessor<FImage> processor = new ParallelOctaveProcessor<FImage>(options.getThreadPool()) {
+			@Override
+			protected OctaveInterestPointFinder<GaussianOctave<FImage>, FImage> createFinder() {
+				return DoGSIFTEngine.this.createFinder();
+			}
+
+			@Override
+			protected Collector<GaussianOctave<FImage>, Keypoint, FImage> createCollector() {
+				return DoGSIFTEngine.this.createCollector();
+			}
+		};
+
+		options.setOctaveProcessor(processor);
+
+		final GaussianPyramid<FImage> pyr = new GaussianPyramid<FImage>(options);
+		pyr.process(image);
+
+		return processor.getFeatures();
+	}
+
+	private OctaveInterestPointFinder<GaussianOctave<FImage>, FImage> createFinder() {
+		return new DoGOctaveExtremaFinder(new BasicOctaveExtremaFinder(options.magnitudeThreshold,
+				options.eigenvalueRatio));
+	}
+
+	private Collector<GaussianOctave<FImage>, Keypoint, FImage> createCollector() {
+		return new OctaveKeypointCollector<FImage>(
 				new GradientFeatureExtractor(
 						new DominantOrientationExtractor(
 								options.peakThreshold,
@@ -127,15 +170,6 @@ public class DoGSIFTEngine implements Engine<Keypoint, FImage> {
 						options.magnificationFactor * options.numSpatialBins
 				)
 				);
-
-		finder.setOctaveInterestPointListener(collector);
-
-		options.setOctaveProcessor(finder);
-
-		final GaussianPyramid<FImage> pyr = new GaussianPyramid<FImage>(options);
-		pyr.process(image);
-
-		return collector.getFeatures();
 	}
 
 	/**
@@ -29,6 +29,8 @@
  */
 package org.openimaj.image.feature.local.engine;
 
+import java.util.concurrent.ThreadPoolExecutor;
+
 import org.openimaj.image.FImage;
 import org.openimaj.image.Image;
 import org.openimaj.image.analysis.pyramid.gaussian.GaussianPyramidOptions;
@@ -110,6 +112,44 @@ public class DoGSIFTEngineOptions<IMAGE extends Image<?, IMAGE> & SinglebandImag
 	 */
 	protected float gaussianSigma = 1.0f;
 
+	/**
+	 * Thread pool for processing octaves in parallel; null means octaves are
+	 * processed serially.
+	 */
+	protected ThreadPoolExecutor threadPool = null;
+
+	/**
+	 * Default constructor.
+	 */
+	public DoGSIFTEngineOptions() {
+
+	}
+
+	/**
+	 * Construct the options by copying the non-processor options from the
+	 * given options object.
+	 * 
+	 * @param options
+	 *            options to copy from
+	 */
+	public DoGSIFTEngineOptions(DoGSIFTEngineOptions<?> options) {
+		super(options);
+
+		this.eigenvalueRatio = options.eigenvalueRatio;
+		this.magnitudeThreshold = options.magnitudeThreshold;
+		this.magnificationFactor = options.magnificationFactor;
+		this.peakThreshold = options.peakThreshold;
+		this.numOriHistBins = options.numOriHistBins;
+		this.scaling = options.scaling;
+		this.smoothingIterations = options.smoothingIterations;
+		this.samplingSize = options.samplingSize;
+		this.numOriBins = options.numOriBins;
+		this.numSpatialBins = options.numSpatialBins;
+		this.valueThreshold = options.valueThreshold;
+		this.gaussianSigma = options.gaussianSigma;
+		this.threadPool = options.threadPool;
+	}
+
 	/**
 	 * Get the threshold on the ratio of the Eigenvalues of the Hessian matrix
 	 * (Lowe IJCV, p.12)
@@ -361,4 +401,30 @@ public class DoGSIFTEngineOptions<IMAGE extends Image<?, IMAGE> & SinglebandImag
 	public void setGaussianSigma(float gaussianSigma) {
 		this.gaussianSigma = gaussianSigma;
 	}
+
+	/**
+	 * Get the thread pool used to process the octaves of the pyramid. If
+	 * null, octaves are processed serially by the thread building the
+	 * pyramid.
+	 * 
+	 * @return the thread pool, or null
+	 */
+	public ThreadPoolExecutor getThreadPool() {
+		return threadPool;
+	}
+
+	/**
+	 * Set the thread pool used to process the octaves of the pyramid. If set,
+	 * the interest point detection and feature extraction for each octave is
+	 * performed on the pool whilst the next octave is being built. The
+	 * resultant features are identical to (and in the same order as) those
+	 * produced serially. Setting the pool to null disables parallel
+	 * processing.
+	 * 
+	 * @param threadPool
+	 *            the thread pool to set, or null
+	 */
+	public void setThreadPool(ThreadPoolExecutor threadPool) {
+		this.threadPool = threadPool;
+	}
 }
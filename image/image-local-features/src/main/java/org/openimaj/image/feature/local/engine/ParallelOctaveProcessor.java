@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.feature.local.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.openimaj.feature.local.list.LocalFeatureList;
+import org.openimaj.feature.local.list.MemoryLocalFeatureList;
+import org.openimaj.image.FImage;
+import org.openimaj.image.Image;
+import org.openimaj.image.analysis.pyramid.OctaveProcessor;
+import org.openimaj.image.analysis.pyramid.gaussian.GaussianOctave;
+import org.openimaj.image.feature.local.detector.dog.collector.Collector;
+import org.openimaj.image.feature.local.detector.pyramid.OctaveInterestPointFinder;
+import org.openimaj.image.feature.local.keypoints.Keypoint;
+import org.openimaj.image.processor.SinglebandImageProcessor;
+
+/**
+ * An {@link OctaveProcessor} that performs the interest point detection and
+ * feature extraction for each octave of a pyramid on a thread pool, so that it
+ * overlaps with the construction of the following octaves. As the finders and
+ * collectors hold per-octave state, a new finder and collector is created for
+ * every octave.
+ * <p>
+ * The features from all the octaves are combined in octave order by
+ * {@link #getFeatures()}, so the result is the same as if the octaves had been
+ * processed serially. Octaves that have not been started by the pool when
+ * {@link #getFeatures()} is called are processed by the calling thread, so
+ * this is safe to use from within tasks running on the same pool.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ * 
+ * @param <IMAGE>
+ *            Type of underlying image
+ */
+abstract class ParallelOctaveProcessor<IMAGE extends Image<?, IMAGE> & SinglebandImageProcessor.Processable<Float, FImage, IMAGE>>
+		implements
+		OctaveProcessor<GaussianOctave<IMAGE>, IMAGE>
+{
+	private final ThreadPoolExecutor pool;
+	private final List<FutureTask<LocalFeatureList<Keypoint>>> tasks = new ArrayList<FutureTask<LocalFeatureList<Keypoint>>>();
+
+	/**
+	 * Construct with the given thread pool
+	 * 
+	 * @param pool
+	 *            the pool
+	 */
+	ParallelOctaveProcessor(ThreadPoolExecutor pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @return a new finder for processing a single octave
+	 */
+	protected abstract OctaveInterestPointFinder<GaussianOctave<IMAGE>, IMAGE> createFinder();
+
+	/**
+	 * @return a new collector for gathering the features of a single octave
+	 */
+	protected abstract Collector<GaussianOctave<IMAGE>, Keypoint, IMAGE> createCollector();
+
+	@Override
+	public void process(final GaussianOctave<IMAGE> octave) {
+		final FutureTask<LocalFeatureList<Keypoint>> task = new FutureTask<LocalFeatureList<Keypoint>>(
+				new Callable<LocalFeatureList<Keypoint>>() {
+					@Override
+					public LocalFeatureList<Keypoint> call() throws Exception {
+						final OctaveInterestPointFinder<GaussianOctave<IMAGE>, IMAGE> finder = createFinder();
+						final Collector<GaussianOctave<IMAGE>, Keypoint, IMAGE> collector = createCollector();
+
+						finder.setOctaveInterestPointListener(collector);
+						finder.process(octave);
+
+						return collector.getFeatures();
+					}
+				});
+
+		tasks.add(task);
+		pool.execute(task);
+	}
+
+	/**
+	 * Wait for all the octaves to be processed and get the features in octave
+	 * order.
+	 * 
+	 * @return the features from all octaves
+	 */
+	public LocalFeatureList<Keypoint> getFeatures() {
+		final LocalFeatureList<Keypoint> features = new MemoryLocalFeatureList<Keypoint>();
+
+		for (final FutureTask<LocalFeatureList<Keypoint>> task : tasks) {
+			// does nothing if the pool has already started the task
+			task.run();
+
+			try {
+				features.addAll(task.get());
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (final ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+
+		tasks.clear();
+
+		return features;
+	}
+}
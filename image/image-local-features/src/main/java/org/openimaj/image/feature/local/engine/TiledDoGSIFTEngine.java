@@ -0,0 +1,356 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.feature.local.engine;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.openimaj.feature.local.list.LocalFeatureList;
+import org.openimaj.feature.local.list.MemoryLocalFeatureList;
+import org.openimaj.image.FImage;
+import org.openimaj.image.feature.local.keypoints.Keypoint;
+import org.openimaj.util.parallel.GlobalExecutorPool;
+
+/**
+ * A {@link DoGSIFTEngine} that processes large images as a set of overlapping
+ * tiles in order to bound the amount of memory required. Extracting SIFT
+ * features from the whole of a very large image requires the image to be
+ * doubled in size and stored as several levels of floating point images,
+ * which for (say) a 20000x20000 satellite image requires many gigabytes of
+ * memory.
+ * <p>
+ * The image is divided into a grid of non-overlapping core regions of at most
+ * {@link #getTileSize()} pixels square. Features are extracted from each core
+ * region expanded by an overlap on all sides, and only the keypoints that lie
+ * within the core region are kept, so there are no duplicate keypoints in the
+ * overlaps. The overlap is chosen so that the complete sampling support of
+ * every keypoint with a scale up to {@link #getMaxScale()} lies within the
+ * tile; keypoints with a larger scale cannot be reliably detected within a
+ * tile and are discarded. Images that fit within a single tile are processed
+ * directly by a {@link DoGSIFTEngine}, without any filtering.
+ * <p>
+ * Tiles are processed in parallel on a thread pool, with the number of tiles
+ * being processed at any one time limited so that the estimated working
+ * memory stays within {@link #getMemoryBudget()}. The features of each tile
+ * are added to the output list in tile order (row-by-row) as soon as they are
+ * available, so the output is deterministic.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class TiledDoGSIFTEngine implements Engine<Keypoint, FImage> {
+	/**
+	 * The default size of the core region of each tile
+	 */
+	public static final int DEFAULT_TILE_SIZE = 1024;
+
+	/**
+	 * The default maximum scale of the detected keypoints
+	 */
+	public static final float DEFAULT_MAX_SCALE = 32;
+
+	/**
+	 * The default memory budget (512MB)
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 512L * 1024L * 1024L;
+
+	private DoGSIFTEngineOptions<FImage> options;
+	private int tileSize = DEFAULT_TILE_SIZE;
+	private float maxScale = DEFAULT_MAX_SCALE;
+	private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+	private ThreadPoolExecutor threadPool;
+
+	/**
+	 * Construct with the default options.
+	 */
+	public TiledDoGSIFTEngine() {
+		this(new DoGSIFTEngineOptions<FImage>());
+	}
+
+	/**
+	 * Construct with the given options. The thread pool set in the options
+	 * (if any) is used to process the tiles.
+	 * 
+	 * @param options
+	 *            the options
+	 */
+	public TiledDoGSIFTEngine(DoGSIFTEngineOptions<FImage> options) {
+		this.options = options;
+		this.threadPool = options.getThreadPool();
+	}
+
+	@Override
+	public LocalFeatureList<Keypoint> findFeatures(FImage image) {
+		final LocalFeatureList<Keypoint> features = new MemoryLocalFeatureList<Keypoint>();
+		findFeatures(image, features);
+		return features;
+	}
+
+	/**
+	 * Find the features in the given image, adding them to the given list as
+	 * each tile is completed.
+	 * 
+	 * @param image
+	 *            the image
+	 * @param features
+	 *            the list to add the features to
+	 */
+	public void findFeatures(final FImage image, LocalFeatureList<Keypoint> features) {
+		if (image.width <= tileSize && image.height <= tileSize) {
+			features.addAll(new DoGSIFTEngine(tileOptions()).findFeatures(image));
+			return;
+		}
+
+		final int overlap = getOverlap();
+		final int maxTiles = maxConcurrentTiles(Math.min(image.width, tileSize + 2 * overlap),
+				Math.min(image.height, tileSize + 2 * overlap));
+		final ThreadPoolExecutor pool = threadPool == null ? GlobalExecutorPool.getPool() : threadPool;
+
+		final ArrayDeque<FutureTask<LocalFeatureList<Keypoint>>> inFlight = new ArrayDeque<FutureTask<LocalFeatureList<Keypoint>>>();
+
+		for (int y = 0; y < image.height; y += tileSize) {
+			for (int x = 0; x < image.width; x += tileSize) {
+				while (inFlight.size() >= maxTiles)
+					collect(inFlight.poll(), features);
+
+				final FutureTask<LocalFeatureList<Keypoint>> task = new FutureTask<LocalFeatureList<Keypoint>>(
+						new TileJob(image, x, y, overlap));
+
+				inFlight.add(task);
+				pool.execute(task);
+			}
+		}
+
+		while (!inFlight.isEmpty())
+			collect(inFlight.poll(), features);
+	}
+
+	/**
+	 * Wait for the given tile to complete (running it in the current thread
+	 * if it hasn't been started) and add its features to the output.
+	 */
+	private void collect(FutureTask<LocalFeatureList<Keypoint>> task, LocalFeatureList<Keypoint> features) {
+		task.run();
+
+		try {
+			features.addAll(task.get());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (final ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Extracts the features from a single tile
+	 */
+	private class TileJob implements Callable<LocalFeatureList<Keypoint>> {
+		final FImage image;
+		final int coreX;
+		final int coreY;
+		final int overlap;
+
+		TileJob(FImage image, int coreX, int coreY, int overlap) {
+			this.image = image;
+			this.coreX = coreX;
+			this.coreY = coreY;
+			this.overlap = overlap;
+		}
+
+		@Override
+		public LocalFeatureList<Keypoint> call() throws Exception {
+			final int coreX1 = Math.min(image.width, coreX + tileSize);
+			final int coreY1 = Math.min(image.height, coreY + tileSize);
+
+			// align the tile origin so that the subsampled octaves share the
+			// same sampling grid as those of the whole image
+			final int align = getAlignment();
+			final int x0 = Math.max(0, ((coreX - overlap) / align) * align);
+			final int y0 = Math.max(0, ((coreY - overlap) / align) * align);
+			final int x1 = Math.min(image.width, coreX1 + overlap);
+			final int y1 = Math.min(image.height, coreY1 + overlap);
+
+			final FImage tile = image.extractROI(x0, y0, x1 - x0, y1 - y0);
+			final LocalFeatureList<Keypoint> tileFeatures = new DoGSIFTEngine(tileOptions()).findFeatures(tile);
+
+			final LocalFeatureList<Keypoint> features = new MemoryLocalFeatureList<Keypoint>();
+			for (final Keypoint k : tileFeatures) {
+				k.x += x0;
+				k.y += y0;
+
+				if (k.x >= coreX && k.x < coreX1 && k.y >= coreY && k.y < coreY1 && k.scale <= maxScale)
+					features.add(k);
+			}
+
+			return features;
+		}
+	}
+
+	private DoGSIFTEngineOptions<FImage> tileOptions() {
+		final DoGSIFTEngineOptions<FImage> opts = new DoGSIFTEngineOptions<FImage>(options);
+		opts.setThreadPool(null);
+		return opts;
+	}
+
+	/**
+	 * Get the overlap between tiles required for keypoints with a scale up to
+	 * {@link #getMaxScale()}. This is the radius of the descriptor sampling
+	 * window (including its diagonal) plus three standard deviations of the
+	 * Gaussian support used when detecting the keypoint.
+	 * 
+	 * @return the overlap in pixels
+	 */
+	public int getOverlap() {
+		final double windowRadius = options.getMagnificationFactor() * options.getNumSpatialBins() * 0.5 * Math.sqrt(2);
+
+		return (int) Math.ceil(maxScale * (windowRadius + 3)) + options.getBorderPixels();
+	}
+
+	/**
+	 * Get the alignment of the tile origins. Each octave of the pyramid is
+	 * subsampled by a factor of two from the previous one, so in order for
+	 * the octaves of a tile to be sampled at the same positions as the octaves
+	 * of the whole image the tile origins must be a multiple of the
+	 * subsampling factor of the coarsest octave that can contain a keypoint
+	 * with a scale of {@link #getMaxScale()}.
+	 * 
+	 * @return the alignment in pixels
+	 */
+	int getAlignment() {
+		int align = 1;
+		while (align < maxScale)
+			align *= 2;
+		return align;
+	}
+
+	/**
+	 * Estimate the working memory in bytes required to extract features from
+	 * a tile of the given size. This accounts for the tile itself, the
+	 * (optionally doubled) Gaussian levels and the difference-of-Gaussian
+	 * levels of the first octave; subsequent octaves add a further third.
+	 * 
+	 * @param width
+	 *            the width of the tile
+	 * @param height
+	 *            the height of the tile
+	 * @return the estimated memory required
+	 */
+	public long estimateTileMemory(int width, int height) {
+		final long pixels = (long) width * height;
+		final int sizeFactor = options.isDoubleInitialImage() ? 4 : 1;
+		final int levels = 2 * (options.getScales() + options.getExtraScaleSteps()) + 2;
+
+		return 4 * pixels + (4 * pixels * sizeFactor * levels * 4) / 3;
+	}
+
+	private int maxConcurrentTiles(int width, int height) {
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / estimateTileMemory(width, height)));
+	}
+
+	/**
+	 * @return the size of the core region of each tile
+	 */
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * Set the size of the core region of each tile. The tiles that are
+	 * processed are larger than this by {@link #getOverlap()} on each side.
+	 * 
+	 * @param tileSize
+	 *            the tile size
+	 */
+	public void setTileSize(int tileSize) {
+		if (tileSize <= 0)
+			throw new IllegalArgumentException("tileSize must be positive");
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * @return the maximum scale of keypoint that will be detected
+	 */
+	public float getMaxScale() {
+		return maxScale;
+	}
+
+	/**
+	 * Set the maximum scale of keypoint that will be detected. Larger values
+	 * increase the overlap between tiles.
+	 * 
+	 * @param maxScale
+	 *            the maximum scale
+	 */
+	public void setMaxScale(float maxScale) {
+		this.maxScale = maxScale;
+	}
+
+	/**
+	 * @return the maximum amount of working memory to use in bytes
+	 */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Set the maximum amount of working memory to use. This limits the number
+	 * of tiles that are processed concurrently; at least one tile is always
+	 * processed regardless of the budget.
+	 * 
+	 * @see #estimateTileMemory(int, int)
+	 * 
+	 * @param memoryBudget
+	 *            the memory budget in bytes
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Set the thread pool used to process the tiles. If null, the
+	 * {@link GlobalExecutorPool} is used.
+	 * 
+	 * @param threadPool
+	 *            the thread pool
+	 */
+	public void setThreadPool(ThreadPoolExecutor threadPool) {
+		this.threadPool = threadPool;
+	}
+
+	/**
+	 * @return the options used for each tile
+	 */
+	public DoGSIFTEngineOptions<FImage> getOptions() {
+		return options;
+	}
+}
@@ -0,0 +1,538 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.feature.local.keypoints;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.RandomAccess;
+
+import org.openimaj.data.RandomData;
+import org.openimaj.feature.local.list.LocalFeatureList;
+import org.openimaj.feature.local.list.MemoryLocalFeatureList;
+import org.openimaj.io.IOUtils;
+
+/**
+ * A {@link LocalFeatureList} of {@link Keypoint}s that stores the features in
+ * packed form rather than as individual objects. The locations are held in
+ * one float array per component, and the descriptors are stored end-to-end in
+ * a single byte array.
+ * <p>
+ * For compatibility with code that works with lists of {@link Keypoint}s,
+ * {@link #get(int)} returns a new {@link Keypoint} holding a copy of the data;
+ * changes made to it are not reflected in the list (use
+ * {@link #set(int, Keypoint)} to update an element). Loops over the list can
+ * avoid allocating a new object per feature by using
+ * {@link #get(int, Keypoint)} to fill a single reusable {@link Keypoint}, or
+ * can work directly with the packed data through
+ * {@link #getDescriptorData()} and {@link #getDescriptorOffset(int)}.
+ * <p>
+ * The list reads and writes the same binary and ASCII formats as the other
+ * {@link LocalFeatureList} implementations; binary data is read directly into
+ * the packed arrays. Only the data of the base {@link Keypoint} class is
+ * stored, so subclasses added to the list will be retrieved as plain
+ * {@link Keypoint}s.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class PackedKeypointList extends AbstractList<Keypoint> implements LocalFeatureList<Keypoint>, RandomAccess {
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final int LOCATION_BYTES = 4 * 4;
+	private static final int IO_CHUNK = 1 << 16;
+
+	protected int veclen;
+	protected int size;
+	protected float[] xs;
+	protected float[] ys;
+	protected float[] scales;
+	protected float[] oris;
+	protected byte[] descriptors;
+
+	/**
+	 * Construct an empty list. The feature-vector length will be set from
+	 * the first feature that is added.
+	 */
+	public PackedKeypointList() {
+		this(-1, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Construct an empty list with the given feature-vector length.
+	 * 
+	 * @param veclen
+	 *            the length of the feature vectors of each keypoint.
+	 */
+	public PackedKeypointList(int veclen) {
+		this(veclen, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Construct an empty list with the given feature-vector length and space
+	 * for initialCapacity keypoints. The list will automatically grow once
+	 * initialCapacity is reached.
+	 * 
+	 * @param veclen
+	 *            the length of the feature vectors of each keypoint.
+	 * @param initialCapacity
+	 *            the initial capacity of the list.
+	 */
+	public PackedKeypointList(int veclen, int initialCapacity) {
+		this.veclen = veclen;
+		this.xs = new float[initialCapacity];
+		this.ys = new float[initialCapacity];
+		this.scales = new float[initialCapacity];
+		this.oris = new float[initialCapacity];
+		this.descriptors = new byte[veclen > 0 ? initialCapacity * veclen : 0];
+	}
+
+	/**
+	 * Construct a list holding the given keypoints.
+	 * 
+	 * @param c
+	 *            the keypoints
+	 */
+	public PackedKeypointList(Collection<? extends Keypoint> c) {
+		this(c.isEmpty() ? -1 : c.iterator().next().ivec.length, Math.max(c.size(), 1));
+		for (final Keypoint k : c)
+			add(k);
+	}
+
+	/**
+	 * Create a {@link PackedKeypointList} by reading all the keypoints from
+	 * the specified file.
+	 * 
+	 * @param keypointFile
+	 *            the file from which to read the keypoints
+	 * @return a new list populated with keypoints from the file
+	 * @throws IOException
+	 *             if an error occurs reading the file
+	 */
+	public static PackedKeypointList read(File keypointFile) throws IOException {
+		BufferedInputStream bis = null;
+
+		try {
+			bis = new BufferedInputStream(new FileInputStream(keypointFile));
+			return read(bis);
+		} finally {
+			if (bis != null)
+				try {
+					bis.close();
+				} catch (final IOException e) {
+				}
+		}
+	}
+
+	/**
+	 * Create a {@link PackedKeypointList} by reading all the keypoints from
+	 * the specified stream.
+	 * 
+	 * @param stream
+	 *            the input stream from which to read the keypoints
+	 * @return a new list populated with keypoints from the stream
+	 * @throws IOException
+	 *             if an error occurs reading the stream
+	 */
+	public static PackedKeypointList read(InputStream stream) throws IOException {
+		final BufferedInputStream bis = stream instanceof BufferedInputStream ? (BufferedInputStream) stream
+				: new BufferedInputStream(stream);
+
+		if (IOUtils.isBinary(bis, LocalFeatureList.BINARY_HEADER)) {
+			final DataInputStream dis = new DataInputStream(bis);
+			dis.readFully(new byte[LocalFeatureList.BINARY_HEADER.length]);
+			return readNoHeader(dis);
+		}
+
+		// the ASCII format has no fixed record size, so it is parsed one
+		// keypoint at a time before being packed
+		return new PackedKeypointList(MemoryLocalFeatureList.read(bis, Keypoint.class));
+	}
+
+	/**
+	 * Create a {@link PackedKeypointList} by reading all the keypoints from
+	 * the specified {@link DataInput}. Reading of the header is skipped, and it
+	 * is assumed that the data is in binary format.
+	 * 
+	 * @param in
+	 *            the data input from which to read the keypoints
+	 * @return a new list populated with keypoints from the input
+	 * @throws IOException
+	 *             if an error occurs reading the input
+	 */
+	public static PackedKeypointList readNoHeader(DataInput in) throws IOException {
+		final int nItems = in.readInt();
+		final int veclen = in.readInt();
+
+		final PackedKeypointList list = new PackedKeypointList(veclen, Math.max(nItems, 1));
+
+		final int recordLength = LOCATION_BYTES + veclen;
+		final int recordsPerChunk = Math.max(1, IO_CHUNK / recordLength);
+		final ByteBuffer buffer = ByteBuffer.allocate(recordsPerChunk * recordLength);
+		final byte[] raw = buffer.array();
+
+		for (int i = 0; i < nItems;) {
+			final int n = Math.min(nItems - i, recordsPerChunk);
+			in.readFully(raw, 0, n * recordLength);
+
+			buffer.clear();
+			for (int j = 0; j < n; j++, i++) {
+				list.xs[i] = buffer.getFloat();
+				list.ys[i] = buffer.getFloat();
+				list.scales[i] = buffer.getFloat();
+				list.oris[i] = buffer.getFloat();
+				buffer.get(list.descriptors, i * veclen, veclen);
+			}
+		}
+		list.size = nItems;
+
+		return list;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= xs.length)
+			return;
+
+		final int newCapacity = Math.max(capacity, xs.length + (xs.length >> 1) + 1);
+		xs = Arrays.copyOf(xs, newCapacity);
+		ys = Arrays.copyOf(ys, newCapacity);
+		scales = Arrays.copyOf(scales, newCapacity);
+		oris = Arrays.copyOf(oris, newCapacity);
+		descriptors = Arrays.copyOf(descriptors, newCapacity * veclen);
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+	}
+
+	private void checkLength(Keypoint k) {
+		if (veclen < 0) {
+			veclen = k.ivec.length;
+			descriptors = new byte[xs.length * veclen];
+		} else if (k.ivec.length != veclen) {
+			throw new IllegalArgumentException("Keypoint has a feature vector of length " + k.ivec.length
+					+ "; expected " + veclen);
+		}
+	}
+
+	private void store(int index, Keypoint k) {
+		xs[index] = k.x;
+		ys[index] = k.y;
+		scales[index] = k.scale;
+		oris[index] = k.ori;
+		System.arraycopy(k.ivec, 0, descriptors, index * veclen, veclen);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Keypoint get(int index) {
+		checkIndex(index);
+
+		final int offset = index * veclen;
+		return new Keypoint(xs[index], ys[index], oris[index], scales[index],
+				Arrays.copyOfRange(descriptors, offset, offset + veclen));
+	}
+
+	/**
+	 * Get the keypoint at the given index by filling the given
+	 * {@link Keypoint}. The feature vector of the given keypoint is reused if
+	 * it has the correct length, so a single object can be used to look at
+	 * each element in turn without any allocation.
+	 * 
+	 * @param index
+	 *            the index
+	 * @param k
+	 *            the keypoint to fill
+	 * @return the given keypoint
+	 */
+	public Keypoint get(int index, Keypoint k) {
+		checkIndex(index);
+
+		if (k.ivec == null || k.ivec.length != veclen)
+			k.ivec = new byte[veclen];
+
+		k.x = xs[index];
+		k.y = ys[index];
+		k.scale = scales[index];
+		k.ori = oris[index];
+		System.arraycopy(descriptors, index * veclen, k.ivec, 0, veclen);
+
+		return k;
+	}
+
+	@Override
+	public Keypoint set(int index, Keypoint element) {
+		final Keypoint old = get(index);
+		checkLength(element);
+		store(index, element);
+		return old;
+	}
+
+	@Override
+	public boolean add(Keypoint e) {
+		checkLength(e);
+		ensureCapacity(size + 1);
+		store(size++, e);
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public void add(int index, Keypoint element) {
+		if (index < 0 || index > size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+		checkLength(element);
+		ensureCapacity(size + 1);
+		move(index, index + 1, size - index);
+		store(index, element);
+		size++;
+		modCount++;
+	}
+
+	@Override
+	public Keypoint remove(int index) {
+		final Keypoint old = get(index);
+		move(index + 1, index, size - index - 1);
+		size--;
+		modCount++;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		modCount++;
+	}
+
+	private void move(int from, int to, int count) {
+		System.arraycopy(xs, from, xs, to, count);
+		System.arraycopy(ys, from, ys, to, count);
+		System.arraycopy(scales, from, scales, to, count);
+		System.arraycopy(oris, from, oris, to, count);
+		System.arraycopy(descriptors, from * veclen, descriptors, to * veclen, count * veclen);
+	}
+
+	/**
+	 * Get the x-ordinate of the keypoint at the given index
+	 * 
+	 * @param index
+	 *            the index
+	 * @return the x-ordinate
+	 */
+	public float getX(int index) {
+		checkIndex(index);
+		return xs[index];
+	}
+
+	/**
+	 * Get the y-ordinate of the keypoint at the given index
+	 * 
+	 * @param index
+	 *            the index
+	 * @return the y-ordinate
+	 */
+	public float getY(int index) {
+		checkIndex(index);
+		return ys[index];
+	}
+
+	/**
+	 * Get the scale of the keypoint at the given index
+	 * 
+	 * @param index
+	 *            the index
+	 * @return the scale
+	 */
+	public float getScale(int index) {
+		checkIndex(index);
+		return scales[index];
+	}
+
+	/**
+	 * Get the orientation of the keypoint at the given index
+	 * 
+	 * @param index
+	 *            the index
+	 * @return the orientation
+	 */
+	public float getOrientation(int index) {
+		checkIndex(index);
+		return oris[index];
+	}
+
+	/**
+	 * Get the array holding the packed descriptors. The descriptor of the
+	 * keypoint at index <code>i</code> occupies {@link #vecLength()} elements
+	 * starting at {@link #getDescriptorOffset(int)}. The array may be longer
+	 * than is required to hold the descriptors of the list, and is replaced
+	 * if the list grows.
+	 * 
+	 * @return the descriptor data
+	 */
+	public byte[] getDescriptorData() {
+		return descriptors;
+	}
+
+	/**
+	 * Get the offset of the descriptor of the keypoint at the given index in
+	 * the array returned by {@link #getDescriptorData()}.
+	 * 
+	 * @param index
+	 *            the index
+	 * @return the offset of the descriptor
+	 */
+	public int getDescriptorOffset(int index) {
+		checkIndex(index);
+		return index * veclen;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <Q> Q[] asDataArray(Q[] a) {
+		if (a.length < size) {
+			a = (Q[]) Array.newInstance(a.getClass().getComponentType(), size);
+		}
+
+		for (int i = 0; i < size; i++) {
+			a[i] = (Q) Arrays.copyOfRange(descriptors, i * veclen, (i + 1) * veclen);
+		}
+
+		return a;
+	}
+
+	@Override
+	public int vecLength() {
+		return veclen;
+	}
+
+	@Override
+	public PackedKeypointList subList(int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+			throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", Size: " + size);
+
+		final int n = toIndex - fromIndex;
+		final PackedKeypointList list = new PackedKeypointList(veclen, Math.max(n, 1));
+		list.size = n;
+		System.arraycopy(xs, fromIndex, list.xs, 0, n);
+		System.arraycopy(ys, fromIndex, list.ys, 0, n);
+		System.arraycopy(scales, fromIndex, list.scales, 0, n);
+		System.arraycopy(oris, fromIndex, list.oris, 0, n);
+		if (veclen > 0)
+			System.arraycopy(descriptors, fromIndex * veclen, list.descriptors, 0, n * veclen);
+
+		return list;
+	}
+
+	@Override
+	public PackedKeypointList randomSubList(int nelem) {
+		final int[] rnds;
+
+		if (nelem > size) {
+			rnds = RandomData.getUniqueRandomInts(size, 0, size);
+		} else {
+			rnds = RandomData.getUniqueRandomInts(nelem, 0, size);
+		}
+
+		final PackedKeypointList list = new PackedKeypointList(veclen, Math.max(rnds.length, 1));
+		for (final int idx : rnds) {
+			list.xs[list.size] = xs[idx];
+			list.ys[list.size] = ys[idx];
+			list.scales[list.size] = scales[idx];
+			list.oris[list.size] = oris[idx];
+			System.arraycopy(descriptors, idx * veclen, list.descriptors, list.size * veclen, veclen);
+			list.size++;
+		}
+
+		return list;
+	}
+
+	@Override
+	public void writeBinary(DataOutput out) throws IOException {
+		out.writeInt(size);
+		out.writeInt(veclen);
+
+		final int recordLength = LOCATION_BYTES + veclen;
+		final int recordsPerChunk = Math.max(1, IO_CHUNK / recordLength);
+		final ByteBuffer buffer = ByteBuffer.allocate(recordsPerChunk * recordLength);
+
+		for (int i = 0; i < size;) {
+			final int n = Math.min(size - i, recordsPerChunk);
+
+			buffer.clear();
+			for (int j = 0; j < n; j++, i++) {
+				buffer.putFloat(xs[i]);
+				buffer.putFloat(ys[i]);
+				buffer.putFloat(scales[i]);
+				buffer.putFloat(oris[i]);
+				buffer.put(descriptors, i * veclen, veclen);
+			}
+			out.write(buffer.array(), 0, n * recordLength);
+		}
+	}
+
+	@Override
+	public void writeASCII(PrintWriter out) throws IOException {
+		final Locale def = Locale.getDefault();
+		Locale.setDefault(Locale.ENGLISH);
+
+		out.println(size + " " + veclen);
+		final Keypoint k = new Keypoint(veclen);
+		for (int i = 0; i < size; i++)
+			get(i, k).writeASCII(out);
+
+		Locale.setDefault(def);
+	}
+
+	@Override
+	public byte[] binaryHeader() {
+		return LocalFeatureList.BINARY_HEADER;
+	}
+
+	@Override
+	public String asciiHeader() {
+		return "";
+	}
+}
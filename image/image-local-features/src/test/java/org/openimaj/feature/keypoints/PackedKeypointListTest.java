@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.feature.keypoints;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openimaj.feature.local.list.LocalFeatureList;
+import org.openimaj.feature.local.list.MemoryLocalFeatureList;
+import org.openimaj.image.feature.local.keypoints.Keypoint;
+import org.openimaj.image.feature.local.keypoints.PackedKeypointList;
+import org.openimaj.io.IOUtils;
+
+/**
+ * Tests for {@link PackedKeypointList}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class PackedKeypointListTest {
+	MemoryLocalFeatureList<Keypoint> keys;
+
+	/**
+	 * Create some random keypoints
+	 */
+	@Before
+	public void setup() {
+		final Random rng = new Random(42);
+
+		keys = new MemoryLocalFeatureList<Keypoint>();
+		for (int i = 0; i < 1000; i++) {
+			final Keypoint k = new Keypoint();
+			k.x = rng.nextFloat() * 640;
+			k.y = rng.nextFloat() * 480;
+			k.scale = rng.nextFloat() * 10;
+			k.ori = (float) (rng.nextFloat() * 2 * Math.PI);
+			rng.nextBytes(k.ivec);
+			keys.add(k);
+		}
+	}
+
+	/**
+	 * Test that the packed list holds the same keypoints as the list it was
+	 * built from
+	 */
+	@Test
+	public void testConstruction() {
+		final PackedKeypointList packed = new PackedKeypointList(keys);
+
+		assertEquals(keys.size(), packed.size());
+		assertEquals(keys.vecLength(), packed.vecLength());
+		assertEquals(keys, packed);
+
+		final Keypoint reuse = new Keypoint();
+		for (int i = 0; i < keys.size(); i++) {
+			assertSame(reuse, packed.get(i, reuse));
+			assertEquals(keys.get(i), reuse);
+			assertEquals(keys.get(i).ori, packed.getOrientation(i), 0);
+			assertEquals(keys.get(i).ivec[5], packed.getDescriptorData()[packed.getDescriptorOffset(i) + 5]);
+		}
+	}
+
+	/**
+	 * Test that the packed list writes and reads the same binary format as
+	 * {@link MemoryLocalFeatureList}
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testBinaryIO() throws IOException {
+		final PackedKeypointList packed = new PackedKeypointList(keys);
+
+		final ByteArrayOutputStream memOut = new ByteArrayOutputStream();
+		IOUtils.writeBinary(memOut, keys);
+		final ByteArrayOutputStream packedOut = new ByteArrayOutputStream();
+		IOUtils.writeBinary(packedOut, packed);
+
+		assertArrayEquals(memOut.toByteArray(), packedOut.toByteArray());
+
+		final PackedKeypointList read = PackedKeypointList.read(new ByteArrayInputStream(packedOut.toByteArray()));
+		assertEquals(keys, read);
+		for (int i = 0; i < keys.size(); i++)
+			assertEquals(keys.get(i).ori, read.get(i).ori, 0);
+	}
+
+	/**
+	 * Test that the packed list writes and reads the same ASCII format as
+	 * {@link MemoryLocalFeatureList}
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testASCIIIO() throws IOException {
+		final PackedKeypointList packed = new PackedKeypointList(keys);
+
+		final ByteArrayOutputStream memOut = new ByteArrayOutputStream();
+		IOUtils.writeASCII(memOut, keys);
+		final ByteArrayOutputStream packedOut = new ByteArrayOutputStream();
+		IOUtils.writeASCII(packedOut, packed);
+
+		assertArrayEquals(memOut.toByteArray(), packedOut.toByteArray());
+
+		final LocalFeatureList<Keypoint> expected = MemoryLocalFeatureList.read(
+				new ByteArrayInputStream(memOut.toByteArray()), Keypoint.class);
+		final PackedKeypointList read = PackedKeypointList.read(new ByteArrayInputStream(packedOut.toByteArray()));
+		assertEquals(expected, read);
+	}
+
+	/**
+	 * Test adding, removing and sublisting
+	 */
+	@Test
+	public void testModification() {
+		final PackedKeypointList packed = new PackedKeypointList();
+		final MemoryLocalFeatureList<Keypoint> reference = new MemoryLocalFeatureList<Keypoint>();
+
+		for (int i = 0; i < 100; i++) {
+			packed.add(keys.get(i));
+			reference.add(keys.get(i));
+		}
+		packed.add(10, keys.get(500));
+		reference.add(10, keys.get(500));
+		packed.remove(50);
+		reference.remove(50);
+		packed.set(0, keys.get(600));
+		reference.set(0, keys.get(600));
+
+		assertEquals(reference, packed);
+		assertEquals(reference.subList(20, 40), packed.subList(20, 40));
+		assertEquals(10, packed.randomSubList(10).size());
+		assertEquals(packed.size(), packed.randomSubList(1000).size());
+
+		final byte[][] data = packed.asDataArray(new byte[packed.size()][]);
+		for (int i = 0; i < packed.size(); i++)
+			assertArrayEquals(reference.get(i).ivec, data[i]);
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.feature.keypoints.matcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openimaj.feature.local.matcher.BasicTwoWayMatcher;
+import org.openimaj.feature.local.matcher.FastBasicKeypointMatcher;
+import org.openimaj.feature.local.matcher.FastTwoWayKeypointMatcher;
+import org.openimaj.image.feature.local.keypoints.Keypoint;
+import org.openimaj.knn.ByteNearestNeighboursExact;
+import org.openimaj.util.pair.Pair;
+import org.openimaj.util.parallel.GlobalExecutorPool;
+
+/**
+ * Tests for the index-backed keypoint matchers, using synthetic keypoints in
+ * which half of the queries are perturbed copies of model keypoints and the
+ * rest are random.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class FastKeypointMatcherTest {
+	private static final int NMODEL = 500;
+	private static final int NCOPIES = 100;
+
+	private List<Keypoint> model;
+	private List<Keypoint> queries;
+
+	/**
+	 * Create the keypoints
+	 */
+	@Before
+	public void setup() {
+		final Random rng = new Random(42);
+
+		model = new ArrayList<Keypoint>();
+		for (int i = 0; i < NMODEL; i++) {
+			final Keypoint k = new Keypoint();
+			for (int d = 0; d < k.ivec.length; d++)
+				k.ivec[d] = (byte) (rng.nextInt(256) - 128);
+			model.add(k);
+		}
+
+		queries = new ArrayList<Keypoint>();
+		for (int i = 0; i < 2 * NCOPIES; i++) {
+			final Keypoint k = new Keypoint();
+			for (int d = 0; d < k.ivec.length; d++) {
+				if (i < NCOPIES)
+					k.ivec[d] = (byte) Math.max(-128, Math.min(127, model.get(2 * i).ivec[d] + rng.nextInt(21) - 10));
+				else
+					k.ivec[d] = (byte) (rng.nextInt(256) - 128);
+			}
+			queries.add(k);
+		}
+	}
+
+	private void assertCorrect(List<Pair<Keypoint>> matches) {
+		int ncorrect = 0;
+		for (final Pair<Keypoint> p : matches) {
+			final int qi = queries.indexOf(p.firstObject());
+			if (qi < NCOPIES && p.secondObject() == model.get(2 * qi))
+				ncorrect++;
+		}
+		assertEquals(NCOPIES, ncorrect);
+	}
+
+	/**
+	 * Test the ratio-test matcher with an exact index, both in the calling
+	 * thread and in parallel
+	 */
+	@Test
+	public void testBasicExact() {
+		final FastBasicKeypointMatcher<Keypoint> matcher = new FastBasicKeypointMatcher<Keypoint>(8,
+				new ByteNearestNeighboursExact.Factory());
+		matcher.setModelFeatures(model);
+
+		matcher.findMatches(queries);
+		final List<Pair<Keypoint>> sequential = matcher.getMatches();
+		assertEquals(NCOPIES, sequential.size());
+		assertCorrect(sequential);
+
+		matcher.setParallel(true);
+		matcher.findMatches(queries);
+		final List<Pair<Keypoint>> parallel = matcher.getMatches();
+		assertEquals(sequential.size(), parallel.size());
+		for (int i = 0; i < sequential.size(); i++) {
+			assertSame(sequential.get(i).firstObject(), parallel.get(i).firstObject());
+			assertSame(sequential.get(i).secondObject(), parallel.get(i).secondObject());
+		}
+	}
+
+	/**
+	 * Test the two-way matcher against the brute-force {@link BasicTwoWayMatcher}
+	 */
+	@Test
+	public void testTwoWayExact() {
+		final FastTwoWayKeypointMatcher<Keypoint> matcher = new FastTwoWayKeypointMatcher<Keypoint>(0,
+				new ByteNearestNeighboursExact.Factory());
+		matcher.setThreadPool(GlobalExecutorPool.getPool());
+		matcher.setModelFeatures(model);
+		matcher.findMatches(queries);
+
+		final BasicTwoWayMatcher<Keypoint> basic = new BasicTwoWayMatcher<Keypoint>();
+		basic.setModelFeatures(model);
+		basic.findMatches(queries);
+
+		final List<Pair<Keypoint>> fast = matcher.getMatches();
+		final List<Pair<Keypoint>> expected = basic.getMatches();
+		assertEquals(expected.size(), fast.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertSame(expected.get(i).firstObject(), fast.get(i).firstObject());
+			assertSame(expected.get(i).secondObject(), fast.get(i).secondObject());
+		}
+	}
+
+	/**
+	 * Test the two-way matcher with the ratio test only keeps the true matches
+	 */
+	@Test
+	public void testTwoWayRatio() {
+		final FastTwoWayKeypointMatcher<Keypoint> matcher = new FastTwoWayKeypointMatcher<Keypoint>(8);
+		matcher.setModelFeatures(model);
+
+		assertTrue(matcher.findMatches(queries));
+		assertEquals(NCOPIES, matcher.getMatches().size());
+		assertCorrect(matcher.getMatches());
+	}
+}
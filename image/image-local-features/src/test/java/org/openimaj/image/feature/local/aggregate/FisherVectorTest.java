@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.feature.local.aggregate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openimaj.feature.ArrayFeatureVector;
+import org.openimaj.feature.FloatFV;
+import org.openimaj.math.statistics.distribution.DiagonalMultivariateGaussian;
+import org.openimaj.math.statistics.distribution.MixtureOfGaussians;
+import org.openimaj.math.statistics.distribution.MultivariateGaussian;
+
+import Jama.Matrix;
+
+/**
+ * Tests for the {@link FisherVector}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class FisherVectorTest {
+	private static final int K = 8;
+	private static final int D = 16;
+
+	private MixtureOfGaussians gmm;
+	private List<List<FloatFV>> images;
+
+	/**
+	 * Create a random mixture and random sets of features
+	 */
+	@Before
+	public void setup() {
+		final Random rng = new Random(0);
+
+		final MultivariateGaussian[] gaussians = new MultivariateGaussian[K];
+		final double[] weights = new double[K];
+		for (int k = 0; k < K; k++) {
+			final double[] mean = new double[D];
+			final double[] var = new double[D];
+			for (int j = 0; j < D; j++) {
+				mean[j] = rng.nextDouble() * 10;
+				var[j] = 0.5 + rng.nextDouble() * 4;
+			}
+			gaussians[k] = new DiagonalMultivariateGaussian(new Matrix(new double[][] { mean }), var);
+			weights[k] = 1.0 / K;
+		}
+		gmm = new MixtureOfGaussians(gaussians, weights);
+
+		images = new ArrayList<List<FloatFV>>();
+		for (int i = 0; i < 20; i++) {
+			final List<FloatFV> features = new ArrayList<FloatFV>();
+			for (int n = 0; n < 50 + rng.nextInt(50); n++) {
+				final float[] v = new float[D];
+				for (int j = 0; j < D; j++)
+					v[j] = rng.nextFloat() * 10;
+				features.add(new FloatFV(v));
+			}
+			images.add(features);
+		}
+	}
+
+	/**
+	 * Straightforward computation of the (unnormalised) fisher vector
+	 */
+	private float[] reference(List<FloatFV> features) {
+		final double[][] X = new double[features.size()][];
+		for (int i = 0; i < X.length; i++)
+			X[i] = features.get(i).asDoubleVector();
+
+		final double[][] posteriors = gmm.scoreSamples(X).secondObject();
+		final float[] vector = new float[2 * K * D];
+
+		for (int p = 0; p < X.length; p++) {
+			for (int k = 0; k < K; k++) {
+				final double apk = posteriors[p][k];
+				if (apk < 1e-6)
+					continue;
+
+				final double[] mean = gmm.gaussians[k].getMean().getArray()[0];
+				for (int j = 0; j < D; j++) {
+					final double diff = (X[p][j] - mean[j]) / Math.sqrt(gmm.gaussians[k].getCovariance(j, j));
+
+					vector[k * 2 * D + j] += apk * diff;
+					vector[k * 2 * D + j + D] += apk * ((diff * diff) - 1);
+				}
+			}
+		}
+
+		for (int k = 0; k < K; k++) {
+			final double wt1 = 1.0 / (X.length * Math.sqrt(gmm.weights[k]));
+			final double wt2 = 1.0 / (X.length * Math.sqrt(2 * gmm.weights[k]));
+
+			for (int j = 0; j < D; j++) {
+				vector[k * 2 * D + j] *= wt1;
+				vector[k * 2 * D + j + D] *= wt2;
+			}
+		}
+
+		return vector;
+	}
+
+	/**
+	 * Test that the encoding matches the reference computation
+	 */
+	@Test
+	public void testEncoding() {
+		final FisherVector<float[]> fv = new FisherVector<float[]>(gmm);
+
+		for (final List<FloatFV> features : images) {
+			assertArrayEquals(reference(features), fv.aggregateVectors(features).values, 1e-4f);
+		}
+	}
+
+	/**
+	 * Test that restricting to a single component is equivalent to hard
+	 * assignment
+	 */
+	@Test
+	public void testNearest() {
+		final FisherVector<float[]> fv = new FisherVector<float[]>(gmm);
+		fv.setNumNearest(K);
+		final FisherVector<float[]> fv1 = new FisherVector<float[]>(gmm);
+		fv1.setNumNearest(1);
+
+		final List<FloatFV> features = images.get(0);
+		assertArrayEquals(reference(features), fv.aggregateVectors(features).values, 1e-4f);
+
+		final float[] hard = fv1.aggregateVectors(features).values;
+		final float[] vector = new float[2 * K * D];
+		for (final FloatFV f : features) {
+			final double[] lp = gmm.predictLogPosterior(f.asDoubleVector());
+			int best = 0;
+			for (int k = 1; k < K; k++)
+				if (lp[k] > lp[best])
+					best = k;
+
+			final double[] mean = gmm.gaussians[best].getMean().getArray()[0];
+			for (int j = 0; j < D; j++) {
+				final double diff = (f.values[j] - mean[j]) / Math.sqrt(gmm.gaussians[best].getCovariance(j, j));
+				vector[best * 2 * D + j] += diff / (features.size() * Math.sqrt(gmm.weights[best]));
+				vector[best * 2 * D + j + D] += ((diff * diff) - 1)
+						/ (features.size() * Math.sqrt(2 * gmm.weights[best]));
+			}
+		}
+		assertArrayEquals(vector, hard, 1e-4f);
+	}
+
+	/**
+	 * Test that batch aggregation gives the same results as aggregating
+	 * individually
+	 */
+	@Test
+	public void testParallel() {
+		final FisherVector<float[]> fv = new FisherVector<float[]>(gmm, true);
+		final ParallelVectorAggregator<ArrayFeatureVector<float[]>, FloatFV> pva = new ParallelVectorAggregator<ArrayFeatureVector<float[]>, FloatFV>(
+				fv);
+
+		final List<FloatFV> results = pva.aggregateAllVectors(images);
+		assertEquals(images.size(), results.size());
+		for (int i = 0; i < images.size(); i++) {
+			assertArrayEquals(fv.aggregateVectors(images.get(i)).values, results.get(i).values, 0f);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.feature.local.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.openimaj.feature.local.list.LocalFeatureList;
+import org.openimaj.image.FImage;
+import org.openimaj.image.MBFImage;
+import org.openimaj.image.feature.local.keypoints.Keypoint;
+import org.openimaj.math.geometry.shape.Circle;
+import org.openimaj.util.parallel.GlobalExecutorPool;
+
+/**
+ * Tests for {@link DoGSIFTEngine} and {@link DoGColourSIFTEngine} with
+ * parallel octave processing.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class DoGSIFTEngineTest {
+	private FImage createImage() {
+		final FImage image = new FImage(400, 300);
+
+		image.drawShapeFilled(new Circle(100, 100, 40), 1f);
+		image.drawShapeFilled(new Circle(250, 150, 20), 0.5f);
+		image.drawShapeFilled(new Circle(320, 220, 60), 0.8f);
+
+		return image;
+	}
+
+	private void assertSameFeatures(LocalFeatureList<Keypoint> expected, LocalFeatureList<Keypoint> actual) {
+		assertTrue(expected.size() > 0);
+		assertEquals(expected.size(), actual.size());
+
+		for (int i = 0; i < expected.size(); i++) {
+			final Keypoint e = expected.get(i);
+			final Keypoint a = actual.get(i);
+
+			assertEquals(e.x, a.x, 0f);
+			assertEquals(e.y, a.y, 0f);
+			assertEquals(e.scale, a.scale, 0f);
+			assertEquals(e.ori, a.ori, 0f);
+			assertArrayEquals(e.ivec, a.ivec);
+		}
+	}
+
+	/**
+	 * Test that parallel octave processing gives the same features as serial
+	 * processing
+	 */
+	@Test
+	public void testParallel() {
+		final FImage image = createImage();
+
+		final LocalFeatureList<Keypoint> serial = new DoGSIFTEngine().findFeatures(image);
+
+		final DoGSIFTEngine engine = new DoGSIFTEngine();
+		engine.getOptions().setThreadPool(GlobalExecutorPool.getPool());
+		final LocalFeatureList<Keypoint> parallel = engine.findFeatures(image);
+
+		assertSameFeatures(serial, parallel);
+	}
+
+	/**
+	 * Test that parallel octave processing gives the same colour features as
+	 * serial processing
+	 */
+	@Test
+	public void testParallelColour() {
+		final FImage image = createImage();
+		final MBFImage colour = new MBFImage(image, image.clone().inverse(), image.clone().multiplyInplace(0.5f));
+
+		final LocalFeatureList<Keypoint> serial = new DoGColourSIFTEngine().findFeatures(colour);
+
+		final DoGColourSIFTEngine engine = new DoGColourSIFTEngine();
+		engine.getOptions().setThreadPool(GlobalExecutorPool.getPool());
+		final LocalFeatureList<Keypoint> parallel = engine.findFeatures(colour);
+
+		assertSameFeatures(serial, parallel);
+	}
+}
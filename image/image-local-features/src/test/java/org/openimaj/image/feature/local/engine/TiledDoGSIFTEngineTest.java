@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.feature.local.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.openimaj.feature.local.list.LocalFeatureList;
+import org.openimaj.image.FImage;
+import org.openimaj.image.feature.local.keypoints.Keypoint;
+import org.openimaj.math.geometry.shape.Circle;
+
+/**
+ * Tests for {@link TiledDoGSIFTEngine}.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class TiledDoGSIFTEngineTest {
+	private FImage createImage() {
+		final Random rng = new Random(42);
+		final FImage image = new FImage(700, 500);
+
+		for (int i = 0; i < 40; i++) {
+			image.drawShapeFilled(new Circle(rng.nextInt(image.width), rng.nextInt(image.height),
+					3 + rng.nextInt(10)), rng.nextFloat());
+		}
+
+		return image;
+	}
+
+	private TiledDoGSIFTEngine createEngine() {
+		final TiledDoGSIFTEngine engine = new TiledDoGSIFTEngine();
+		engine.setTileSize(200);
+		engine.setMaxScale(4);
+		engine.setMemoryBudget(1);
+
+		return engine;
+	}
+
+	/**
+	 * Test that the tiled keypoints correspond to those of the whole image
+	 * and that there are no duplicates in the overlaps. Small differences in
+	 * the blurring at the edges of the tiles can change a few marginal
+	 * detections, so the comparison allows a small tolerance.
+	 */
+	@Test
+	public void testTiled() {
+		final FImage image = createImage();
+		final TiledDoGSIFTEngine engine = createEngine();
+
+		final LocalFeatureList<Keypoint> full = new DoGSIFTEngine().findFeatures(image);
+		final LocalFeatureList<Keypoint> tiled = engine.findFeatures(image);
+
+		int expected = 0;
+		for (final Keypoint k : full)
+			if (k.scale <= engine.getMaxScale())
+				expected++;
+
+		assertTrue(tiled.size() > 0);
+		assertTrue(Math.abs(expected - tiled.size()) <= 0.05 * expected);
+
+		int matched = 0;
+		for (int i = 0; i < tiled.size(); i++) {
+			final Keypoint k = tiled.get(i);
+			assertTrue(k.scale <= engine.getMaxScale());
+
+			for (final Keypoint f : full) {
+				if (Math.abs(f.x - k.x) < 0.5 && Math.abs(f.y - k.y) < 0.5 && Math.abs(f.scale - k.scale) < 0.1) {
+					matched++;
+					break;
+				}
+			}
+
+			for (int j = i + 1; j < tiled.size(); j++) {
+				final Keypoint o = tiled.get(j);
+				assertTrue(o.x != k.x || o.y != k.y || o.scale != k.scale || o.ori != k.ori);
+			}
+		}
+
+		assertTrue(matched >= 0.95 * tiled.size());
+	}
+
+	/**
+	 * Test that tiling is deterministic regardless of the number of tiles
+	 * processed concurrently
+	 */
+	@Test
+	public void testDeterministic() {
+		final FImage image = createImage();
+
+		final TiledDoGSIFTEngine engine = createEngine();
+		final LocalFeatureList<Keypoint> serial = engine.findFeatures(image);
+
+		engine.setMemoryBudget(Long.MAX_VALUE);
+		final LocalFeatureList<Keypoint> parallel = engine.findFeatures(image);
+
+		assertEquals(serial.size(), parallel.size());
+		for (int i = 0; i < serial.size(); i++) {
+			assertEquals(serial.get(i).x, parallel.get(i).x, 0f);
+			assertEquals(serial.get(i).y, parallel.get(i).y, 0f);
+			assertEquals(serial.get(i).scale, parallel.get(i).scale, 0f);
+		}
+	}
+}
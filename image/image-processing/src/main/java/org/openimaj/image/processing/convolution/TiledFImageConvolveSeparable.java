@@ -0,0 +1,306 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.processing.convolution;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.openimaj.image.FImage;
+import org.openimaj.image.processor.SinglebandImageProcessor;
+import org.openimaj.util.function.Operation;
+import org.openimaj.util.parallel.Parallel;
+import org.openimaj.util.parallel.Parallel.IntRange;
+
+/**
+ * Cache-friendly, multi-threaded separable convolution of an FImage. The
+ * results are identical to those of {@link FImageConvolveSeparable}, but the
+ * vertical pass is performed on narrow blocks of columns a strip of rows at a
+ * time, so that memory is always accessed along the rows of the image rather
+ * than across them. The rows (for the horizontal pass) and column blocks (for
+ * the vertical pass) are split across the threads of a
+ * {@link ThreadPoolExecutor} (or of the default pool of {@link Parallel}),
+ * each of which re-uses its own scratch buffers. Small images are processed
+ * in the calling thread.
+ * <p>
+ * Note that an explicitly given thread pool must not be one that is already
+ * running the caller, as the caller blocks until the convolution is complete.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class TiledFImageConvolveSeparable implements SinglebandImageProcessor<Float, FImage> {
+	/**
+	 * The number of columns processed together in the vertical pass
+	 */
+	public static final int COLUMN_BLOCK_SIZE = 64;
+
+	/**
+	 * The number of rows in each strip of the vertical pass
+	 */
+	public static final int ROW_STRIP_SIZE = 128;
+
+	/**
+	 * Images with fewer pixels than this are processed in the calling thread
+	 */
+	public static final int MIN_PARALLEL_PIXELS = 256 * 256;
+
+	float[] hkernel;
+	float[] vkernel;
+	ThreadPoolExecutor threadPool;
+
+	/**
+	 * Specify the horizontal kernel and vertical kernel separately, and the
+	 * thread pool with which to perform the convolution.
+	 * 
+	 * @param hkernel
+	 *            horizontal kernel
+	 * @param vkernel
+	 *            vertical kernel
+	 * @param threadPool
+	 *            the thread pool. If <code>null</code> the default pool of
+	 *            {@link Parallel} is used.
+	 */
+	public TiledFImageConvolveSeparable(float[] hkernel, float[] vkernel, ThreadPoolExecutor threadPool) {
+		this.hkernel = hkernel;
+		this.vkernel = vkernel;
+		this.threadPool = threadPool;
+	}
+
+	/**
+	 * Specify the horizontal kernel and vertical kernel separately. The
+	 * default pool of {@link Parallel} is used.
+	 * 
+	 * @param hkernel
+	 *            horizontal kernel
+	 * @param vkernel
+	 *            vertical kernel
+	 */
+	public TiledFImageConvolveSeparable(float[] hkernel, float[] vkernel) {
+		this(hkernel, vkernel, null);
+	}
+
+	/**
+	 * Specify a single kernel to be used as the horizontal and vertical. The
+	 * default pool of {@link Parallel} is used.
+	 * 
+	 * @param kernel
+	 *            both kernels
+	 */
+	public TiledFImageConvolveSeparable(float[] kernel) {
+		this(kernel, kernel, null);
+	}
+
+	@Override
+	public void processImage(FImage image) {
+		final int threads = threadPool == null ? Runtime.getRuntime().availableProcessors() :
+				threadPool.getMaximumPoolSize();
+		final boolean parallel = useThreads(image, threads);
+
+		if (hkernel != null) {
+			if (parallel)
+				parallelHorizontal(image, hkernel, threadPool);
+			else
+				convolveRows(image, hkernel, 0, image.height);
+		}
+
+		if (vkernel != null) {
+			if (parallel)
+				parallelVertical(image, vkernel, threadPool);
+			else
+				convolveColumnBlocks(image, vkernel, 0, columnBlocks(image));
+		}
+	}
+
+	/**
+	 * Convolve the image in the horizontal direction with the kernel. Edge
+	 * effects are handled by duplicating the edge pixels.
+	 * 
+	 * @param image
+	 *            the image to convolve.
+	 * @param kernel
+	 *            the convolution kernel.
+	 * @param threadPool
+	 *            the thread pool. If <code>null</code> the convolution is
+	 *            performed in the calling thread.
+	 */
+	public static void convolveHorizontal(final FImage image, final float[] kernel, ThreadPoolExecutor threadPool) {
+		if (threadPool != null && useThreads(image, threadPool.getMaximumPoolSize()))
+			parallelHorizontal(image, kernel, threadPool);
+		else
+			convolveRows(image, kernel, 0, image.height);
+	}
+
+	/**
+	 * Convolve the image in the vertical direction with the kernel. Edge
+	 * effects are handled by duplicating the edge pixels.
+	 * 
+	 * @param image
+	 *            the image to convolve.
+	 * @param kernel
+	 *            the convolution kernel.
+	 * @param threadPool
+	 *            the thread pool. If <code>null</code> the convolution is
+	 *            performed in the calling thread.
+	 */
+	public static void convolveVertical(final FImage image, final float[] kernel, ThreadPoolExecutor threadPool) {
+		if (threadPool != null && useThreads(image, threadPool.getMaximumPoolSize()))
+			parallelVertical(image, kernel, threadPool);
+		else
+			convolveColumnBlocks(image, kernel, 0, columnBlocks(image));
+	}
+
+	/*
+	 * Split the rows across the pool; a null pool is the default pool of
+	 * Parallel.
+	 */
+	private static void parallelHorizontal(final FImage image, final float[] kernel, ThreadPoolExecutor threadPool) {
+		Parallel.forRange(0, image.height, 1, new Operation<IntRange>() {
+			@Override
+			public void perform(IntRange range) {
+				convolveRows(image, kernel, range.start, range.stop);
+			}
+		}, threadPool);
+	}
+
+	/*
+	 * Split the column blocks across the pool; a null pool is the default pool
+	 * of Parallel.
+	 */
+	private static void parallelVertical(final FImage image, final float[] kernel, ThreadPoolExecutor threadPool) {
+		Parallel.forRange(0, columnBlocks(image), 1, new Operation<IntRange>() {
+			@Override
+			public void perform(IntRange range) {
+				convolveColumnBlocks(image, kernel, range.start, range.stop);
+			}
+		}, threadPool);
+	}
+
+	private static int columnBlocks(FImage image) {
+		return (image.width + COLUMN_BLOCK_SIZE - 1) / COLUMN_BLOCK_SIZE;
+	}
+
+	private static boolean useThreads(FImage image, int threads) {
+		return threads > 1 && image.width * image.height >= MIN_PARALLEL_PIXELS;
+	}
+
+	/*
+	 * Horizontally convolve the rows in [startRow, stopRow); this is exactly
+	 * the same as FImageConvolveSeparable#convolveHorizontal, but restricted to
+	 * a range of rows.
+	 */
+	private static void convolveRows(FImage image, float[] kernel, int startRow, int stopRow) {
+		final int halfsize = kernel.length / 2;
+		final int width = image.width;
+		final float buffer[] = new float[width + kernel.length];
+		final int l = buffer.length - kernel.length;
+
+		for (int r = startRow; r < stopRow; r++) {
+			final float[] row = image.pixels[r];
+
+			for (int i = 0; i < halfsize; i++)
+				buffer[i] = row[0];
+			System.arraycopy(row, 0, buffer, halfsize, width);
+			for (int i = 0; i < halfsize; i++)
+				buffer[halfsize + width + i] = row[width - 1];
+
+			for (int i = 0; i < l; i++) {
+				float sum = 0.0f;
+
+				for (int j = 0, jj = kernel.length - 1; j < kernel.length; j++, jj--)
+					sum += buffer[i + j] * kernel[jj];
+
+				row[i] = sum;
+			}
+		}
+	}
+
+	/*
+	 * Vertically convolve the columns in the blocks [startBlock, stopBlock).
+	 * For each block of columns a sliding window of rows is held in a
+	 * contiguous buffer (with the rows replicated at the top and bottom edges);
+	 * each strip of output rows is computed from the window and written back
+	 * into the image, and the last kernel.length-1 rows of the window are then
+	 * moved to the top to form the halo for the next strip. The halo holds the
+	 * original values of rows that have already been overwritten.
+	 */
+	private static void convolveColumnBlocks(FImage image, float[] kernel, int startBlock, int stopBlock) {
+		final int halfsize = kernel.length / 2;
+		final int height = image.height;
+		final int width = image.width;
+		final int klen = kernel.length;
+		final int halo = klen - 1;
+
+		final float[] window = new float[(ROW_STRIP_SIZE + halo) * COLUMN_BLOCK_SIZE];
+		final float[] sums = new float[COLUMN_BLOCK_SIZE];
+
+		for (int b = startBlock; b < stopBlock; b++) {
+			final int c0 = b * COLUMN_BLOCK_SIZE;
+			final int w = Math.min(COLUMN_BLOCK_SIZE, width - c0);
+
+			// prime the halo with the top padding and first rows
+			for (int p = 0; p < halo; p++)
+				System.arraycopy(image.pixels[clamp(p - halfsize, height)], c0, window, p * COLUMN_BLOCK_SIZE, w);
+
+			for (int r0 = 0; r0 < height; r0 += ROW_STRIP_SIZE) {
+				final int n = Math.min(ROW_STRIP_SIZE, height - r0);
+
+				// load the rows needed for this strip (none of which have
+				// been overwritten yet)
+				for (int p = halo; p < n + halo; p++)
+					System.arraycopy(image.pixels[clamp(r0 + p - halfsize, height)], c0, window,
+							p * COLUMN_BLOCK_SIZE, w);
+
+				for (int i = 0; i < n; i++) {
+					for (int c = 0; c < w; c++)
+						sums[c] = 0.0f;
+
+					for (int j = 0, jj = klen - 1; j < klen; j++, jj--) {
+						final float k = kernel[jj];
+						final int off = (i + j) * COLUMN_BLOCK_SIZE;
+
+						for (int c = 0; c < w; c++)
+							sums[c] += window[off + c] * k;
+					}
+
+					System.arraycopy(sums, 0, image.pixels[r0 + i], c0, w);
+				}
+
+				// slide the window
+				System.arraycopy(window, n * COLUMN_BLOCK_SIZE, window, 0, halo * COLUMN_BLOCK_SIZE);
+			}
+		}
+	}
+
+	private static int clamp(int row, int height) {
+		if (row < 0)
+			return 0;
+		if (row >= height)
+			return height - 1;
+		return row;
+	}
+}
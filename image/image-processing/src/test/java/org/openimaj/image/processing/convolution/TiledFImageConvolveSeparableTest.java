@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.processing.convolution;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.openimaj.image.FImage;
+
+/**
+ * Test {@link TiledFImageConvolveSeparable}.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ *
+ */
+public class TiledFImageConvolveSeparableTest {
+	private static FImage randomImage(int width, int height, Random rng) {
+		final FImage image = new FImage(width, height);
+		
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				image.pixels[y][x] = rng.nextFloat();
+		
+		return image;
+	}
+	
+	/**
+	 * Test that the results are identical to {@link FImageConvolveSeparable}
+	 * for a range of image and kernel sizes, both with and without threads.
+	 */
+	@Test
+	public void testConsistency() {
+		final Random rng = new Random(1);
+		final int[][] sizes = { { 1, 1 }, { 3, 5 }, { 70, 300 }, { 513, 257 } };
+		final float[][] kernels = { 
+				FGaussianConvolve.makeKernel(0.5f), 
+				FGaussianConvolve.makeKernel(1.6f), 
+				FGaussianConvolve.makeKernel(5f),
+				{ 0.25f, 0.75f } 
+		};
+		
+		for (final int[] size : sizes) {
+			for (final float[] kernel : kernels) {
+				final FImage image = randomImage(size[0], size[1], rng);
+				final FImage expected = image.process(new FImageConvolveSeparable(kernel));
+				
+				final FImage threaded = image.process(new TiledFImageConvolveSeparable(kernel));
+				
+				final FImage single = image.clone();
+				TiledFImageConvolveSeparable.convolveHorizontal(single, kernel, null);
+				TiledFImageConvolveSeparable.convolveVertical(single, kernel, null);
+				
+				assertTrue(expected.equalsThresh(threaded, 0f));
+				assertTrue(expected.equalsThresh(single, 0f));
+			}
+		}
+	}
+}
@@ -0,0 +1,461 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.objectdetection.haar;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openimaj.image.analysis.algorithm.SummedSqTiltAreaTable;
+
+/**
+ * An immutable, flattened version of a {@link StageTreeClassifier}. All the
+ * stages, classifier trees and Haar-like features of the original tree are
+ * stored in primitive arrays, and the scaled feature rectangles for each
+ * detection scale are computed once and held in an immutable
+ * {@link ScaledClassifier}. Unlike the {@link StageTreeClassifier}, a single
+ * instance can therefore be used to classify many images at different scales
+ * concurrently from multiple threads. The classification results are identical
+ * to those of the original {@link StageTreeClassifier}.
+ * <p>
+ * The {@link ScaledClassifier}s are cached by scale; each requires storage for
+ * the scaled rectangles of every feature in the tree.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class CompiledStageTreeClassifier {
+	/**
+	 * The classifier for a single detection scale. Instances are immutable and
+	 * thread-safe.
+	 * 
+	 * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+	 */
+	public final class ScaledClassifier {
+		private final float scale;
+		private final float invArea;
+		private final int windowWidth;
+		private final int windowHeight;
+
+		private final int[] rectX;
+		private final int[] rectY;
+		private final int[] rectWidth;
+		private final int[] rectHeight;
+		private final float[] rectWeight;
+
+		ScaledClassifier(float scale) {
+			this.scale = scale;
+
+			// following the OCV code (as in StageTreeClassifier#setScale)
+			windowWidth = Math.round(scale * (width - 2));
+			windowHeight = Math.round(scale * (height - 2));
+			invArea = 1.0f / (windowWidth * windowHeight);
+
+			final int nrects = featureFirstRect[features.length];
+			rectX = new int[nrects];
+			rectY = new int[nrects];
+			rectWidth = new int[nrects];
+			rectHeight = new int[nrects];
+			rectWeight = new float[nrects];
+
+			for (int f = 0; f < features.length; f++) {
+				final int first = featureFirstRect[f];
+				final WeightedRectangle[] scaled = new WeightedRectangle[featureFirstRect[f + 1] - first];
+				for (int i = 0; i < scaled.length; i++)
+					scaled[i] = new WeightedRectangle(0, 0, 0, 0, 0);
+
+				features[f].computeScaledRects(scale, invArea, scaled);
+
+				for (int i = 0; i < scaled.length; i++) {
+					rectX[first + i] = scaled[i].x;
+					rectY[first + i] = scaled[i].y;
+					rectWidth[first + i] = scaled[i].width;
+					rectHeight[first + i] = scaled[i].height;
+					rectWeight[first + i] = scaled[i].weight;
+				}
+			}
+		}
+
+		/**
+		 * Get the scale of this classifier
+		 * 
+		 * @return the scale
+		 */
+		public float getScale() {
+			return scale;
+		}
+
+		/**
+		 * Apply the classifier to the given image at the given position. The
+		 * semantics are exactly the same as
+		 * {@link StageTreeClassifier#classify(SummedSqTiltAreaTable, int, int)}.
+		 * 
+		 * @param sat
+		 *            the summed area table(s) for the image in question. If
+		 *            there are tilted features, this must include the tilted
+		 *            SAT.
+		 * @param x
+		 *            the x-ordinate of the top-left of the current window
+		 * @param y
+		 *            the y-ordinate of the top-left of the current window
+		 * @return > 0 if a detection was made; <=0 if no detection was made.
+		 *         The magnitude indicates the number of stages that passed.
+		 */
+		public int classify(SummedSqTiltAreaTable sat, int x, int y) {
+			final float wvNorm = computeWindowVarianceNorm(sat, x, y);
+
+			int matches = 0;
+			int stage = 0;
+			while (true) {
+				if (pass(stage, sat, wvNorm, x, y)) {
+					matches++;
+					stage = stageSuccess[stage];
+					if (stage < 0)
+						return matches;
+				} else {
+					stage = stageFailure[stage];
+					if (stage < 0)
+						return -matches;
+				}
+			}
+		}
+
+		private float computeWindowVarianceNorm(SummedSqTiltAreaTable sat, int x, int y) {
+			x += Math.round(scale); // shift by 1 scaled px to centre box
+			y += Math.round(scale);
+
+			final float sum = sat.sum.pixels[y + windowHeight][x + windowWidth] + sat.sum.pixels[y][x] -
+					sat.sum.pixels[y + windowHeight][x] - sat.sum.pixels[y][x + windowWidth];
+			final float sqSum = sat.sqSum.pixels[y + windowHeight][x + windowWidth] + sat.sqSum.pixels[y][x] -
+					sat.sqSum.pixels[y + windowHeight][x] - sat.sqSum.pixels[y][x + windowWidth];
+
+			final float mean = sum * invArea;
+			float wvNorm = sqSum * invArea - mean * mean;
+			wvNorm = (float) ((wvNorm > 0) ? Math.sqrt(wvNorm) : 1);
+
+			return wvNorm;
+		}
+
+		private boolean pass(int stage, SummedSqTiltAreaTable sat, float wvNorm, int x, int y) {
+			final float threshold = stageThreshold[stage];
+			final int start = stageFirstTree[stage];
+			final int stop = stageFirstTree[stage + 1];
+			float total = 0;
+
+			// see Stage#pass(...) for the reasoning behind this
+			if (stageHasNegativeValues[stage]) {
+				for (int t = start; t < stop; t++) {
+					total += classifyTree(treeRoot[t], sat, wvNorm, x, y);
+				}
+
+				return total >= threshold;
+			} else {
+				for (int t = start; t < stop; t++) {
+					total += classifyTree(treeRoot[t], sat, wvNorm, x, y);
+					if (total >= threshold)
+						return true;
+				}
+
+				return false;
+			}
+		}
+
+		private float classifyTree(int node, SummedSqTiltAreaTable sat, float wvNorm, int x, int y) {
+			while (true) {
+				final int feature = nodeFeature[node];
+				if (feature < 0)
+					return nodeValue[node];
+
+				final float response = featureTilted[feature] ?
+						computeTiltedResponse(feature, sat, x, y) :
+						computeResponse(feature, sat, x, y);
+
+				node = (response < nodeThreshold[node] * wvNorm) ? nodeLeft[node] : nodeRight[node];
+			}
+		}
+
+		private float computeResponse(int feature, SummedSqTiltAreaTable sat, int rx, int ry) {
+			final float[][] sum = sat.sum.pixels;
+			final int stop = featureFirstRect[feature + 1];
+
+			float total = 0;
+			for (int i = featureFirstRect[feature]; i < stop; i++) {
+				final int x = rx + rectX[i];
+				final int y = ry + rectY[i];
+				final int yh = y + rectHeight[i];
+				final int xw = x + rectWidth[i];
+
+				final float regionSum = sum[yh][xw] - sum[yh][x] - sum[y][xw] + sum[y][x];
+
+				total += regionSum * rectWeight[i];
+			}
+
+			return total;
+		}
+
+		private float computeTiltedResponse(int feature, SummedSqTiltAreaTable sat, int rx, int ry) {
+			final float[][] tiltSum = sat.tiltSum.pixels;
+			final int stop = featureFirstRect[feature + 1];
+
+			float total = 0;
+			for (int i = featureFirstRect[feature]; i < stop; i++) {
+				final int x = rx + rectX[i];
+				final int y = ry + rectY[i];
+				final int width = rectWidth[i];
+				final int height = rectHeight[i];
+
+				final float p0 = tiltSum[y][x];
+				final float p1 = tiltSum[y + height][x - height];
+				final float p2 = tiltSum[y + width][x + width];
+				final float p3 = tiltSum[y + width + height][x + width - height];
+
+				final float regionSum = p0 - p1 - p2 + p3;
+
+				total += regionSum * rectWeight[i];
+			}
+
+			return total;
+		}
+	}
+
+	final int width;
+	final int height;
+	final String name;
+	final boolean hasTiltedFeatures;
+
+	// the stages; stage 0 is the root. The trees of stage s are in
+	// [stageFirstTree[s], stageFirstTree[s+1]). Success and failure stages
+	// are -1 if they don't exist.
+	final float[] stageThreshold;
+	final int[] stageSuccess;
+	final int[] stageFailure;
+	final int[] stageFirstTree;
+	final boolean[] stageHasNegativeValues;
+
+	// the classifier trees, as indices of their root nodes
+	final int[] treeRoot;
+
+	// the tree nodes. A node with a feature of -1 is a leaf that has a value.
+	final int[] nodeFeature;
+	final float[] nodeThreshold;
+	final int[] nodeLeft;
+	final int[] nodeRight;
+	final float[] nodeValue;
+
+	// the features; the (unscaled) rectangles of feature f are in
+	// [featureFirstRect[f], featureFirstRect[f+1])
+	final HaarFeature[] features;
+	final int[] featureFirstRect;
+	final boolean[] featureTilted;
+
+	private final Map<Float, ScaledClassifier> scales = new ConcurrentHashMap<Float, ScaledClassifier>();
+
+	/**
+	 * Construct by compiling the given {@link StageTreeClassifier}. The
+	 * {@link StageTreeClassifier} itself is not modified.
+	 * 
+	 * @param classifier
+	 *            the classifier to compile
+	 */
+	public CompiledStageTreeClassifier(StageTreeClassifier classifier) {
+		this.width = classifier.width;
+		this.height = classifier.height;
+		this.name = classifier.name;
+		this.hasTiltedFeatures = classifier.hasTiltedFeatures;
+
+		// number the stages breadth-first from the root
+		final Map<Stage, Integer> stageIds = new IdentityHashMap<Stage, Integer>();
+		final List<Stage> stages = new ArrayList<Stage>();
+		stageIds.put(classifier.root, 0);
+		stages.add(classifier.root);
+		for (int i = 0; i < stages.size(); i++) {
+			final Stage s = stages.get(i);
+
+			for (final Stage next : new Stage[] { s.successStage, s.failureStage }) {
+				if (next != null && !stageIds.containsKey(next)) {
+					stageIds.put(next, stages.size());
+					stages.add(next);
+				}
+			}
+		}
+
+		final int nstages = stages.size();
+		stageThreshold = new float[nstages];
+		stageSuccess = new int[nstages];
+		stageFailure = new int[nstages];
+		stageFirstTree = new int[nstages + 1];
+		stageHasNegativeValues = new boolean[nstages];
+
+		final List<Classifier> trees = new ArrayList<Classifier>();
+		for (int i = 0; i < nstages; i++) {
+			final Stage s = stages.get(i);
+
+			stageThreshold[i] = s.threshold;
+			stageSuccess[i] = s.successStage == null ? -1 : stageIds.get(s.successStage);
+			stageFailure[i] = s.failureStage == null ? -1 : stageIds.get(s.failureStage);
+			stageFirstTree[i] = trees.size();
+
+			for (final Classifier c : s.ensemble) {
+				trees.add(c);
+				stageHasNegativeValues[i] |= hasNegativeValues(c);
+			}
+		}
+		stageFirstTree[nstages] = trees.size();
+
+		// flatten the trees into the nodes
+		final List<Classifier> nodes = new ArrayList<Classifier>();
+		final Map<HaarFeature, Integer> featureIds = new IdentityHashMap<HaarFeature, Integer>();
+		final List<HaarFeature> featureList = new ArrayList<HaarFeature>();
+
+		treeRoot = new int[trees.size()];
+		for (int i = 0; i < treeRoot.length; i++) {
+			treeRoot[i] = nodes.size();
+			nodes.add(trees.get(i));
+
+			// breadth-first through the tree; children are appended to the
+			// list of nodes as they're found
+			for (int j = treeRoot[i]; j < nodes.size(); j++) {
+				final Classifier c = nodes.get(j);
+
+				if (c instanceof HaarFeatureClassifier) {
+					final HaarFeatureClassifier hfc = (HaarFeatureClassifier) c;
+					nodes.add(hfc.left);
+					nodes.add(hfc.right);
+
+					if (!featureIds.containsKey(hfc.feature)) {
+						featureIds.put(hfc.feature, featureList.size());
+						featureList.add(hfc.feature);
+					}
+				}
+			}
+		}
+
+		final int nnodes = nodes.size();
+		nodeFeature = new int[nnodes];
+		nodeThreshold = new float[nnodes];
+		nodeLeft = new int[nnodes];
+		nodeRight = new int[nnodes];
+		nodeValue = new float[nnodes];
+
+		final Map<Classifier, Integer> nodeIds = new IdentityHashMap<Classifier, Integer>();
+		for (int i = 0; i < nnodes; i++) {
+			if (!nodeIds.containsKey(nodes.get(i)))
+				nodeIds.put(nodes.get(i), i);
+		}
+
+		for (int i = 0; i < nnodes; i++) {
+			final Classifier c = nodes.get(i);
+
+			if (c instanceof HaarFeatureClassifier) {
+				final HaarFeatureClassifier hfc = (HaarFeatureClassifier) c;
+				nodeFeature[i] = featureIds.get(hfc.feature);
+				nodeThreshold[i] = hfc.threshold;
+				nodeLeft[i] = nodeIds.get(hfc.left);
+				nodeRight[i] = nodeIds.get(hfc.right);
+			} else {
+				nodeFeature[i] = -1;
+				nodeValue[i] = ((ValueClassifier) c).value;
+			}
+		}
+
+		// and finally the features
+		features = featureList.toArray(new HaarFeature[featureList.size()]);
+		featureFirstRect = new int[features.length + 1];
+		featureTilted = new boolean[features.length];
+		for (int i = 0; i < features.length; i++) {
+			featureFirstRect[i + 1] = featureFirstRect[i] + features[i].rects.length;
+			featureTilted[i] = features[i] instanceof HaarFeature.TiltedFeature;
+		}
+	}
+
+	private static boolean hasNegativeValues(Classifier classifier) {
+		if (classifier instanceof ValueClassifier)
+			return ((ValueClassifier) classifier).value < 0;
+
+		final HaarFeatureClassifier hfc = (HaarFeatureClassifier) classifier;
+		return hasNegativeValues(hfc.left) || hasNegativeValues(hfc.right);
+	}
+
+	/**
+	 * Get the classifier for the given detection scale. The classifier is
+	 * created the first time a scale is requested, and is cached thereafter.
+	 * 
+	 * @param scale
+	 *            the detection scale
+	 * @return the classifier for the scale
+	 */
+	public ScaledClassifier getScaledClassifier(float scale) {
+		ScaledClassifier sc = scales.get(scale);
+
+		if (sc == null) {
+			sc = new ScaledClassifier(scale);
+			scales.put(scale, sc);
+		}
+
+		return sc;
+	}
+
+	/**
+	 * Get the classifier width
+	 * 
+	 * @return the width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get the classifier height
+	 * 
+	 * @return the height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Get the classifier name
+	 * 
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Does the classifier use tilted haar-like features?
+	 * 
+	 * @return true if tilted features are used; false otherwise.
+	 */
+	public boolean hasTiltedFeatures() {
+		return hasTiltedFeatures;
+	}
+}
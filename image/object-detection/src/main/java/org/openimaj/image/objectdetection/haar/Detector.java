@@ -31,6 +31,7 @@ package org.openimaj.image.objectdetection.haar;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.openimaj.citation.annotation.Reference;
 import org.openimaj.citation.annotation.ReferenceType;
@@ -38,6 +39,8 @@ import org.openimaj.image.FImage;
 import org.openimaj.image.analysis.algorithm.SummedSqTiltAreaTable;
 import org.openimaj.image.objectdetection.AbstractMultiScaleObjectDetector;
 import org.openimaj.math.geometry.shape.Rectangle;
+import org.openimaj.util.function.Operation;
+import org.openimaj.util.parallel.Parallel;
 
 /**
  * Basic, single-threaded multi-scale Haar cascade/tree object detector. The
@@ -52,7 +55,9 @@ import org.openimaj.math.geometry.shape.Rectangle;
  * <p>
  * <strong>Important note:</strong> This detector is NOT thread-safe due to the
  * fact that {@link StageTreeClassifier}s are not themselves thread-safe. Do not
- * attempt to use it in a multi-threaded environment!
+ * attempt to use it in a multi-threaded environment! The exception is
+ * {@link #detect(List, ThreadPoolExecutor)}, which detects in a batch of images
+ * concurrently using a {@link CompiledStageTreeClassifier}.
  * 
  * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
  */
@@ -91,6 +96,25 @@ public class Detector extends AbstractMultiScaleObjectDetector<FImage, Rectangle
 	protected int smallStep = 1;
 	protected int bigStep = 2;
 
+	private transient volatile CompiledStageTreeClassifier compiledCascade;
+
+	/**
+	 * The search parameters for a single scale
+	 */
+	private static class ScaleSearch {
+		float factor;
+		float ystep;
+		int windowWidth;
+		int windowHeight;
+		int startX;
+		int startY;
+		int stopX;
+		int stopY;
+
+		SummedSqTiltAreaTable sat;
+		List<Rectangle> results;
+	}
+
 	/**
 	 * Construct the {@link Detector} with the given parameters.
 	 * 
@@ -190,11 +214,128 @@ public class Detector extends AbstractMultiScaleObjectDetector<FImage, Rectangle
 	public List<Rectangle> detect(FImage image) {
 		final List<Rectangle> results = new ArrayList<Rectangle>();
 
-		final int imageWidth = image.getWidth();
-		final int imageHeight = image.getHeight();
-
 		final SummedSqTiltAreaTable sat = new SummedSqTiltAreaTable(image, cascade.hasTiltedFeatures);
 
+		// run the detection at each scale
+		for (final ScaleSearch search : computeScales(image.getWidth(), image.getHeight())) {
+			// prepare the cascade for this scale
+			cascade.setScale(search.factor);
+
+			detectAtScale(sat, search.startX, search.stopX, search.startY, search.stopY, search.ystep,
+					search.windowWidth, search.windowHeight, results);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Detect objects in a batch of images. The searches of every image at
+	 * every scale are spread across the threads of the default pool of
+	 * {@link Parallel}.
+	 * 
+	 * @see #detect(List, ThreadPoolExecutor)
+	 * 
+	 * @param images
+	 *            the images
+	 * @return the detections for each image
+	 */
+	public List<List<Rectangle>> detect(List<FImage> images) {
+		return detect(images, null);
+	}
+
+	/**
+	 * Detect objects in a batch of images. The searches of every image at
+	 * every scale are spread across the threads of the given pool. Rather than
+	 * the (non thread-safe) {@link StageTreeClassifier}, the search uses a
+	 * {@link CompiledStageTreeClassifier} that is created from it on first use,
+	 * and so this method may safely be called from multiple threads at once.
+	 * <p>
+	 * The detections for each image are the same, and in the same order, as
+	 * would be returned by {@link #detect(FImage)}. Note however that the
+	 * spatial search is always the one in this class; overrides of
+	 * {@link #detectAtScale(SummedSqTiltAreaTable, int, int, int, int, float, int, int, List)}
+	 * are not used.
+	 * 
+	 * @param images
+	 *            the images
+	 * @param threadPool
+	 *            the thread pool. If <code>null</code> the default pool of
+	 *            {@link Parallel} is used.
+	 * @return the detections for each image
+	 */
+	public List<List<Rectangle>> detect(final List<FImage> images, ThreadPoolExecutor threadPool) {
+		final CompiledStageTreeClassifier compiled = getCompiledClassifier();
+		final List<List<ScaleSearch>> searches = new ArrayList<List<ScaleSearch>>();
+		final List<ScaleSearch> allSearches = new ArrayList<ScaleSearch>();
+
+		for (final FImage image : images) {
+			final List<ScaleSearch> imageSearches = computeScales(image.getWidth(), image.getHeight());
+			searches.add(imageSearches);
+			allSearches.addAll(imageSearches);
+		}
+
+		// compute the summed area tables
+		Parallel.forIndex(0, images.size(), 1, new Operation<Integer>() {
+			@Override
+			public void perform(Integer i) {
+				final SummedSqTiltAreaTable sat = new SummedSqTiltAreaTable(images.get(i), compiled.hasTiltedFeatures);
+
+				for (final ScaleSearch search : searches.get(i))
+					search.sat = sat;
+			}
+		}, threadPool);
+
+		// search each image at each scale
+		Parallel.forEachUnpartitioned(allSearches.iterator(), new Operation<ScaleSearch>() {
+			@Override
+			public void perform(ScaleSearch search) {
+				search.results = detectAtScale(compiled.getScaledClassifier(search.factor), search);
+			}
+		}, threadPool);
+
+		final List<List<Rectangle>> results = new ArrayList<List<Rectangle>>(images.size());
+		for (final List<ScaleSearch> imageSearches : searches) {
+			final List<Rectangle> imageResults = new ArrayList<Rectangle>();
+
+			for (final ScaleSearch search : imageSearches) {
+				imageResults.addAll(search.results);
+				search.sat = null;
+			}
+
+			results.add(imageResults);
+		}
+
+		return results;
+	}
+
+	private List<Rectangle> detectAtScale(CompiledStageTreeClassifier.ScaledClassifier classifier, ScaleSearch search) {
+		final List<Rectangle> results = new ArrayList<Rectangle>();
+
+		for (int iy = search.startY; iy < search.stopY; iy++) {
+			final int y = Math.round(iy * search.ystep);
+
+			for (int ix = search.startX, xstep = 0; ix < search.stopX; ix += xstep) {
+				final int x = Math.round(ix * search.ystep);
+
+				final int result = classifier.classify(search.sat, x, y);
+
+				if (result > 0) {
+					results.add(new Rectangle(x, y, search.windowWidth, search.windowHeight));
+				}
+
+				// if there is no detection, then increase the step size
+				xstep = (result > 0 ? smallStep : bigStep);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Compute the scales to search, and the spatial range at each scale, for
+	 * an image of the given size.
+	 */
+	private List<ScaleSearch> computeScales(int imageWidth, int imageHeight) {
 		// compute the number of scales to test and the starting factor
 		int nFactors = 0;
 		int startFactor = 0;
@@ -215,29 +356,47 @@ public class Detector extends AbstractMultiScaleObjectDetector<FImage, Rectangle
 			nFactors++;
 		}
 
-		// run the detection at each scale
+		final List<ScaleSearch> searches = new ArrayList<ScaleSearch>();
 		float factor = (float) Math.pow(scaleFactor, startFactor);
 		for (int scaleStep = startFactor; scaleStep < nFactors; factor *= scaleFactor, scaleStep++) {
-			final float ystep = Math.max(2, factor);
+			final ScaleSearch search = new ScaleSearch();
+			search.factor = factor;
+			search.ystep = Math.max(2, factor);
 
-			final int windowWidth = (int) (factor * cascade.width);
-			final int windowHeight = (int) (factor * cascade.height);
+			search.windowWidth = (int) (factor * cascade.width);
+			search.windowHeight = (int) (factor * cascade.height);
 
 			// determine the spatial range, taking into account any ROI.
-			final int startX = (int) (roi == null ? 0 : Math.max(0, roi.x));
-			final int startY = (int) (roi == null ? 0 : Math.max(0, roi.y));
-			final int stopX = Math.round(
-					(((roi == null ? imageWidth : Math.min(imageWidth, roi.x + roi.width)) - windowWidth)) / ystep);
-			final int stopY = Math.round(
-					(((roi == null ? imageHeight : Math.min(imageHeight, roi.y + roi.height)) - windowHeight)) / ystep);
+			search.startX = (int) (roi == null ? 0 : Math.max(0, roi.x));
+			search.startY = (int) (roi == null ? 0 : Math.max(0, roi.y));
+			search.stopX = Math.round(
+					(((roi == null ? imageWidth : Math.min(imageWidth, roi.x + roi.width)) - search.windowWidth))
+							/ search.ystep);
+			search.stopY = Math.round(
+					(((roi == null ? imageHeight : Math.min(imageHeight, roi.y + roi.height)) - search.windowHeight))
+							/ search.ystep);
+
+			searches.add(search);
+		}
 
-			// prepare the cascade for this scale
-			cascade.setScale(factor);
+		return searches;
+	}
+
+	/**
+	 * Get the thread-safe compiled form of the classifier tree or cascade used
+	 * by this detector. The compiled form is created on the first call.
+	 * 
+	 * @return the compiled classifier
+	 */
+	public CompiledStageTreeClassifier getCompiledClassifier() {
+		CompiledStageTreeClassifier compiled = compiledCascade;
 
-			detectAtScale(sat, startX, stopX, startY, stopY, ystep, windowWidth, windowHeight, results);
+		if (compiled == null) {
+			compiled = new CompiledStageTreeClassifier(cascade);
+			compiledCascade = compiled;
 		}
 
-		return results;
+		return compiled;
 	}
 
 	/**
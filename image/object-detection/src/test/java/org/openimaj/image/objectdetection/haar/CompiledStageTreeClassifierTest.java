@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.image.objectdetection.haar;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.openimaj.image.FImage;
+import org.openimaj.image.analysis.algorithm.SummedSqTiltAreaTable;
+import org.openimaj.math.geometry.shape.Rectangle;
+
+/**
+ * Tests for the {@link CompiledStageTreeClassifier}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ * 
+ */
+public class CompiledStageTreeClassifierTest {
+	String[] cascades = {
+			"haarcascade_eye_tree_eyeglasses.xml",
+			"haarcascade_frontalface_alt_tree.xml",
+			"haarcascade_frontalface_alt2.xml",
+			"haarcascade_frontalface_default.xml",
+			"haarcascade_mcs_mouth.xml"
+	};
+
+	private static FImage createImage(int width, int height, Random rng) {
+		final FImage image = new FImage(width, height);
+
+		// smoothly varying blobs so that some stages pass
+		for (int i = 0; i < 20; i++) {
+			final float cx = rng.nextFloat() * width;
+			final float cy = rng.nextFloat() * height;
+			final float r = 5 + rng.nextFloat() * 30;
+			final float v = rng.nextFloat();
+
+			for (int y = 0; y < height; y++)
+				for (int x = 0; x < width; x++)
+					if ((x - cx) * (x - cx) + (y - cy) * (y - cy) < r * r)
+						image.pixels[y][x] = v;
+		}
+
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				image.pixels[y][x] += 0.05f * rng.nextFloat();
+
+		return image;
+	}
+
+	/**
+	 * Test that the compiled classifier gives the same results as the
+	 * original
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testClassify() throws IOException {
+		final Random rng = new Random(1);
+		final FImage image = createImage(200, 200, rng);
+
+		for (final String c : cascades) {
+			final StageTreeClassifier cascade = OCVHaarLoader.read(OCVHaarLoader.class.getResourceAsStream(c));
+			final CompiledStageTreeClassifier compiled = new CompiledStageTreeClassifier(cascade);
+			final SummedSqTiltAreaTable sat = new SummedSqTiltAreaTable(image, cascade.hasTiltedFeatures());
+
+			for (float scale = 1; scale < 4; scale *= 1.3f) {
+				cascade.setScale(scale);
+				final CompiledStageTreeClassifier.ScaledClassifier scaled = compiled.getScaledClassifier(scale);
+
+				final int maxX = (int) (image.width - scale * cascade.getWidth()) - 2;
+				final int maxY = (int) (image.height - scale * cascade.getHeight()) - 2;
+				for (int i = 0; i < 200; i++) {
+					final int x = 1 + rng.nextInt(maxX);
+					final int y = 1 + rng.nextInt(maxY);
+
+					assertEquals(cascade.classify(sat, x, y), scaled.classify(sat, x, y));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test that batch detection gives the same results as detecting in each
+	 * image separately
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testBatchDetect() throws IOException {
+		final Random rng = new Random(2);
+		final List<FImage> images = new ArrayList<FImage>();
+		images.add(createImage(120, 100, rng));
+		images.add(createImage(160, 200, rng));
+		images.add(createImage(90, 90, rng));
+
+		final StageTreeClassifier cascade = OCVHaarLoader.read(OCVHaarLoader.class
+				.getResourceAsStream("haarcascade_frontalface_alt2.xml"));
+		final Detector detector = new Detector(cascade);
+
+		final List<List<Rectangle>> batch = detector.detect(images);
+
+		assertEquals(images.size(), batch.size());
+		for (int i = 0; i < images.size(); i++) {
+			assertEquals(detector.detect(images.get(i)), batch.get(i));
+		}
+	}
+}
@@ -0,0 +1,636 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.ml.gmm;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.apache.commons.math.util.MathUtils;
+import org.openimaj.data.DataSource;
+import org.openimaj.math.statistics.distribution.DiagonalMultivariateGaussian;
+import org.openimaj.math.statistics.distribution.MixtureOfGaussians;
+import org.openimaj.math.statistics.distribution.MultivariateGaussian;
+import org.openimaj.ml.clustering.DoubleCentroidsResult;
+import org.openimaj.ml.clustering.FloatCentroidsResult;
+import org.openimaj.ml.clustering.kmeans.DoubleKMeans;
+import org.openimaj.ml.clustering.kmeans.FloatKMeans;
+import org.openimaj.ml.gmm.GaussianMixtureModelEM.UpdateOptions;
+import org.openimaj.util.function.Operation;
+import org.openimaj.util.parallel.Parallel;
+
+import Jama.Matrix;
+
+/**
+ * Expectation-Maximisation for {@link MixtureOfGaussians} with diagonal
+ * covariance matrices. Unlike the general {@link GaussianMixtureModelEM}, the
+ * model is held in contiguous arrays and the responsibilities are never
+ * materialised: the data is split into a fixed number of blocks which are
+ * processed in parallel, each block computing its responsibilities in the
+ * log-domain (using the log-sum-exp trick) and accumulating the sufficient
+ * statistics for the maximisation step locally. The statistics of the blocks
+ * are then reduced in block order, so the result doesn't depend on the number
+ * of threads or the order in which the blocks finish.
+ * <p>
+ * In addition to batch estimation from <code>float</code> or
+ * <code>double</code> data held in memory, a mini-batch (stepwise) variant of
+ * EM is provided which only ever looks at random samples drawn from a
+ * {@link DataSource}, making it suitable for datasets that are too large to be
+ * processed in their entirety on each iteration.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class DiagonalGaussianMixtureModelEM {
+	private static final double DEFAULT_THRESH = 1e-2;
+	private static final double DEFAULT_MIN_COVAR = 1e-3;
+	private static final int DEFAULT_NITERS = 100;
+	private static final int DEFAULT_NINIT = 1;
+	private static final double LOG_2PI = Math.log(2 * Math.PI);
+
+	/**
+	 * Exponent of the step size used by the mini-batch algorithm
+	 */
+	private static final double STEP_DECAY = 0.6;
+
+	/**
+	 * Number of blocks the data is split into for the expectation step
+	 */
+	private static final int EXPECTATION_BLOCKS = 64;
+
+	/**
+	 * Abstraction over the rows of the data
+	 */
+	private static abstract class Samples {
+		abstract int size();
+
+		abstract int dims();
+
+		/**
+		 * Get a row; implementations may either return the row directly or copy
+		 * it into the given buffer.
+		 */
+		abstract double[] row(int i, double[] buffer);
+	}
+
+	private static class DoubleSamples extends Samples {
+		final double[][] data;
+
+		DoubleSamples(double[][] data) {
+			this.data = data;
+		}
+
+		@Override
+		int size() {
+			return data.length;
+		}
+
+		@Override
+		int dims() {
+			return data[0].length;
+		}
+
+		@Override
+		double[] row(int i, double[] buffer) {
+			return data[i];
+		}
+	}
+
+	private static class FloatSamples extends Samples {
+		final float[][] data;
+
+		FloatSamples(float[][] data) {
+			this.data = data;
+		}
+
+		@Override
+		int size() {
+			return data.length;
+		}
+
+		@Override
+		int dims() {
+			return data[0].length;
+		}
+
+		@Override
+		double[] row(int i, double[] buffer) {
+			final float[] r = data[i];
+			for (int d = 0; d < buffer.length; d++)
+				buffer[d] = r[d];
+			return buffer;
+		}
+	}
+
+	/**
+	 * The parameters of the mixture in contiguous form, together with the
+	 * per-component constants needed for evaluating the log-probabilities.
+	 */
+	private static class Model {
+		final double[] weights;
+		final double[][] means;
+		final double[][] variances;
+
+		final double[][] precisions;
+		final double[] logNorm;
+
+		Model(int k, int d) {
+			weights = new double[k];
+			means = new double[k][d];
+			variances = new double[k][d];
+			precisions = new double[k][d];
+			logNorm = new double[k];
+
+			Arrays.fill(weights, 1.0 / k);
+			for (final double[] v : variances)
+				Arrays.fill(v, 1);
+		}
+
+		/**
+		 * Recompute the precisions and log normalisation constants. The
+		 * log-determinant is computed as a sum of logs so that it cannot
+		 * underflow in high dimensions.
+		 */
+		void prepare() {
+			for (int k = 0; k < weights.length; k++) {
+				final double[] var = variances[k];
+				final double[] prec = precisions[k];
+
+				double logDet = 0;
+				for (int d = 0; d < var.length; d++) {
+					logDet += Math.log(var[d]);
+					prec[d] = 1.0 / var[d];
+				}
+
+				logNorm[k] = Math.log(weights[k]) - 0.5 * (var.length * LOG_2PI + logDet);
+			}
+		}
+
+		MixtureOfGaussians toMixture() {
+			final MultivariateGaussian[] gaussians = new MultivariateGaussian[weights.length];
+			for (int k = 0; k < weights.length; k++) {
+				gaussians[k] = new DiagonalMultivariateGaussian(new Matrix(new double[][] { means[k].clone() }),
+						variances[k].clone());
+			}
+
+			return new MixtureOfGaussians(gaussians, weights.clone());
+		}
+	}
+
+	/**
+	 * Sufficient statistics for the maximisation step
+	 */
+	private static class Statistics {
+		final double[] resp;
+		final double[][] sumX;
+		final double[][] sumX2;
+		double logLikelihood;
+
+		Statistics(int k, int d) {
+			resp = new double[k];
+			sumX = new double[k][d];
+			sumX2 = new double[k][d];
+		}
+
+		void add(Statistics o) {
+			for (int k = 0; k < resp.length; k++) {
+				resp[k] += o.resp[k];
+
+				final double[] sx = sumX[k], osx = o.sumX[k];
+				final double[] sx2 = sumX2[k], osx2 = o.sumX2[k];
+				for (int d = 0; d < sx.length; d++) {
+					sx[d] += osx[d];
+					sx2[d] += osx2[d];
+				}
+			}
+			logLikelihood += o.logLikelihood;
+		}
+
+		/**
+		 * Set this to <code>(1 - eta) * this + eta * s * o</code>
+		 */
+		void interpolate(Statistics o, double s, double eta) {
+			final double a = 1 - eta;
+			final double b = eta * s;
+
+			for (int k = 0; k < resp.length; k++) {
+				resp[k] = a * resp[k] + b * o.resp[k];
+
+				final double[] sx = sumX[k], osx = o.sumX[k];
+				final double[] sx2 = sumX2[k], osx2 = o.sumX2[k];
+				for (int d = 0; d < sx.length; d++) {
+					sx[d] = a * sx[d] + b * osx[d];
+					sx2[d] = a * sx2[d] + b * osx2[d];
+				}
+			}
+			logLikelihood = a * logLikelihood + b * o.logLikelihood;
+		}
+	}
+
+	int nComponents;
+	private double thresh;
+	private double minCovar;
+	private int nIters;
+	private int nInit;
+	private EnumSet<UpdateOptions> initOpts;
+	private EnumSet<UpdateOptions> iterOpts;
+	private ThreadPoolExecutor threadPool;
+	private Random rng = new Random();
+
+	private boolean converged = false;
+
+	/**
+	 * Construct with the given arguments.
+	 * 
+	 * @param nComponents
+	 *            the number of gaussian components
+	 * @param thresh
+	 *            the threshold at which to stop iterating
+	 * @param minCovar
+	 *            the minimum value allowed in the diagonal of the estimated
+	 *            covariance matrices to prevent overfitting
+	 * @param nIters
+	 *            the maximum number of iterations
+	 * @param nInit
+	 *            the number of runs of the algorithm to perform; the best
+	 *            result will be kept.
+	 * @param iterOpts
+	 *            options controlling what is updated during iteration
+	 * @param initOpts
+	 *            options controlling what is updated during initialisation.
+	 *            Enabling the {@link UpdateOptions#Means} option will cause
+	 *            K-Means to be used to generate initial starting points for the
+	 *            means.
+	 */
+	public DiagonalGaussianMixtureModelEM(int nComponents, double thresh, double minCovar, int nIters, int nInit,
+			EnumSet<UpdateOptions> iterOpts, EnumSet<UpdateOptions> initOpts)
+	{
+		this.nComponents = nComponents;
+		this.thresh = thresh;
+		this.minCovar = minCovar;
+		this.nIters = nIters;
+		this.nInit = nInit;
+		this.iterOpts = iterOpts;
+		this.initOpts = initOpts;
+
+		if (nInit < 1) {
+			throw new IllegalArgumentException("GMM estimation requires at least one run");
+		}
+	}
+
+	/**
+	 * Construct with the given number of components and default values for
+	 * the other parameters.
+	 * 
+	 * @param nComponents
+	 *            the number of gaussian components
+	 */
+	public DiagonalGaussianMixtureModelEM(int nComponents) {
+		this(nComponents, DEFAULT_THRESH, DEFAULT_MIN_COVAR, DEFAULT_NITERS, DEFAULT_NINIT, EnumSet
+				.allOf(UpdateOptions.class), EnumSet.allOf(UpdateOptions.class));
+	}
+
+	/**
+	 * Set the thread pool used to compute the expectation step. If
+	 * <code>null</code> (the default), the default pool of {@link Parallel} is
+	 * used.
+	 * 
+	 * @param threadPool
+	 *            the thread pool
+	 */
+	public void setThreadPool(ThreadPoolExecutor threadPool) {
+		this.threadPool = threadPool;
+	}
+
+	/**
+	 * Set the seed for the random number generator used to initialise the
+	 * means with k-means. Together with the deterministic reduction of the
+	 * expectation step, seeding makes the estimation repeatable regardless of
+	 * the thread pool.
+	 * 
+	 * @param seed
+	 *            the random seed; if negative the generator is not seeded
+	 */
+	public void seed(long seed) {
+		if (seed < 0)
+			this.rng = new Random();
+		else
+			this.rng = new Random(seed);
+	}
+
+	/**
+	 * Get's the convergence state of the algorithm. Will return false if no
+	 * estimation has been performed, if the last call to
+	 * {@link #estimate(double[][])} or {@link #estimate(float[][])} failed to
+	 * reach convergence before running out of iterations, or if the last
+	 * estimate was made with the mini-batch algorithm.
+	 * 
+	 * @return true if the last estimation reached convergence; false otherwise
+	 */
+	public boolean hasConverged() {
+		return converged;
+	}
+
+	/**
+	 * Estimate a new {@link MixtureOfGaussians} from the given data. Use
+	 * {@link #hasConverged()} to check whether the EM algorithm reached
+	 * convergence in the estimation of the returned model.
+	 * 
+	 * @param X
+	 *            the data array.
+	 * @return the generated GMM.
+	 */
+	public MixtureOfGaussians estimate(double[][] X) {
+		checkSize(X.length);
+
+		return estimate(new DoubleSamples(X), X);
+	}
+
+	/**
+	 * Estimate a new {@link MixtureOfGaussians} from the given data. Use
+	 * {@link #hasConverged()} to check whether the EM algorithm reached
+	 * convergence in the estimation of the returned model.
+	 * 
+	 * @param X
+	 *            the data array.
+	 * @return the generated GMM.
+	 */
+	public MixtureOfGaussians estimate(float[][] X) {
+		checkSize(X.length);
+
+		return estimate(new FloatSamples(X), X);
+	}
+
+	/**
+	 * Estimate a new {@link MixtureOfGaussians} using mini-batch (stepwise)
+	 * EM. On each iteration a random batch of samples is drawn from the data
+	 * source, and the sufficient statistics computed from it are blended into
+	 * a running estimate with a step size of <code>(t + 2)^-0.6</code>. The
+	 * model is initialised from a single batch.
+	 * 
+	 * @param data
+	 *            the data source
+	 * @param batchSize
+	 *            the number of samples in each mini-batch
+	 * @param nBatches
+	 *            the number of mini-batches to process
+	 * @return the generated GMM.
+	 */
+	public MixtureOfGaussians estimate(DataSource<float[]> data, int batchSize, int nBatches) {
+		batchSize = Math.min(batchSize, data.size());
+		checkSize(batchSize);
+
+		final float[][] batch = data.createTemporaryArray(batchSize);
+		final FloatSamples samples = new FloatSamples(batch);
+
+		data.getRandomRows(batch);
+		final Model model = initialise(samples, batch);
+
+		converged = false;
+		Statistics running = null;
+		for (int t = 0; t < nBatches; t++) {
+			if (t > 0)
+				data.getRandomRows(batch);
+
+			model.prepare();
+			final Statistics stats = expectation(samples, model);
+
+			if (running == null) {
+				running = new Statistics(nComponents, samples.dims());
+				running.interpolate(stats, 1.0 / batchSize, 1);
+			} else {
+				running.interpolate(stats, 1.0 / batchSize, Math.pow(t + 2, -STEP_DECAY));
+			}
+
+			maximisation(model, running);
+		}
+
+		return model.toMixture();
+	}
+
+	private void checkSize(int n) {
+		if (n < nComponents)
+			throw new IllegalArgumentException(String.format(
+					"GMM estimation with %d components, but got only %d samples", nComponents, n));
+	}
+
+	private MixtureOfGaussians estimate(Samples X, Object raw) {
+		Model best = null;
+		double bestLogLikelihood = Double.NEGATIVE_INFINITY;
+		boolean bestConverged = false;
+
+		for (int j = 0; j < nInit; j++) {
+			final Model model = initialise(X, raw);
+
+			converged = false;
+			double logLikelihood = Double.NaN;
+			for (int i = 0; i < nIters; i++) {
+				model.prepare();
+				final Statistics stats = expectation(X, model);
+
+				if (i > 0 && Math.abs(stats.logLikelihood - logLikelihood) < thresh) {
+					logLikelihood = stats.logLikelihood;
+					converged = true;
+					break;
+				}
+				logLikelihood = stats.logLikelihood;
+
+				maximisation(model, stats);
+			}
+
+			if (logLikelihood > bestLogLikelihood) {
+				bestLogLikelihood = logLikelihood;
+				bestConverged = converged;
+				best = model;
+			}
+		}
+
+		if (best == null) {
+			throw new RuntimeException(
+					"EM algorithm was never able to compute a valid likelihood given initial " +
+							"parameters. Try different init parameters (or increasing n_init) or " +
+							"check for degenerate data.");
+		}
+
+		converged = bestConverged;
+		return best.toMixture();
+	}
+
+	private Model initialise(Samples X, Object raw) {
+		final int dims = X.dims();
+		final Model model = new Model(nComponents, dims);
+
+		if (initOpts.contains(UpdateOptions.Means)) {
+			// initialise using k-means
+			if (raw instanceof float[][]) {
+				final FloatKMeans km = FloatKMeans.createExact(nComponents);
+				km.seed(rng.nextLong() & Long.MAX_VALUE);
+
+				final FloatCentroidsResult means = km.cluster((float[][]) raw);
+				for (int k = 0; k < nComponents; k++)
+					for (int d = 0; d < dims; d++)
+						model.means[k][d] = means.centroids[k][d];
+			} else {
+				final DoubleKMeans km = DoubleKMeans.createExact(nComponents);
+				km.seed(rng.nextLong() & Long.MAX_VALUE);
+
+				final DoubleCentroidsResult means = km.cluster((double[][]) raw);
+				for (int k = 0; k < nComponents; k++)
+					System.arraycopy(means.centroids[k], 0, model.means[k], 0, dims);
+			}
+		}
+
+		if (initOpts.contains(UpdateOptions.Covariances)) {
+			// diagonal of the sample covariance
+			final int n = X.size();
+			final double[] buffer = new double[dims];
+			final double[] sum = new double[dims];
+			final double[] sum2 = new double[dims];
+
+			for (int i = 0; i < n; i++) {
+				final double[] x = X.row(i, buffer);
+				for (int d = 0; d < dims; d++) {
+					sum[d] += x[d];
+					sum2[d] += x[d] * x[d];
+				}
+			}
+
+			for (int d = 0; d < dims; d++) {
+				final double var = (sum2[d] - sum[d] * sum[d] / n) / (n - 1);
+				for (int k = 0; k < nComponents; k++)
+					model.variances[k][d] = var;
+			}
+		}
+
+		return model;
+	}
+
+	private Statistics expectation(final Samples X, final Model model) {
+		final int dims = X.dims();
+		final int n = X.size();
+		final int nblocks = Math.max(1, Math.min(n, EXPECTATION_BLOCKS));
+		final Statistics[] blocks = new Statistics[nblocks];
+
+		Parallel.forIndex(0, nblocks, 1, new Operation<Integer>() {
+			@Override
+			public void perform(Integer block) {
+				final int start = (int) ((long) block * n / nblocks);
+				final int stop = (int) ((long) (block + 1) * n / nblocks);
+
+				final Statistics local = new Statistics(nComponents, dims);
+				final double[] buffer = new double[dims];
+				final double[] logProb = new double[nComponents];
+
+				for (int i = start; i < stop; i++) {
+					final double[] x = X.row(i, buffer);
+
+					double max = Double.NEGATIVE_INFINITY;
+					for (int k = 0; k < nComponents; k++) {
+						final double[] mean = model.means[k];
+						final double[] prec = model.precisions[k];
+
+						double dist = 0;
+						for (int d = 0; d < dims; d++) {
+							final double diff = x[d] - mean[d];
+							dist += diff * diff * prec[d];
+						}
+
+						logProb[k] = model.logNorm[k] - 0.5 * dist;
+						if (logProb[k] > max)
+							max = logProb[k];
+					}
+
+					double sum = 0;
+					for (int k = 0; k < nComponents; k++) {
+						logProb[k] = Math.exp(logProb[k] - max);
+						sum += logProb[k];
+					}
+					local.logLikelihood += max + Math.log(sum);
+
+					final double norm = 1.0 / sum;
+					for (int k = 0; k < nComponents; k++) {
+						final double r = logProb[k] * norm;
+						if (r == 0)
+							continue;
+
+						local.resp[k] += r;
+						final double[] sx = local.sumX[k];
+						final double[] sx2 = local.sumX2[k];
+						for (int d = 0; d < dims; d++) {
+							final double rx = r * x[d];
+							sx[d] += rx;
+							sx2[d] += rx * x[d];
+						}
+					}
+				}
+
+				blocks[block] = local;
+			}
+		}, threadPool);
+
+		final Statistics total = new Statistics(nComponents, dims);
+		for (final Statistics b : blocks)
+			total.add(b);
+
+		return total;
+	}
+
+	private void maximisation(Model model, Statistics stats) {
+		final double eps = MathUtils.EPSILON;
+
+		double sum = 0;
+		for (int k = 0; k < nComponents; k++)
+			sum += stats.resp[k];
+
+		for (int k = 0; k < nComponents; k++) {
+			final double norm = 1.0 / (stats.resp[k] + 10 * eps);
+
+			if (iterOpts.contains(UpdateOptions.Weights))
+				model.weights[k] = stats.resp[k] / (sum + 10 * eps) + eps;
+
+			final double[] mean = model.means[k];
+			final double[] sx = stats.sumX[k];
+			if (iterOpts.contains(UpdateOptions.Means)) {
+				for (int d = 0; d < mean.length; d++)
+					mean[d] = sx[d] * norm;
+			}
+
+			if (iterOpts.contains(UpdateOptions.Covariances)) {
+				final double[] var = model.variances[k];
+				final double[] sx2 = stats.sumX2[k];
+
+				for (int d = 0; d < var.length; d++) {
+					final double mu = mean[d];
+					var[d] = sx2[d] * norm - 2 * mu * sx[d] * norm + mu * mu + minCovar;
+				}
+			}
+		}
+	}
+}
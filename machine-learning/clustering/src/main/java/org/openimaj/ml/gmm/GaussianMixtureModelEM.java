@@ -471,12 +471,23 @@ public class GaussianMixtureModelEM {
 	 * Estimate a new {@link MixtureOfGaussians} from the given data. Use
 	 * {@link #hasConverged()} to check whether the EM algorithm reached
 	 * convergence in the estimation of the returned model.
+	 * <p>
+	 * Estimation of models with {@link CovarianceType#Diagonal} covariance is
+	 * delegated to the {@link DiagonalGaussianMixtureModelEM}.
 	 * 
 	 * @param X
 	 *            the data array.
 	 * @return the generated GMM.
 	 */
 	public MixtureOfGaussians estimate(double[][] X) {
+		if (ctype == CovarianceType.Diagonal) {
+			final DiagonalGaussianMixtureModelEM em = new DiagonalGaussianMixtureModelEM(nComponents, thresh,
+					minCovar, nIters, nInit, iterOpts, initOpts);
+			final MixtureOfGaussians gmm = em.estimate(X);
+			converged = em.hasConverged();
+			return gmm;
+		}
+
 		final EMGMM gmm = new EMGMM(nComponents);
 
 		if (X.length < nComponents)
@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.ml.gmm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openimaj.data.ArrayBackedDataSource;
+import org.openimaj.math.statistics.distribution.DiagonalMultivariateGaussian;
+import org.openimaj.math.statistics.distribution.MixtureOfGaussians;
+import org.openimaj.ml.gmm.GaussianMixtureModelEM.UpdateOptions;
+
+/**
+ * Tests for {@link DiagonalGaussianMixtureModelEM}
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class DiagonalGaussianMixtureModelEMTest {
+	private static final double[][] MEANS = { { 0, 0, 0 }, { 10, 10, 10 }, { -10, 5, 0 } };
+	private static final double[] STDDEVS = { 1, 2, 3 };
+
+	private double[][] data;
+	private float[][] fdata;
+
+	/**
+	 * Sample some data from a known mixture
+	 */
+	@Before
+	public void setup() {
+		final Random rng = new Random(1);
+
+		data = new double[6000][3];
+		fdata = new float[data.length][3];
+		for (int i = 0; i < data.length; i++) {
+			final int k = i % MEANS.length;
+			for (int d = 0; d < 3; d++) {
+				data[i][d] = MEANS[k][d] + rng.nextGaussian() * STDDEVS[k];
+				fdata[i][d] = (float) data[i][d];
+			}
+		}
+	}
+
+	private DiagonalGaussianMixtureModelEM createEM() {
+		return new DiagonalGaussianMixtureModelEM(3, 1e-2, 1e-3, 100, 3, EnumSet.allOf(UpdateOptions.class),
+				EnumSet.allOf(UpdateOptions.class));
+	}
+
+	private void checkModel(MixtureOfGaussians gmm, double meanTol, double varTol) {
+		assertEquals(MEANS.length, gmm.gaussians.length);
+
+		for (int k = 0; k < MEANS.length; k++) {
+			// find the closest estimated component
+			int best = -1;
+			double bestDist = Double.MAX_VALUE;
+			for (int j = 0; j < gmm.gaussians.length; j++) {
+				final double[] mean = gmm.gaussians[j].getMean().getArray()[0];
+				double dist = 0;
+				for (int d = 0; d < mean.length; d++)
+					dist += (mean[d] - MEANS[k][d]) * (mean[d] - MEANS[k][d]);
+
+				if (dist < bestDist) {
+					bestDist = dist;
+					best = j;
+				}
+			}
+
+			final DiagonalMultivariateGaussian g = (DiagonalMultivariateGaussian) gmm.gaussians[best];
+			assertEquals(1.0 / MEANS.length, gmm.weights[best], 0.02);
+			for (int d = 0; d < 3; d++) {
+				assertEquals(MEANS[k][d], g.getMean().get(0, d), meanTol);
+				assertEquals(STDDEVS[k] * STDDEVS[k], g.variance[d], varTol * STDDEVS[k] * STDDEVS[k]);
+			}
+		}
+	}
+
+	/**
+	 * Test estimation from double data
+	 */
+	@Test
+	public void testDouble() {
+		final DiagonalGaussianMixtureModelEM em = createEM();
+		final MixtureOfGaussians gmm = em.estimate(data);
+
+		assertTrue(em.hasConverged());
+		checkModel(gmm, 0.2, 0.1);
+	}
+
+	/**
+	 * Test that float and double data give the same result
+	 */
+	@Test
+	public void testFloat() {
+		final DiagonalGaussianMixtureModelEM em = createEM();
+		final MixtureOfGaussians gmm = em.estimate(fdata);
+
+		assertTrue(em.hasConverged());
+		checkModel(gmm, 0.2, 0.1);
+	}
+
+	/**
+	 * Test mini-batch estimation
+	 */
+	@Test
+	public void testMiniBatch() {
+		final DiagonalGaussianMixtureModelEM em = createEM();
+		final MixtureOfGaussians gmm = em.estimate(new ArrayBackedDataSource<float[]>(fdata, new Random(2)), 1000,
+				100);
+
+		checkModel(gmm, 0.3, 0.2);
+	}
+
+	/**
+	 * Test that the generic learner delegates to the diagonal implementation
+	 */
+	@Test
+	public void testDelegation() {
+		final GaussianMixtureModelEM em = new GaussianMixtureModelEM(3, GaussianMixtureModelEM.CovarianceType.Diagonal,
+				1e-2, 1e-3, 100, 3, EnumSet.allOf(UpdateOptions.class), EnumSet.allOf(UpdateOptions.class));
+		final MixtureOfGaussians gmm = em.estimate(data);
+
+		assertTrue(em.hasConverged());
+		checkModel(gmm, 0.2, 0.1);
+	}
+
+	private static void assertSameModel(MixtureOfGaussians expected, MixtureOfGaussians actual) {
+		assertEquals(expected.gaussians.length, actual.gaussians.length);
+
+		for (int k = 0; k < expected.gaussians.length; k++) {
+			final DiagonalMultivariateGaussian e = (DiagonalMultivariateGaussian) expected.gaussians[k];
+			final DiagonalMultivariateGaussian a = (DiagonalMultivariateGaussian) actual.gaussians[k];
+
+			assertEquals(expected.weights[k], actual.weights[k], 0);
+			for (int d = 0; d < 3; d++) {
+				assertEquals(e.getMean().get(0, d), a.getMean().get(0, d), 0);
+				assertEquals(e.variance[d], a.variance[d], 0);
+			}
+		}
+	}
+
+	/**
+	 * Test that seeded estimation gives exactly the same model on repeated
+	 * runs and regardless of the number of threads
+	 */
+	@Test
+	public void testReproducible() {
+		final DiagonalGaussianMixtureModelEM em = createEM();
+		em.seed(42);
+		final MixtureOfGaussians expected = em.estimate(data);
+
+		em.seed(42);
+		assertSameModel(expected, em.estimate(data));
+
+		for (final int nThreads : new int[] { 1, 3, 8 }) {
+			final ThreadPoolExecutor pool = new ThreadPoolExecutor(nThreads, nThreads, 0, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>());
+
+			try {
+				em.setThreadPool(pool);
+				em.seed(42);
+				assertSameModel(expected, em.estimate(data));
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+}
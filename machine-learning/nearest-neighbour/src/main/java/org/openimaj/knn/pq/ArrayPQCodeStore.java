@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.knn.pq;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A {@link PQCodeStore} that holds the codes on the heap. The codes are packed
+ * contiguously into fixed-size pages, so the store isn't limited by the
+ * maximum size of a single array; only the last page is allowed to be
+ * partially allocated, so small stores stay small. Codes can be appended to
+ * the store; appending is thread-safe, and can happen concurrently with
+ * reading.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class ArrayPQCodeStore extends PQCodeStore {
+	/**
+	 * The default size of each page in bytes
+	 */
+	public static final int DEFAULT_PAGE_BYTES = 1 << 24;
+
+	private final int codesPerPage;
+	private volatile byte[][] pages;
+	private volatile int size;
+
+	/**
+	 * Construct an empty store with the default page size
+	 * 
+	 * @param codeLength
+	 *            the length of each code
+	 * @param capacity
+	 *            the expected number of codes
+	 */
+	public ArrayPQCodeStore(int codeLength, int capacity) {
+		this(codeLength, capacity, Math.max(1, DEFAULT_PAGE_BYTES / codeLength));
+	}
+
+	/**
+	 * Construct an empty store with the given page size
+	 * 
+	 * @param codeLength
+	 *            the length of each code
+	 * @param capacity
+	 *            the expected number of codes
+	 * @param codesPerPage
+	 *            the number of codes held by each page
+	 */
+	public ArrayPQCodeStore(int codeLength, int capacity, int codesPerPage) {
+		super(codeLength);
+
+		if (codesPerPage <= 0 || (long) codesPerPage * codeLength > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Invalid number of codes per page: " + codesPerPage);
+
+		this.codesPerPage = codesPerPage;
+		this.pages = allocate(capacity);
+	}
+
+	/**
+	 * Construct a store containing copies of the given codes
+	 * 
+	 * @param codes
+	 *            the codes
+	 */
+	public ArrayPQCodeStore(byte[][] codes) {
+		this(codes[0].length, codes.length);
+
+		for (final byte[] c : codes)
+			add(c);
+	}
+
+	/**
+	 * Allocate enough pages to hold the given number of codes; all but the last
+	 * page are full size.
+	 */
+	private byte[][] allocate(int ncodes) {
+		final int npages = (int) (((long) ncodes + codesPerPage - 1) / codesPerPage);
+		final byte[][] p = new byte[npages][];
+
+		for (int i = 0; i < npages; i++) {
+			final int n = Math.min(codesPerPage, ncodes - i * codesPerPage);
+			p[i] = new byte[n * codeLength];
+		}
+
+		return p;
+	}
+
+	/**
+	 * Read a store of the given number of codes from the input (as written by
+	 * {@link #write(java.io.DataOutput)}).
+	 * 
+	 * @param in
+	 *            the input
+	 * @param codeLength
+	 *            the length of each code
+	 * @param size
+	 *            the number of codes
+	 * @return the store
+	 * @throws IOException
+	 *             if an error occurs
+	 */
+	public static ArrayPQCodeStore read(DataInput in, int codeLength, int size) throws IOException {
+		final ArrayPQCodeStore store = new ArrayPQCodeStore(codeLength, size);
+
+		for (final byte[] page : store.pages)
+			in.readFully(page);
+		store.size = size;
+
+		return store;
+	}
+
+	/**
+	 * Append a code to the store
+	 * 
+	 * @param code
+	 *            the code
+	 * @return the index of the code
+	 */
+	public synchronized int add(byte[] code) {
+		final int index = size;
+		final int page = index / codesPerPage;
+		final int offset = (index - page * codesPerPage) * codeLength;
+
+		byte[][] p = pages;
+		if (page >= p.length)
+			p = Arrays.copyOf(p, Math.max(page + 1, p.length * 2));
+
+		// only the last page can be partially allocated; grow it up to the
+		// full page size. Readers only look at codes below the size they
+		// read, and those have all been copied into the new array.
+		byte[] data = p[page];
+		if (data == null || offset + codeLength > data.length) {
+			final int current = data == null ? 0 : data.length / codeLength;
+			final int ncodes = Math.min(codesPerPage, Math.max(16, (current * 3) / 2 + 1));
+
+			data = data == null ? new byte[ncodes * codeLength] : Arrays.copyOf(data, ncodes * codeLength);
+			p[page] = data;
+		}
+
+		System.arraycopy(code, 0, data, offset, codeLength);
+		pages = p;
+		size = index + 1;
+
+		return index;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void read(int start, int count, byte[] buffer) {
+		// read size before pages so the pages are guaranteed to hold the
+		// requested items
+		final int size = this.size;
+		if (start < 0 || count < 0 || (long) start + count > size)
+			throw new IndexOutOfBoundsException();
+
+		final byte[][] p = pages;
+		int pos = 0;
+		while (count > 0) {
+			final int page = start / codesPerPage;
+			final int first = start - page * codesPerPage;
+			final int n = Math.min(count, codesPerPage - first);
+
+			System.arraycopy(p[page], first * codeLength, buffer, pos, n * codeLength);
+
+			pos += n * codeLength;
+			start += n;
+			count -= n;
+		}
+	}
+}
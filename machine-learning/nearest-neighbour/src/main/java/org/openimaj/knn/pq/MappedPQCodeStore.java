@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.knn.pq;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A read-only {@link PQCodeStore} backed by a memory-mapped region of a file.
+ * The codes are not loaded onto the heap; instead they are paged in by the
+ * operating system as required, which means that a store can be opened almost
+ * instantly, and that the same file can be shared between processes through
+ * the page cache. Regions larger than 2GB are mapped in several chunks.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class MappedPQCodeStore extends PQCodeStore {
+	private static final int MAX_CHUNK_BYTES = Integer.MAX_VALUE;
+
+	private final MappedByteBuffer[] chunks;
+	private final int codesPerChunk;
+	private final int size;
+
+	/**
+	 * Map the codes held in the given file, starting at the given offset.
+	 * 
+	 * @param file
+	 *            the file
+	 * @param offset
+	 *            the offset of the first code in the file
+	 * @param codeLength
+	 *            the length of each code
+	 * @param size
+	 *            the number of codes
+	 * @throws IOException
+	 *             if an error occurs
+	 */
+	public MappedPQCodeStore(File file, long offset, int codeLength, int size) throws IOException {
+		this(file, offset, codeLength, size, MAX_CHUNK_BYTES);
+	}
+
+	/**
+	 * Map the codes held in the given file, starting at the given offset,
+	 * using chunks of at most the given number of bytes.
+	 * 
+	 * @param file
+	 *            the file
+	 * @param offset
+	 *            the offset of the first code in the file
+	 * @param codeLength
+	 *            the length of each code
+	 * @param size
+	 *            the number of codes
+	 * @param maxChunkBytes
+	 *            the maximum number of bytes in each mapped chunk
+	 * @throws IOException
+	 *             if an error occurs
+	 */
+	MappedPQCodeStore(File file, long offset, int codeLength, int size, int maxChunkBytes) throws IOException {
+		super(codeLength);
+
+		this.size = size;
+		this.codesPerChunk = maxChunkBytes / codeLength;
+
+		final int nchunks = (int) (((long) size + codesPerChunk - 1) / codesPerChunk);
+		this.chunks = new MappedByteBuffer[nchunks];
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+
+			if (offset + (long) size * codeLength > channel.size())
+				throw new IOException("File is too short to contain " + size + " codes");
+
+			for (int i = 0; i < nchunks; i++) {
+				final int ncodes = Math.min(codesPerChunk, size - i * codesPerChunk);
+				final long position = offset + (long) i * codesPerChunk * codeLength;
+
+				chunks[i] = channel.map(MapMode.READ_ONLY, position, (long) ncodes * codeLength);
+			}
+		} finally {
+			// the mappings remain valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void read(int start, int count, byte[] buffer) {
+		if (start < 0 || count < 0 || (long) start + count > size)
+			throw new IndexOutOfBoundsException();
+
+		int pos = 0;
+		while (count > 0) {
+			final int chunk = start / codesPerChunk;
+			final int first = start - chunk * codesPerChunk;
+			final int n = Math.min(count, codesPerChunk - first);
+
+			// duplicate so concurrent readers don't interfere with each
+			// other's positions
+			final ByteBuffer view = chunks[chunk].duplicate();
+			view.position(first * codeLength);
+			view.get(buffer, pos, n * codeLength);
+
+			pos += n * codeLength;
+			start += n;
+			count -= n;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.knn.pq;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Storage for the codes of product-quantised vectors. Each code is a fixed
+ * length array of bytes (one per sub-quantiser); implementations store all the
+ * codes contiguously rather than as individual byte arrays, which avoids the
+ * per-object overhead of large numbers of small arrays.
+ * <p>
+ * Searchers should read codes in blocks using
+ * {@link #read(int, int, byte[])} rather than one at a time.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public abstract class PQCodeStore {
+	protected final int codeLength;
+
+	/**
+	 * Construct with the given code length
+	 * 
+	 * @param codeLength
+	 *            the length of each code (i.e. the number of sub-quantisers)
+	 */
+	protected PQCodeStore(int codeLength) {
+		this.codeLength = codeLength;
+	}
+
+	/**
+	 * Get the length of each code
+	 * 
+	 * @return the code length
+	 */
+	public int codeLength() {
+		return codeLength;
+	}
+
+	/**
+	 * Get the number of codes in the store
+	 * 
+	 * @return the number of codes
+	 */
+	public abstract int size();
+
+	/**
+	 * Copy a contiguous block of codes into the given buffer. The code of item
+	 * <code>start + i</code> will be placed in the buffer starting at
+	 * <code>i * codeLength()</code>.
+	 * 
+	 * @param start
+	 *            the index of the first code to read
+	 * @param count
+	 *            the number of codes to read
+	 * @param buffer
+	 *            the buffer to fill; must have at least
+	 *            <code>count * codeLength()</code> elements
+	 */
+	public abstract void read(int start, int count, byte[] buffer);
+
+	/**
+	 * Get a copy of the code of the given item
+	 * 
+	 * @param index
+	 *            the index of the item
+	 * @return the code
+	 */
+	public byte[] get(int index) {
+		final byte[] code = new byte[codeLength];
+		read(index, 1, code);
+		return code;
+	}
+
+	/**
+	 * Write the raw codes to the given output. The codes are written
+	 * contiguously in order without any header.
+	 * 
+	 * @param out
+	 *            the output
+	 * @throws IOException
+	 *             if an error occurs
+	 */
+	public void write(DataOutput out) throws IOException {
+		write(out, 0, size());
+	}
+
+	/**
+	 * Write a contiguous block of the raw codes to the given output. The codes
+	 * are written contiguously in order without any header.
+	 * 
+	 * @param out
+	 *            the output
+	 * @param start
+	 *            the index of the first code to write
+	 * @param count
+	 *            the number of codes to write
+	 * @throws IOException
+	 *             if an error occurs
+	 */
+	public void write(DataOutput out, int start, int count) throws IOException {
+		final int blockSize = Math.max(1, (1 << 16) / codeLength);
+		final byte[] buffer = new byte[blockSize * codeLength];
+		final int end = start + count;
+
+		for (int i = start; i < end; i += blockSize) {
+			final int n = Math.min(blockSize, end - i);
+			read(i, n, buffer);
+			out.write(buffer, 0, n * codeLength);
+		}
+	}
+}
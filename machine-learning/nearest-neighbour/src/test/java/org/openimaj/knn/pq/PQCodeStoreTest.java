@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.knn.pq;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the {@link PQCodeStore} implementations
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class PQCodeStoreTest {
+	/**
+	 * The temporary output folder
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private byte[][] randomCodes(int n, int length) {
+		final Random rng = new Random(42);
+		final byte[][] codes = new byte[n][length];
+
+		for (final byte[] c : codes)
+			rng.nextBytes(c);
+
+		return codes;
+	}
+
+	/**
+	 * Test that codes added to an {@link ArrayPQCodeStore} are stored
+	 * correctly
+	 */
+	@Test
+	public void testArrayStore() {
+		final byte[][] codes = randomCodes(1000, 16);
+
+		final ArrayPQCodeStore store = new ArrayPQCodeStore(16, 0);
+		for (int i = 0; i < codes.length; i++)
+			assertEquals(i, store.add(codes[i]));
+
+		assertEquals(codes.length, store.size());
+		for (int i = 0; i < codes.length; i++)
+			assertArrayEquals(codes[i], store.get(i));
+
+		final byte[] block = new byte[3 * 16];
+		store.read(10, 3, block);
+		for (int i = 0; i < 3; i++)
+			for (int j = 0; j < 16; j++)
+				assertEquals(codes[10 + i][j], block[i * 16 + j]);
+	}
+
+	/**
+	 * Test that codes written to a file can be memory-mapped
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testMappedStore() throws IOException {
+		final byte[][] codes = randomCodes(1000, 16);
+		final ArrayPQCodeStore store = new ArrayPQCodeStore(codes);
+
+		final File file = folder.newFile("codes.bin");
+		final DataOutputStream dos = new DataOutputStream(new FileOutputStream(file));
+		dos.writeInt(42);
+		store.write(dos);
+		dos.close();
+
+		final MappedPQCodeStore mapped = new MappedPQCodeStore(file, 4, 16, codes.length);
+		assertEquals(codes.length, mapped.size());
+		for (int i = 0; i < codes.length; i++)
+			assertArrayEquals(codes[i], mapped.get(i));
+	}
+
+	private void assertBlocks(byte[][] codes, PQCodeStore store) {
+		final int codeLength = store.codeLength();
+
+		for (int start = 0; start < codes.length; start += 3) {
+			for (final int count : new int[] { 0, 1, 2, 5, 11, 40 }) {
+				if (start + count > codes.length)
+					continue;
+
+				final byte[] block = new byte[count * codeLength];
+				store.read(start, count, block);
+				for (int i = 0; i < count; i++)
+					for (int j = 0; j < codeLength; j++)
+						assertEquals(codes[start + i][j], block[i * codeLength + j]);
+			}
+		}
+	}
+
+	/**
+	 * Test that blocks of codes that span the pages of an
+	 * {@link ArrayPQCodeStore} and the chunks of a {@link MappedPQCodeStore}
+	 * are read correctly, including when the store grows and when it is
+	 * written and read back
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testPageAndChunkBoundaries() throws IOException {
+		final byte[][] codes = randomCodes(200, 16);
+
+		// grown from empty, and preallocated with a partial last page
+		for (final int capacity : new int[] { 0, 30, 200 }) {
+			final ArrayPQCodeStore store = new ArrayPQCodeStore(16, capacity, 7);
+			for (int i = 0; i < codes.length; i++)
+				assertEquals(i, store.add(codes[i]));
+
+			assertEquals(codes.length, store.size());
+			assertBlocks(codes, store);
+		}
+
+		final ArrayPQCodeStore store = new ArrayPQCodeStore(16, 0, 7);
+		for (final byte[] c : codes)
+			store.add(c);
+
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		store.write(new DataOutputStream(baos));
+		assertEquals(codes.length * 16, baos.size());
+
+		final ArrayPQCodeStore reread = ArrayPQCodeStore.read(
+				new DataInputStream(new ByteArrayInputStream(baos.toByteArray())), 16, codes.length);
+		assertEquals(codes.length, reread.size());
+		assertBlocks(codes, reread);
+
+		final File file = folder.newFile("paged.bin");
+		final DataOutputStream dos = new DataOutputStream(new FileOutputStream(file));
+		dos.writeInt(42);
+		store.write(dos);
+		dos.close();
+
+		// a chunk size that isn't a multiple of the code length
+		final MappedPQCodeStore mapped = new MappedPQCodeStore(file, 4, 16, codes.length, 5 * 16 + 3);
+		assertEquals(codes.length, mapped.size());
+		assertBlocks(codes, mapped);
+	}
+
+	/**
+	 * Test that reading outside the store fails
+	 */
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testReadOutOfBounds() {
+		final ArrayPQCodeStore store = new ArrayPQCodeStore(randomCodes(10, 16));
+		store.read(5, 6, new byte[6 * 16]);
+	}
+}
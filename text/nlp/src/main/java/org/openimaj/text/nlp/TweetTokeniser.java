@@ -34,6 +34,7 @@ import gov.sandia.cognition.text.token.Token;
 
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
@@ -62,13 +63,20 @@ import org.openimaj.text.util.RegexUtil;
  * relatively high premium of each key stroke.
  *
  * Based on the twokenise by Brendan O'Connor
+ * <p>
+ * The protected tokens are those matched by the protect patterns, but rather
+ * than searching for the whole alternation at every position of the text, the
+ * text is scanned once and, at each position, only the alternatives that could
+ * possibly match there (determined from lookup tables indexed by the current
+ * characters) are attempted. The output is identical to that obtained by
+ * searching with the single combined pattern.
  *
  * @author Sina Samangooei (ss@ecs.soton.ac.uk)
  *
  */
 public class TweetTokeniser implements Iterable<Token> {
 
-	private String text;
+	private CharSequence text;
 	private ArrayList<Token> tokenize;
 	private ArrayList<Token> protectedTokens;
 	private ArrayList<Token> unprotectedTokens;
@@ -131,7 +139,6 @@ public class TweetTokeniser implements Iterable<Token> {
 	static TwitterStuffPatternProvider twitterPart = new TwitterStuffPatternProvider();
 	static EmailPatternProvider email = new EmailPatternProvider();
 	static AbbreviationPatternProvider abbrev = new AbbreviationPatternProvider(entity);
-	private static final String spaceRegex = "\\s+";
 	static String Separators = RegexUtil.regex_or_match("--+", "\u2015");
 	static String Decorations = new String(" [\u266b]+ ").replace(" ", "");
 	static EmbeddedApostrophePatternProvider embedded = new EmbeddedApostrophePatternProvider(punctuation);
@@ -161,6 +168,84 @@ public class TweetTokeniser implements Iterable<Token> {
 
 	// static Pattern Protect_RE = twitterPart.pattern();
 
+	/**
+	 * The alternatives of {@link #Protect_RE}, compiled individually. Finding
+	 * the first alternative (in order) that matches at a position is
+	 * equivalent to matching the whole alternation at that position.
+	 */
+	static final Pattern[] ProtectPatterns = new Pattern[ProtectThese.length];
+	static {
+		for (int i = 0; i < ProtectThese.length; i++)
+			ProtectPatterns[i] = Pattern.compile(ProtectThese[i], Pattern.UNICODE_CASE | Pattern.CASE_INSENSITIVE);
+	}
+
+	private static final int COMPUTED = 1 << 31;
+	private static final int ALL_PATTERNS = (1 << ProtectThese.length) - 1;
+	private static final int NON_WORD = 0;
+	private static final int WORD = 1;
+
+	/**
+	 * Tables giving, for each character, a bitmask of the protecting patterns
+	 * that could possibly match starting at that character when it follows a
+	 * non-word character (first table) or a word character (second table).
+	 * Entries are computed lazily the first time a character is seen; a zero
+	 * entry has not yet been computed.
+	 */
+	private static final int[][] candidateTable = new int[2][Character.MAX_VALUE + 1];
+
+	/**
+	 * As {@link #candidateTable}, but for pairs of ASCII characters, which
+	 * allows most of the emoticons to be ruled out
+	 */
+	private static final int[][] pairTable = new int[2][128 * 128];
+	private static final String[] CONTEXTS = { " ", "a" };
+
+	/**
+	 * Characters which, if not present at or after a position, rule out some
+	 * of the patterns; and the corresponding masks of characters each pattern
+	 * requires.
+	 */
+	private static final String GATE_CHARS = "@;:.";
+	private static final int[] gateMasks = new int[ProtectThese.length];
+	static {
+		final List<String> protect = Arrays.asList(ProtectThese);
+		gateMasks[protect.indexOf(email.patternString())] = gate("@");
+		gateMasks[protect.indexOf(entity.patternString())] = gate(";");
+		gateMasks[protect.indexOf(time.patternString())] = gate(":");
+		gateMasks[protect.indexOf(truncatedURL.patternString())] = gate(":.");
+	}
+
+	private static int gate(String chars) {
+		int mask = 0;
+		for (int i = 0; i < chars.length(); i++)
+			mask |= 1 << GATE_CHARS.indexOf(chars.charAt(i));
+		return mask;
+	}
+
+	/**
+	 * Index of the embedded apostrophe pattern, and a pattern matching the
+	 * characters that may appear either side of the apostrophe. If the
+	 * embedded apostrophe pattern fails at a position, it must also fail at
+	 * all the following positions in the same run of such characters.
+	 */
+	private static final int EMBEDDED = Arrays.asList(ProtectThese).indexOf(embedded.patternString());
+	private static final Pattern EmbeddedRun_RE = Pattern.compile(embedded.nonPunctuationPatternString(),
+			Pattern.UNICODE_CASE | Pattern.CASE_INSENSITIVE);
+	private static final byte[] embeddedRunTable = new byte[Character.MAX_VALUE + 1];
+
+	private static final ThreadLocal<Matcher[]> matchers = new ThreadLocal<Matcher[]>() {
+		@Override
+		protected Matcher[] initialValue() {
+			final Matcher[] m = new Matcher[ProtectPatterns.length];
+			for (int i = 0; i < m.length; i++) {
+				m[i] = ProtectPatterns[i].matcher("");
+				m[i].useTransparentBounds(true);
+				m[i].useAnchoringBounds(false);
+			}
+			return m;
+		}
+	};
+
 	/**
 	 * @param s
 	 *            Tokenise this string
@@ -168,83 +253,252 @@ public class TweetTokeniser implements Iterable<Token> {
 	 * @throws TweetTokeniserException
 	 */
 	public TweetTokeniser(String s) throws UnsupportedEncodingException, TweetTokeniserException {
-		// System.out.println(EdgePunct);
-		// System.out.println(new String(""));
-		this.text = new String(s);
-		// System.out.println("TWEET:" + text);
-		fixEncoding();
-		squeeze_whitespace();
+		this((CharSequence) s);
+	}
+
+	/**
+	 * Tokenise the given text. The text is only copied if it needs to be
+	 * normalised (i.e. if it contains HTML entities, unpaired surrogates or
+	 * whitespace other than single spaces).
+	 *
+	 * @param s
+	 *            Tokenise this text
+	 * @throws UnsupportedEncodingException
+	 * @throws TweetTokeniserException
+	 */
+	public TweetTokeniser(CharSequence s) throws UnsupportedEncodingException, TweetTokeniserException {
+		this.text = normalise(s);
 		simple_tokenize();
 	}
 
-	private void simple_tokenize() throws TweetTokeniserException {
-		this.tokenize = new ArrayList<Token>();
-		edge_punct_munge();
-
-		final ArrayList<String> goods = new ArrayList<String>();
-		final ArrayList<String> bads = new ArrayList<String>();
-		final ArrayList<Token> res = new ArrayList<Token>();
-		final ArrayList<Token> goodt = new ArrayList<Token>();
-		final ArrayList<Token> badt = new ArrayList<Token>();
-		int i = 0;
-		final Matcher matches = Protect_RE.matcher(this.text);
-		if (matches != null) {
-			while (matches.find()) {
-				final String goodString = this.text.substring(i, matches.start());
-				goods.add(goodString);
-				final List<Token> goodStrings = unprotected_tokenize(goodString);
-				res.addAll(goodStrings);
-				goodt.addAll(goodStrings);
-				final String badString = this.text.substring(matches.start(), matches.end());
-				bads.add(badString);
-				final DefaultToken badTok = new DefaultToken(badString, 0);
-				res.add(badTok);
-				badt.add(badTok);
-				i = matches.end();
+	/**
+	 * Apply the encoding fix, HTML unescaping and whitespace squeezing to the
+	 * text. Each step is only performed if a scan of the text shows that it
+	 * could change something.
+	 */
+	private static CharSequence normalise(CharSequence s) throws UnsupportedEncodingException {
+		boolean surrogates = false;
+		boolean entities = false;
+		boolean squeeze = false;
+
+		char prev = 'x';
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+
+			if (Character.isSurrogate(c))
+				surrogates = true;
+			else if (c == '&')
+				entities = true;
+			else if (isSpace(c) && (c != ' ' || isSpace(prev)))
+				squeeze = true;
+
+			prev = c;
+		}
+
+		if (!surrogates && !entities && !squeeze)
+			return s;
+
+		String text = s.toString();
+		if (surrogates)
+			text = new String(text.getBytes("UTF-8"), "UTF-8");
+		if (entities)
+			text = StringEscapeUtils.unescapeHtml(text);
+
+		return squeeze_whitespace(text);
+	}
+
+	/**
+	 * Equivalent to <code>\s</code> in a regular expression
+	 */
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	private static String squeeze_whitespace(String text) {
+		final StringBuilder sb = new StringBuilder(text.length());
+
+		boolean inSpace = false;
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+
+			if (isSpace(c)) {
+				if (!inSpace)
+					sb.append(' ');
+				inSpace = true;
+			} else {
+				sb.append(c);
+				inSpace = false;
 			}
-			final String finalGood = this.text.substring(i, this.text.length());
-			final List<Token> goodStrings = unprotected_tokenize(finalGood);
-			res.addAll(goodStrings);
-			goodt.addAll(goodStrings);
-		} else {
-			final String goodString = this.text.substring(0, this.text.length());
-			final List<Token> goodStrings = unprotected_tokenize(goodString);
-			res.addAll(goodStrings);
-			goodt.addAll(goodStrings);
 		}
 
-		this.tokenize = post_process(res);
-		this.protectedTokens = post_process(badt);
-		this.unprotectedTokens = post_process(goodt);
+		return sb.toString();
 	}
 
-	private ArrayList<Token> post_process(ArrayList<Token> res) {
-		return res;
+	private static int candidates(CharSequence text, int pos) {
+		final char c = text.charAt(pos);
+		final int next = pos + 1 < text.length() ? text.charAt(pos + 1) : -1;
+
+		if (pos > 0) {
+			final char prev = text.charAt(pos - 1);
+
+			// word boundaries treat these specially, so don't try to predict
+			if (Character.isSurrogate(prev) || Character.getType(prev) == Character.NON_SPACING_MARK)
+				return candidates(c, next, NON_WORD) | candidates(c, next, WORD);
+
+			if (prev == '_' || Character.isLetterOrDigit(prev))
+				return candidates(c, next, WORD);
+		}
+		return candidates(c, next, NON_WORD);
 	}
 
-	private List<Token> unprotected_tokenize(String goodString) {
-		final String[] strings = goodString.split("\\s+");
-		final List<Token> t = new ArrayList<Token>();
-		for (final String s : strings) {
-			if (s.isEmpty())
-				continue;
-			t.add(new DefaultToken(s, 0));
+	private static int candidates(char c, int next, int context) {
+		if (c < 128 && next >= 0 && next < 128) {
+			final int idx = (c << 7) | next;
+			int mask = pairTable[context][idx];
+
+			if (mask == 0) {
+				mask = computeCandidates(CONTEXTS[context], "" + c + (char) next);
+				pairTable[context][idx] = mask;
+			}
+
+			return mask;
+		}
+
+		int mask = candidateTable[context][c];
+		if (mask == 0) {
+			mask = computeCandidates(CONTEXTS[context], String.valueOf(c));
+			candidateTable[context][c] = mask;
 		}
-		return t;
+
+		return mask;
 	}
 
-	private void edge_punct_munge() {
-		// this.text = EdgePunctuationPatternProvider.fixedges(this.text);
+	/**
+	 * Determine which patterns could match starting with the given characters
+	 * by attempting to match each pattern against just those characters. If
+	 * the attempt fails without the matcher reaching the end of the input,
+	 * then no continuation of the text could allow a match. The patterns only
+	 * look behind through word boundaries, so the preceding context can be
+	 * represented by any character of the same (word or non-word) class.
+	 */
+	private static int computeCandidates(String context, String chars) {
+		for (int i = 0; i < chars.length(); i++)
+			if (Character.isSurrogate(chars.charAt(i)))
+				return COMPUTED | ALL_PATTERNS;
+
+		final String probe = context + chars;
+		int mask = COMPUTED;
+		for (int i = 0; i < ProtectPatterns.length; i++) {
+			final Matcher m = ProtectPatterns[i].matcher(probe);
+			m.useTransparentBounds(true);
+			m.useAnchoringBounds(false);
+			m.region(context.length(), probe.length());
+
+			if (m.lookingAt() || m.hitEnd())
+				mask |= 1 << i;
+		}
+		return mask;
 	}
 
-	private void squeeze_whitespace() {
-		this.text = this.text.replaceAll(spaceRegex, " ");
+	private static boolean isEmbeddedRun(char c) {
+		byte v = embeddedRunTable[c];
+
+		if (v == 0) {
+			v = EmbeddedRun_RE.matcher(String.valueOf(c)).matches() ? (byte) 1 : (byte) 2;
+			embeddedRunTable[c] = v;
+		}
+
+		return v == 1;
 	}
 
-	private void fixEncoding() throws UnsupportedEncodingException {
-		this.text = new String(text.getBytes("UTF-8"), "UTF-8");
-		this.text = StringEscapeUtils.unescapeHtml(this.text);
-		// System.out.println("UTF-8:" + text);
+	private void simple_tokenize() throws TweetTokeniserException {
+		this.tokenize = new ArrayList<Token>();
+		this.protectedTokens = new ArrayList<Token>();
+		this.unprotectedTokens = new ArrayList<Token>();
+
+		final Matcher[] m = matchers.get();
+		for (final Matcher mi : m)
+			mi.reset(text);
+
+		final int length = text.length();
+		int start = 0;
+		int pos = 0;
+		int skipEmbedded = 0;
+
+		// the last position of each of the gate characters
+		final int[] lastGate = new int[GATE_CHARS.length()];
+		for (int i = 0; i < lastGate.length; i++)
+			lastGate[i] = lastIndexOf(text, GATE_CHARS.charAt(i));
+
+		while (pos < length) {
+			final int mask = candidates(text, pos);
+
+			int gates = 0;
+			for (int i = 0; i < lastGate.length; i++)
+				if (lastGate[i] >= pos)
+					gates |= 1 << i;
+
+			// find the first pattern that matches here
+			int end = -1;
+			for (int i = 0; i < m.length; i++) {
+				if ((mask & (1 << i)) == 0 || (gateMasks[i] & ~gates) != 0 || (i == EMBEDDED && pos < skipEmbedded))
+					continue;
+
+				m[i].region(pos, length);
+				if (m[i].lookingAt()) {
+					end = m[i].end();
+					break;
+				}
+
+				if (i == EMBEDDED && isEmbeddedRun(text.charAt(pos))) {
+					skipEmbedded = pos + 1;
+					while (skipEmbedded < length && isEmbeddedRun(text.charAt(skipEmbedded)))
+						skipEmbedded++;
+				}
+			}
+
+			if (end > pos) {
+				unprotected_tokenize(start, pos);
+
+				final DefaultToken badTok = new DefaultToken(text.subSequence(pos, end).toString(), 0);
+				tokenize.add(badTok);
+				protectedTokens.add(badTok);
+
+				pos = start = end;
+			} else {
+				pos++;
+			}
+		}
+		unprotected_tokenize(start, length);
+
+		// release the text
+		for (final Matcher mi : m)
+			mi.reset("");
+	}
+
+	private static int lastIndexOf(CharSequence text, char c) {
+		for (int i = text.length() - 1; i >= 0; i--)
+			if (text.charAt(i) == c)
+				return i;
+		return -1;
+	}
+
+	private void unprotected_tokenize(int from, int to) {
+		int i = from;
+		while (i < to) {
+			while (i < to && text.charAt(i) == ' ')
+				i++;
+
+			final int start = i;
+			while (i < to && text.charAt(i) != ' ')
+				i++;
+
+			if (i > start) {
+				final DefaultToken tok = new DefaultToken(text.subSequence(start, i).toString(), 0);
+				tokenize.add(tok);
+				unprotectedTokens.add(tok);
+			}
+		}
 	}
 
 	@Override
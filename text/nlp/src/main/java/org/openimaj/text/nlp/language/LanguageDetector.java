@@ -29,24 +29,23 @@
  */
 package org.openimaj.text.nlp.language;
 
-import gnu.trove.map.hash.TIntDoubleHashMap;
-import gnu.trove.map.hash.TIntIntHashMap;
-import gnu.trove.procedure.TIntIntProcedure;
-
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.zip.GZIPInputStream;
 
-import no.uib.cipr.matrix.DenseMatrix;
-
 import org.openimaj.citation.annotation.Reference;
 import org.openimaj.citation.annotation.ReferenceType;
 import org.openimaj.io.IOUtils;
+import org.openimaj.util.function.Operation;
+import org.openimaj.util.parallel.Parallel;
+import org.openimaj.util.parallel.Parallel.IntRange;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -54,6 +53,10 @@ import com.google.gson.GsonBuilder;
 /**
  * Short text language detection ported from langid:
  * https://github.com/saffsd/langid.py
+ * <p>
+ * Instances are thread-safe; each thread uses its own scratch space, and only
+ * the rows of the model corresponding to the n-gram features present in a text
+ * are visited when classifying it.
  * 
  * @author Sina Samangooei (ss@ecs.soton.ac.uk)
  * 
@@ -189,36 +192,116 @@ public class LanguageDetector {
 	}
 
 	/**
-	 * Classify the language using a naive-bayes model
+	 * Per-thread scratch space used during classification. The count arrays
+	 * are kept zeroed between calls; only the entries that were touched are
+	 * reset.
+	 */
+	private static class Workspace {
+		final int[] stateCounts;
+		final int[] touchedStates;
+		final int[] featureCounts;
+		final int[] touchedFeatures;
+		final double[] scores;
+
+		Workspace(LanguageModel model) {
+			stateCounts = new int[model.numStates()];
+			touchedStates = new int[model.numStates()];
+			featureCounts = new int[model.naiveBayesNFeats];
+			touchedFeatures = new int[model.naiveBayesNFeats];
+			scores = new double[model.numClasses()];
+		}
+	}
+
+	private static final double[] LOG_FACTORIAL = new double[256];
+
+	static {
+		for (int i = 2; i < LOG_FACTORIAL.length; i++)
+			LOG_FACTORIAL[i] = LOG_FACTORIAL[i - 1] + Math.log(i);
+	}
+
+	private final ThreadLocal<Workspace> workspace = new ThreadLocal<Workspace>() {
+		@Override
+		protected Workspace initialValue() {
+			return new Workspace(languageModel);
+		}
+	};
+
+	/**
+	 * Classify the language using a naive-bayes model. This method is
+	 * thread-safe.
 	 * 
 	 * @param text
 	 * @return the detected language
 	 */
 	public WeightedLocale classify(String text) {
-		final DenseMatrix fv = tokenize(text);
-		final WeightedLocale locale = naiveBayesClassify(fv);
-		return locale;
+		final Workspace ws = workspace.get();
+		final int nStates = tokenize(text, ws);
+		final int nFeatures = countFeatures(ws, nStates);
+		return naiveBayesClassify(ws, nFeatures);
 	}
 
-	DenseMatrix nbWorkspace = null;
+	/**
+	 * Classify the language of each of the given texts in parallel using the
+	 * default pool of {@link Parallel}.
+	 * 
+	 * @param texts
+	 *            the texts
+	 * @return the detected languages, in the same order as the texts
+	 */
+	public List<WeightedLocale> classify(List<String> texts) {
+		return classify(texts, null);
+	}
+
+	/**
+	 * Classify the language of each of the given texts in parallel using the
+	 * given thread pool.
+	 * 
+	 * @param texts
+	 *            the texts
+	 * @param pool
+	 *            the thread pool. If <code>null</code>, the default pool of
+	 *            {@link Parallel} is used.
+	 * @return the detected languages, in the same order as the texts
+	 */
+	public List<WeightedLocale> classify(final List<String> texts, ThreadPoolExecutor pool) {
+		final WeightedLocale[] results = new WeightedLocale[texts.size()];
+
+		Parallel.forRange(0, texts.size(), 1, new Operation<IntRange>() {
+			@Override
+			public void perform(IntRange range) {
+				for (int i = range.start; i < range.stop; i += range.incr)
+					results[i] = classify(texts.get(i));
+			}
+		}, pool);
+
+		return Arrays.asList(results);
+	}
 
-	private WeightedLocale naiveBayesClassify(DenseMatrix fv) {
-		if (nbWorkspace == null) {
-			nbWorkspace = new DenseMatrix(1, this.languageModel.naiveBayesPTC.numColumns());
+	private WeightedLocale naiveBayesClassify(Workspace ws, int nFeatures) {
+		final double[] ptc = this.languageModel.naiveBayesPTC;
+		final double[] pc = this.languageModel.naiveBayesPC;
+		final double[] scores = ws.scores;
+		final int nClasses = scores.length;
+
+		// only the rows of the features that are present contribute
+		Arrays.fill(scores, 0);
+		Arrays.sort(ws.touchedFeatures, 0, nFeatures);
+		double logFVSum = 0;
+		for (int k = 0; k < nFeatures; k++) {
+			final int f = ws.touchedFeatures[k];
+			final int count = ws.featureCounts[f];
+			ws.featureCounts[f] = 0;
+
+			logFVSum += logFactorial(count);
+			for (int i = 0, row = f * nClasses; i < nClasses; i++)
+				scores[i] += count * ptc[row + i];
 		}
-		final double logFVSum = sumLogFactorial(fv);
-		fv.mult(this.languageModel.naiveBayesPTC, nbWorkspace);// times(this.languageModel.naiveBayesPTC);
-		final DenseMatrix pdc = nbWorkspace;
-		// multiplied.print(5, 5);
-		// this.languageModel.naiveBayesPTC.print(5, 5);
-		pdc.add(this.languageModel.naiveBayesPC);
-		final double[] pdData = pdc.getData();
+
 		int bestIndex = -1;
 		double best = 0;
 		double sum = 0;
-		for (int i = 0; i < pdc.numColumns(); i++) {
-			final double correctedScore = pdData[i] - logFVSum;
-			// System.out.format("%s scores %f \n",this.languageModel.naiveBayesClasses[i],correctedScore);
+		for (int i = 0; i < nClasses; i++) {
+			final double correctedScore = scores[i] + pc[i] - logFVSum;
 			sum += correctedScore;
 			if (bestIndex == -1 || correctedScore > best)
 			{
@@ -230,54 +313,100 @@ public class LanguageDetector {
 		return new WeightedLocale(this.languageModel.naiveBayesClasses[bestIndex], best / sum);
 	}
 
-	// an element wise log-factorial
-	TIntDoubleHashMap logFacCache = new TIntDoubleHashMap();
+	private static double logFactorial(int n) {
+		if (n < LOG_FACTORIAL.length)
+			return LOG_FACTORIAL[n];
 
-	private double sumLogFactorial(DenseMatrix fv) {
-		double sum = 0;
-		final double[] data = fv.getData();
-		for (int i = 0; i < fv.numColumns(); i++) {
-			final int fvi = (int) data[i];
-			if (logFacCache.contains(fvi))
-			{
-				sum += logFacCache.get(fvi);
-			}
-			else {
-				for (int j = 1; j < fvi + 1; j++) {
-					sum += Math.log(j);
-				}
-			}
-		}
+		double sum = LOG_FACTORIAL[LOG_FACTORIAL.length - 1];
+		for (int j = LOG_FACTORIAL.length; j <= n; j++)
+			sum += Math.log(j);
 		return sum;
 	}
 
-	private DenseMatrix tokenize(String text) {
-		byte[] ords = null;
-		try {
-			ords = text.getBytes("UTF-8");
-		} catch (final UnsupportedEncodingException e) {
+	/**
+	 * Accumulate the counts of the features emitted by the visited states,
+	 * resetting the state counts as they are consumed.
+	 * 
+	 * @return the number of distinct features
+	 */
+	private int countFeatures(Workspace ws, int nStates) {
+		final int[] offsets = this.languageModel.tk_outputOffsets;
+		final int[] features = this.languageModel.tk_outputFeatures;
+		int nFeatures = 0;
+
+		for (int k = 0; k < nStates; k++) {
+			final int state = ws.touchedStates[k];
+			final int count = ws.stateCounts[state];
+			ws.stateCounts[state] = 0;
+
+			for (int j = offsets[state]; j < offsets[state + 1]; j++) {
+				final int f = features[j];
+				if (ws.featureCounts[f] == 0)
+					ws.touchedFeatures[nFeatures++] = f;
+				ws.featureCounts[f] += count;
+			}
 		}
+
+		return nFeatures;
+	}
+
+	/**
+	 * Run the UTF-8 encoded bytes of the text through the automaton, counting
+	 * the visits to each state. The text is encoded on the fly (with unpaired
+	 * surrogates replaced by '?' as {@link String#getBytes(String)} does).
+	 * 
+	 * @return the number of distinct states visited
+	 */
+	private int tokenize(String text, Workspace ws) {
+		final int[] nextmove = this.languageModel.tk_nextmove;
+		final int[] stateCounts = ws.stateCounts;
+		final int[] touched = ws.touchedStates;
+		final int length = text.length();
+		int nStates = 0;
 		int state = 0;
-		final TIntIntHashMap statecount = new TIntIntHashMap();
-		for (final byte letter : ords) {
-			state = this.languageModel.tk_nextmove[(state << 8) + (letter & 0xff)];
-			statecount.adjustOrPutValue(state, 1, 1);
-		}
-		final double[][] fv = new double[1][this.languageModel.naiveBayesNFeats];
-		statecount.forEachEntry(new TIntIntProcedure() {
-			@Override
-			public boolean execute(int state, final int statecount) {
-				final int[] indexes = LanguageDetector.this.languageModel.tk_output.get(state);
-				if (indexes == null)
-					return true;
-				for (final int i : indexes) {
 
-					fv[0][i] += statecount;
+		for (int i = 0; i < length; i++) {
+			final char c = text.charAt(i);
+
+			if (c < 0x80) {
+				state = nextmove[(state << 8) + c];
+				if (stateCounts[state]++ == 0)
+					touched[nStates++] = state;
+				continue;
+			}
+
+			final int nbytes;
+			int cp = c;
+			if (c < 0x800) {
+				nbytes = 2;
+			} else if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+					cp = Character.toCodePoint(c, text.charAt(++i));
+					nbytes = 4;
+				} else {
+					cp = '?';
+					nbytes = 1;
 				}
-				return true;
+			} else {
+				nbytes = 3;
+			}
+
+			for (int b = 0; b < nbytes; b++) {
+				final int letter;
+				if (nbytes == 1)
+					letter = cp;
+				else if (b == 0) // 110xxxxx, 1110xxxx or 11110xxx
+					letter = (0xF00 >> nbytes) & 0xFF | (cp >> (6 * (nbytes - 1)));
+				else
+					letter = 0x80 | ((cp >> (6 * (nbytes - 1 - b))) & 0x3F);
+
+				state = nextmove[(state << 8) + letter];
+				if (stateCounts[state]++ == 0)
+					touched[nStates++] = state;
 			}
-		});
-		return new DenseMatrix(fv);
+		}
+
+		return nStates;
 	}
 
 	/**
@@ -29,129 +29,152 @@
  */
 package org.openimaj.text.nlp.language;
 
-
-import gnu.trove.map.hash.TIntObjectHashMap;
-import gnu.trove.procedure.TIntObjectProcedure;
-
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import no.uib.cipr.matrix.DenseMatrix;
-
 import org.openimaj.io.ReadWriteableBinary;
-import org.openimaj.io.wrappers.Readable2DArrayBinary;
-import org.openimaj.io.wrappers.ReadableArrayBinary;
-import org.openimaj.io.wrappers.Writeable2DArrayBinary;
-import org.openimaj.io.wrappers.WriteableArrayBinary;
-import org.openimaj.math.matrix.MatrixUtils;
-
 
 /**
- * The data used by {@link LanguageDetector}
+ * The data used by {@link LanguageDetector}. All of the model is held in flat
+ * primitive arrays:
+ * <ul>
+ * <li>the log class priors (one per language class)</li>
+ * <li>the log term-given-class probabilities, stored row-major with one row of
+ * classes per feature</li>
+ * <li>the transition table of the byte automaton used to find the features,
+ * with 256 entries per state</li>
+ * <li>the features emitted by each state of the automaton, stored in a
+ * compressed-row layout (the features of state <code>s</code> are
+ * <code>tk_outputFeatures[tk_outputOffsets[s] ... tk_outputOffsets[s+1]-1]</code>
+ * )</li>
+ * </ul>
+ * <p>
+ * The binary form of the model is a sequence of these arrays, which can be
+ * read in bulk. The older binary form (which stored the emitted features as a
+ * map) can still be read.
  *
  * @author Sina Samangooei (ss@ecs.soton.ac.uk)
  *
  *
  */
+public class LanguageModel implements ReadWriteableBinary {
+	/**
+	 * Marker at the start of the flat binary form. The older form starts with
+	 * the (positive) number of rows of the class prior matrix.
+	 */
+	private static final int FLAT_FORMAT = -2;
 
-public class LanguageModel implements ReadWriteableBinary{
-	DenseMatrix naiveBayesPC; // N x 1
-	DenseMatrix naiveBayesPTC; // N x M
+	private static final int IO_CHUNK = 1 << 16;
+
+	double[] naiveBayesPC; // N
+	double[] naiveBayesPTC; // M x N, row-major
 	String[] naiveBayesClasses; // the language classes
-	TIntObjectHashMap<int[]> tk_output;
-	int[] tk_nextmove;
+	int[] tk_outputOffsets; // S + 1
+	int[] tk_outputFeatures;
+	int[] tk_nextmove; // S x 256
 	int naiveBayesNFeats;
 
 	/**
 	 * do nothing
 	 */
-	public LanguageModel(){}
+	public LanguageModel() {
+	}
 
 	/**
 	 * @param languageModel
 	 */
 	@SuppressWarnings("unchecked")
-	public LanguageModel(Map<String,Object> languageModel){
-		List<Double> nb_pc_list = (List<Double>) languageModel.get("nb_pc");
-		double[][] nb_pc_darr = new double[1][nb_pc_list.size()];
+	public LanguageModel(Map<String, Object> languageModel) {
+		final List<Double> nb_pc_list = (List<Double>) languageModel.get("nb_pc");
+		naiveBayesPC = new double[nb_pc_list.size()];
 		int i = 0;
-		for (double value : nb_pc_list) {
-			nb_pc_darr[0][i++] = value;
+		for (final double value : nb_pc_list) {
+			naiveBayesPC[i++] = value;
 		}
-		naiveBayesPC = new DenseMatrix(nb_pc_darr);
 
-		List<List<Double>> nb_ptc_list = (List<List<Double>>) languageModel.get("nb_ptc");
-		double[][] nb_ptc_darr = new double[nb_ptc_list.size()][nb_ptc_list.get(0).size()];
+		final List<List<Double>> nb_ptc_list = (List<List<Double>>) languageModel.get("nb_ptc");
+		naiveBayesNFeats = nb_ptc_list.size();
+		naiveBayesPTC = new double[naiveBayesNFeats * naiveBayesPC.length];
 		i = 0;
-		for (List<Double> row: nb_ptc_list) {
-			int j = 0;
-			for(double val : row){
-				nb_ptc_darr[i][j++] = val;
+		for (final List<Double> row : nb_ptc_list) {
+			for (final double val : row) {
+				naiveBayesPTC[i++] = val;
 			}
-			i++;
 		}
-		naiveBayesPTC = new DenseMatrix(nb_ptc_darr);
 
-		this.naiveBayesNFeats = (naiveBayesPTC.numColumns() * naiveBayesPTC.numRows()) / naiveBayesPC.numColumns();
-
-		List<String> nb_classes_list = (List<String>)languageModel.get("nb_classes");
+		final List<String> nb_classes_list = (List<String>) languageModel.get("nb_classes");
 		naiveBayesClasses = nb_classes_list.toArray(new String[nb_classes_list.size()]);
 
-		tk_output = new TIntObjectHashMap<int[]>();
-		Map<String,List<Double>> tk_output_map = (Map<String, List<Double>>) languageModel.get("tk_outp");
-		for (Entry<String,List<Double>> entry : tk_output_map .entrySet()) {
+		final List<Double> tk_nextmove_list = (List<Double>) languageModel.get("tk_nextmove");
+		tk_nextmove = new int[tk_nextmove_list.size()];
+		i = 0;
+		for (final double val : tk_nextmove_list) {
+			tk_nextmove[i++] = (int) val;
+		}
+
+		final int nStates = tk_nextmove.length >> 8;
+		final int[][] outputs = new int[nStates][];
+		final Map<String, List<Double>> tk_output_map = (Map<String, List<Double>>) languageModel.get("tk_outp");
+		for (final Entry<String, List<Double>> entry : tk_output_map.entrySet()) {
 			i = 0;
-			int[] entryArr = new int[entry.getValue().size()];
-			for (double entryVal : entry.getValue()) {
+			final int[] entryArr = new int[entry.getValue().size()];
+			for (final double entryVal : entry.getValue()) {
 				entryArr[i++] = (int) entryVal;
 			}
-			tk_output.put(Integer.parseInt(entry.getKey()),entryArr );
+			outputs[Integer.parseInt(entry.getKey())] = entryArr;
 		}
-		List<Double> tk_nextmove_list = (List<Double>) languageModel.get("tk_nextmove");
-		tk_nextmove = new int[tk_nextmove_list.size()];
-		i = 0;
-		for (double val : tk_nextmove_list) {
-			tk_nextmove[i++] = (int)val;
+		setOutputs(outputs);
+	}
+
+	private void setOutputs(int[][] outputs) {
+		tk_outputOffsets = new int[outputs.length + 1];
+		for (int s = 0; s < outputs.length; s++) {
+			tk_outputOffsets[s + 1] = tk_outputOffsets[s] + (outputs[s] == null ? 0 : outputs[s].length);
+		}
+
+		tk_outputFeatures = new int[tk_outputOffsets[outputs.length]];
+		for (int s = 0; s < outputs.length; s++) {
+			if (outputs[s] != null)
+				System.arraycopy(outputs[s], 0, tk_outputFeatures, tk_outputOffsets[s], outputs[s].length);
 		}
 	}
 
+	/**
+	 * @return the number of states in the byte automaton
+	 */
+	int numStates() {
+		return tk_outputOffsets.length - 1;
+	}
+
+	/**
+	 * @return the number of language classes
+	 */
+	int numClasses() {
+		return naiveBayesPC.length;
+	}
+
 	@Override
 	public void writeBinary(final DataOutput out) throws IOException {
-		new Writeable2DArrayBinary(MatrixUtils.mtjToDoubleArray(naiveBayesPC)).writeBinary(out);
-		new Writeable2DArrayBinary(MatrixUtils.mtjToDoubleArray(naiveBayesPTC)).writeBinary(out);
-		WriteableArrayBinary<String> stringWriter = new WriteableArrayBinary<String>(naiveBayesClasses) {
-			@Override
-			protected void writeValue(String v, DataOutput out) throws IOException {
-				out.writeUTF(v);
-			}
-		};
-		stringWriter.writeBinary(out);
-		out.writeInt(tk_output.size());
-		this.tk_output.forEachEntry(new TIntObjectProcedure<int[]>() {
-
-			@Override
-			public boolean execute(int key, int[] value) {
-				try {
-					out.writeInt(key);
-					out.writeInt(value.length);
-					for (int i : value) {
-						out.writeInt(i);
-					}
-				} catch (IOException e) {
-					return false;
-				}
-				return true;
-			}
-		});
-		out.writeInt(this.tk_nextmove.length);
-		for (int nextmove : this.tk_nextmove) {
-			out.writeInt(nextmove);
+		out.writeInt(FLAT_FORMAT);
+		out.writeInt(naiveBayesClasses.length);
+		out.writeInt(naiveBayesNFeats);
+		out.writeInt(numStates());
+
+		for (final String c : naiveBayesClasses) {
+			out.writeUTF(c);
 		}
+
+		writeDoubles(out, naiveBayesPC);
+		writeDoubles(out, naiveBayesPTC);
+		writeInts(out, tk_outputOffsets);
+		writeInts(out, tk_outputFeatures);
+		writeInts(out, tk_nextmove);
 	}
 
 	@Override
@@ -161,66 +184,126 @@ public class LanguageModel implements ReadWriteableBinary{
 
 	@Override
 	public void readBinary(DataInput in) throws IOException {
-		Readable2DArrayBinary matrixReader = new Readable2DArrayBinary(null);
-		matrixReader.readBinary(in);
-		naiveBayesPC = new DenseMatrix(matrixReader.value);
+		final int first = in.readInt();
 
-		matrixReader.readBinary(in);
-		naiveBayesPTC = new DenseMatrix(matrixReader.value);
+		if (first != FLAT_FORMAT) {
+			readLegacyBinary(first, in);
+			return;
+		}
 
-		this.naiveBayesNFeats = (naiveBayesPTC.numColumns() * naiveBayesPTC.numRows()) / naiveBayesPC.numColumns();
+		final int nClasses = in.readInt();
+		naiveBayesNFeats = in.readInt();
+		final int nStates = in.readInt();
 
-		ReadableArrayBinary<String> readableClasses = new ReadableArrayBinary<String>(null){
+		naiveBayesClasses = new String[nClasses];
+		for (int i = 0; i < nClasses; i++) {
+			naiveBayesClasses[i] = in.readUTF();
+		}
 
-			@Override
-			protected String readValue(DataInput in) throws IOException {
-				return in.readUTF();
-			}
+		naiveBayesPC = readDoubles(in, nClasses);
+		naiveBayesPTC = readDoubles(in, naiveBayesNFeats * nClasses);
+		tk_outputOffsets = readInts(in, nStates + 1);
+		tk_outputFeatures = readInts(in, tk_outputOffsets[nStates]);
+		tk_nextmove = readInts(in, nStates << 8);
+	}
 
-			@Override
-			protected String[] createEmpty(int sz) throws IOException {
-				return new String[sz];
-			}
-		};
-		readableClasses.readBinary(in);
-		this.naiveBayesClasses = readableClasses.value;
+	private void readLegacyBinary(int pcRows, DataInput in) throws IOException {
+		naiveBayesPC = readDoubles(in, pcRows * in.readInt());
 
-		int nTKOut = in.readInt();
-		this.tk_output = new TIntObjectHashMap<int[]>(nTKOut);
+		final int ptcRows = in.readInt();
+		naiveBayesPTC = readDoubles(in, ptcRows * in.readInt());
+		naiveBayesNFeats = naiveBayesPTC.length / naiveBayesPC.length;
+
+		naiveBayesClasses = new String[in.readInt()];
+		for (int i = 0; i < naiveBayesClasses.length; i++) {
+			naiveBayesClasses[i] = in.readUTF();
+		}
+
+		final int nTKOut = in.readInt();
+		final int[] keys = new int[nTKOut];
+		final int[][] values = new int[nTKOut][];
+		int nStates = 0;
 		for (int i = 0; i < nTKOut; i++) {
-			int key = in.readInt();
-			int length = in.readInt();
-			int[] data = new int[length];
-			for (int j = 0; j < length; j++) {
-				data[j] = in.readInt();
-			}
-			this.tk_output.put(key, data);
+			keys[i] = in.readInt();
+			values[i] = readInts(in, in.readInt());
+			nStates = Math.max(nStates, keys[i] + 1);
 		}
-		int nextMoveLength = in.readInt();
-		this.tk_nextmove = new int[nextMoveLength];
-		for (int i = 0; i < nextMoveLength; i++) {
-			this.tk_nextmove[i] = in.readInt();
+
+		tk_nextmove = readInts(in, in.readInt());
+		nStates = Math.max(nStates, tk_nextmove.length >> 8);
+
+		final int[][] outputs = new int[nStates][];
+		for (int i = 0; i < nTKOut; i++) {
+			outputs[keys[i]] = values[i];
 		}
+		setOutputs(outputs);
+	}
+
+	private static void writeInts(DataOutput out, int[] data) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(IO_CHUNK);
+		for (int i = 0; i < data.length;) {
+			final int n = Math.min(data.length - i, IO_CHUNK / 4);
+			buffer.clear();
+			buffer.asIntBuffer().put(data, i, n);
+			out.write(buffer.array(), 0, n * 4);
+			i += n;
+		}
+	}
+
+	private static void writeDoubles(DataOutput out, double[] data) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(IO_CHUNK);
+		for (int i = 0; i < data.length;) {
+			final int n = Math.min(data.length - i, IO_CHUNK / 8);
+			buffer.clear();
+			buffer.asDoubleBuffer().put(data, i, n);
+			out.write(buffer.array(), 0, n * 8);
+			i += n;
+		}
+	}
+
+	private static int[] readInts(DataInput in, int length) throws IOException {
+		final int[] data = new int[length];
+		final ByteBuffer buffer = ByteBuffer.allocate(IO_CHUNK);
+		for (int i = 0; i < length;) {
+			final int n = Math.min(length - i, IO_CHUNK / 4);
+			in.readFully(buffer.array(), 0, n * 4);
+			buffer.clear();
+			buffer.asIntBuffer().get(data, i, n);
+			i += n;
+		}
+		return data;
+	}
+
+	private static double[] readDoubles(DataInput in, int length) throws IOException {
+		final double[] data = new double[length];
+		final ByteBuffer buffer = ByteBuffer.allocate(IO_CHUNK);
+		for (int i = 0; i < length;) {
+			final int n = Math.min(length - i, IO_CHUNK / 8);
+			in.readFully(buffer.array(), 0, n * 8);
+			buffer.clear();
+			buffer.asDoubleBuffer().get(data, i, n);
+			i += n;
+		}
+		return data;
 	}
 
 	@Override
-	public boolean equals(Object other){
-		if(!(other instanceof LanguageModel)) return false;
+	public boolean equals(Object other) {
+		if (!(other instanceof LanguageModel))
+			return false;
 		final LanguageModel that = (LanguageModel) other;
 
-		boolean equal = true;
-		equal = Arrays.deepEquals(this.naiveBayesClasses, that.naiveBayesClasses); if(!equal) return false;
-		equal = this.naiveBayesNFeats == that.naiveBayesNFeats; if(!equal) return false;
-		equal = Arrays.deepEquals(MatrixUtils.mtjToDoubleArray(this.naiveBayesPC),MatrixUtils.mtjToDoubleArray(that.naiveBayesPC)); if(!equal) return false;
-		equal = Arrays.deepEquals(MatrixUtils.mtjToDoubleArray(this.naiveBayesPTC),MatrixUtils.mtjToDoubleArray(that.naiveBayesPTC)); if(!equal) return false;
-		equal = Arrays.equals(this.tk_nextmove,that.tk_nextmove); if(!equal) return false;
-		equal = this.tk_output.forEachEntry(new TIntObjectProcedure<int[]>() {
-
-			@Override
-			public boolean execute(int key, int[] value) {
-				return Arrays.equals(value, that.tk_output.get(key));
-			}
-		});if(!equal) return false;
-		return equal;
+		return Arrays.equals(this.naiveBayesClasses, that.naiveBayesClasses) &&
+				this.naiveBayesNFeats == that.naiveBayesNFeats &&
+				Arrays.equals(this.naiveBayesPC, that.naiveBayesPC) &&
+				Arrays.equals(this.naiveBayesPTC, that.naiveBayesPTC) &&
+				Arrays.equals(this.tk_nextmove, that.tk_nextmove) &&
+				Arrays.equals(this.tk_outputOffsets, that.tk_outputOffsets) &&
+				Arrays.equals(this.tk_outputFeatures, that.tk_outputFeatures);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(naiveBayesPTC);
 	}
-}
\ No newline at end of file
+}
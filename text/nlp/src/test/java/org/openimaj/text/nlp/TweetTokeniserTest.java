@@ -44,6 +44,7 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.junit.Assert;
 import org.junit.Before;
@@ -117,6 +118,54 @@ public class TweetTokeniserTest {
 		}
 	}
 
+	/**
+	 * Check that the table-driven scanning in the {@link TweetTokeniser}
+	 * produces exactly the tokens that would be obtained by repeatedly
+	 * searching with the combined protection pattern, and that tokenising a
+	 * {@link CharSequence} gives the same result as tokenising a
+	 * {@link String}.
+	 *
+	 * @throws UnsupportedEncodingException
+	 * @throws TweetTokeniserException
+	 */
+	@Test
+	public void scanningMatchesProtectPattern() throws UnsupportedEncodingException, TweetTokeniserException {
+		for (final String tweet : allTweets) {
+			String text = new String(tweet.getBytes("UTF-8"), "UTF-8");
+			text = StringEscapeUtils.unescapeHtml(text).replaceAll("\\s+", " ");
+
+			final List<String> expectedAll = new ArrayList<String>();
+			final List<String> expectedProtected = new ArrayList<String>();
+			final List<String> expectedUnprotected = new ArrayList<String>();
+			final Matcher matcher = TweetTokeniser.Protect_RE.matcher(text);
+			int i = 0;
+			while (matcher.find()) {
+				addSplit(text.substring(i, matcher.start()), expectedAll, expectedUnprotected);
+				expectedAll.add(matcher.group());
+				expectedProtected.add(matcher.group());
+				i = matcher.end();
+			}
+			addSplit(text.substring(i), expectedAll, expectedUnprotected);
+
+			final TweetTokeniser tokeniser = new TweetTokeniser(tweet);
+			Assert.assertEquals(expectedAll, tokeniser.getStringTokens());
+			Assert.assertEquals(expectedProtected, tokeniser.getProtectedStringTokens());
+			Assert.assertEquals(expectedUnprotected, tokeniser.getUnprotectedStringTokens());
+
+			final TweetTokeniser seqTokeniser = new TweetTokeniser(new StringBuilder(tweet));
+			Assert.assertEquals(expectedAll, seqTokeniser.getStringTokens());
+		}
+	}
+
+	private static void addSplit(String s, List<String> all, List<String> unprotected) {
+		for (final String part : s.split("\\s+")) {
+			if (part.isEmpty())
+				continue;
+			all.add(part);
+			unprotected.add(part);
+		}
+	}
+
 	/**
 	 * Test if emoticons are dealt with properly (Using an
 	 * {@link EmoticonPatternProvider})
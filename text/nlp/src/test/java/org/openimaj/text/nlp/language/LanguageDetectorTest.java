@@ -29,13 +29,20 @@
  */
 package org.openimaj.text.nlp.language;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -120,6 +127,107 @@ public class LanguageDetectorTest {
 		assertLanguage(newdet, hindiStrings, new Locale("hi"));
 	}
 
+	/**
+	 * Test that a model saved in the older binary form (in which the class
+	 * priors and term probabilities were written as matrices, and the
+	 * features emitted by the automaton as a map of state to features) is
+	 * read with the same priors, probabilities and automaton
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testLegacyLanguageModelRead() throws IOException {
+		final LanguageDetector det = new LanguageDetector();
+		final LanguageModel model = det.getLanguageModel();
+		final int nClasses = model.numClasses();
+
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(baos);
+		out.write(model.binaryHeader());
+
+		// class priors as a 1 x nClasses matrix
+		out.writeInt(1);
+		out.writeInt(nClasses);
+		for (final double d : model.naiveBayesPC)
+			out.writeDouble(d);
+
+		// term probabilities as an nFeats x nClasses matrix
+		out.writeInt(model.naiveBayesNFeats);
+		out.writeInt(nClasses);
+		for (final double d : model.naiveBayesPTC)
+			out.writeDouble(d);
+
+		out.writeInt(model.naiveBayesClasses.length);
+		for (final String c : model.naiveBayesClasses)
+			out.writeUTF(c);
+
+		// only the states that emit features were in the map, in hash order,
+		// so write them backwards
+		int nOutputs = 0;
+		for (int s = 0; s < model.numStates(); s++) {
+			if (model.tk_outputOffsets[s + 1] > model.tk_outputOffsets[s])
+				nOutputs++;
+		}
+		out.writeInt(nOutputs);
+		for (int s = model.numStates() - 1; s >= 0; s--) {
+			final int from = model.tk_outputOffsets[s];
+			final int to = model.tk_outputOffsets[s + 1];
+			if (to == from)
+				continue;
+
+			out.writeInt(s);
+			out.writeInt(to - from);
+			for (int i = from; i < to; i++)
+				out.writeInt(model.tk_outputFeatures[i]);
+		}
+
+		out.writeInt(model.tk_nextmove.length);
+		for (final int m : model.tk_nextmove)
+			out.writeInt(m);
+		out.close();
+
+		final LanguageModel legacy = IOUtils.read(new ByteArrayInputStream(baos.toByteArray()), LanguageModel.class);
+
+		assertArrayEquals(model.naiveBayesClasses, legacy.naiveBayesClasses);
+		assertEquals(model.naiveBayesNFeats, legacy.naiveBayesNFeats);
+		assertArrayEquals(model.naiveBayesPC, legacy.naiveBayesPC, 0);
+		assertArrayEquals(model.naiveBayesPTC, legacy.naiveBayesPTC, 0);
+		assertArrayEquals(model.tk_nextmove, legacy.tk_nextmove);
+		assertArrayEquals(model.tk_outputOffsets, legacy.tk_outputOffsets);
+		assertArrayEquals(model.tk_outputFeatures, legacy.tk_outputFeatures);
+		assertTrue(legacy.equals(model));
+
+		final LanguageDetector legacyDet = new LanguageDetector(legacy);
+		final String text = "This is an english sentence";
+		assertEquals(det.classify(text).language, legacyDet.classify(text).language);
+	}
+
+	/**
+	 * Check that batch classification gives the same results as classifying
+	 * each text individually
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testBatchClassify() throws IOException {
+		final LanguageDetector det = new LanguageDetector();
+
+		final List<String> texts = new ArrayList<String>();
+		for (int i = 0; i < 50; i++) {
+			texts.add("This is an english sentence " + i);
+			texts.add("das erlebnis im wahllokal im bezirk um im \u00f6sterreich ticker ist heftig " + i);
+			texts.add("\u3053\u308C\u306F\u79C1\u304C\u65E5\u672C\u8A9E\u3067\u8A18\u8FF0\u3059\u308B\u6587\u5B57\u5217\u3067\u3059\u3002 " + i);
+		}
+
+		final List<WeightedLocale> results = det.classify(texts);
+		Assert.assertEquals(texts.size(), results.size());
+		for (int i = 0; i < texts.size(); i++) {
+			final WeightedLocale expected = det.classify(texts.get(i));
+			Assert.assertEquals(expected.language, results.get(i).language);
+			Assert.assertEquals(expected.confidence, results.get(i).confidence, 0);
+		}
+	}
+
 	private void assertLanguage(LanguageDetector det, String[] statements, Locale language) {
 		for (final String statement : statements) {
 			final WeightedLocale estimateLanguage = det.classify(statement);
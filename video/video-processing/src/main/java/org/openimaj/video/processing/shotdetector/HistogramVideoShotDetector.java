@@ -32,10 +32,12 @@
  */
 package org.openimaj.video.processing.shotdetector;
 
-import org.openimaj.feature.DoubleFVComparison;
+import java.util.Arrays;
+
+import org.openimaj.image.FImage;
 import org.openimaj.image.MBFImage;
 import org.openimaj.image.analysis.algorithm.histogram.HistogramAnalyser;
-import org.openimaj.math.statistics.distribution.Histogram;
+import org.openimaj.util.function.Function;
 import org.openimaj.video.Video;
 
 /**
@@ -50,6 +52,11 @@ import org.openimaj.video.Video;
  * 	ShotDetected event which provides a VideoKeyframe which has a timecode
  * 	and an image. Each event will receive the same VideoKeyframe instance
  * 	containing different information. USe VideoKeyframe#clone() to make a copy.
+ * 	<p>
+ * 	The 64-bin histograms of the first band are accumulated directly as
+ * 	integer counts (giving the same distances as a {@link HistogramAnalyser}),
+ * 	and the detector supports segmented, parallel processing with
+ * 	{@link #processSegmented(java.util.List)}.
  *
  *  @author David Dupplaw (dpd@ecs.soton.ac.uk)
  *
@@ -58,8 +65,49 @@ import org.openimaj.video.Video;
 public class HistogramVideoShotDetector
 	extends VideoShotDetector<MBFImage>
 {
-	/** The previous frame's histogram */
-	private Histogram lastHistogram;
+	/** The number of bins in the histograms */
+	private static final int NBINS = 64;
+
+	/**
+	 * 	Computes the distance between the histograms of consecutive frames.
+	 */
+	private static final class HistogramDistance implements Function<MBFImage, Double>
+	{
+		/** The previous frame's histogram */
+		private int[] lastHistogram;
+
+		/** The histogram of the current frame */
+		private int[] histogram = new int[NBINS];
+
+		@Override
+		public Double apply( final MBFImage frame )
+		{
+			HistogramVideoShotDetector.histogram( frame.getBand( 0 ), this.histogram );
+
+			double dist = 0;
+
+			// If we have a last histogram, compare against it.
+			if( this.lastHistogram != null )
+			{
+				long sum = 0;
+				for( int i = 0; i < NBINS; i++ )
+				{
+					final long diff = this.histogram[i] - this.lastHistogram[i];
+					sum += diff * diff;
+				}
+				dist = Math.sqrt( sum );
+			}
+
+			final int[] tmp = this.lastHistogram == null ? new int[NBINS] : this.lastHistogram;
+			this.lastHistogram = this.histogram;
+			this.histogram = tmp;
+
+			return dist;
+		}
+	}
+
+	/** The distance between the current and previous frames */
+	private final HistogramDistance distance = new HistogramDistance();
 
 	/**
 	 * 	If you use this constructor, your timecodes will be messed up
@@ -112,20 +160,43 @@ public class HistogramVideoShotDetector
 	@Override
 	protected double getInterframeDistance( final MBFImage frame )
 	{
-		// Get the histogram for the frame.
-		final HistogramAnalyser hp = new HistogramAnalyser( 64 );
-		if( frame instanceof MBFImage )
-			hp.analyseImage( frame.getBand(0) );
-		final Histogram newHisto = hp.getHistogram();
-
-		double dist = 0;
+		return this.distance.apply( frame );
+	}
 
-		// If we have a last histogram, compare against it.
-		if( this.lastHistogram != null )
-			dist = newHisto.compare( this.lastHistogram, DoubleFVComparison.EUCLIDEAN );
+	/**
+	 *  {@inheritDoc}
+	 *  @see org.openimaj.video.processing.shotdetector.VideoShotDetector#createInterframeDistance()
+	 */
+	@Override
+	protected Function<MBFImage, Double> createInterframeDistance()
+	{
+		return new HistogramDistance();
+	}
 
-		this.lastHistogram = newHisto;
+	/**
+	 * 	Accumulate the histogram of the given image into the given counts in
+	 * 	the same way as {@link HistogramAnalyser}.
+	 *
+	 *	@param image The image
+	 *	@param counts The counts to fill
+	 */
+	private static void histogram( final FImage image, final int[] counts )
+	{
+		Arrays.fill( counts, 0 );
 
-		return dist;
+		final int nbins = counts.length;
+		for( int r = 0; r < image.height; r++ )
+		{
+			final float[] row = image.pixels[r];
+			for( int c = 0; c < image.width; c++ )
+			{
+				int bin = (int) (row[c] * nbins);
+				if( bin > nbins - 1 )
+					bin = nbins - 1;
+				else if( bin < 0 )
+					bin = 0;
+				counts[bin]++;
+			}
+		}
 	}
 }
\ No newline at end of file
@@ -36,10 +36,15 @@ import gnu.trove.list.array.TDoubleArrayList;
 
 import java.awt.HeadlessException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.openimaj.feature.DoubleFV;
 import org.openimaj.image.Image;
+import org.openimaj.util.function.Function;
+import org.openimaj.util.function.Operation;
+import org.openimaj.util.parallel.Parallel;
 import org.openimaj.video.Video;
 import org.openimaj.video.VideoDisplay;
 import org.openimaj.video.VideoDisplay.EndAction;
@@ -262,15 +267,27 @@ public abstract class VideoShotDetector<I extends Image<?,I>>
 	 *  @param frame The new frame to process.
 	 */
 	private void checkForShotBoundary( final I frame )
+	{
+		this.checkForShotBoundary( frame, this.getInterframeDistance( frame ) );
+	}
+
+	/**
+	 * 	Checks whether a shot boundary occurred at the given frame given
+	 * 	its distance from the previous frame, and if so, it will add a shot
+	 * 	boundary to the shot boundary list.
+	 *
+	 *  @param frame The new frame to process.
+	 *  @param dist The distance between the frame and the previous frame
+	 */
+	private void checkForShotBoundary( final I frame, final double dist )
 	{
 		this.lastFrameWasBoundary = false;
-		final double dist = this.getInterframeDistance( frame );
 
 		if( this.storeAllDiffs )
 		{
 			this.differentials.add( dist );
 			this.fireDifferentialCalculated( new HrsMinSecFrameTimecode(
-					this.frameCounter, this.video.getFPS() ), dist, frame );
+					this.frameCounter, this.fps ), dist, frame );
 		}
 
 //		System.out.println( "is "+dist+" > "+this.threshold+"? "+(dist>this.threshold) );
@@ -376,6 +393,122 @@ public abstract class VideoShotDetector<I extends Image<?,I>>
 	 */
 	protected abstract double getInterframeDistance( I thisFrame );
 
+	/**
+	 * 	Create a function that computes the inter-frame distance in the same
+	 * 	way as {@link #getInterframeDistance(Image)}, but which holds its own
+	 * 	state so that it can be used on a separate segment of the video (in a
+	 * 	separate thread) without affecting this detector. The first call to
+	 * 	the function must return 0. Detectors that return <code>null</code>
+	 * 	(the default) cannot be used with {@link #processSegmented(List)}.
+	 *
+	 *	@return A new inter-frame distance function, or null if not supported.
+	 */
+	protected Function<I, Double> createInterframeDistance()
+	{
+		return null;
+	}
+
+	/**
+	 * 	Detect the shots in a video without displaying it, by splitting the
+	 * 	video into consecutive segments which are processed concurrently.
+	 * 	Each of the given videos must be a separate, seekable instance of the
+	 * 	same video (for example, the same file opened several times) that
+	 * 	reports its number of frames; the number of videos determines the
+	 * 	number of segments, and frames beyond the reported number are not
+	 * 	processed. After {@link Video#setCurrentFrameIndex(long)} the next call
+	 * 	to {@link Video#getNextFrame()} must return the frame at that index
+	 * 	(as it does for the naive implementation in {@link Video}). Each
+	 * 	segment is read from its own video, starting one frame
+	 * 	before the segment so that the distance across the seam is computed,
+	 * 	and the resulting distances are then run through the detector in frame
+	 * 	order, so the shot boundaries and keyframes are the same as those
+	 * 	produced by {@link #process(Video)} as long as the videos can seek to
+	 * 	an exact frame.
+	 * 	<p>
+	 * 	The video is processed from its first frame, so this should be
+	 * 	called on a newly constructed detector. Listeners are notified in
+	 * 	frame order once all the segments have been processed; only frames at
+	 * 	which the distance exceeds the threshold are retained, so
+	 * 	differential events for other frames are fired with a null frame.
+	 *
+	 *	@param videos Independent instances of the video to process, one
+	 *		per segment.
+	 */
+	public void processSegmented( final List<? extends Video<I>> videos )
+	{
+		if( videos.isEmpty() )
+			throw new IllegalArgumentException( "At least one video is required" );
+		if( this.createInterframeDistance() == null )
+			throw new UnsupportedOperationException(
+					"This detector does not support segmented processing" );
+
+		final long nFrames = videos.get( 0 ).countFrames();
+		if( nFrames < 0 )
+			throw new IllegalArgumentException(
+					"Segmented processing requires a video with a known length" );
+
+		this.fps = videos.get( 0 ).getFPS();
+
+		final int nSegments = videos.size();
+		final List<TDoubleArrayList> distances = new ArrayList<TDoubleArrayList>();
+		final List<Map<Integer, I>> candidates = new ArrayList<Map<Integer, I>>();
+		for( int i = 0; i < nSegments; i++ )
+		{
+			distances.add( new TDoubleArrayList() );
+			candidates.add( new HashMap<Integer, I>() );
+		}
+
+		Parallel.forIndex( 0, nSegments, 1, new Operation<Integer>()
+		{
+			@Override
+			public void perform( final Integer segment )
+			{
+				final Video<I> video = videos.get( segment );
+				final int from = (int) (segment * nFrames / nSegments);
+				final int to = (int) ((segment + 1) * nFrames / nSegments);
+
+				if( from >= to )
+					return;
+
+				final Function<I, Double> distance = VideoShotDetector.this.createInterframeDistance();
+				final int start = Math.max( 0, from - 1 );
+				video.setCurrentFrameIndex( start );
+
+				for( int f = start; f < to; f++ )
+				{
+					final I frame = video.getNextFrame();
+					if( frame == null )
+						break;
+
+					final double d = distance.apply( frame );
+					if( f < from )
+						continue;
+
+					distances.get( segment ).add( d );
+					if( f == 0 || d > VideoShotDetector.this.threshold )
+						candidates.get( segment ).put( f, frame.clone() );
+				}
+			}
+		} );
+
+		for( int segment = 0; segment < nSegments; segment++ )
+		{
+			final int from = (int) (segment * nFrames / nSegments);
+			final int to = (int) ((segment + 1) * nFrames / nSegments);
+			final TDoubleArrayList d = distances.get( segment );
+			final Map<Integer, I> c = candidates.get( segment );
+
+			for( int i = 0; i < d.size(); i++ )
+				this.checkForShotBoundary( c.get( from + i ), d.get( i ) );
+
+			// the video ended before the end of this segment
+			if( d.size() < to - from )
+				break;
+		}
+
+		this.processingComplete();
+	}
+
 	/**
 	 * 	Get the list of shot boundaries that have been extracted so far.
 	 *  @return The list of shot boundaries.
@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.video.processing.shotdetector;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.openimaj.image.MBFImage;
+import org.openimaj.image.colour.ColourSpace;
+import org.openimaj.video.ArrayBackedVideo;
+import org.openimaj.video.Video;
+
+/**
+ * Tests for the {@link VideoShotDetector}
+ *
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class VideoShotDetectorTest {
+	private static final double FPS = 25;
+
+	/**
+	 * The grey level of each frame. With four segments the seams are at
+	 * frames 10, 20 and 30, so there is a cut on a seam (10), cuts either side
+	 * of a seam (19 and 21) and a fade across a seam (28 to 32).
+	 */
+	private static final float[] LEVELS = {
+			0.1f, 0.1f, 0.1f, 0.1f, 0.1f,
+			0.3f, 0.3f, 0.3f, 0.3f, 0.3f,
+			0.5f, 0.5f, 0.5f, 0.5f, 0.5f, 0.5f, 0.5f, 0.5f, 0.5f,
+			0.7f, 0.7f,
+			0.9f, 0.9f, 0.9f, 0.9f, 0.9f, 0.9f, 0.9f,
+			0.2f, 0.4f, 0.6f, 0.8f,
+			0.05f, 0.05f, 0.05f, 0.05f, 0.05f, 0.05f, 0.05f, 0.05f
+	};
+
+	private static MBFImage[] createFrames() {
+		final MBFImage[] frames = new MBFImage[LEVELS.length];
+		for (int i = 0; i < frames.length; i++) {
+			final Float l = LEVELS[i];
+			frames[i] = new MBFImage(80, 60, ColourSpace.RGB).fill(new Float[] { l, l, l });
+		}
+		return frames;
+	}
+
+	/**
+	 * An {@link ArrayBackedVideo} that ends after the last frame, so that it
+	 * can be used with {@link VideoShotDetector#process()}.
+	 */
+	private static Video<MBFImage> createFiniteVideo(final MBFImage[] frames) {
+		return new ArrayBackedVideo<MBFImage>(frames, FPS, false) {
+			private int read = 0;
+
+			@Override
+			public synchronized MBFImage getNextFrame() {
+				return read++ < frames.length ? super.getNextFrame() : null;
+			}
+		};
+	}
+
+	private static void assertSameBoundaries(List<ShotBoundary<MBFImage>> expected,
+			List<ShotBoundary<MBFImage>> actual) {
+		assertEquals(expected.size(), actual.size());
+
+		for (int i = 0; i < expected.size(); i++) {
+			final ShotBoundary<MBFImage> e = expected.get(i);
+			final ShotBoundary<MBFImage> a = actual.get(i);
+
+			assertEquals(e.getClass(), a.getClass());
+			assertEquals(e.getTimecode().getFrameNumber(), a.getTimecode().getFrameNumber());
+			if (e instanceof FadeShotBoundary)
+				assertEquals(((FadeShotBoundary<MBFImage>) e).getEndTimecode().getFrameNumber(),
+						((FadeShotBoundary<MBFImage>) a).getEndTimecode().getFrameNumber());
+
+			assertEquals(e.getKeyframe().getTimecode().getFrameNumber(),
+					a.getKeyframe().getTimecode().getFrameNumber());
+			assertEquals(e.getKeyframe().getImage().getBand(0).pixels[0][0],
+					a.getKeyframe().getImage().getBand(0).pixels[0][0], 0);
+		}
+	}
+
+	/**
+	 * Test that segmented processing finds the same shot boundaries, fades
+	 * and keyframes as processing the video sequentially, for cuts on and
+	 * around the seams between segments
+	 */
+	@Test
+	public void testProcessSegmented() {
+		final MBFImage[] frames = createFrames();
+
+		final HistogramVideoShotDetector sequential = new HistogramVideoShotDetector(createFiniteVideo(frames));
+		sequential.process();
+		final List<ShotBoundary<MBFImage>> expected = sequential.getShotBoundaries();
+
+		final int[] starts = { 0, 5, 10, 19, 28 };
+		assertEquals(starts.length, expected.size());
+		for (int i = 0; i < starts.length; i++) {
+			final ShotBoundary<MBFImage> sb = expected.get(i);
+			if (sb instanceof FadeShotBoundary)
+				assertEquals(starts[i], ((FadeShotBoundary<MBFImage>) sb).getStartTimecode().getFrameNumber());
+			else
+				assertEquals(starts[i], sb.getTimecode().getFrameNumber());
+		}
+
+		for (final int nSegments : new int[] { 1, 2, 3, 4, 7, 20 }) {
+			final List<Video<MBFImage>> videos = new ArrayList<Video<MBFImage>>();
+			for (int i = 0; i < nSegments; i++)
+				videos.add(new ArrayBackedVideo<MBFImage>(frames, FPS, false));
+
+			final HistogramVideoShotDetector segmented = new HistogramVideoShotDetector();
+			segmented.processSegmented(videos);
+
+			assertSameBoundaries(expected, segmented.getShotBoundaries());
+		}
+	}
+}
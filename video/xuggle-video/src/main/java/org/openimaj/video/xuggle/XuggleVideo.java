@@ -840,13 +840,28 @@ public class XuggleVideo extends Video<MBFImage>
 
 	/**
 	 * {@inheritDoc}
+	 * <p>
+	 * As with other videos, after this call both {@link #getCurrentFrame()}
+	 * and the next call to {@link #getNextFrame()} return the frame at the
+	 * given index.
 	 *
 	 * @see org.openimaj.video.Video#setCurrentFrameIndex(long)
 	 */
 	@Override
-	public void setCurrentFrameIndex(final long newFrame)
+	public synchronized void setCurrentFrameIndex(final long newFrame)
 	{
 		this.seekPrecise(newFrame / this.fps);
+
+		// seekPrecise() has already decoded the requested frame into the
+		// current frame, so hold it as the next frame too; otherwise the next
+		// call to getNextFrame() would skip to the frame after it.
+		if (this.currentMBFImage != null && this.nextFrame == null)
+		{
+			this.nextFrame = this.currentMBFImage;
+			this.nextFrameTimestamp = this.timestamp;
+			this.nextFrameIsKeyFrame = this.currentFrameIsKeyFrame;
+			this.currentFrame--;
+		}
 	}
 
 	/**
@@ -902,6 +917,9 @@ public class XuggleVideo extends Video<MBFImage>
 			this.create(url);
 		}
 
+		// Any frame that has already been read ahead is from the old position
+		this.nextFrame = null;
+
 		// Convert between milliseconds and stream timestamps
 		final double timebase = this.reader.getContainer().getStream(
 				this.streamIndex).getTimeBase().getDouble();
@@ -29,8 +29,14 @@
  */
 package org.openimaj.ml.sketch.bloom;
 
-import gnu.trove.map.hash.TIntIntHashMap;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+import org.openimaj.io.ReadWriteableBinary;
 import org.openimaj.ml.sketch.SummarySketcher;
 import org.openimaj.util.hash.StringMurmurHashFunction;
 import org.openimaj.util.hash.StringMurmurHashFunctionFactory;
@@ -38,15 +44,21 @@ import org.openimaj.util.hash.StringMurmurHashFunctionFactory;
 /**
  * The bloom sketch as described by
  * http://lkozma.net/blog/sketching-data-structures/
+ * <p>
+ * The table is a dense bit-set which is updated atomically, so a single
+ * sketch can be shared between threads without locking. Sketches with the
+ * same hash functions (see {@link #emptyCopy()}) can be combined with
+ * {@link #merge(Bloom)}.
  * 
  * @author Sina Samangooei (ss@ecs.soton.ac.uk)
  * 
  */
-public class Bloom implements SummarySketcher<String, Boolean> {
+public class Bloom implements SummarySketcher<String, Boolean>, ReadWriteableBinary {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 
-	private StringMurmurHashFunction[] maps;
-	private TIntIntHashMap table;
+	private int[] seeds;
 	private int nwords;
+	private AtomicLongArray table;
 
 	/**
 	 * @param ntables
@@ -55,37 +67,157 @@ public class Bloom implements SummarySketcher<String, Boolean> {
 	 *            the range of the hash functions
 	 */
 	public Bloom(int ntables, int nwords) {
-		maps = new StringMurmurHashFunction[ntables];
+		this(ntables, nwords, new StringMurmurHashFunctionFactory());
+	}
 
-		final StringMurmurHashFunctionFactory fact = new StringMurmurHashFunctionFactory();
-		for (int i = 0; i < maps.length; i++) {
-			maps[i] = fact.create();
+	/**
+	 * @param ntables
+	 *            the number of hash functions
+	 * @param nwords
+	 *            the range of the hash functions
+	 * @param factory
+	 *            the source of the hash functions. Sketches that are to be
+	 *            merged must be created from identically seeded factories.
+	 */
+	public Bloom(int ntables, int nwords, StringMurmurHashFunctionFactory factory) {
+		this.seeds = new int[ntables];
+		for (int i = 0; i < ntables; i++) {
+			seeds[i] = factory.create().getSeed();
 		}
 
 		this.nwords = nwords;
-		this.table = new TIntIntHashMap(nwords);
+		this.table = new AtomicLongArray((nwords + 63) / 64);
+	}
+
+	private Bloom(int[] seeds, int nwords) {
+		this.seeds = seeds;
+		this.nwords = nwords;
+		this.table = new AtomicLongArray((nwords + 63) / 64);
+	}
+
+	/**
+	 * Used for deserialisation
+	 */
+	private Bloom() {
+	}
+
+	/**
+	 * Create a new empty sketch with the same hash functions and parameters as
+	 * this one. The resultant sketch can be merged with this one.
+	 * 
+	 * @return a new empty sketch
+	 */
+	public Bloom emptyCopy() {
+		return new Bloom(seeds, nwords);
+	}
+
+	private int location(byte[] bytes, int seed) {
+		return (StringMurmurHashFunction.murmurhash(bytes, seed) & Integer.MAX_VALUE) % nwords;
 	}
 
 	@Override
 	public void update(String data, Boolean value) {
-		for (final StringMurmurHashFunction map : maps) {
-			final int hash = map.computeHashCode(data);
-			final int loc = Math.abs(hash) % this.nwords;
-			this.table.put(loc, 1);
+		add(data);
+	}
+
+	/**
+	 * Add the given data to the sketch
+	 * 
+	 * @param data
+	 *            the data
+	 */
+	public void add(String data) {
+		final byte[] bytes = data.getBytes(UTF8);
+
+		for (final int seed : seeds) {
+			final int loc = location(bytes, seed);
+			final int word = loc >>> 6;
+			final long mask = 1L << (loc & 63);
+
+			long current;
+			while (((current = table.get(word)) & mask) == 0) {
+				if (table.compareAndSet(word, current, current | mask))
+					break;
+			}
 		}
 	}
 
 	@Override
 	public Boolean query(String data) {
-		boolean found = false;
-		for (final StringMurmurHashFunction map : maps) {
-			final int hash = map.computeHashCode(data);
-			final int loc = Math.abs(hash) % this.nwords;
-			found = this.table.get(loc) == 1;
-			if (found)
-				return found;
+		return contains(data);
+	}
+
+	/**
+	 * Test whether the given data might have been added to the sketch. False
+	 * positives are possible, but false negatives are not.
+	 * 
+	 * @param data
+	 *            the data
+	 * @return true if the data might have been added; false if it definitely
+	 *         has not
+	 */
+	public boolean contains(String data) {
+		final byte[] bytes = data.getBytes(UTF8);
+
+		for (final int seed : seeds) {
+			final int loc = location(bytes, seed);
+
+			if ((table.get(loc >>> 6) & (1L << (loc & 63))) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Add all the items of another sketch to this one. The other sketch must
+	 * have been created with the same hash functions (i.e. through
+	 * {@link #emptyCopy()} or from an identically seeded factory).
+	 * 
+	 * @param other
+	 *            the sketch to merge
+	 */
+	public void merge(Bloom other) {
+		if (other.nwords != nwords || !Arrays.equals(other.seeds, seeds))
+			throw new IllegalArgumentException("Sketches have incompatible hash functions");
+
+		for (int i = 0; i < table.length(); i++) {
+			final long bits = other.table.get(i);
+
+			long current;
+			while (((current = table.get(i)) | bits) != current) {
+				if (table.compareAndSet(i, current, current | bits))
+					break;
+			}
 		}
-		return found;
 	}
 
+	@Override
+	public void readBinary(DataInput in) throws IOException {
+		seeds = new int[in.readInt()];
+		for (int i = 0; i < seeds.length; i++)
+			seeds[i] = in.readInt();
+
+		nwords = in.readInt();
+
+		table = new AtomicLongArray((nwords + 63) / 64);
+		for (int i = 0; i < table.length(); i++)
+			table.set(i, in.readLong());
+	}
+
+	@Override
+	public byte[] binaryHeader() {
+		return "BLOM".getBytes();
+	}
+
+	@Override
+	public void writeBinary(DataOutput out) throws IOException {
+		out.writeInt(seeds.length);
+		for (final int seed : seeds)
+			out.writeInt(seed);
+
+		out.writeInt(nwords);
+
+		for (int i = 0; i < table.length(); i++)
+			out.writeLong(table.get(i));
+	}
 }
@@ -29,31 +29,42 @@
  */
 package org.openimaj.ml.sketch.countmin;
 
-import gnu.trove.map.hash.TIntIntHashMap;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
+import org.openimaj.io.ReadWriteableBinary;
 import org.openimaj.ml.sketch.SummarySketcher;
 import org.openimaj.util.hash.StringMurmurHashFunction;
 import org.openimaj.util.hash.StringMurmurHashFunctionFactory;
-import org.openimaj.util.pair.IndependentPair;
 
 /**
  * CountMin as described in the reference below
+ * <p>
+ * The counters of all the tables are held in a single dense array which is
+ * updated atomically, so a single sketch can be shared between threads without
+ * locking. Alternatively, per-thread (or per-mapper) sketches with the same
+ * hash functions (see {@link #emptyCopy()}) can be built independently and
+ * combined with {@link #merge(CountMin)}. Optionally, conservative update can
+ * be used to reduce the over-estimation of counts; with conservative update
+ * only positive values can be added, and concurrent updates of the same data
+ * are serialised with a small set of striped locks.
  * 
  * @author Sina Samangooei (ss@ecs.soton.ac.uk)
  * 
  */
-public class CountMin implements SummarySketcher<String, Integer> {
+public class CountMin implements SummarySketcher<String, Integer>, ReadWriteableBinary {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int NUM_LOCKS = 64;
 
-	private static class FunctionHashPair extends IndependentPair<StringMurmurHashFunction, TIntIntHashMap> {
-
-		public FunctionHashPair(StringMurmurHashFunction func, TIntIntHashMap map) {
-			super(func, map);
-
-		}
-	}
-
-	private FunctionHashPair[] maps;
+	private int[] seeds;
 	private int nwords;
+	private boolean conservative;
+	private AtomicIntegerArray counts;
+	private Object[] locks = createLocks();
 
 	/**
 	 * @param ntables
@@ -62,37 +73,200 @@ public class CountMin implements SummarySketcher<String, Integer> {
 	 *            the range of the hash functions
 	 */
 	public CountMin(int ntables, int nwords) {
-		maps = new FunctionHashPair[ntables];
+		this(ntables, nwords, false, new StringMurmurHashFunctionFactory());
+	}
+
+	/**
+	 * @param ntables
+	 *            the number of hash functions
+	 * @param nwords
+	 *            the range of the hash functions
+	 * @param conservative
+	 *            if true then conservative update is used
+	 * @param factory
+	 *            the source of the hash functions. Sketches that are to be
+	 *            merged must be created from identically seeded factories.
+	 */
+	public CountMin(int ntables, int nwords, boolean conservative, StringMurmurHashFunctionFactory factory) {
+		this.seeds = new int[ntables];
+		for (int i = 0; i < ntables; i++) {
+			final StringMurmurHashFunction func = factory.create();
+			seeds[i] = func.getSeed();
+		}
+
+		this.nwords = nwords;
+		this.conservative = conservative;
+		this.counts = new AtomicIntegerArray(ntables * nwords);
+	}
+
+	private CountMin(int[] seeds, int nwords, boolean conservative) {
+		this.seeds = seeds;
 		this.nwords = nwords;
+		this.conservative = conservative;
+		this.counts = new AtomicIntegerArray(seeds.length * nwords);
+	}
 
-		final StringMurmurHashFunctionFactory fact = new StringMurmurHashFunctionFactory();
-		for (int i = 0; i < maps.length; i++) {
-			maps[i] = new FunctionHashPair(fact.create(), new TIntIntHashMap());
+	/**
+	 * Used for deserialisation
+	 */
+	private CountMin() {
+	}
+
+	private static Object[] createLocks() {
+		final Object[] locks = new Object[NUM_LOCKS];
+		for (int i = 0; i < NUM_LOCKS; i++)
+			locks[i] = new Object();
+		return locks;
+	}
+
+	/**
+	 * Create a new empty sketch with the same hash functions and parameters as
+	 * this one. The resultant sketch can be merged with this one.
+	 * 
+	 * @return a new empty sketch
+	 */
+	public CountMin emptyCopy() {
+		return new CountMin(seeds, nwords, conservative);
+	}
+
+	/**
+	 * Compute the index of the counter for the given data in each table
+	 */
+	private void locations(String data, int[] locs) {
+		final byte[] bytes = data.getBytes(UTF8);
+
+		for (int i = 0; i < seeds.length; i++) {
+			final int hash = StringMurmurHashFunction.murmurhash(bytes, seeds[i]);
+			locs[i] = i * nwords + (hash & Integer.MAX_VALUE) % nwords;
 		}
 	}
 
 	@Override
 	public void update(String data, Integer value) {
-		for (final FunctionHashPair map : this.maps) {
-			final int hash = map.firstObject().computeHashCode(data);
-			final int loc = Math.abs(hash) % this.nwords;
+		update(data, value.intValue());
+	}
+
+	/**
+	 * Add the given value to the count of the given data
+	 * 
+	 * @param data
+	 *            the data
+	 * @param value
+	 *            the value to add
+	 */
+	public void update(String data, int value) {
+		final int[] locs = new int[seeds.length];
+		locations(data, locs);
+
+		if (conservative) {
+			if (value < 0)
+				throw new IllegalArgumentException("Conservative update requires non-negative values");
 
-			map.secondObject().adjustOrPutValue(loc, value, value);
+			// Updates of the same data are serialised so that the estimate
+			// read here cannot be overtaken by another update of the same
+			// data; concurrent updates of other data only ever raise the
+			// counters, so the new estimate can never be too low.
+			synchronized (locks[locs[0] % locks.length]) {
+				// only raise each counter as far as the new estimate
+				final int target = min(locs) + value;
+				for (final int loc : locs) {
+					int current;
+					while ((current = counts.get(loc)) < target) {
+						if (counts.compareAndSet(loc, current, target))
+							break;
+					}
+				}
+			}
+		} else {
+			for (final int loc : locs)
+				counts.addAndGet(loc, value);
 		}
 	}
 
 	@Override
 	public Integer query(String data) {
-		int min = -1;
-		for (final FunctionHashPair map : this.maps) {
-			final int hash = map.firstObject().computeHashCode(data);
-			final int loc = Math.abs(hash) % this.nwords;
-			final int v = map.secondObject().get(loc);
-			if (min == -1 || min > v) {
+		return count(data);
+	}
+
+	/**
+	 * Estimate the count of the given data
+	 * 
+	 * @param data
+	 *            the data
+	 * @return the estimated count
+	 */
+	public int count(String data) {
+		final int[] locs = new int[seeds.length];
+		locations(data, locs);
+
+		return min(locs);
+	}
+
+	private int min(int[] locs) {
+		int min = Integer.MAX_VALUE;
+		for (final int loc : locs) {
+			final int v = counts.get(loc);
+			if (v < min)
 				min = v;
-			}
 		}
 		return min;
 	}
 
+	/**
+	 * Add the counts of another sketch to this one. The other sketch must have
+	 * been created with the same hash functions (i.e. through
+	 * {@link #emptyCopy()} or from an identically seeded factory).
+	 * 
+	 * @param other
+	 *            the sketch to merge
+	 */
+	public void merge(CountMin other) {
+		if (other.nwords != nwords || !Arrays.equals(other.seeds, seeds))
+			throw new IllegalArgumentException("Sketches have incompatible hash functions");
+
+		for (int i = 0; i < counts.length(); i++) {
+			final int v = other.counts.get(i);
+			if (v != 0)
+				counts.addAndGet(i, v);
+		}
+	}
+
+	/**
+	 * @return true if conservative update is used
+	 */
+	public boolean isConservative() {
+		return conservative;
+	}
+
+	@Override
+	public void readBinary(DataInput in) throws IOException {
+		seeds = new int[in.readInt()];
+		for (int i = 0; i < seeds.length; i++)
+			seeds[i] = in.readInt();
+
+		nwords = in.readInt();
+		conservative = in.readBoolean();
+
+		counts = new AtomicIntegerArray(seeds.length * nwords);
+		for (int i = 0; i < counts.length(); i++)
+			counts.set(i, in.readInt());
+	}
+
+	@Override
+	public byte[] binaryHeader() {
+		return "CMIN".getBytes();
+	}
+
+	@Override
+	public void writeBinary(DataOutput out) throws IOException {
+		out.writeInt(seeds.length);
+		for (final int seed : seeds)
+			out.writeInt(seed);
+
+		out.writeInt(nwords);
+		out.writeBoolean(conservative);
+
+		for (int i = 0; i < counts.length(); i++)
+			out.writeInt(counts.get(i));
+	}
 }
@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.ml.sketch.countmin;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.openimaj.util.pair.ObjectIntPair;
+
+/**
+ * Tracks the (approximately) most frequent items of a stream using a
+ * {@link CountMin} sketch for the counts. After each update, the item's
+ * estimated count is compared against the smallest of the current top-k
+ * candidates, and replaces it if larger. Only the k candidates are held in
+ * memory.
+ * <p>
+ * Updates to the underlying sketch are lock-free; the candidate set is
+ * guarded by this object's monitor.
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class HeavyHitters {
+	private final CountMin sketch;
+	private final int k;
+	private final Map<String, ObjectIntPair<String>> candidates = new HashMap<String, ObjectIntPair<String>>();
+	private final TreeSet<ObjectIntPair<String>> ranked = new TreeSet<ObjectIntPair<String>>(
+			new Comparator<ObjectIntPair<String>>() {
+				@Override
+				public int compare(ObjectIntPair<String> o1, ObjectIntPair<String> o2) {
+					if (o1.second != o2.second)
+						return o1.second < o2.second ? -1 : 1;
+					return o1.first.compareTo(o2.first);
+				}
+			});
+
+	/**
+	 * Construct with the given sketch and number of items to track
+	 * 
+	 * @param sketch
+	 *            the sketch
+	 * @param k
+	 *            the number of items to track; must be at least 1
+	 */
+	public HeavyHitters(CountMin sketch, int k) {
+		if (k < 1)
+			throw new IllegalArgumentException("The number of items to track must be at least 1");
+
+		this.sketch = sketch;
+		this.k = k;
+	}
+
+	/**
+	 * Add the given value to the count of the given item
+	 * 
+	 * @param item
+	 *            the item
+	 * @param value
+	 *            the value to add
+	 */
+	public void update(String item, int value) {
+		sketch.update(item, value);
+		offer(item, sketch.count(item));
+	}
+
+	/**
+	 * Offer an item with the given estimated count as a candidate. This can be
+	 * used to rebuild the candidates after sketches have been merged.
+	 * 
+	 * @param item
+	 *            the item
+	 * @param count
+	 *            the estimated count
+	 */
+	public synchronized void offer(String item, int count) {
+		final ObjectIntPair<String> existing = candidates.get(item);
+
+		if (existing != null) {
+			if (count > existing.second) {
+				ranked.remove(existing);
+				existing.second = count;
+				ranked.add(existing);
+			}
+		} else if (candidates.size() < k) {
+			add(item, count);
+		} else if (count > ranked.first().second) {
+			candidates.remove(ranked.pollFirst().first);
+			add(item, count);
+		}
+	}
+
+	private void add(String item, int count) {
+		final ObjectIntPair<String> pair = new ObjectIntPair<String>(item, count);
+		candidates.put(item, pair);
+		ranked.add(pair);
+	}
+
+	/**
+	 * Get the current top-k items and their estimated counts, in descending
+	 * order of count.
+	 * 
+	 * @return the top items
+	 */
+	public synchronized List<ObjectIntPair<String>> getTopK() {
+		final List<ObjectIntPair<String>> result = new ArrayList<ObjectIntPair<String>>(ranked.size());
+
+		for (final ObjectIntPair<String> p : ranked.descendingSet())
+			result.add(new ObjectIntPair<String>(p.first, p.second));
+
+		return result;
+	}
+
+	/**
+	 * @return the underlying sketch
+	 */
+	public CountMin getSketch() {
+		return sketch;
+	}
+}
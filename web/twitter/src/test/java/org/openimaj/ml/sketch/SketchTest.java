@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2011, The University of Southampton and the individual contributors.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *   * 	Redistributions of source code must retain the above copyright notice,
+ * 	this list of conditions and the following disclaimer.
+ *
+ *   *	Redistributions in binary form must reproduce the above copyright notice,
+ * 	this list of conditions and the following disclaimer in the documentation
+ * 	and/or other materials provided with the distribution.
+ *
+ *   *	Neither the name of the University of Southampton nor the names of its
+ * 	contributors may be used to endorse or promote products derived from this
+ * 	software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.openimaj.ml.sketch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+import org.openimaj.io.IOUtils;
+import org.openimaj.ml.sketch.bloom.Bloom;
+import org.openimaj.ml.sketch.countmin.CountMin;
+import org.openimaj.ml.sketch.countmin.HeavyHitters;
+import org.openimaj.util.hash.StringMurmurHashFunctionFactory;
+import org.openimaj.util.pair.ObjectIntPair;
+
+import cern.jet.random.engine.MersenneTwister;
+
+/**
+ * Tests for the {@link CountMin} and {@link Bloom} sketches
+ * 
+ * @author Jonathon Hare (jsh2@ecs.soton.ac.uk)
+ */
+public class SketchTest {
+	/**
+	 * Counts are never under-estimated, and concurrent updates are not lost
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testCountMinConcurrent() throws InterruptedException {
+		for (final boolean conservative : new boolean[] { false, true }) {
+			final CountMin cm = new CountMin(4, 1000, conservative, new StringMurmurHashFunctionFactory(
+					new MersenneTwister(0)));
+
+			final Thread[] threads = new Thread[4];
+			for (int t = 0; t < threads.length; t++) {
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						for (int i = 0; i < 10000; i++) {
+							cm.update("term" + (i % 100), 1);
+							cm.update("hot", 1);
+						}
+					}
+				};
+				threads[t].start();
+			}
+			for (final Thread t : threads)
+				t.join();
+
+			for (int i = 0; i < 100; i++)
+				assertTrue(cm.count("term" + i) >= 400);
+			assertTrue(cm.count("hot") >= 40000);
+			assertEquals(0, (int) cm.query("missing"));
+		}
+	}
+
+	/**
+	 * Merging and serialisation
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCountMinMergeAndSerialise() throws IOException {
+		final CountMin cm1 = new CountMin(3, 5000, false, new StringMurmurHashFunctionFactory(new MersenneTwister(1)));
+		final CountMin cm2 = new CountMin(3, 5000, false, new StringMurmurHashFunctionFactory(new MersenneTwister(1)));
+
+		cm1.update("a", 5);
+		cm2.update("a", 7);
+		cm2.update("b", 2);
+		cm1.merge(cm2);
+
+		assertTrue(cm1.count("a") >= 12);
+		assertTrue(cm1.count("b") >= 2);
+
+		final CountMin read = IOUtils.deserialize(IOUtils.serialize(cm1), CountMin.class);
+		assertEquals(cm1.count("a"), read.count("a"));
+		assertEquals(cm1.count("b"), read.count("b"));
+	}
+
+	/**
+	 * Bloom filters must have no false negatives
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testBloom() throws IOException {
+		final Bloom bloom = new Bloom(3, 100000);
+		for (int i = 0; i < 1000; i++)
+			bloom.add("in" + i);
+
+		int falsePositives = 0;
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(bloom.contains("in" + i));
+			if (bloom.query("out" + i))
+				falsePositives++;
+		}
+		assertTrue(falsePositives < 50);
+
+		final Bloom other = bloom.emptyCopy();
+		other.add("extra");
+		assertFalse(other.contains("in0"));
+		other.merge(bloom);
+		assertTrue(other.contains("in0"));
+		assertTrue(other.contains("extra"));
+
+		final Bloom read = IOUtils.deserialize(IOUtils.serialize(other), Bloom.class);
+		assertTrue(read.contains("extra"));
+		assertTrue(read.contains("in999"));
+	}
+
+	/**
+	 * The heavy hitters should be found
+	 */
+	@Test
+	public void testHeavyHitters() {
+		final HeavyHitters hh = new HeavyHitters(new CountMin(4, 2000), 3);
+
+		for (int i = 0; i < 10000; i++) {
+			hh.update("noise" + i, 1);
+			if (i % 10 == 0)
+				hh.update("frequent", 1);
+			if (i % 20 == 0)
+				hh.update("common", 1);
+		}
+
+		final List<ObjectIntPair<String>> top = hh.getTopK();
+		assertEquals(3, top.size());
+		assertEquals("frequent", top.get(0).first);
+		assertEquals("common", top.get(1).first);
+		assertTrue(top.get(0).second >= 1000);
+	}
+
+	/**
+	 * Tracking no items makes no sense, so should be rejected
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testHeavyHittersZeroK() {
+		new HeavyHitters(new CountMin(4, 2000), 0);
+	}
+}